@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.benchmarks;
+
+import net.adamcin.oakpal.core.ProgressCheck;
+import net.adamcin.oakpal.core.Violation;
+import net.adamcin.oakpal.core.checks.Overlaps;
+import org.apache.jackrabbit.vault.fs.api.PathFilterSet;
+import org.apache.jackrabbit.vault.fs.api.WorkspaceFilter;
+import org.apache.jackrabbit.vault.fs.config.DefaultMetaInf;
+import org.apache.jackrabbit.vault.fs.config.DefaultWorkspaceFilter;
+import org.apache.jackrabbit.vault.fs.filter.DefaultPathFilter;
+import org.apache.jackrabbit.vault.packaging.PackageId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static net.adamcin.oakpal.core.JavaxJson.key;
+import static net.adamcin.oakpal.core.JavaxJson.obj;
+
+/**
+ * Measures the {@link Overlaps} check as the number of packages grows, against a {@link #linearScan()} baseline that
+ * checks each path against every collected workspace filter, the way the check did before it indexed filters by
+ * root. Each synthetic package filters its own subtree under /apps and /content, the way the subpackages of a large
+ * container package would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OverlapsBenchmark {
+    private static final int PATHS_PER_PACKAGE = 200;
+
+    @Param({"10", "50", "150", "500"})
+    public int packageCount;
+
+    private Map<PackageId, WorkspaceFilter> filters;
+    private Map<PackageId, List<String>> paths;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        filters = new LinkedHashMap<>();
+        paths = new LinkedHashMap<>();
+        for (int i = 0; i < packageCount; i++) {
+            final String name = "module" + i;
+            final PackageId packageId = PackageId.fromString("bench:" + name + ":1.0");
+            final DefaultWorkspaceFilter filter = new DefaultWorkspaceFilter();
+            filter.add(new PathFilterSet("/apps/" + name));
+            final PathFilterSet contentSet = new PathFilterSet("/content/" + name);
+            contentSet.addExclude(new DefaultPathFilter("/content/" + name + "/private(/.*)?"));
+            filter.add(contentSet);
+            filters.put(packageId, filter);
+            final List<String> packagePaths = new ArrayList<>();
+            for (int j = 0; j < PATHS_PER_PACKAGE / 2; j++) {
+                packagePaths.add("/apps/" + name + "/components/comp" + j);
+                packagePaths.add("/content/" + name + "/page" + j + "/jcr:content");
+            }
+            paths.put(packageId, packagePaths);
+        }
+    }
+
+    @Benchmark
+    public Collection<Violation> overlaps() throws Exception {
+        final ProgressCheck check = new Overlaps()
+                .newInstance(obj(key(Overlaps.CONFIG_REPORT_ALL_OVERLAPS, true)).get());
+        check.startedScan();
+        for (Map.Entry<PackageId, WorkspaceFilter> entry : filters.entrySet()) {
+            final PackageId packageId = entry.getKey();
+            final DefaultMetaInf metaInf = new DefaultMetaInf();
+            metaInf.setFilter(entry.getValue());
+            check.beforeExtract(packageId, null, null, metaInf, Collections.emptyList());
+            for (String path : paths.get(packageId)) {
+                check.importedPath(packageId, path, null);
+            }
+        }
+        check.finishedScan();
+        return check.getReportedViolations();
+    }
+
+    @Benchmark
+    public int linearScan() {
+        final Map<PackageId, WorkspaceFilter> installed = new LinkedHashMap<>();
+        int found = 0;
+        for (Map.Entry<PackageId, WorkspaceFilter> entry : filters.entrySet()) {
+            final PackageId packageId = entry.getKey();
+            installed.put(packageId, entry.getValue());
+            for (String path : paths.get(packageId)) {
+                for (Map.Entry<PackageId, WorkspaceFilter> other : installed.entrySet()) {
+                    if (!other.getKey().equals(packageId) && other.getValue().contains(path)) {
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
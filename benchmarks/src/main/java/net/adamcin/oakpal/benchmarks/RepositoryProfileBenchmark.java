@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.benchmarks;
+
+import net.adamcin.oakpal.core.CheckReport;
+import net.adamcin.oakpal.core.OakMachine;
+import net.adamcin.oakpal.core.RepositoryProfile;
+import net.adamcin.oakpal.testing.SyntheticPackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares repository startup time and package import time between {@link RepositoryProfile}s. The per-node import
+ * cost of a profile is the difference between its {@link #scanPackages()} and {@link #startup()} scores, divided by
+ * {@link #nodeCount}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class RepositoryProfileBenchmark {
+
+    @Param({"FULL", "LEAN"})
+    public RepositoryProfile profile;
+
+    @Param({"10000", "100000"})
+    public int nodeCount;
+
+    private Path tempDir;
+    private File packageFile;
+    private OakMachine machine;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("oakpal-bench");
+        final String name = String.format("bench-profile-%d", nodeCount);
+        packageFile = new SyntheticPackage.Builder()
+                .withName(name)
+                .withNodeCount(nodeCount)
+                .withTreeShape(4, 10)
+                .build()
+                .writeTo(tempDir.resolve(name + ".zip").toFile());
+        machine = new OakMachine.Builder().withRepositoryProfile(profile).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        // shut down any repository retained by the machine, closing its temp stores, before deleting the temp dir
+        if (machine != null) {
+            machine.close();
+            machine = null;
+        }
+        if (tempDir != null) {
+            try (Stream<Path> paths = Files.walk(tempDir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+            tempDir = null;
+        }
+    }
+
+    @Benchmark
+    public void startup() throws Exception {
+        machine.adminInitAndInspect(session -> {
+            // only initialize the repository
+        });
+    }
+
+    @Benchmark
+    public List<CheckReport> scanPackages() throws Exception {
+        return machine.scanPackages(Collections.singletonList(packageFile));
+    }
+}
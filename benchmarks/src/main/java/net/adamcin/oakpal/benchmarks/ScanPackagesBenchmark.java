@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.benchmarks;
+
+import net.adamcin.oakpal.core.CheckReport;
+import net.adamcin.oakpal.core.DefaultErrorListener;
+import net.adamcin.oakpal.core.OakMachine;
+import net.adamcin.oakpal.core.OakpalPlan;
+import net.adamcin.oakpal.testing.SyntheticPackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures end-to-end {@link OakMachine#scanPackages(List)} time for a generated package, including repository
+ * initialization, across package size, binary content, subpackage, and plan parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ScanPackagesBenchmark {
+    public static final String PLAN_EMPTY = "empty";
+    public static final String PLAN_BASIC = "basic";
+    public static final String PLAN_SCRIPT = "script";
+
+    @Param({"1000", "10000", "100000"})
+    public int nodeCount;
+
+    @Param({"false", "true"})
+    public boolean binaries;
+
+    @Param({"0", "4"})
+    public int subpackages;
+
+    @Param({PLAN_EMPTY, PLAN_BASIC, PLAN_SCRIPT})
+    public String plan;
+
+    private Path tempDir;
+    private File packageFile;
+    private OakMachine machine;
+
+    static URL getPlanUrl(final String plan) {
+        switch (plan) {
+            case PLAN_EMPTY:
+                return OakpalPlan.EMPTY_PLAN_URL;
+            case PLAN_BASIC:
+                return OakpalPlan.BASIC_PLAN_URL;
+            case PLAN_SCRIPT:
+                return ScanPackagesBenchmark.class.getResource("script-plan.json");
+            default:
+                throw new IllegalArgumentException("unknown plan: " + plan);
+        }
+    }
+
+    static OakMachine buildMachine(final String plan) throws Exception {
+        final OakpalPlan oakpalPlan = OakpalPlan.fromJson(getPlanUrl(plan)).toOptional()
+                .orElseThrow(() -> new IllegalStateException("failed to read plan: " + plan));
+        return oakpalPlan.toOakMachineBuilder(new DefaultErrorListener(),
+                ScanPackagesBenchmark.class.getClassLoader()).build();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        tempDir = Files.createTempDirectory("oakpal-bench");
+        final String name = String.format("bench-%d-%s-%d", nodeCount, binaries ? "bin" : "nobin", subpackages);
+        packageFile = new SyntheticPackage.Builder()
+                .withName(name)
+                .withNodeCount(nodeCount)
+                .withTreeShape(4, 10)
+                .withBinaries(binaries ? 100 : 0, 4096, 4096)
+                .withSubpackages(subpackages, 1)
+                .build()
+                .writeTo(tempDir.resolve(name + ".zip").toFile());
+        machine = buildMachine(plan);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        // shut down any repository retained by the machine, closing its temp stores, before deleting the temp dir
+        if (machine != null) {
+            machine.close();
+            machine = null;
+        }
+        if (tempDir != null) {
+            try (Stream<Path> paths = Files.walk(tempDir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+            tempDir = null;
+        }
+    }
+
+    @Benchmark
+    public List<CheckReport> scanPackages() throws Exception {
+        return machine.scanPackages(Collections.singletonList(packageFile));
+    }
+}
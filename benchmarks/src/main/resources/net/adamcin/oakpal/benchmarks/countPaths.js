@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Counts imported paths per package and walks the parent chain of each, then reports the totals after extraction.
+ */
+var counts = {};
+
+function startedScan() {
+    counts = {};
+}
+
+function importedPath(packageId, path, node) {
+    var key = String(packageId);
+    counts[key] = (counts[key] || 0) + 1;
+    var depth = 0;
+    var parent = node;
+    while (parent.getDepth() > 0) {
+        parent = parent.getParent();
+        depth++;
+    }
+}
+
+function afterExtract(packageId, session) {
+    var key = String(packageId);
+    if (config && config.maxPaths && counts[key] > config.maxPaths) {
+        oakpal.minorViolation("imported " + counts[key] + " paths", packageId);
+    }
+}
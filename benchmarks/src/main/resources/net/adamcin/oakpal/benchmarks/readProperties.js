@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Reads every property of every imported node, and reports a minor violation for a node missing the property named
+ * by config.requiredProperty.
+ */
+function importedPath(packageId, path, node) {
+    var props = node.getProperties();
+    while (props.hasNext()) {
+        var prop = props.nextProperty();
+        if (prop.isMultiple()) {
+            prop.getValues();
+        } else {
+            prop.getValue();
+        }
+    }
+    if (config && config.requiredProperty && node.isNodeType("nt:unstructured")
+        && !node.hasProperty(config.requiredProperty)) {
+        oakpal.minorViolation("missing " + config.requiredProperty + ": " + path, packageId);
+    }
+}
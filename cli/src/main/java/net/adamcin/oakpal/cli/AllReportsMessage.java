@@ -16,11 +16,19 @@
 
 package net.adamcin.oakpal.cli;
 
+import net.adamcin.oakpal.core.CheckProfile;
 import net.adamcin.oakpal.core.CheckReport;
+import net.adamcin.oakpal.core.JavaxJson;
 import net.adamcin.oakpal.core.ReportMapper;
 import org.jetbrains.annotations.NotNull;
 
 import javax.json.JsonObject;
+import javax.json.stream.JsonCollectors;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -28,21 +36,75 @@ import static net.adamcin.oakpal.core.Fun.compose;
 
 class AllReportsMessage implements StructuredMessage {
 
+    static final String KEY_PROFILES = "profiles";
+
     private final List<CheckReport> reports;
+    private final List<CheckProfile> profiles;
 
     AllReportsMessage(final @NotNull List<CheckReport> reports) {
+        this(reports, Collections.emptyList());
+    }
+
+    AllReportsMessage(final @NotNull List<CheckReport> reports, final @NotNull List<CheckProfile> profiles) {
         this.reports = reports;
+        this.profiles = profiles;
     }
 
     @Override
     public String toString() {
-        return reports.stream()
+        final String reportsString = reports.stream()
                 .map(compose(ReportMessage::new, ReportMessage::toString))
                 .collect(Collectors.joining(System.lineSeparator()));
+        if (profiles.isEmpty()) {
+            return reportsString;
+        }
+        // slowest checks first
+        final String profilesString = profiles.stream()
+                .sorted(Comparator.comparingLong(CheckProfile::getTotalNanos).reversed())
+                .map(compose(ProfileMessage::new, ProfileMessage::toString))
+                .collect(Collectors.joining(System.lineSeparator()));
+        return reportsString.isEmpty() ? profilesString : reportsString + System.lineSeparator() + profilesString;
+    }
+
+    /**
+     * Write the same json as {@link #toJson()} through a {@link ReportMapper.ReportWriter}, one report at a time.
+     *
+     * @return the json output
+     */
+    @Override
+    public JsonOutput toJsonOutput() {
+        return new JsonOutput() {
+            @Override
+            void writeTo(final @NotNull Writer writer) throws IOException {
+                // the report writer closes its writer, which belongs to the printer
+                try (ReportMapper.ReportWriter reportWriter = ReportMapper.openReportWriter(() ->
+                        new FilterWriter(writer) {
+                            @Override
+                            public void close() throws IOException {
+                                flush();
+                            }
+                        })) {
+                    for (CheckReport report : reports) {
+                        reportWriter.write(report);
+                    }
+                    if (!profiles.isEmpty()) {
+                        reportWriter.writeMember(KEY_PROFILES, profiles.stream().map(CheckProfile::toJson)
+                                .collect(JsonCollectors.toJsonArray()));
+                    }
+                }
+            }
+        };
     }
 
     @Override
     public JsonObject toJson() {
-        return ReportMapper.reportsToJsonObject(reports);
+        final JsonObject reportsJson = ReportMapper.reportsToJsonObject(reports);
+        if (profiles.isEmpty()) {
+            return reportsJson;
+        }
+        return JavaxJson.obj(reportsJson)
+                .key(KEY_PROFILES, profiles.stream().map(CheckProfile::toJson)
+                        .collect(JsonCollectors.toJsonArray()))
+                .get();
     }
 }
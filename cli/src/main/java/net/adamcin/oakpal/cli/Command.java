@@ -8,10 +8,12 @@ import static net.adamcin.oakpal.core.Fun.uncheck0;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -20,18 +22,25 @@ import java.util.Optional;
 import java.util.Properties;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+import net.adamcin.oakpal.core.BaselineCache;
+import net.adamcin.oakpal.core.CheckProfile;
 import net.adamcin.oakpal.core.CheckReport;
 import net.adamcin.oakpal.core.DefaultErrorListener;
-import net.adamcin.oakpal.core.FileBlobMemoryNodeStore;
+import net.adamcin.oakpal.core.ManifestIndex;
+import net.adamcin.oakpal.core.NodeStoreType;
+import net.adamcin.oakpal.core.NodeTypeDefinitionCache;
 import net.adamcin.oakpal.core.Nothing;
 import net.adamcin.oakpal.core.OakMachine;
 import net.adamcin.oakpal.core.OakpalPlan;
 import net.adamcin.oakpal.core.Result;
+import net.adamcin.oakpal.core.ScanResultCache;
+import net.adamcin.oakpal.core.SharedBlobStore;
 import net.adamcin.oakpal.core.Violation;
-import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,8 +55,28 @@ final class Command {
     static final Integer EXIT_SEVERE_VIOLATION = 10;
     static final Integer EXIT_MAJOR_VIOLATION = 11;
     static final Integer EXIT_MINOR_VIOLATION = 12;
+    static final String OPT_CONNECT = "--connect";
+    static final String MANIFEST_INDEX_FILE = "manifest-index.json";
+
+    private final Daemon daemon;
+
+    Command() {
+        this(null);
+    }
+
+    /**
+     * Create a command performed on behalf of a daemon client.
+     *
+     * @param daemon the daemon, or null for a local invocation
+     */
+    Command(final @Nullable Daemon daemon) {
+        this.daemon = daemon;
+    }
 
     IO<Integer> perform(final @NotNull Console console, final @NotNull String[] args) {
+        if (daemon == null && Arrays.asList(args).contains(OPT_CONNECT)) {
+            return doConnect(console, args);
+        }
         final Result<Options> optsResult = parseArgs(console, args);
         if (optsResult.isFailure()) {
             return console.printLineErr(optsResult.getError().get().getMessage())
@@ -60,6 +89,8 @@ final class Command {
                 return printHelp(console::printLine).add(IO.unit(0));
             } else if (opts.isJustVersion()) {
                 return printVersion(console::printLine).add(IO.unit(0));
+            } else if (opts.isDaemon()) {
+                return doDaemon(console, opts);
             } else {
                 return doScan(console, opts);
             }
@@ -67,12 +98,143 @@ final class Command {
     }
 
     Supplier<NodeStore> getNodeStoreSupplier(final @NotNull Options opts) {
-        if (opts.isStoreBlobs()) {
-            return () -> new FileBlobMemoryNodeStore(
-                    opts.getCacheDir().toPath().resolve("blobs").toFile().getAbsolutePath());
+        return getNodeStoreSupplier(opts, opts.getNodeStore());
+    }
+
+    Supplier<NodeStore> getNodeStoreSupplier(final @NotNull Options opts, final @Nullable NodeStoreType nodeStore) {
+        return Optional.ofNullable(nodeStore).orElse(NodeStoreType.DEFAULT).newSupplier(
+                opts.isStoreBlobs() ? opts.getCacheDir().toPath().resolve("blobs").toFile() : null,
+                SharedBlobStore.DEFAULT_MAX_BYTES);
+    }
+
+    BaselineCache getBaselineCache(final @NotNull Options opts) {
+        if (opts.isBaselineCache()) {
+            return new BaselineCache(opts.getCacheDir().toPath().resolve("baselines").toFile());
         } else {
-            return MemoryNodeStore::new;
+            return null;
+        }
+    }
+
+    File getManifestIndexFile(final @NotNull Options opts) {
+        return new File(opts.getCacheDir(), MANIFEST_INDEX_FILE);
+    }
+
+    /**
+     * Save the manifests indexed while discovering checklists, so that later invocations skip reading the manifests of
+     * unchanged jars.
+     *
+     * @param opts the options
+     */
+    void saveManifestIndex(final @NotNull Options opts) {
+        try {
+            ManifestIndex.getDefault().save(getManifestIndexFile(opts));
+        } catch (final IOException e) {
+            LOGGER.warn("[saveManifestIndex] failed to save manifest index: {}", e.getMessage());
+        }
+    }
+
+    NodeTypeDefinitionCache getNodeTypeDefinitionCache(final @NotNull Options opts) {
+        return new NodeTypeDefinitionCache(opts.getCacheDir().toPath().resolve("nodetypes").toFile());
+    }
+
+    ScanResultCache getScanResultCache(final @NotNull Options opts) {
+        if (opts.isResultCache()) {
+            return new ScanResultCache(opts.getCacheDir().toPath().resolve("results").toFile());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Perform the command in the daemon listed in the cache directory, or locally if no daemon accepts the request.
+     *
+     * @param console the console
+     * @param args    the command arguments, including {@value #OPT_CONNECT}
+     * @return the exit code
+     */
+    IO<Integer> doConnect(final @NotNull Console console, final @NotNull String[] args) {
+        final String[] forwarded = Stream.of(args).filter(arg -> !OPT_CONNECT.equals(arg)).toArray(String[]::new);
+        return () -> new DaemonClient(findCacheDir(console, forwarded))
+                .perform(console, forwarded)
+                .orElseGet(() -> {
+                    LOGGER.debug("[doConnect] no daemon accepted the request, performing the command locally");
+                    return perform(console, forwarded).get();
+                });
+    }
+
+    /**
+     * Find the cache directory in the arguments without building the {@link Options}, which would resolve the opear.
+     *
+     * @param console the console
+     * @param args    the command arguments
+     * @return the cache directory
+     */
+    File findCacheDir(final @NotNull Console console, final @NotNull String[] args) {
+        File cacheDir = null;
+        for (int i = 0; i < args.length - 1; i++) {
+            if ("-c".equals(args[i]) || "--cache".equals(args[i])) {
+                cacheDir = console.getCwd().toPath().resolve(args[++i]).toFile();
+            }
+        }
+        return cacheDir != null
+                ? cacheDir
+                : console.getCwd().toPath().resolve(Options.CACHE_DIR_NAME).toFile().getAbsoluteFile();
+    }
+
+    /**
+     * Serve commands from {@link DaemonClient} connections until the daemon is closed or the JVM is shutdown.
+     *
+     * @param console the console
+     * @param opts    the options
+     * @return the exit code
+     */
+    IO<Integer> doDaemon(final @NotNull Console console, final @NotNull Options opts) {
+        if (daemon != null) {
+            return console.printLineErr("the daemon cannot be started by a daemon client")
+                    .add(IO.unit(EXIT_GENERAL_ERROR));
+        }
+        return () -> {
+            try (Daemon newDaemon = new Daemon(opts.getCacheDir(), opts.getDaemonPort())) {
+                newDaemon.start();
+                final Thread shutdownHook = new Thread(newDaemon::close, "oakpal-daemon-shutdown");
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+                console.printLineErr(String.format("OakPAL daemon listening on port %d", newDaemon.getPort())).get();
+                newDaemon.serve();
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (final IllegalStateException e) {
+                    LOGGER.debug("[doDaemon] JVM is shutting down");
+                }
+                return 0;
+            } catch (final IOException e) {
+                console.printLineErr("failed to start daemon: " + e.getMessage()).get();
+                return EXIT_GENERAL_ERROR;
+            }
+        };
+    }
+
+    /**
+     * Return a repository pool for the post-init state of the machine when performed on behalf of a daemon client.
+     * The pool machine reports to its own error listener, and the builder is given a new {@link DefaultErrorListener},
+     * so that pre-install violations are only reported by scans that initialize their own repository because the
+     * daemon does not pool a post-init state with violations.
+     *
+     * @param builder   the machine builder, with a {@link DefaultErrorListener} that nothing has reported to
+     * @param opts      the options
+     * @param nodeStore the node store type of the plan
+     * @return the builder with the repository pool
+     */
+    OakMachine.Builder withRepositoryPool(final @NotNull OakMachine.Builder builder,
+                                          final @NotNull Options opts,
+                                          final @Nullable NodeStoreType nodeStore) {
+        if (daemon != null) {
+            final String nodeStoreKey = Optional.ofNullable(nodeStore).orElse(NodeStoreType.DEFAULT).name()
+                    + (opts.isStoreBlobs() ? ";blobs" : "");
+            final OakMachine poolMachine = builder.withErrorListener(new DefaultErrorListener()).build();
+            return builder.withErrorListener(new DefaultErrorListener())
+                    .withRepositoryPool(daemon.getRepositoryPool(poolMachine, nodeStoreKey));
         }
+        return builder;
     }
 
     IO<Integer> doScan(final @NotNull Console console, final @NotNull Options opts) {
@@ -82,11 +244,22 @@ final class Command {
         /* ------------ */
         /* perform scan */
         /* ------------ */
-        final Result<List<CheckReport>> scanResult = OakpalPlan.fromJson(planUrl)
-                .flatMap(result1(plan ->
-                        opts.applyOverrides(plan).toOakMachineBuilder(new DefaultErrorListener(), cl)
-                                .withNodeStoreSupplier(getNodeStoreSupplier(opts))))
-                .map(OakMachine.Builder::build).flatMap(oak -> runOakScan(opts, oak));
+        if (daemon == null) {
+            ManifestIndex.getDefault().load(getManifestIndexFile(opts));
+        }
+        final Result<OakMachine> oakResult = OakpalPlan.fromJson(planUrl)
+                .map(opts::applyOverrides)
+                .flatMap(result1(plan -> withRepositoryPool(
+                        plan.toOakMachineBuilder(new DefaultErrorListener(), cl)
+                                .withNodeStoreSupplier(getNodeStoreSupplier(opts, plan.getNodeStore()))
+                                .withBaselineCache(getBaselineCache(opts))
+                                .withScanResultCache(getScanResultCache(opts))
+                                .withNodeTypeDefinitionCache(getNodeTypeDefinitionCache(opts))
+                                .withProfiling(opts.isProfile()),
+                        opts, plan.getNodeStore())))
+                .map(OakMachine.Builder::build);
+        saveManifestIndex(opts);
+        final Result<List<CheckReport>> scanResult = oakResult.flatMap(oak -> runOakScan(opts, oak));
 
         if (scanResult.isFailure()) {
             return console.printLineErr(scanResult.teeLogError().getError().get().getMessage())
@@ -94,7 +267,9 @@ final class Command {
         } else {
             final List<CheckReport> reports = scanResult.getOrDefault(Collections.emptyList());
             final Optional<Integer> highestSeverity = getHighestReportSeverity(opts, reports);
-            return printReports(reports, opts.getPrinter()).add(IO.unit(highestSeverity.orElse(0)));
+            final List<CheckProfile> profiles = oakResult.map(OakMachine::getCheckProfiles)
+                    .getOrDefault(Collections.emptyList());
+            return printReports(reports, profiles, opts.getPrinter()).add(IO.unit(highestSeverity.orElse(0)));
         }
     }
 
@@ -124,7 +299,13 @@ final class Command {
 
     IO<Nothing> printReports(final @NotNull List<CheckReport> reports,
                              final @NotNull Function<StructuredMessage, IO<Nothing>> linePrinter) {
-        return linePrinter.apply(new AllReportsMessage(reports));
+        return printReports(reports, Collections.emptyList(), linePrinter);
+    }
+
+    IO<Nothing> printReports(final @NotNull List<CheckReport> reports,
+                             final @NotNull List<CheckProfile> profiles,
+                             final @NotNull Function<StructuredMessage, IO<Nothing>> linePrinter) {
+        return linePrinter.apply(new AllReportsMessage(reports, profiles));
     }
 
     IO<Nothing> printHelp(final @NotNull Function<Object, IO<Nothing>> linePrinter) {
@@ -177,6 +358,34 @@ final class Command {
                 case "--store-blobs":
                     builder.setStoreBlobs(!isNoOpt);
                     break;
+                case "--baseline-cache":
+                    builder.setBaselineCache(!isNoOpt);
+                    break;
+                case "--profile":
+                    builder.setProfile(!isNoOpt);
+                    break;
+                case "--result-cache":
+                    builder.setResultCache(!isNoOpt);
+                    break;
+                case "--daemon":
+                    builder.setDaemon(!isNoOpt);
+                    break;
+                case "--daemon-port":
+                    if (isNoOpt) {
+                        builder.setDaemonPort(0);
+                        break;
+                    } else {
+                        final String portArg = args[++i];
+                        final Result<Integer> portResult = result1((String value) -> Integer.valueOf(value)).apply(portArg);
+                        if (portResult.isFailure() || !portResult.toOptional()
+                                .filter(port -> port >= 0 && port <= 0xFFFF).isPresent()) {
+                            return Result.failure(String.format("%s is not a port number.", portArg));
+                        }
+                        portResult.forEach(builder::setDaemonPort);
+                        break;
+                    }
+                case OPT_CONNECT:
+                    break;
                 case "-f":
                 case "--file":
                     builder.setOpearFile(isNoOpt ? null : console.getCwd().toPath().resolve(args[++i]).toFile());
@@ -196,6 +405,19 @@ final class Command {
                 case "--hooks":
                     builder.setNoHooks(isNoOpt);
                     break;
+                case "--node-store":
+                    if (isNoOpt) {
+                        builder.setNodeStore(null);
+                        break;
+                    } else {
+                        final String nodeStoreArg = args[++i];
+                        final NodeStoreType nodeStore = NodeStoreType.forName(nodeStoreArg);
+                        if (nodeStore == null) {
+                            return Result.failure(String.format("%s is not a node store type.", nodeStoreArg));
+                        }
+                        builder.setNodeStore(nodeStore);
+                        break;
+                    }
                 case "-p":
                 case "--plan":
                     builder.setNoPlan(isNoOpt);
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.cli;
+
+import net.adamcin.oakpal.core.AbortedScanException;
+import net.adamcin.oakpal.core.Nothing;
+import net.adamcin.oakpal.core.OakMachine;
+import net.adamcin.oakpal.core.RepositoryPool;
+import net.adamcin.oakpal.core.Result;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.adamcin.oakpal.core.Fun.result1;
+
+/**
+ * Serves scan requests from {@link DaemonClient} connections on a loopback socket, so that JVM startup, class loading,
+ * and post-init repository state are paid for once instead of on every invocation. The port and a random token are
+ * written to {@value #DAEMON_PROPERTIES} in the cache directory, where clients look them up. A
+ * {@link RepositoryPool} is kept for each of the most recently used post-init states.
+ */
+final class Daemon implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Daemon.class);
+    static final String DAEMON_PROPERTIES = "daemon.properties";
+    static final String PROP_PORT = "port";
+    static final String PROP_TOKEN = "token";
+    static final int MAX_POOLS = 4;
+    static final int MAX_STRING_BYTES = 64 * 1024 * 1024;
+    static final int MAX_TOKEN_BYTES = 256;
+    static final int MAX_ENV_COUNT = 4096;
+    static final int MAX_ARG_COUNT = 4096;
+    static final int MAX_DRAIN_BYTES = 64 * 1024;
+    static final int DRAIN_TIMEOUT_MILLIS = 1000;
+    static final byte FRAME_STDOUT = 1;
+    static final byte FRAME_STDERR = 2;
+    static final byte FRAME_EXIT = 3;
+
+    private final File cacheDir;
+    private final int requestedPort;
+    private final String token;
+    private final Map<String, RepositoryPool> pools = new LinkedHashMap<String, RepositoryPool>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, RepositoryPool> eldest) {
+            if (size() > MAX_POOLS) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+    /**
+     * Keys of post-init states whose initialization reported violations, which are not pooled, so that each scan
+     * reports them to its own error listener.
+     */
+    private final Set<String> unpooled = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_POOLS;
+        }
+    });
+    private final ExecutorService workers;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean closed;
+
+    Daemon(final @NotNull File cacheDir, final int port) {
+        this.cacheDir = cacheDir;
+        this.requestedPort = port;
+        final byte[] tokenBytes = new byte[16];
+        new SecureRandom().nextBytes(tokenBytes);
+        final StringBuilder tokenHex = new StringBuilder();
+        for (final byte b : tokenBytes) {
+            tokenHex.append(String.format("%02x", b));
+        }
+        this.token = tokenHex.toString();
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "oakpal-daemon-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static File getPropertiesFile(final @NotNull File cacheDir) {
+        return new File(cacheDir, DAEMON_PROPERTIES);
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    int getPoolCount() {
+        synchronized (pools) {
+            return pools.size();
+        }
+    }
+
+    /**
+     * Bind the loopback socket and write the port and token to the daemon properties file.
+     *
+     * @throws IOException if the socket cannot be bound or the properties file cannot be written
+     */
+    void start() throws IOException {
+        serverSocket = new ServerSocket(requestedPort, 50, InetAddress.getLoopbackAddress());
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("failed to create cache directory " + cacheDir.getAbsolutePath());
+        }
+        final Properties properties = new Properties();
+        properties.setProperty(PROP_PORT, Integer.toString(getPort()));
+        properties.setProperty(PROP_TOKEN, token);
+        final File propertiesFile = getPropertiesFile(cacheDir);
+        final File tempFile = Files.createTempFile(cacheDir.toPath(), DAEMON_PROPERTIES, ".tmp").toFile();
+        try {
+            try {
+                Files.setPosixFilePermissions(tempFile.toPath(), PosixFilePermissions.fromString("rw-------"));
+            } catch (final UnsupportedOperationException e) {
+                LOGGER.debug("[start] posix file permissions are not supported for {}", tempFile);
+            }
+            try (OutputStream output = Files.newOutputStream(tempFile.toPath())) {
+                properties.store(output, "oakpal daemon");
+            }
+            Files.move(tempFile.toPath(), propertiesFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Accept connections until the daemon is closed, handling each on a worker thread.
+     */
+    void serve() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (final SocketException e) {
+                if (!closed) {
+                    LOGGER.error("[serve] server socket failed", e);
+                }
+                return;
+            } catch (final IOException e) {
+                LOGGER.warn("[serve] failed to accept connection: {}", e.getMessage());
+                continue;
+            }
+            workers.execute(() -> handle(socket));
+        }
+    }
+
+    /**
+     * Read a request, perform the command with a console that streams its output back to the client, and send the
+     * exit code. The token is read and checked before anything else, so that the rest of the request is only read for
+     * clients that know the token.
+     *
+     * @param socket the client socket
+     */
+    void handle(final @NotNull Socket socket) {
+        try (Socket client = socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()))) {
+            final String requestToken = readString(input, MAX_TOKEN_BYTES);
+            if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    requestToken.getBytes(StandardCharsets.UTF_8))) {
+                rejectRequest(client, input, output);
+                return;
+            }
+            final File cwd = new File(readString(input));
+            final int envCount = readCount(input, MAX_ENV_COUNT);
+            final Map<String, String> env = new HashMap<>();
+            for (int i = 0; i < envCount; i++) {
+                env.put(readString(input), readString(input));
+            }
+            final int argCount = readCount(input, MAX_ARG_COUNT);
+            final String[] args = new String[argCount];
+            for (int i = 0; i < argCount; i++) {
+                args[i] = readString(input);
+            }
+            final RemoteConsole console = new RemoteConsole(cwd, env, output);
+            int exitCode;
+            try {
+                exitCode = new Command(this).perform(console, args).get();
+            } catch (final RuntimeException e) {
+                LOGGER.error("[handle] command failed", e);
+                console.printLineErr(String.valueOf(e.getMessage())).get();
+                exitCode = Command.EXIT_GENERAL_ERROR;
+            } finally {
+                console.dispose();
+            }
+            synchronized (output) {
+                output.writeByte(FRAME_EXIT);
+                output.writeInt(exitCode);
+                output.flush();
+            }
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("[handle] connection failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Tell the client that its token is invalid, and close the connection without reading the rest of its request.
+     * A bounded amount of pending input is discarded first, so that closing the socket does not reset the connection
+     * before the client reads the response.
+     *
+     * @param client the client socket
+     * @param input  the request stream
+     * @param output the response stream
+     * @throws IOException for I/O errors
+     */
+    private static void rejectRequest(final @NotNull Socket client,
+                                      final @NotNull DataInputStream input,
+                                      final @NotNull DataOutputStream output) throws IOException {
+        output.writeByte(FRAME_STDERR);
+        writeString(output, "invalid daemon token");
+        output.writeByte(FRAME_EXIT);
+        output.writeInt(Command.EXIT_GENERAL_ERROR);
+        output.flush();
+        client.shutdownOutput();
+        client.setSoTimeout(DRAIN_TIMEOUT_MILLIS);
+        try {
+            final byte[] buffer = new byte[8192];
+            int drained = 0;
+            int read;
+            while (drained < MAX_DRAIN_BYTES && (read = input.read(buffer)) != -1) {
+                drained += read;
+            }
+        } catch (final SocketTimeoutException e) {
+            // client has sent everything it is going to send
+        }
+    }
+
+    static int readCount(final @NotNull DataInputStream input, final int maxCount) throws IOException {
+        final int count = input.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException("invalid count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Return a pool of repositories for the post-init state of the provided machine, creating and filling a new pool
+     * if none exists for the machine's baseline key and node store. Evicted pools are closed, which defers the
+     * shutdown of their post-init node stores until scans in progress have closed their leases.
+     *
+     * @param poolMachine  a machine providing the init stages and pre-install packages of the scan
+     * @param nodeStoreKey a description of the node store configuration of the machine, which the baseline key does
+     *                     not account for
+     * @return a repository pool, or null if the post-init state could not be identified or initialized, or if its
+     * initialization reported violations, which each scan must then report itself
+     */
+    RepositoryPool getRepositoryPool(final @NotNull OakMachine poolMachine, final @NotNull String nodeStoreKey) {
+        final String key;
+        try {
+            key = poolMachine.getBaselineKey() + ";" + nodeStoreKey;
+        } catch (final AbortedScanException e) {
+            LOGGER.warn("[getRepositoryPool] failed to compute baseline key: {}", e.getMessage());
+            return null;
+        }
+        synchronized (pools) {
+            if (closed) {
+                return null;
+            }
+            final RepositoryPool existing = pools.get(key);
+            if (existing != null || unpooled.contains(key)) {
+                return existing;
+            }
+        }
+        final RepositoryPool pool = new RepositoryPool(poolMachine);
+        try {
+            pool.fill();
+        } catch (final AbortedScanException | RepositoryException e) {
+            LOGGER.warn("[getRepositoryPool] failed to initialize repository pool: {}", e.getMessage());
+            pool.close();
+            return null;
+        }
+        if (!pool.getPreInstallViolations().isEmpty()) {
+            LOGGER.debug("[getRepositoryPool] not pooling a post-init state with pre-install violations: {}", key);
+            pool.close();
+            synchronized (pools) {
+                unpooled.add(key);
+            }
+            return null;
+        }
+        synchronized (pools) {
+            final RepositoryPool existing = pools.get(key);
+            if (existing != null || closed) {
+                pool.close();
+                return existing;
+            }
+            pools.put(key, pool);
+            return pool;
+        }
+    }
+
+    /**
+     * Stop accepting connections, delete the daemon properties file, and close the repository pools.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (final IOException e) {
+                LOGGER.debug("[close] failed to close server socket: {}", e.getMessage());
+            }
+            final File propertiesFile = getPropertiesFile(cacheDir);
+            final Properties properties = DaemonClient.readProperties(propertiesFile);
+            if (token.equals(properties.getProperty(PROP_TOKEN))) {
+                propertiesFile.delete();
+            }
+        }
+        workers.shutdown();
+        synchronized (pools) {
+            pools.values().forEach(RepositoryPool::close);
+            pools.clear();
+            unpooled.clear();
+        }
+    }
+
+    static void writeString(final @NotNull DataOutputStream output, final @NotNull String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(final @NotNull DataInputStream input) throws IOException {
+        return readString(input, MAX_STRING_BYTES);
+    }
+
+    static String readString(final @NotNull DataInputStream input, final int maxBytes) throws IOException {
+        final int length = input.readInt();
+        if (length < 0 || length > maxBytes) {
+            throw new IOException("invalid string length: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A console for a client connection, which resolves paths against the client's working directory and environment,
+     * and streams printed lines back to the client.
+     */
+    static final class RemoteConsole implements Console {
+        private final File cwd;
+        private final Map<String, String> env;
+        private final DataOutputStream output;
+        private final Map<File, DisposablePrinter> printers = new HashMap<>();
+
+        RemoteConsole(final @NotNull File cwd,
+                      final @NotNull Map<String, String> env,
+                      final @NotNull DataOutputStream output) {
+            this.cwd = cwd;
+            this.env = env;
+            this.output = output;
+        }
+
+        @Override
+        public @NotNull File getCwd() {
+            return cwd;
+        }
+
+        @Override
+        public @NotNull Map<String, String> getEnv() {
+            return Collections.unmodifiableMap(env);
+        }
+
+        private IO<Nothing> writeFrame(final byte frameType, final @NotNull Object object) {
+            return () -> {
+                try {
+                    synchronized (output) {
+                        output.writeByte(frameType);
+                        writeString(output, object.toString());
+                        output.flush();
+                    }
+                } catch (final IOException e) {
+                    throw new IllegalStateException("client connection failed", e);
+                }
+                return Nothing.instance;
+            };
+        }
+
+        @Override
+        public IO<Nothing> printLine(final @NotNull Object object) {
+            return writeFrame(FRAME_STDOUT, object);
+        }
+
+        @Override
+        public IO<Nothing> printLineErr(final Object object) {
+            return writeFrame(FRAME_STDERR, object);
+        }
+
+        @Override
+        public Result<DisposablePrinter> openPrinter(final @NotNull File outFile) {
+            final Result<DisposablePrinter> printerResult =
+                    result1((File file) -> new PrintWriter(file, StandardCharsets.UTF_8.name())).apply(outFile)
+                            .map(Main.DisposablePrinterImpl::new);
+            printerResult.forEach(printer -> printers.put(outFile, printer));
+            return printerResult;
+        }
+
+        @Override
+        public void dispose() {
+            printers.values().forEach(DisposablePrinter::dispose);
+            printers.clear();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.cli;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Thin client for a {@link Daemon}, which forwards the working directory, environment, and arguments of an invocation
+ * to the daemon listed in the cache directory, and prints the output streamed back by the daemon.
+ */
+final class DaemonClient {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DaemonClient.class);
+
+    private final File cacheDir;
+
+    DaemonClient(final @NotNull File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    static @NotNull Properties readProperties(final @NotNull File propertiesFile) {
+        final Properties properties = new Properties();
+        if (propertiesFile.isFile()) {
+            try (InputStream input = Files.newInputStream(propertiesFile.toPath())) {
+                properties.load(input);
+            } catch (final IOException e) {
+                LOGGER.debug("[readProperties] failed to read {}: {}", propertiesFile, e.getMessage());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Perform the command in the daemon listed in the cache directory.
+     *
+     * @param console the local console
+     * @param args    the command arguments
+     * @return the exit code of the command, or empty if no daemon accepted the request
+     */
+    Optional<Integer> perform(final @NotNull Console console, final @NotNull String[] args) {
+        final Properties properties = readProperties(Daemon.getPropertiesFile(cacheDir));
+        final String token = properties.getProperty(Daemon.PROP_TOKEN);
+        final int port;
+        try {
+            port = Integer.parseInt(properties.getProperty(Daemon.PROP_PORT, "-1"));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+        if (token == null || port < 0) {
+            return Optional.empty();
+        }
+
+        Socket socket = null;
+        final DataOutputStream output;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            Daemon.writeString(output, token);
+            Daemon.writeString(output, console.getCwd().getAbsolutePath());
+            final Map<String, String> env = console.getEnv();
+            output.writeInt(env.size());
+            for (Map.Entry<String, String> entry : env.entrySet()) {
+                Daemon.writeString(output, entry.getKey());
+                Daemon.writeString(output, entry.getValue());
+            }
+            output.writeInt(args.length);
+            for (String arg : args) {
+                Daemon.writeString(output, arg);
+            }
+            output.flush();
+        } catch (final IOException e) {
+            LOGGER.debug("[perform] daemon on port {} did not accept the request: {}", port, e.getMessage());
+            closeQuietly(socket);
+            return Optional.empty();
+        }
+
+        try (Socket client = socket;
+             DataOutputStream ignored = output;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(client.getInputStream()))) {
+            while (true) {
+                final byte frameType = input.readByte();
+                switch (frameType) {
+                    case Daemon.FRAME_STDOUT:
+                        console.printLine(Daemon.readString(input)).get();
+                        break;
+                    case Daemon.FRAME_STDERR:
+                        console.printLineErr(Daemon.readString(input)).get();
+                        break;
+                    case Daemon.FRAME_EXIT:
+                        return Optional.of(input.readInt());
+                    default:
+                        throw new IOException("unexpected frame type: " + frameType);
+                }
+            }
+        } catch (final IOException e) {
+            console.printLineErr("daemon connection failed: " + e.getMessage()).get();
+            return Optional.of(Command.EXIT_GENERAL_ERROR);
+        }
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                LOGGER.debug("[closeQuietly] failed to close socket: {}", e.getMessage());
+            }
+        }
+    }
+}
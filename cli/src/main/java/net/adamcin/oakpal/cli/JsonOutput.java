@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.cli;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * The json output of a {@link StructuredMessage} that writes its json text directly to a printer's writer, such as
+ * the reports of a scan, instead of first building the whole {@link javax.json.JsonObject}. {@link #toString()}
+ * returns the same text for printers that need it as a string.
+ */
+abstract class JsonOutput {
+
+    /**
+     * Write the json text. The writer is not closed.
+     *
+     * @param writer the writer
+     * @throws IOException for failing to write
+     */
+    abstract void writeTo(@NotNull Writer writer) throws IOException;
+
+    @Override
+    public final String toString() {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+}
@@ -3,8 +3,13 @@ package net.adamcin.oakpal.cli;
 import static net.adamcin.oakpal.core.Fun.result1;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
@@ -51,7 +56,18 @@ final class Main implements Console {
     @Override
     public IO<Nothing> printLine(final @NotNull Object object) {
         return () -> {
-            stdout.println(object.toString());
+            if (object instanceof JsonOutput) {
+                final Writer writer = new OutputStreamWriter(stdout, Charset.defaultCharset());
+                try {
+                    ((JsonOutput) object).writeTo(writer);
+                    writer.flush();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                stdout.println();
+            } else {
+                stdout.println(object.toString());
+            }
             return Nothing.instance;
         };
     }
@@ -79,7 +95,16 @@ final class Main implements Console {
         @Override
         public IO<Nothing> apply(final Object object) {
             return () -> {
-                writer.println(object.toString());
+                if (object instanceof JsonOutput) {
+                    try {
+                        ((JsonOutput) object).writeTo(writer);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    writer.println();
+                } else {
+                    writer.println(object.toString());
+                }
                 writer.flush();
                 return Nothing.instance;
             };
@@ -1,8 +1,10 @@
 package net.adamcin.oakpal.cli;
 
 import net.adamcin.oakpal.core.InstallHookPolicy;
+import net.adamcin.oakpal.core.NodeStoreType;
 import net.adamcin.oakpal.core.Nothing;
 import net.adamcin.oakpal.core.OakpalPlan;
+import net.adamcin.oakpal.core.OpearCache;
 import net.adamcin.oakpal.core.OpearFile;
 import net.adamcin.oakpal.core.Result;
 import net.adamcin.oakpal.core.Violation;
@@ -26,21 +28,27 @@ final class Options {
     private final boolean justHelp;
     private final boolean justVersion;
     private final boolean storeBlobs;
+    private final boolean baselineCache;
+    private final boolean profile;
+    private final boolean resultCache;
+    private final boolean daemon;
+    private final int daemonPort;
     private final URL planUrl;
     private final ClassLoader scanClassLoader;
     private final File cacheDir;
     private final File opearFile;
     private final String planName;
     private final boolean noHooks;
+    private final NodeStoreType nodeStore;
     private final List<File> scanFiles;
     private final Function<StructuredMessage, IO<Nothing>> printer;
     private final Violation.Severity failOnSeverity;
 
     Options() {
-        this(true, true, false,
+        this(true, true, false, false, false, false, false, 0,
                 OakpalPlan.BASIC_PLAN_URL, Options.class.getClassLoader(),
                 new File(System.getProperty("java.io.tmpdir")),
-                null, null, false,
+                null, null, false, null,
                 Collections.emptyList(),
                 EMPTY_PRINTER,
                 Violation.Severity.MAJOR);
@@ -49,24 +57,36 @@ final class Options {
     Options(final boolean justHelp,
             final boolean justVersion,
             final boolean storeBlobs,
+            final boolean baselineCache,
+            final boolean profile,
+            final boolean resultCache,
+            final boolean daemon,
+            final int daemonPort,
             final @NotNull URL planUrl,
             final @NotNull ClassLoader scanClassLoader,
             final @NotNull File cacheDir,
             final @Nullable File opearFile,
             final @Nullable String planName,
             final boolean noHooks,
+            final @Nullable NodeStoreType nodeStore,
             final @NotNull List<File> scanFiles,
             final @NotNull Function<StructuredMessage, IO<Nothing>> printer,
             final @NotNull Violation.Severity failOnSeverity) {
         this.justHelp = justHelp;
         this.justVersion = justVersion;
         this.storeBlobs = storeBlobs;
+        this.baselineCache = baselineCache;
+        this.profile = profile;
+        this.resultCache = resultCache;
+        this.daemon = daemon;
+        this.daemonPort = daemonPort;
         this.planUrl = planUrl;
         this.scanClassLoader = scanClassLoader;
         this.cacheDir = cacheDir;
         this.opearFile = opearFile;
         this.planName = planName;
         this.noHooks = noHooks;
+        this.nodeStore = nodeStore;
         this.scanFiles = scanFiles;
         this.printer = printer;
         this.failOnSeverity = failOnSeverity;
@@ -84,10 +104,34 @@ final class Options {
         return storeBlobs;
     }
 
+    public boolean isBaselineCache() {
+        return baselineCache;
+    }
+
+    public boolean isProfile() {
+        return profile;
+    }
+
+    public boolean isResultCache() {
+        return resultCache;
+    }
+
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    public int getDaemonPort() {
+        return daemonPort;
+    }
+
     public boolean isNoHooks() {
         return noHooks;
     }
 
+    public @Nullable NodeStoreType getNodeStore() {
+        return nodeStore;
+    }
+
     public URL getPlanUrl() {
         return planUrl;
     }
@@ -121,7 +165,7 @@ final class Options {
     }
 
     boolean hasOverrides() {
-        return noHooks;
+        return noHooks || nodeStore != null;
     }
 
     public OakpalPlan applyOverrides(final @NotNull OakpalPlan basePlan) {
@@ -132,6 +176,9 @@ final class Options {
                 overridePlan.withInstallHookPolicy(InstallHookPolicy.SKIP);
                 overridePlan.withEnablePreInstallHooks(false);
             }
+            if (nodeStore != null) {
+                overridePlan.withNodeStore(nodeStore);
+            }
             return overridePlan.build();
         } else {
             return basePlan;
@@ -142,9 +189,15 @@ final class Options {
         private boolean justHelp;
         private boolean justVersion;
         private boolean storeBlobs;
+        private boolean baselineCache;
+        private boolean profile;
+        private boolean resultCache;
+        private boolean daemon;
+        private int daemonPort;
         private boolean outputJson;
         private boolean noPlan;
         private boolean noHooks;
+        private NodeStoreType nodeStore;
         private String planName;
         private File outFile;
         private File cacheDir;
@@ -167,6 +220,31 @@ final class Options {
             return this;
         }
 
+        public Builder setBaselineCache(final boolean baselineCache) {
+            this.baselineCache = baselineCache;
+            return this;
+        }
+
+        public Builder setProfile(final boolean profile) {
+            this.profile = profile;
+            return this;
+        }
+
+        public Builder setResultCache(final boolean resultCache) {
+            this.resultCache = resultCache;
+            return this;
+        }
+
+        public Builder setDaemon(final boolean daemon) {
+            this.daemon = daemon;
+            return this;
+        }
+
+        public Builder setDaemonPort(final int daemonPort) {
+            this.daemonPort = daemonPort;
+            return this;
+        }
+
         public Builder setOutputJson(final boolean outputJson) {
             this.outputJson = outputJson;
             return this;
@@ -182,6 +260,11 @@ final class Options {
             return this;
         }
 
+        public Builder setNodeStore(final @Nullable NodeStoreType nodeStore) {
+            this.nodeStore = nodeStore;
+            return this;
+        }
+
         public Builder setPlanName(final @Nullable String planName) {
             this.planName = planName;
             return this;
@@ -221,14 +304,13 @@ final class Options {
             final File realCacheDir = this.cacheDir != null
                     ? this.cacheDir
                     : console.getCwd().toPath().resolve(CACHE_DIR_NAME).toFile().getAbsoluteFile();
-            final File opearCache = new File(realCacheDir, "opears");
-            opearCache.mkdirs();
+            final OpearCache opearCache = new OpearCache(new File(realCacheDir, "opears"));
 
             final Result<OpearFile> opearResult = Result.success(opearResolved.getAbsoluteFile())
                     .flatMap(file -> {
                         if (file.isFile()) {
                             try (JarFile jarFile = new JarFile(file, true)) {
-                                return OpearFile.fromJar(jarFile, opearCache);
+                                return opearCache.fromJar(jarFile);
                             } catch (IOException e) {
                                 return Result.failure(String.format("%s is not a jar format file", file.getPath()), e);
                             }
@@ -243,10 +325,11 @@ final class Options {
                             .orElse(Result.success(noPlan ? OakpalPlan.EMPTY_PLAN_URL : opear.getDefaultPlan()))
                             .flatMap(planUrl ->
                                     messageWriter(console, outputJson, outFile).map(writer ->
-                                            new Options(justHelp, justVersion, storeBlobs, planUrl,
+                                            new Options(justHelp, justVersion, storeBlobs, baselineCache, profile, resultCache,
+                                                    daemon, daemonPort, planUrl,
                                                     opear.getPlanClassLoader(getClass().getClassLoader()),
                                                     realCacheDir, opearFile,
-                                                    planName, noHooks, scanFiles, writer,
+                                                    planName, noHooks, nodeStore, scanFiles, writer,
                                                     Optional.ofNullable(failOnSeverity).orElse(DEFAULT_OPTIONS.failOnSeverity)))));
         }
 
@@ -262,7 +345,7 @@ final class Options {
                                                                                    final boolean outputJson,
                                                                                    final @Nullable File outFile) {
         final Function<StructuredMessage, Object> objectifier = outputJson
-                ? StructuredMessage::toJson : message -> message;
+                ? StructuredMessage::toJsonOutput : message -> message;
         final Result<Function<Object, IO<Nothing>>> printerResult = Optional.ofNullable(outFile)
                 .map(file -> console.openPrinter(file).map(printer -> (Function<Object, IO<Nothing>>) printer))
                 .orElse(Result.success(console::printLine));
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.cli;
+
+import net.adamcin.oakpal.core.CheckProfile;
+import org.jetbrains.annotations.NotNull;
+
+import javax.json.JsonObject;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+class ProfileMessage implements StructuredMessage {
+
+    private final CheckProfile profile;
+
+    ProfileMessage(final @NotNull CheckProfile profile) {
+        this.profile = profile;
+    }
+
+    @Override
+    public String toString() {
+        StringWriter sw = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(sw)) {
+            writer.println(String.format("profile: %s (%.3f ms)", String.valueOf(profile.getCheckName()),
+                    profile.getTotalNanos() / 1000000.0D));
+            if (profile.getStartedScan() != null) {
+                printEvent(writer, CheckProfile.KEY_STARTED_SCAN, profile.getStartedScan());
+            }
+            profile.getEvents().forEach((event, eventProfile) ->
+                    printEvent(writer, event.getMethodName(), eventProfile));
+            if (profile.getFinishedScan() != null) {
+                printEvent(writer, CheckProfile.KEY_FINISHED_SCAN, profile.getFinishedScan());
+            }
+        }
+        return sw.toString().trim();
+    }
+
+    private static void printEvent(final @NotNull PrintWriter writer, final @NotNull String methodName,
+                                   final @NotNull CheckProfile.EventProfile eventProfile) {
+        final String allocated = eventProfile.getAllocatedBytes() >= 0
+                ? String.format(" allocated=%d KiB", eventProfile.getAllocatedBytes() / 1024L)
+                : "";
+        writer.println(String.format(" +- %s: count=%d total=%.3f ms max=%.3f ms%s",
+                methodName, eventProfile.getCount(),
+                eventProfile.getTotalNanos() / 1000000.0D,
+                eventProfile.getMaxNanos() / 1000000.0D,
+                allocated));
+    }
+
+    @Override
+    public JsonObject toJson() {
+        return profile.toJson();
+    }
+}
@@ -8,4 +8,14 @@ import net.adamcin.oakpal.core.JavaxJson;
  * {@link #toString()} will be called.
  */
 public interface StructuredMessage extends JavaxJson.ObjectConvertible {
+
+    /**
+     * Get the object to print for --output json. This is {@link #toJson()} by default, but a message may instead
+     * return an object that printers can stream to their output.
+     *
+     * @return the json output
+     */
+    default Object toJsonOutput() {
+        return toJson();
+    }
 }
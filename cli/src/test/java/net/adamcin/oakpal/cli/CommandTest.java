@@ -19,24 +19,36 @@ import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.stream.JsonCollectors;
 
+import net.adamcin.oakpal.core.BaselineCache;
+import net.adamcin.oakpal.core.CheckProfile;
 import net.adamcin.oakpal.core.CheckReport;
 import net.adamcin.oakpal.core.FileBlobMemoryNodeStore;
+import net.adamcin.oakpal.core.ManifestIndex;
+import net.adamcin.oakpal.core.NodeStoreType;
 import net.adamcin.oakpal.core.Nothing;
+import net.adamcin.oakpal.core.ProgressCheck;
 import net.adamcin.oakpal.core.ReportCollector;
 import net.adamcin.oakpal.core.ReportMapper;
 import net.adamcin.oakpal.core.Result;
+import net.adamcin.oakpal.core.ScanResultCache;
 import net.adamcin.oakpal.core.SimpleReport;
 import net.adamcin.oakpal.core.SimpleViolation;
+import net.adamcin.oakpal.core.TempSegmentNodeStore;
 import net.adamcin.oakpal.core.Violation;
 import net.adamcin.oakpal.testing.TestPackageUtil;
 import org.apache.commons.io.FileUtils;
@@ -87,6 +99,95 @@ public class CommandTest {
                         new Options.Builder()
                                 .build(console)
                                 .getOrDefault(null)).get() instanceof MemoryNodeStore);
+        final Options segmentOptions = new Options.Builder()
+                .setNodeStore(NodeStoreType.SEGMENT)
+                .build(console)
+                .getOrDefault(null);
+        final TempSegmentNodeStore segmentStore =
+                (TempSegmentNodeStore) command.getNodeStoreSupplier(segmentOptions).get();
+        segmentStore.close();
+        assertFalse("segment store dir is deleted", segmentStore.getStoreDir().exists());
+        assertTrue("plan node store type is used",
+                command.getNodeStoreSupplier(segmentOptions, NodeStoreType.MEMORY).get() instanceof MemoryNodeStore);
+    }
+
+    @Test
+    public void testGetBaselineCache() {
+        final Command command = new Command();
+        final Console console = getMockConsole();
+        final Options options = new Options.Builder()
+                .setBaselineCache(true)
+                .build(console)
+                .getOrDefault(null);
+        final BaselineCache baselineCache = command.getBaselineCache(options);
+        assertNotNull("expect baseline cache", baselineCache);
+        assertEquals("expect baselines dir", new File(options.getCacheDir(), "baselines"),
+                baselineCache.getCacheDir());
+        assertNull("expect no baseline cache by default",
+                command.getBaselineCache(new Options.Builder()
+                        .build(console)
+                        .getOrDefault(null)));
+    }
+
+    @Test
+    public void testGetScanResultCache() {
+        final Command command = new Command();
+        final Console console = getMockConsole();
+        final Options options = new Options.Builder()
+                .setResultCache(true)
+                .build(console)
+                .getOrDefault(null);
+        final ScanResultCache scanResultCache = command.getScanResultCache(options);
+        assertNotNull("expect scan result cache", scanResultCache);
+        assertEquals("expect results dir", new File(options.getCacheDir(), "results"),
+                scanResultCache.getCacheDir());
+        assertNull("expect no scan result cache by default",
+                command.getScanResultCache(new Options.Builder()
+                        .build(console)
+                        .getOrDefault(null)));
+    }
+
+    @Test
+    public void testGetNodeTypeDefinitionCache() {
+        final Command command = new Command();
+        final Options options = new Options.Builder()
+                .build(getMockConsole())
+                .getOrDefault(null);
+        assertEquals("expect nodetypes dir", new File(options.getCacheDir(), "nodetypes"),
+                command.getNodeTypeDefinitionCache(options).getCacheDir());
+    }
+
+    @Test
+    public void testSaveManifestIndex() throws Exception {
+        final File cacheDir = new File("target/test-output/CommandTest/testSaveManifestIndex");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final Command command = new Command();
+        final Options options = new Options.Builder()
+                .setCacheDir(cacheDir)
+                .build(getMockConsole())
+                .getOrDefault(null);
+        final File indexFile = command.getManifestIndexFile(options);
+        assertEquals("expect manifest index file", new File(cacheDir, Command.MANIFEST_INDEX_FILE), indexFile);
+        ManifestIndex.getDefault().getHeaderValues("Oakpal-Checklist", getClass().getClassLoader());
+        command.saveManifestIndex(options);
+        assertTrue("expect manifest index saved", indexFile.isFile());
+    }
+
+    @Test
+    public void testFindCacheDir() {
+        final Command command = new Command();
+        final Console console = getMockConsole();
+        final Function<String[], Path> findCacheDir = args ->
+                command.findCacheDir(console, args).getAbsoluteFile().toPath().normalize();
+        assertEquals("expect default cache dir",
+                new File(Options.CACHE_DIR_NAME).getAbsoluteFile().toPath(),
+                findCacheDir.apply(new String[]{"--connect"}));
+        assertEquals("expect specified cache dir", new File("target/cache").getAbsoluteFile().toPath(),
+                findCacheDir.apply(new String[]{"-c", "target/cache", "--connect"}));
+        assertEquals("expect last specified cache dir", new File("target/other").getAbsoluteFile().toPath(),
+                findCacheDir.apply(new String[]{"--cache", "target/cache", "--cache", "target/other"}));
     }
 
     @Test
@@ -129,6 +230,38 @@ public class CommandTest {
         return console;
     }
 
+    @Test
+    public void testWriteReportsWithProfiles() {
+        final List<CheckReport> reports = Collections.singletonList(
+                new SimpleReport("some check", Collections.emptyList()));
+        final Map<ProgressCheck.Event, CheckProfile.EventProfile> fastEvents = new EnumMap<>(ProgressCheck.Event.class);
+        fastEvents.put(ProgressCheck.Event.AFTER_EXTRACT, new CheckProfile.EventProfile(1L, 1000L, 1000L, 64L));
+        final Map<ProgressCheck.Event, CheckProfile.EventProfile> slowEvents = new EnumMap<>(ProgressCheck.Event.class);
+        slowEvents.put(ProgressCheck.Event.IMPORTED_PATH, new CheckProfile.EventProfile(10L, 9000000L, 2000000L, -1L));
+        final List<CheckProfile> profiles = Arrays.asList(
+                new CheckProfile("fast check", fastEvents),
+                new CheckProfile("slow check", slowEvents));
+
+        final String output = captureStructured(false, (command, printer) ->
+                command.printReports(reports, profiles, printer));
+        LOGGER.info("reports with profiles: \n{}", output);
+        assertTrue("expect report", output.contains("report: some check"));
+        assertTrue("expect slow check first",
+                output.indexOf("profile: slow check") < output.indexOf("profile: fast check"));
+        assertTrue("expect imported path stats", output.contains("importedPath: count=10"));
+
+        final String jsonOutput = captureStructured(true, (command, printer) ->
+                command.printReports(reports, profiles, printer));
+        final JsonObject json = uncheck0(() ->
+                Json.createReader(new StringReader(jsonOutput)).readObject()).get();
+        assertEquals("expect profiles json", profiles.stream().map(CheckProfile::toJson)
+                        .collect(JsonCollectors.toJsonArray()),
+                json.getJsonArray(AllReportsMessage.KEY_PROFILES));
+        final List<CheckReport> readReports = uncheck0(() ->
+                ReportMapper.readReports(() -> new BufferedReader(new StringReader(jsonOutput)))).get();
+        assertEquals("expect same reports", reports, readReports);
+    }
+
     @Test
     public void testGetHighestReportSeverity() {
         ReportCollector collector1 = new ReportCollector();
@@ -264,6 +397,44 @@ public class CommandTest {
         validator.expectSuccess(args("--no-store-blobs", "-b"),
                 options -> assertTrue("is store blobs", options.isStoreBlobs()));
 
+        validator.expectSuccess(args(),
+                options -> assertFalse("is not baseline cache", options.isBaselineCache()));
+        validator.expectSuccess(args("--baseline-cache"),
+                options -> assertTrue("is baseline cache", options.isBaselineCache()));
+        validator.expectSuccess(args("--baseline-cache", "--no-baseline-cache"),
+                options -> assertFalse("is not baseline cache", options.isBaselineCache()));
+
+        validator.expectSuccess(args(),
+                options -> assertFalse("is not profile", options.isProfile()));
+
+        validator.expectSuccess(args(),
+                options -> assertFalse("is not daemon", options.isDaemon()));
+        validator.expectSuccess(args("--daemon"),
+                options -> assertTrue("is daemon", options.isDaemon()));
+        validator.expectSuccess(args("--daemon", "--no-daemon"),
+                options -> assertFalse("is not daemon", options.isDaemon()));
+        validator.expectSuccess(args("--connect"),
+                options -> assertFalse("is not daemon", options.isDaemon()));
+        validator.expectSuccess(args(),
+                options -> assertEquals("expect any port by default", 0, options.getDaemonPort()));
+        validator.expectSuccess(args("--daemon-port", "7878"),
+                options -> assertEquals("expect port", 7878, options.getDaemonPort()));
+        validator.expectSuccess(args("--daemon-port", "7878", "--no-daemon-port"),
+                options -> assertEquals("expect any port after resetting", 0, options.getDaemonPort()));
+        validator.expectFailure(args("--daemon-port", "seven"));
+        validator.expectFailure(args("--daemon-port", "70000"));
+
+        validator.expectSuccess(args(),
+                options -> assertFalse("is not result cache", options.isResultCache()));
+        validator.expectSuccess(args("--result-cache"),
+                options -> assertTrue("is result cache", options.isResultCache()));
+        validator.expectSuccess(args("--result-cache", "--no-result-cache"),
+                options -> assertFalse("is not result cache", options.isResultCache()));
+        validator.expectSuccess(args("--profile"),
+                options -> assertTrue("is profile", options.isProfile()));
+        validator.expectSuccess(args("--profile", "--no-profile"),
+                options -> assertFalse("is not profile", options.isProfile()));
+
         validator.expectFailure(args("-s", "extreme"));
         validator.expectSuccess(args(),
                 options -> assertEquals("expect major by default",
@@ -297,6 +468,11 @@ public class CommandTest {
                 options -> assertFalse("expect no isNoHooks", options.isNoHooks()));
         validator.expectSuccess(args("--hooks", "--no-hooks"),
                 options -> assertTrue("expect isNoHooks", options.isNoHooks()));
+        validator.expectSuccess(args("--node-store", "segment"),
+                options -> assertSame("expect SEGMENT", NodeStoreType.SEGMENT, options.getNodeStore()));
+        validator.expectSuccess(args("--node-store", "segment", "--no-node-store"),
+                options -> assertNull("expect null nodeStore", options.getNodeStore()));
+        validator.expectFailure(args("--node-store", "tar"));
     }
 
     @Test
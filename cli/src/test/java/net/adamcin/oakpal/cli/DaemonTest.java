@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.cli;
+
+import net.adamcin.oakpal.core.DefaultErrorListener;
+import net.adamcin.oakpal.core.InitStage;
+import net.adamcin.oakpal.core.Nothing;
+import net.adamcin.oakpal.core.OakMachine;
+import net.adamcin.oakpal.core.Result;
+import net.adamcin.oakpal.testing.TestPackageUtil;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DaemonTest {
+
+    final File testOutputBaseDir = new File("target/test-output/DaemonTest");
+
+    @Before
+    public void setUp() throws Exception {
+        testOutputBaseDir.mkdirs();
+    }
+
+    static final class CapturingConsole implements Console {
+        final List<String> out = new ArrayList<>();
+        final List<String> err = new ArrayList<>();
+
+        @Override
+        public @NotNull File getCwd() {
+            return new File(".").getAbsoluteFile();
+        }
+
+        @Override
+        public @NotNull Map<String, String> getEnv() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public IO<Nothing> printLine(final Object object) {
+            return () -> {
+                out.add(object.toString());
+                return Nothing.instance;
+            };
+        }
+
+        @Override
+        public IO<Nothing> printLineErr(final Object object) {
+            return () -> {
+                err.add(object.toString());
+                return Nothing.instance;
+            };
+        }
+
+        @Override
+        public Result<DisposablePrinter> openPrinter(final @NotNull File outFile) {
+            return Result.failure("not supported");
+        }
+
+        @Override
+        public void dispose() {
+        }
+    }
+
+    private File newCacheDir(final @NotNull String name) throws Exception {
+        final File cacheDir = new File(testOutputBaseDir, name);
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        return cacheDir;
+    }
+
+    private Thread serveInBackground(final @NotNull Daemon daemon) {
+        final Thread thread = new Thread(daemon::serve, "DaemonTest-serve");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testPerform() throws Exception {
+        final File cacheDir = newCacheDir("testPerform");
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        try (Daemon daemon = new Daemon(cacheDir, 0)) {
+            daemon.start();
+            assertTrue("expect properties file", Daemon.getPropertiesFile(cacheDir).isFile());
+            final Thread serveThread = serveInBackground(daemon);
+
+            final CapturingConsole versionConsole = new CapturingConsole();
+            assertEquals("expect remote exit code", Optional.of(0),
+                    new DaemonClient(cacheDir).perform(versionConsole, new String[]{"--version"}));
+            assertTrue("expect version line: " + versionConsole.out,
+                    versionConsole.out.stream().anyMatch(line -> line.startsWith("OakPAL CLI")));
+
+            for (int i = 0; i < 2; i++) {
+                final CapturingConsole scanConsole = new CapturingConsole();
+                assertEquals("expect remote exit code", Optional.of(0),
+                        new DaemonClient(cacheDir).perform(scanConsole,
+                                new String[]{"-c", cacheDir.getPath(), "-j", testPackage.getAbsolutePath()}));
+                assertFalse("expect json reports", scanConsole.out.isEmpty());
+            }
+            assertEquals("expect one repository pool", 1, daemon.getPoolCount());
+
+            final CapturingConsole nestedConsole = new CapturingConsole();
+            assertEquals("expect nested daemon is refused", Optional.of(Command.EXIT_GENERAL_ERROR),
+                    new DaemonClient(cacheDir).perform(nestedConsole, new String[]{"--daemon"}));
+
+            daemon.close();
+            serveThread.join(10000L);
+            assertFalse("expect serve to return after close", serveThread.isAlive());
+        }
+        assertFalse("expect properties file deleted", Daemon.getPropertiesFile(cacheDir).exists());
+    }
+
+    @Test
+    public void testGetRepositoryPool_preInstallViolations() throws Exception {
+        final File cacheDir = newCacheDir("testGetRepositoryPool_preInstallViolations");
+        try (Daemon daemon = new Daemon(cacheDir, 0)) {
+            assertNotNull("expect pool", daemon.getRepositoryPool(new OakMachine.Builder().build(), "DEFAULT"));
+            assertEquals("expect one repository pool", 1, daemon.getPoolCount());
+            final OakMachine.Builder withViolations = new OakMachine.Builder()
+                    .withInitStage(new InitStage.Builder().withForcedRoot("/foo", "nt:nonexistent").build());
+            final OakMachine poolMachine = withViolations.build();
+            assertNull("expect no pool", daemon.getRepositoryPool(poolMachine, "DEFAULT"));
+            assertFalse("expect violation reported to the pool machine",
+                    poolMachine.getErrorListener().getReportedViolations().isEmpty());
+            final OakMachine nextMachine = withViolations.withErrorListener(new DefaultErrorListener()).build();
+            assertNull("expect no pool", daemon.getRepositoryPool(nextMachine, "DEFAULT"));
+            assertTrue("expect post-init state not initialized again",
+                    nextMachine.getErrorListener().getReportedViolations().isEmpty());
+            assertEquals("expect one repository pool", 1, daemon.getPoolCount());
+        }
+    }
+
+    @Test
+    public void testPerform_invalidToken() throws Exception {
+        final File cacheDir = newCacheDir("testPerform_invalidToken");
+        try (Daemon daemon = new Daemon(cacheDir, 0)) {
+            daemon.start();
+            serveInBackground(daemon);
+            final Properties properties = new Properties();
+            properties.setProperty(Daemon.PROP_PORT, Integer.toString(daemon.getPort()));
+            properties.setProperty(Daemon.PROP_TOKEN, "not the token");
+            try (OutputStream output = Files.newOutputStream(Daemon.getPropertiesFile(cacheDir).toPath())) {
+                properties.store(output, null);
+            }
+            final CapturingConsole console = new CapturingConsole();
+            assertEquals("expect general error", Optional.of(Command.EXIT_GENERAL_ERROR),
+                    new DaemonClient(cacheDir).perform(console, new String[]{"--version"}));
+            assertEquals("expect token error", Collections.singletonList("invalid daemon token"), console.err);
+        }
+        assertTrue("expect foreign properties file is retained", Daemon.getPropertiesFile(cacheDir).exists());
+    }
+
+    @Test
+    public void testHandle_invalidTokenRejectedFirst() throws Exception {
+        final File cacheDir = newCacheDir("testHandle_invalidTokenRejectedFirst");
+        try (Daemon daemon = new Daemon(cacheDir, 0)) {
+            daemon.start();
+            serveInBackground(daemon);
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+                socket.setSoTimeout(10000);
+                final DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                Daemon.writeString(output, "not the token");
+                // an unauthenticated client must not be able to make the daemon allocate for its request
+                output.writeInt(Integer.MAX_VALUE);
+                output.flush();
+                final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                assertEquals("expect stderr frame", Daemon.FRAME_STDERR, input.readByte());
+                assertEquals("expect token error", "invalid daemon token", Daemon.readString(input));
+                assertEquals("expect exit frame", Daemon.FRAME_EXIT, input.readByte());
+                assertEquals("expect general error", Command.EXIT_GENERAL_ERROR, Integer.valueOf(input.readInt()));
+                assertEquals("expect end of stream", -1, input.read());
+            }
+        }
+    }
+
+    @Test
+    public void testReadCount() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(3);
+        output.writeInt(-1);
+        output.writeInt(Daemon.MAX_ARG_COUNT + 1);
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("expect count", 3, Daemon.readCount(input, Daemon.MAX_ARG_COUNT));
+        for (int i = 0; i < 2; i++) {
+            try {
+                Daemon.readCount(input, Daemon.MAX_ARG_COUNT);
+                fail("expect IOException for invalid count");
+            } catch (final IOException e) {
+                assertTrue("expect message", e.getMessage().startsWith("invalid count"));
+            }
+        }
+    }
+
+    @Test
+    public void testPerform_noDaemon() throws Exception {
+        final File cacheDir = newCacheDir("testPerform_noDaemon");
+        final CapturingConsole console = new CapturingConsole();
+        assertEquals("expect no daemon", Optional.empty(),
+                new DaemonClient(cacheDir).perform(console, new String[]{"--version"}));
+
+        cacheDir.mkdirs();
+        final Properties properties = new Properties();
+        properties.setProperty(Daemon.PROP_PORT, "not a port");
+        properties.setProperty(Daemon.PROP_TOKEN, "token");
+        try (OutputStream output = Files.newOutputStream(Daemon.getPropertiesFile(cacheDir).toPath())) {
+            properties.store(output, null);
+        }
+        assertEquals("expect no daemon for invalid port", Optional.empty(),
+                new DaemonClient(cacheDir).perform(console, new String[]{"--version"}));
+
+        final CapturingConsole connectConsole = new CapturingConsole();
+        assertEquals("expect local fallback", Integer.valueOf(0),
+                new Command().perform(connectConsole,
+                        new String[]{"--connect", "-c", cacheDir.getPath(), "--version"}).get());
+        assertTrue("expect version line: " + connectConsole.out,
+                connectConsole.out.stream().anyMatch(line -> line.startsWith("OakPAL CLI")));
+    }
+}
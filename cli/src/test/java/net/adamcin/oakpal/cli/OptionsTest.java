@@ -3,6 +3,7 @@ package net.adamcin.oakpal.cli;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doCallRealMethod;
@@ -14,19 +15,29 @@ import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 
+import net.adamcin.oakpal.core.CheckProfile;
+import net.adamcin.oakpal.core.CheckReport;
 import net.adamcin.oakpal.core.InstallHookPolicy;
 import net.adamcin.oakpal.core.JavaxJson;
+import net.adamcin.oakpal.core.NodeStoreType;
 import net.adamcin.oakpal.core.OakpalPlan;
 import net.adamcin.oakpal.core.Result;
+import net.adamcin.oakpal.core.SimpleReport;
+import net.adamcin.oakpal.core.SimpleViolation;
 import net.adamcin.oakpal.core.Violation;
+import org.apache.jackrabbit.vault.packaging.PackageId;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -99,6 +110,36 @@ public class OptionsTest {
         }
     }
 
+    @Test
+    public void testOutFile_streamedReports() throws Exception {
+        final Console console = getMockConsole();
+        when(console.getCwd()).thenReturn(tempDir);
+        Options.Builder builder = new Options.Builder().setOutputJson(true);
+        final File outFile = new File(tempDir, "testOutFile_streamedReports.json");
+        builder.setOutFile(outFile);
+        final DisposablePrinter printer = new Main.DisposablePrinterImpl(new PrintWriter(outFile));
+
+        when(console.openPrinter(outFile)).thenReturn(Result.success(printer));
+        final List<CheckReport> reports = Arrays.asList(
+                new SimpleReport("some check", Collections.singletonList(new SimpleViolation(
+                        Violation.Severity.MAJOR, "some violation", PackageId.fromString("test:pack")))),
+                new SimpleReport("other check", Collections.emptyList()));
+        final List<CheckProfile> profiles = Collections.singletonList(
+                new CheckProfile("some check", Collections.emptyMap()));
+        final AllReportsMessage message = new AllReportsMessage(reports, profiles);
+        assertTrue("expect streamed json output", message.toJsonOutput() instanceof JsonOutput);
+        final Result<Options> options = builder.build(console);
+        options.stream().forEachOrdered(opts -> opts.getPrinter().apply(message).get());
+        printer.dispose();
+
+        try (Reader fileReader = new InputStreamReader(new FileInputStream(outFile), StandardCharsets.UTF_8);
+             JsonReader reader = Json.createReader(fileReader)) {
+            assertEquals("expect same json as toJson", message.toJson(), reader.readObject());
+        }
+        assertEquals("expect same json from toString", message.toJson(),
+                Json.createReader(new StringReader(message.toJsonOutput().toString())).readObject());
+    }
+
     @Test
     public void testOpearFile() {
         final Console console = getMockConsole();
@@ -149,4 +190,21 @@ public class OptionsTest {
         });
 
     }
+
+    @Test
+    public void testNodeStore() {
+        final Console console = getMockConsole();
+        when(console.getCwd()).thenReturn(tempDir);
+        final Result<Options> optionsResult = new Options.Builder()
+                .setNodeStore(NodeStoreType.SEGMENT).build(console);
+        assertFalse("options build is successful", optionsResult.getError().isPresent());
+        optionsResult.forEach(options -> {
+            assertSame("getNodeStore", NodeStoreType.SEGMENT, options.getNodeStore());
+            assertTrue("true hasOverrides", options.hasOverrides());
+            final OakpalPlan originalPlan = new OakpalPlan.Builder(null, null).build();
+            assertNull("no plan node store", originalPlan.getNodeStore());
+            assertSame("overridden node store",
+                    NodeStoreType.SEGMENT, options.applyOverrides(originalPlan).getNodeStore());
+        });
+    }
 }
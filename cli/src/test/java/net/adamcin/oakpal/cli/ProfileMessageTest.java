@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.cli;
+
+import net.adamcin.oakpal.core.CheckProfile;
+import net.adamcin.oakpal.core.ProgressCheck;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProfileMessageTest {
+
+    @Test
+    public void testConstruct() {
+        final Map<ProgressCheck.Event, CheckProfile.EventProfile> events = new EnumMap<>(ProgressCheck.Event.class);
+        events.put(ProgressCheck.Event.IMPORTED_PATH, new CheckProfile.EventProfile(2L, 3000000L, 2000000L, 4096L));
+        events.put(ProgressCheck.Event.AFTER_EXTRACT, new CheckProfile.EventProfile(1L, 500000L, 500000L, -1L));
+        final CheckProfile profile = new CheckProfile("check", events);
+        final ProfileMessage message = new ProfileMessage(profile);
+        assertEquals("same json", profile.toJson(), message.toJson());
+
+        final String expectedString = String.join(System.lineSeparator(),
+                String.format("profile: check (%.3f ms)", 3.5D),
+                String.format(" +- importedPath: count=2 total=%.3f ms max=%.3f ms allocated=4 KiB", 3.0D, 2.0D),
+                String.format(" +- afterExtract: count=1 total=%.3f ms max=%.3f ms", 0.5D, 0.5D));
+        assertEquals("same string", expectedString, message.toString());
+
+        final ProfileMessage scanMessage = new ProfileMessage(new CheckProfile("check",
+                new CheckProfile.EventProfile(1L, 1000000L, 1000000L, -1L), events,
+                new CheckProfile.EventProfile(1L, 500000L, 500000L, -1L)));
+        final String expectedScanString = String.join(System.lineSeparator(),
+                String.format("profile: check (%.3f ms)", 5.0D),
+                String.format(" +- startedScan: count=1 total=%.3f ms max=%.3f ms", 1.0D, 1.0D),
+                String.format(" +- importedPath: count=2 total=%.3f ms max=%.3f ms allocated=4 KiB", 3.0D, 2.0D),
+                String.format(" +- afterExtract: count=1 total=%.3f ms max=%.3f ms", 0.5D, 0.5D),
+                String.format(" +- finishedScan: count=1 total=%.3f ms max=%.3f ms", 0.5D, 0.5D));
+        assertEquals("same string with scan callbacks", expectedScanString, scanMessage.toString());
+        assertEquals("same string for no events", String.format("profile: check (%.3f ms)", 0.0D),
+                new ProfileMessage(new CheckProfile("check", Collections.emptyMap())).toString());
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A size-bounded directory of serialized post-init {@link NodeState}s, keyed by a fingerprint of everything that
+ * contributes to that state, so that a new JVM can load the result of the {@link InitStage}s and pre-install packages
+ * from disk instead of repeating them. Entries are written to a temp file and atomically moved into place, so
+ * concurrent processes sharing the same directory will only ever read complete entries. When the total size of the
+ * entries exceeds the configured maximum, the least-recently-used entries are deleted.
+ *
+ * @see OakMachine.Builder#withBaselineCache(BaselineCache)
+ */
+public final class BaselineCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BaselineCache.class);
+
+    /**
+     * The default maximum total size of cache entries, 1 GiB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+
+    /**
+     * Incremented whenever the serialization format changes, which also invalidates every existing cache key.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    static final String ENTRY_SUFFIX = ".baseline";
+    static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4F414B42;
+    private static final Pattern KEY_PATTERN = Pattern.compile("^[A-Za-z0-9_-]+$");
+
+    private final File cacheDir;
+    private final long maxBytes;
+
+    /**
+     * Create a baseline cache in the specified directory with the {@link #DEFAULT_MAX_BYTES} size limit.
+     *
+     * @param cacheDir the cache directory
+     */
+    public BaselineCache(final @NotNull File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a baseline cache in the specified directory.
+     *
+     * @param cacheDir the cache directory
+     * @param maxBytes the maximum total size of cache entries in bytes
+     */
+    public BaselineCache(final @NotNull File cacheDir, final long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    File getEntryFile(final @NotNull String key) {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("invalid baseline cache key: " + key);
+        }
+        return new File(cacheDir, key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Load the baseline entry for the key into the root of the provided node store, which is expected to be empty.
+     * The entry is marked as recently used. If the entry is unreadable, it is deleted and treated as a miss.
+     *
+     * @param key       the cache key
+     * @param nodeStore the node store to load the baseline into
+     * @return true if the baseline was loaded, or false if the key was missing
+     * @throws RepositoryException if the node store rejects the loaded state
+     */
+    public boolean load(final @NotNull String key, final @NotNull NodeStore nodeStore) throws RepositoryException {
+        final File entryFile = getEntryFile(key);
+        if (!entryFile.isFile()) {
+            return false;
+        }
+        final NodeBuilder rootBuilder = nodeStore.getRoot().builder();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)))) {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                throw new IOException("unrecognized baseline format");
+            }
+            final List<String> propertyNames = new ArrayList<>();
+            rootBuilder.getProperties().forEach(property -> propertyNames.add(property.getName()));
+            propertyNames.forEach(rootBuilder::removeProperty);
+            final List<String> childNames = new ArrayList<>();
+            rootBuilder.getChildNodeNames().forEach(childNames::add);
+            childNames.forEach(name -> rootBuilder.getChildNode(name).remove());
+            readNode(input, rootBuilder, nodeStore);
+            if (input.readInt() != MAGIC) {
+                throw new IOException("missing end of baseline marker");
+            }
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("[load] deleting unreadable baseline {}: {}", entryFile, e.getMessage());
+            entryFile.delete();
+            return false;
+        }
+        try {
+            nodeStore.merge(rootBuilder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        } catch (final CommitFailedException e) {
+            throw e.asRepositoryException();
+        }
+        entryFile.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Save the provided node state as the baseline entry for the key, replacing any existing entry, and then evict
+     * least-recently-used entries until the total size is within the limit.
+     *
+     * @param key       the cache key
+     * @param baseline  the post-init root state
+     * @throws IOException for I/O errors
+     */
+    public void save(final @NotNull String key, final @NotNull NodeState baseline) throws IOException {
+        final File entryFile = getEntryFile(key);
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("failed to create baseline cache directory " + cacheDir.getAbsolutePath());
+        }
+        final File tempFile = Files.createTempFile(cacheDir.toPath(), key, TEMP_SUFFIX).toFile();
+        try {
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                writeNode(output, baseline);
+                output.writeInt(MAGIC);
+            }
+            try {
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+        evict();
+    }
+
+    /**
+     * Delete entries in order of least-recent use until the total size of the remaining entries is within the limit.
+     */
+    void evict() {
+        final File[] entries = cacheDir.listFiles(file -> file.isFile() && file.getName().endsWith(ENTRY_SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparing(File::lastModified).reversed());
+        long total = 0L;
+        for (File entry : entries) {
+            total += entry.length();
+            if (total > maxBytes) {
+                LOGGER.debug("[evict] deleting baseline {}", entry);
+                total -= entry.length();
+                entry.delete();
+            }
+        }
+    }
+
+    /**
+     * Delete all entries and any temp files left behind by interrupted saves.
+     */
+    public void clear() {
+        final File[] files = cacheDir.listFiles(file -> file.isFile()
+                && (file.getName().endsWith(ENTRY_SUFFIX) || file.getName().endsWith(TEMP_SUFFIX)));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    static void writeNode(final @NotNull DataOutputStream output, final @NotNull NodeState node) throws IOException {
+        output.writeInt((int) node.getPropertyCount());
+        for (PropertyState property : node.getProperties()) {
+            writeProperty(output, property);
+        }
+        output.writeInt((int) node.getChildNodeCount(Integer.MAX_VALUE));
+        for (ChildNodeEntry child : node.getChildNodeEntries()) {
+            writeString(output, child.getName());
+            writeNode(output, child.getNodeState());
+        }
+    }
+
+    static void readNode(final @NotNull DataInputStream input,
+                         final @NotNull NodeBuilder builder,
+                         final @NotNull NodeStore nodeStore) throws IOException {
+        final int propertyCount = input.readInt();
+        for (int i = 0; i < propertyCount; i++) {
+            builder.setProperty(readProperty(input, nodeStore));
+        }
+        final int childCount = input.readInt();
+        for (int i = 0; i < childCount; i++) {
+            final String name = readString(input);
+            readNode(input, builder.setChildNode(name), nodeStore);
+        }
+    }
+
+    static void writeProperty(final @NotNull DataOutputStream output, final @NotNull PropertyState property)
+            throws IOException {
+        final Type<?> type = property.getType();
+        writeString(output, property.getName());
+        output.writeInt(type.tag());
+        output.writeBoolean(type.isArray());
+        final int count = property.count();
+        if (type.isArray()) {
+            output.writeInt(count);
+        }
+        for (int i = 0; i < count; i++) {
+            switch (type.tag()) {
+                case PropertyType.BINARY:
+                    final Blob blob = property.getValue(Type.BINARY, i);
+                    final long length = blob.length();
+                    output.writeLong(length);
+                    try (InputStream blobInput = blob.getNewStream()) {
+                        final byte[] buffer = new byte[8192];
+                        long remaining = length;
+                        while (remaining > 0) {
+                            final int read = blobInput.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                            if (read < 0) {
+                                throw new EOFException("blob stream ended before reported length " + length);
+                            }
+                            output.write(buffer, 0, read);
+                            remaining -= read;
+                        }
+                    }
+                    break;
+                case PropertyType.LONG:
+                    output.writeLong(property.getValue(Type.LONG, i));
+                    break;
+                case PropertyType.DOUBLE:
+                    output.writeDouble(property.getValue(Type.DOUBLE, i));
+                    break;
+                case PropertyType.BOOLEAN:
+                    output.writeBoolean(property.getValue(Type.BOOLEAN, i));
+                    break;
+                default:
+                    writeString(output, property.getValue(Type.STRING, i));
+                    break;
+            }
+        }
+    }
+
+    static PropertyState readProperty(final @NotNull DataInputStream input, final @NotNull NodeStore nodeStore)
+            throws IOException {
+        final String name = readString(input);
+        final int tag = input.readInt();
+        final boolean array = input.readBoolean();
+        final int count = array ? input.readInt() : 1;
+        final List<Object> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            switch (tag) {
+                case PropertyType.BINARY:
+                    final BoundedInputStream blobInput = new BoundedInputStream(input, input.readLong());
+                    values.add(nodeStore.createBlob(blobInput));
+                    blobInput.drain();
+                    break;
+                case PropertyType.LONG:
+                    values.add(input.readLong());
+                    break;
+                case PropertyType.DOUBLE:
+                    values.add(input.readDouble());
+                    break;
+                case PropertyType.BOOLEAN:
+                    values.add(input.readBoolean());
+                    break;
+                case PropertyType.DECIMAL:
+                    values.add(new BigDecimal(readString(input)));
+                    break;
+                default:
+                    values.add(readString(input));
+                    break;
+            }
+        }
+        final Type<?> type = Type.fromTag(tag, array);
+        return array
+                ? PropertyStates.createProperty(name, values, type)
+                : PropertyStates.createProperty(name, values.get(0), type);
+    }
+
+    /**
+     * {@link DataOutputStream#writeUTF(String)} is limited to 64k bytes, which is too small for some string properties.
+     */
+    static void writeString(final @NotNull DataOutputStream output, final @NotNull String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(final @NotNull DataInputStream input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("negative string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Limits a blob value to its serialized length, without closing the underlying entry stream.
+     */
+    static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(final @NotNull InputStream input, final long length) throws IOException {
+            super(input);
+            if (length < 0) {
+                throw new IOException("negative blob length " + length);
+            }
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int read = super.read();
+            if (read < 0) {
+                throw new EOFException();
+            }
+            remaining--;
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new EOFException();
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // leave the underlying stream open
+        }
+
+        void drain() throws IOException {
+            final byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // discard any bytes not consumed by createBlob
+            }
+        }
+    }
+}
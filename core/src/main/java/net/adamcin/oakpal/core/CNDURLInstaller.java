@@ -15,39 +15,31 @@
  */
 package net.adamcin.oakpal.core;
 
-import org.apache.jackrabbit.commons.cnd.CndImporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import javax.jcr.NamespaceRegistry;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.ValueFactory;
-import javax.jcr.Workspace;
-import javax.jcr.nodetype.NodeTypeManager;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 /**
- * Utility class for installation of CNDs by {@link URL}. Inspired by sling mocks.
+ * Utility class for installation of CNDs by {@link URL}. Inspired by sling mocks. CNDs are parsed through a
+ * {@link NodeTypeDefinitionCache}, and the node types of all CNDs in a list are registered together by a
+ * {@link NodeTypeRegistrar}, so that they can be declared in any order.
  */
 final class CNDURLInstaller {
 
-    private static final int MAX_ITERATIONS = 5;
-
     private final List<URL> unorderedCnds;
 
     private final List<URL> postInstallCnds;
 
     private final ErrorListener errorListener;
 
+    private final NodeTypeDefinitionCache nodeTypeCache;
+
     /**
      * Create a new installer. Finds MANIFEST.MF Sling-Nodetypes entries on construction.
      *
@@ -56,9 +48,17 @@ final class CNDURLInstaller {
     CNDURLInstaller(final @Nullable ErrorListener errorListener,
                     final @NotNull List<URL> unorderedCnds,
                     final @Nullable List<URL> postInstallCnds) {
+        this(errorListener, unorderedCnds, postInstallCnds, null);
+    }
+
+    CNDURLInstaller(final @Nullable ErrorListener errorListener,
+                    final @NotNull List<URL> unorderedCnds,
+                    final @Nullable List<URL> postInstallCnds,
+                    final @Nullable NodeTypeDefinitionCache nodeTypeCache) {
         this.errorListener = errorListener != null ? errorListener : new DefaultErrorListener();
         this.unorderedCnds = new ArrayList<>(unorderedCnds);
         this.postInstallCnds = postInstallCnds != null ? new ArrayList<>(postInstallCnds) : Collections.emptyList();
+        this.nodeTypeCache = nodeTypeCache != null ? nodeTypeCache : NodeTypeDefinitionCache.getDefault();
     }
 
     /**
@@ -67,128 +67,47 @@ final class CNDURLInstaller {
      * @param session Session
      */
     public void register(Session session) throws RepositoryException {
-        register(session, unorderedCnds);
-        registerByUrl(session, postInstallCnds);
+        final NodeTypeRegistrar registrar = newRegistrar();
+        addTo(registrar, session);
+        registrar.register(session);
     }
 
     /**
-     * Registers node types found in classpath in JCR repository.
+     * Add the CNDs to a registrar shared with other sources, to be registered together with them.
      *
-     * @param session           Session
-     * @param nodeTypeResources List of classpath resource URLs pointing to node type definitions
-     * @return map of resulting node type errors
+     * @param registrar the registrar
+     * @param session   the admin session
      */
-    public void register(Session session, List<URL> nodeTypeResources) throws RepositoryException {
-        registerNodeTypes(session, nodeTypeResources);
+    void addTo(final @NotNull NodeTypeRegistrar registrar, final @NotNull Session session) {
+        registrar.addCnds(session, unorderedCnds);
+        registrar.addCnds(session, postInstallCnds);
     }
 
     /**
      * Registers node types found in classpath in JCR repository.
      *
-     * @param session      Session
-     * @param nodeTypeUrls List of classpath resource URLs pointing to node type definitions
-     * @return map of resulting node type errors
+     * @param session           Session
+     * @param nodeTypeResources List of classpath resource URLs pointing to node type definitions
      */
-    public void registerByUrl(Session session, List<URL> nodeTypeUrls) throws RepositoryException {
-        registerNodeTypesByUrl(session, nodeTypeUrls);
+    public void register(Session session, List<URL> nodeTypeResources) throws RepositoryException {
+        final NodeTypeRegistrar registrar = newRegistrar();
+        registrar.addCnds(session, nodeTypeResources);
+        registrar.register(session);
     }
 
     /**
-     * Registers node types found in classpath in JCR repository.
+     * Registers node types found in classpath in JCR repository, one URL at a time.
      *
      * @param session      Session
      * @param nodeTypeUrls List of classpath resource URLs pointing to node type definitions
      */
-    private void registerNodeTypesByUrl(Session session, List<URL> nodeTypeUrls) throws RepositoryException {
-        final Workspace workspace = session.getWorkspace();
-        final NodeTypeManager nodeTypeManager = workspace.getNodeTypeManager();
-        final NamespaceRegistry namespaceRegistry = workspace.getNamespaceRegistry();
-        final ValueFactory valueFactory = session.getValueFactory();
-
+    public void registerByUrl(Session session, List<URL> nodeTypeUrls) throws RepositoryException {
         for (URL nodeTypeUrl : nodeTypeUrls) {
-            try {
-                this.registerNodeTypesFromUrl(nodeTypeUrl, nodeTypeManager, namespaceRegistry, valueFactory);
-            } catch (Throwable t) {
-                errorListener.onNodeTypeRegistrationError(t, nodeTypeUrl);
-            }
+            register(session, Collections.singletonList(nodeTypeUrl));
         }
     }
 
-    /**
-     * Registers node types found in classpath in JCR repository.
-     *
-     * @param session           Session
-     * @param nodeTypeResources List of classpath resource URLs pointing to node type definitions
-     */
-    private void registerNodeTypes(Session session, List<URL> nodeTypeResources) throws RepositoryException {
-        Workspace workspace = session.getWorkspace();
-        NodeTypeManager nodeTypeManager = workspace.getNodeTypeManager();
-        NamespaceRegistry namespaceRegistry = workspace.getNamespaceRegistry();
-        ValueFactory valueFactory = session.getValueFactory();
-
-        final List<URL> remainingNodeTypeResources = new ArrayList<>(nodeTypeResources);
-
-        // try registering node types multiple times because the exact order is not known
-        int iteration = 0;
-        while (!remainingNodeTypeResources.isEmpty()) {
-            iteration++;
-            if (iteration > MAX_ITERATIONS) {
-                break;
-            } else if (iteration == MAX_ITERATIONS) {
-                tryRegisterNodeTypes(remainingNodeTypeResources, nodeTypeManager,
-                        namespaceRegistry, valueFactory, true);
-            } else {
-                tryRegisterNodeTypes(remainingNodeTypeResources, nodeTypeManager,
-                        namespaceRegistry, valueFactory, false);
-            }
-        }
-    }
-
-    /**
-     * Register node types found in classpath in JCR repository, and remove those that succeeded to register from the list.
-     *
-     * @param nodeTypeResources List of nodetype classpath resources
-     * @param nodeTypeManager   the node type manager
-     * @param namespaceRegistry the namespace registry
-     * @param valueFactory      the value factory
-     */
-    private void tryRegisterNodeTypes(final List<URL> nodeTypeResources,
-                                      final NodeTypeManager nodeTypeManager,
-                                      final NamespaceRegistry namespaceRegistry,
-                                      final ValueFactory valueFactory,
-                                      final boolean logErrors) {
-        Iterator<URL> namedResources = nodeTypeResources.iterator();
-        while (namedResources.hasNext()) {
-            final URL namedResource = namedResources.next();
-            try {
-                registerNodeTypesFromUrl(namedResource, nodeTypeManager, namespaceRegistry, valueFactory);
-                namedResources.remove();
-            } catch (Throwable ex) {
-                if (logErrors) {
-                    errorListener.onNodeTypeRegistrationError(ex, namedResource);
-                }
-            }
-        }
-    }
-
-    /**
-     * Do the registration of a particular cnd URL.
-     *
-     * @param namedResource     the CND URL
-     * @param nodeTypeManager   the node type manager
-     * @param namespaceRegistry the namespace registry
-     * @param valueFactory      the value factory
-     * @throws Throwable if an error occurs
-     */
-    private void registerNodeTypesFromUrl(final URL namedResource,
-                                          final NodeTypeManager nodeTypeManager,
-                                          final NamespaceRegistry namespaceRegistry,
-                                          final ValueFactory valueFactory) throws Throwable {
-        try (InputStream is = namedResource.openStream()) {
-            Reader reader = new InputStreamReader(is);
-            CndImporter.registerNodeTypes(reader, namedResource.toExternalForm(), nodeTypeManager, namespaceRegistry,
-                    valueFactory, false);
-        }
+    private NodeTypeRegistrar newRegistrar() {
+        return new NodeTypeRegistrar(errorListener, nodeTypeCache);
     }
 }
-
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.json.JsonObject;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static net.adamcin.oakpal.core.JavaxJson.key;
+import static net.adamcin.oakpal.core.JavaxJson.obj;
+
+/**
+ * Timing and allocation statistics recorded for a {@link ProgressCheck} during a scan, per {@link ProgressCheck.Event},
+ * as well as for the {@link ProgressCheck#startedScan()} and {@link ProgressCheck#finishedScan()} callbacks.
+ *
+ * @see OakMachine.Builder#withProfiling(boolean)
+ */
+public final class CheckProfile implements JavaxJson.ObjectConvertible {
+    public static final String KEY_CHECK_NAME = "checkName";
+    public static final String KEY_EVENTS = "events";
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_TOTAL_NANOS = "totalNanos";
+    public static final String KEY_MAX_NANOS = "maxNanos";
+    public static final String KEY_ALLOCATED_BYTES = "allocatedBytes";
+    public static final String KEY_STARTED_SCAN = "startedScan";
+    public static final String KEY_FINISHED_SCAN = "finishedScan";
+
+    private final String checkName;
+    private final EventProfile startedScan;
+    private final Map<ProgressCheck.Event, EventProfile> events;
+    private final EventProfile finishedScan;
+
+    public CheckProfile(final String checkName, final @NotNull Map<ProgressCheck.Event, EventProfile> events) {
+        this(checkName, null, events, null);
+    }
+
+    public CheckProfile(final String checkName,
+                        final @Nullable EventProfile startedScan,
+                        final @NotNull Map<ProgressCheck.Event, EventProfile> events,
+                        final @Nullable EventProfile finishedScan) {
+        this.checkName = checkName;
+        this.startedScan = startedScan;
+        final Map<ProgressCheck.Event, EventProfile> copy = new EnumMap<>(ProgressCheck.Event.class);
+        copy.putAll(events);
+        this.events = Collections.unmodifiableMap(copy);
+        this.finishedScan = finishedScan;
+    }
+
+    /**
+     * The check name.
+     *
+     * @return the check name
+     */
+    public String getCheckName() {
+        return checkName;
+    }
+
+    /**
+     * The statistics for the {@link ProgressCheck#startedScan()} call, if it was received.
+     *
+     * @return the startedScan statistics or null
+     */
+    public @Nullable EventProfile getStartedScan() {
+        return startedScan;
+    }
+
+    /**
+     * The statistics for each event that the check received at least once.
+     *
+     * @return the event statistics
+     */
+    public Map<ProgressCheck.Event, EventProfile> getEvents() {
+        return events;
+    }
+
+    /**
+     * The statistics for the {@link ProgressCheck#finishedScan()} call, if it was received.
+     *
+     * @return the finishedScan statistics or null
+     */
+    public @Nullable EventProfile getFinishedScan() {
+        return finishedScan;
+    }
+
+    /**
+     * The wall time spent in the check, summed over all events, including the startedScan and finishedScan calls.
+     *
+     * @return the total wall time in nanoseconds
+     */
+    public long getTotalNanos() {
+        return (startedScan != null ? startedScan.getTotalNanos() : 0L)
+                + events.values().stream().mapToLong(EventProfile::getTotalNanos).sum()
+                + (finishedScan != null ? finishedScan.getTotalNanos() : 0L);
+    }
+
+    @Override
+    public JsonObject toJson() {
+        final Map<String, JsonObject> eventsJson = new LinkedHashMap<>();
+        if (startedScan != null) {
+            eventsJson.put(KEY_STARTED_SCAN, startedScan.toJson());
+        }
+        events.forEach((event, profile) -> eventsJson.put(event.getMethodName(), profile.toJson()));
+        if (finishedScan != null) {
+            eventsJson.put(KEY_FINISHED_SCAN, finishedScan.toJson());
+        }
+        return obj()
+                .key(KEY_CHECK_NAME).opt(checkName)
+                .key(KEY_EVENTS, obj(eventsJson))
+                .get();
+    }
+
+    @Override
+    public String toString() {
+        return "CheckProfile{" +
+                "checkName='" + checkName + '\'' +
+                ", startedScan=" + startedScan +
+                ", events=" + events +
+                ", finishedScan=" + finishedScan +
+                '}';
+    }
+
+    /**
+     * The statistics recorded for one event type.
+     */
+    public static final class EventProfile implements JavaxJson.ObjectConvertible {
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long allocatedBytes;
+
+        public EventProfile(final long count, final long totalNanos, final long maxNanos, final long allocatedBytes) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * The number of calls.
+         *
+         * @return the number of calls
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * The cumulative wall time of all calls.
+         *
+         * @return the cumulative wall time in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * The wall time of the slowest call.
+         *
+         * @return the maximum wall time in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * The bytes allocated by the scan thread during all calls, or -1 if the JVM does not support measuring thread
+         * allocation.
+         *
+         * @return the allocated bytes, or -1
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public JsonObject toJson() {
+            return obj(key(KEY_COUNT, count),
+                    key(KEY_TOTAL_NANOS, totalNanos),
+                    key(KEY_MAX_NANOS, maxNanos),
+                    key(KEY_ALLOCATED_BYTES, allocatedBytes)).get();
+        }
+
+        @Override
+        public String toString() {
+            return "EventProfile{" +
+                    "count=" + count +
+                    ", totalNanos=" + totalNanos +
+                    ", maxNanos=" + maxNanos +
+                    ", allocatedBytes=" + allocatedBytes +
+                    '}';
+        }
+    }
+}
@@ -338,8 +338,7 @@ public final class Checklist implements JavaxJson.ObjectConvertible {
         });
         optObject(json, KEY_JCR_NODETYPES).ifPresent(jsonObject -> {
             builder.withJcrNodetypes(
-                    JsonCnd.getQTypesFromJson(jsonObject,
-                            JsonCnd.toNamespaceMapping(jcrNsList)));
+                    NodeTypeDefinitionCache.getDefault().getQTypesFromJson(jsonObject, jcrNsList));
         });
         if (json.containsKey(KEY_JCR_PRIVILEGES)) {
             builder.withJcrPrivileges(
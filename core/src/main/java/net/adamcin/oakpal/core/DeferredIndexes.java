@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.oak.plugins.index.IndexConstants;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Suspends maintenance of the synchronous property indexes under {@code /oak:index} that are neither unique nor
+ * restricted to declaring node types, such as the {@code nodetype} index, so that saves during package extraction do
+ * not pay for index updates that only serve queries. A suspended index is disabled rather than left stale, so any query
+ * executed before {@link #rebuild()} still returns correct results by traversal. {@link #rebuild()} re-enables the
+ * suspended indexes with a reindex in a separate admin session, and refreshes the scan session, so that subsequent
+ * queries use them.
+ *
+ * @see OakMachine.Builder#withDeferIndexes(boolean)
+ */
+final class DeferredIndexes {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeferredIndexes.class);
+
+    private final Session admin;
+    private final Fun.ThrowingSupplier<Session> rebuildLogin;
+    private final List<String> suspendedPaths;
+
+    private DeferredIndexes(final @NotNull Session admin,
+                            final @NotNull Fun.ThrowingSupplier<Session> rebuildLogin,
+                            final @NotNull List<String> suspendedPaths) {
+        this.admin = admin;
+        this.rebuildLogin = rebuildLogin;
+        this.suspendedPaths = suspendedPaths;
+    }
+
+    /**
+     * Disable the eligible index definitions and save the admin session.
+     *
+     * @param admin        the admin session of the scan
+     * @param rebuildLogin a function to login a separate admin session for the rebuild
+     * @return the suspended indexes
+     * @throws RepositoryException for repository errors
+     */
+    static DeferredIndexes suspend(final @NotNull Session admin,
+                                   final @NotNull Fun.ThrowingSupplier<Session> rebuildLogin)
+            throws RepositoryException {
+        final List<String> suspendedPaths = new ArrayList<>();
+        final String indexRoot = "/" + IndexConstants.INDEX_DEFINITIONS_NAME;
+        if (admin.nodeExists(indexRoot)) {
+            for (NodeIterator definitions = admin.getNode(indexRoot).getNodes(); definitions.hasNext(); ) {
+                final Node definition = definitions.nextNode();
+                if (isDeferrable(definition)) {
+                    definition.setProperty(IndexConstants.TYPE_PROPERTY_NAME, IndexConstants.TYPE_DISABLED);
+                    suspendedPaths.add(definition.getPath());
+                }
+            }
+            admin.save();
+        }
+        return new DeferredIndexes(admin, rebuildLogin, suspendedPaths);
+    }
+
+    static boolean isDeferrable(final @NotNull Node definition) throws RepositoryException {
+        if (!definition.hasProperty(IndexConstants.TYPE_PROPERTY_NAME)
+                || definition.hasProperty(IndexConstants.ASYNC_PROPERTY_NAME)
+                || definition.hasProperty(IndexConstants.DECLARING_NODE_TYPES)) {
+            return false;
+        }
+        final boolean unique = definition.hasProperty(IndexConstants.UNIQUE_PROPERTY_NAME)
+                && definition.getProperty(IndexConstants.UNIQUE_PROPERTY_NAME).getBoolean();
+        return !unique && PropertyIndexEditorProvider.TYPE
+                .equals(definition.getProperty(IndexConstants.TYPE_PROPERTY_NAME).getString());
+    }
+
+    List<String> getSuspendedPaths() {
+        return Collections.unmodifiableList(suspendedPaths);
+    }
+
+    /**
+     * Re-enable and reindex the suspended indexes on first call. Subsequent calls have no effect.
+     *
+     * @throws RepositoryException for repository errors
+     */
+    synchronized void rebuild() throws RepositoryException {
+        if (suspendedPaths.isEmpty()) {
+            return;
+        }
+        LOGGER.debug("[rebuild] rebuilding deferred indexes {}", suspendedPaths);
+        final Session rebuildSession;
+        try {
+            rebuildSession = rebuildLogin.tryGet();
+        } catch (final RepositoryException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new RepositoryException(e);
+        }
+        try {
+            for (String path : suspendedPaths) {
+                final Node definition = rebuildSession.getNode(path);
+                definition.setProperty(IndexConstants.TYPE_PROPERTY_NAME, PropertyIndexEditorProvider.TYPE);
+                definition.setProperty(IndexConstants.REINDEX_PROPERTY_NAME, true);
+            }
+            rebuildSession.save();
+        } finally {
+            rebuildSession.logout();
+        }
+        suspendedPaths.clear();
+        admin.refresh(true);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 helpers shared by the caches and blob stores that key their entries by content digest.
+ */
+final class Digests {
+    private static final int BUFFER_SIZE = 8192;
+
+    private Digests() {
+        /* no construction */
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Update the digest with a length-prefixed string, so that consecutive values can't run together, or a marker
+     * byte for null.
+     *
+     * @param digest the digest to update
+     * @param value  the string value, or null
+     */
+    static void digestString(final @NotNull MessageDigest digest, final String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+        } else {
+            digest.update((byte) 1);
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        }
+    }
+
+    /**
+     * Update the digest with the external form of the url followed by its content.
+     *
+     * @param digest the digest to update
+     * @param url    the url
+     * @throws IOException if the url can't be read
+     */
+    static void digestUrl(final @NotNull MessageDigest digest, final @NotNull URL url) throws IOException {
+        digestString(digest, url.toExternalForm());
+        try (InputStream input = url.openStream()) {
+            digestStream(digest, input);
+        }
+    }
+
+    /**
+     * Update the digest with the remaining content of the stream, without closing it.
+     *
+     * @param digest the digest to update
+     * @param input  the input stream
+     * @return the number of bytes read
+     * @throws IOException if the stream can't be read
+     */
+    static long digestStream(final @NotNull MessageDigest digest, final @NotNull InputStream input) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long length = 0L;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Compute the hex-encoded SHA-256 digest of a file.
+     *
+     * @param file the file
+     * @return a hex-encoded SHA-256 digest
+     * @throws IOException if the file cannot be read
+     */
+    static String digestFile(final @NotNull File file) throws IOException {
+        final MessageDigest digest = newDigest();
+        try (InputStream input = new FileInputStream(file)) {
+            digestStream(digest, input);
+        }
+        return toHex(digest.digest());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on a cache directory shared by concurrent processes, held with a {@link FileLock} on a lock file in
+ * the directory.
+ */
+final class DirectoryLock {
+    static final String LOCK_FILE = ".lock";
+
+    /**
+     * {@link FileChannel#lock()} throws when the lock file is already locked by another thread of the same JVM, so
+     * threads take this lock first.
+     */
+    private static final ReentrantLock JVM_LOCK = new ReentrantLock();
+
+    private DirectoryLock() {
+        /* no construction */
+    }
+
+    @FunctionalInterface
+    interface LockedAction<T> {
+        T perform() throws IOException;
+    }
+
+    /**
+     * Perform the action while holding the lock on the directory, which is created if necessary.
+     *
+     * @param directory the cache directory
+     * @param action    the action to perform
+     * @param <T>       the action result type
+     * @return the action result
+     * @throws IOException if the directory can't be created or locked, or if the action throws
+     */
+    static <T> T withLock(final @NotNull File directory, final @NotNull LockedAction<T> action) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("failed to create cache directory " + directory.getAbsolutePath());
+        }
+        JVM_LOCK.lock();
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+             FileLock ignored = lockFile.getChannel().lock()) {
+            return action.perform();
+        } finally {
+            JVM_LOCK.unlock();
+        }
+    }
+}
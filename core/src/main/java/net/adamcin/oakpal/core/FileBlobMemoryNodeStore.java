@@ -18,29 +18,63 @@ package net.adamcin.oakpal.core;
 
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.plugins.blob.BlobStoreBlob;
+import org.apache.jackrabbit.oak.plugins.memory.ArrayBasedBlob;
 import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
-import org.apache.jackrabbit.oak.spi.blob.FileBlobStore;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.apache.jackrabbit.oak.spi.state.ProxyNodeStore;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
 
 /**
- * A {@link MemoryNodeStore} that offloads binaries to a {@link FileBlobStore}. This is more memory-efficient for
- * production scans than a {@link MemoryNodeStore} by itself.
+ * A {@link MemoryNodeStore} that offloads binaries to a {@link SharedBlobStore}. This is more memory-efficient for
+ * production scans than a {@link MemoryNodeStore} by itself, and identical binaries are stored only once across scans.
+ *
+ * Binaries smaller than {@link #INLINE_MAX_BYTES} are kept in memory, as they would be inlined in the blob id by an Oak
+ * {@code AbstractBlobStore}.
  *
  * If the size of the tree, excluding binaries, is likely to consume all heap, consider upgrading to a SegmentNodeStore.
+ *
+ * Closing the node store closes the {@link SharedBlobStore}, which releases its blob references for garbage collection.
  */
-public class FileBlobMemoryNodeStore extends ProxyNodeStore {
+public class FileBlobMemoryNodeStore extends ProxyNodeStore implements Closeable {
+    static final int INLINE_MAX_BYTES = 4094;
 
     private final MemoryNodeStore nodeStore;
-    private final FileBlobStore blobStore;
+    private final SharedBlobStore blobStore;
 
     public FileBlobMemoryNodeStore(final @NotNull String blobStorePath) {
-        this.nodeStore = new MemoryNodeStore();
-        this.blobStore = new FileBlobStore(blobStorePath);
+        this(new SharedBlobStore(new File(blobStorePath)));
+    }
+
+    public FileBlobMemoryNodeStore(final @NotNull SharedBlobStore blobStore) {
+        this(blobStore, null);
+    }
+
+    /**
+     * Create a node store over a copy of a root state, such as a post-init state, which may reference blobs of another
+     * {@link SharedBlobStore} in the same directory.
+     *
+     * @param blobStore the blob store for new binaries
+     * @param base      the initial root state, or null for an empty root
+     */
+    public FileBlobMemoryNodeStore(final @NotNull SharedBlobStore blobStore, final @Nullable NodeState base) {
+        this.nodeStore = base != null ? new MemoryNodeStore(base) : new MemoryNodeStore();
+        this.blobStore = blobStore;
+        // created eagerly, like an Oak FileBlobStore
+        blobStore.getStoreDir().mkdirs();
+    }
+
+    public SharedBlobStore getBlobStore() {
+        return blobStore;
     }
 
     @Override
@@ -48,8 +82,24 @@ public class FileBlobMemoryNodeStore extends ProxyNodeStore {
         return nodeStore;
     }
 
+    @Override
+    public void close() {
+        blobStore.close();
+    }
+
     @Override
     public @NotNull Blob createBlob(final @NotNull InputStream inputStream) throws IOException {
-        return new BlobStoreBlob(this.blobStore, this.blobStore.writeBlob(inputStream));
+        final byte[] head = new byte[INLINE_MAX_BYTES];
+        int length = 0;
+        int read;
+        while (length < head.length && (read = inputStream.read(head, length, head.length - length)) != -1) {
+            length += read;
+        }
+        if (length < head.length) {
+            inputStream.close();
+            return new ArrayBasedBlob(Arrays.copyOf(head, length));
+        }
+        return new BlobStoreBlob(this.blobStore, this.blobStore.writeBlob(
+                new SequenceInputStream(new ByteArrayInputStream(head), inputStream)));
     }
 }
@@ -24,7 +24,7 @@ import org.apache.jackrabbit.spi.QNodeTypeDefinition;
 import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
-import org.apache.jackrabbit.spi.commons.nodetype.NodeTypeDefinitionFactory;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.apache.jackrabbit.spi.commons.privilege.PrivilegeDefinitionImpl;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -33,8 +33,9 @@ import javax.jcr.NamespaceRegistry;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.nodetype.NodeTypeDefinition;
+import java.io.IOException;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -50,6 +51,8 @@ import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import static net.adamcin.oakpal.core.Digests.digestString;
+import static net.adamcin.oakpal.core.Digests.digestUrl;
 import static net.adamcin.oakpal.core.Fun.compose;
 import static net.adamcin.oakpal.core.Fun.mapEntry;
 import static net.adamcin.oakpal.core.Fun.onEntry;
@@ -309,17 +312,92 @@ public final class InitStage {
         }
     }
 
+    /**
+     * Update the digest with everything that contributes to the repository state produced by
+     * {@link #initSession(Session, ErrorListener)}, including the contents of the CND URLs.
+     *
+     * @param digest the digest to update
+     * @throws IOException if a CND URL cannot be read
+     * @see BaselineCache
+     */
+    void updateDigest(final @NotNull MessageDigest digest) throws IOException {
+        digestString(digest, "unorderedCndUrls");
+        for (URL url : unorderedCndUrls) {
+            digestUrl(digest, url);
+        }
+        digestString(digest, "orderedCndUrls");
+        for (URL url : orderedCndUrls) {
+            digestUrl(digest, url);
+        }
+        // qualified names are written with the namespace uri in place of the prefix
+        final NamePathResolver expandedResolver = new DefaultNamePathResolver(new NamespaceResolver() {
+            @Override
+            public String getURI(final String prefix) {
+                return prefix;
+            }
+
+            @Override
+            public String getPrefix(final String uri) {
+                return uri;
+            }
+        });
+        digestString(digest, "qNodeTypes");
+        for (QNodeTypeDefinition def : qNodeTypes) {
+            digestString(digest, def.getName().toString());
+            digestString(digest, JsonCnd.NodeTypeDefinitionKey.writeAllJson(def, expandedResolver).toString());
+        }
+        digestString(digest, "namespaces");
+        namespaces.forEach((uri, prefix) -> {
+            digestString(digest, uri);
+            digestString(digest, prefix);
+        });
+        digestString(digest, "privilegeNames");
+        privilegeNames.stream().sorted().forEachOrdered(name -> digestString(digest, name));
+        digestString(digest, "privileges");
+        privileges.stream()
+                .sorted(Comparator.comparing(def -> def.getName().toString()))
+                .forEachOrdered(def -> {
+                    digestString(digest, def.getName().toString());
+                    digestString(digest, Boolean.toString(def.isAbstract()));
+                    def.getDeclaredAggregateNames().stream().map(Object::toString).sorted()
+                            .forEachOrdered(name -> digestString(digest, name));
+                });
+        digestString(digest, "forcedRoots");
+        forcedRoots.values().forEach(root -> digestString(digest, root.toString()));
+    }
+
     void initSession(final Session admin, final ErrorListener errorListener) throws RepositoryException {
-        final CNDURLInstaller cndInstaller = new CNDURLInstaller(errorListener,
-                this.unorderedCndUrls, this.orderedCndUrls);
+        initSession(admin, errorListener, null);
+    }
 
-        cndInstaller.register(admin);
+    void initSession(final Session admin, final ErrorListener errorListener,
+                     final @Nullable NodeTypeDefinitionCache nodeTypeDefinitionCache) throws RepositoryException {
+        final NodeTypeRegistrar registrar = new NodeTypeRegistrar(errorListener, nodeTypeDefinitionCache);
+        initNodeTypes(admin, errorListener, registrar, nodeTypeDefinitionCache);
+        registrar.register(admin);
+        initPrivilegesAndRoots(admin, errorListener);
+    }
 
-        final NamespaceRegistry registry = admin.getWorkspace().getNamespaceRegistry();
+    /**
+     * Register the namespaces of this stage, and add its CNDs and node types to a registrar, which may be shared with
+     * other stages, so that node types can depend on those of later stages. The caller must call
+     * {@link NodeTypeRegistrar#register(Session)} before {@link #initPrivilegesAndRoots(Session, ErrorListener)}.
+     *
+     * @param admin                   the admin session
+     * @param errorListener           the error listener
+     * @param registrar               the node type registrar
+     * @param nodeTypeDefinitionCache the cache of parsed CNDs
+     */
+    void initNodeTypes(final Session admin, final ErrorListener errorListener,
+                       final @NotNull NodeTypeRegistrar registrar,
+                       final @Nullable NodeTypeDefinitionCache nodeTypeDefinitionCache) {
+        new CNDURLInstaller(errorListener, this.unorderedCndUrls, this.orderedCndUrls, nodeTypeDefinitionCache)
+                .addTo(registrar, admin);
 
         // uri to prefix !!
         namespaces.entrySet().stream().forEachOrdered(onEntry((uri, prefix) -> {
             try {
+                final NamespaceRegistry registry = admin.getWorkspace().getNamespaceRegistry();
                 if (Arrays.asList(registry.getURIs()).contains(uri)) {
                     admin.setNamespacePrefix(prefix, uri);
                 } else {
@@ -330,19 +408,17 @@ public final class InitStage {
             }
         }));
 
-        if (!qNodeTypes.isEmpty()) {
-            try {
-                NodeTypeDefinitionFactory fac = new NodeTypeDefinitionFactory(admin);
-                List<NodeTypeDefinition> nodeTypes = fac.create(qNodeTypes);
-
-                admin.getWorkspace().getNodeTypeManager()
-                        .registerNodeTypes(nodeTypes.toArray(new NodeTypeDefinition[0]), true);
-            } catch (final RepositoryException e) {
-                // TODO should an init stage also carry an optional source URL for this kind of thing?
-                errorListener.onNodeTypeRegistrationError(e, null);
-            }
-        }
+        registrar.addQNodeTypes(qNodeTypes);
+    }
 
+    /**
+     * Register the privileges of this stage and create its forced roots.
+     *
+     * @param admin         the admin session
+     * @param errorListener the error listener
+     * @throws RepositoryException for unhandled repository errors
+     */
+    void initPrivilegesAndRoots(final Session admin, final ErrorListener errorListener) throws RepositoryException {
         if (!privilegeNames.isEmpty()) {
             if (admin.getWorkspace() instanceof JackrabbitWorkspace) {
                 PrivilegeManager pm = ((JackrabbitWorkspace) admin.getWorkspace()).getPrivilegeManager();
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+import static net.adamcin.oakpal.core.Fun.result1;
+import static net.adamcin.oakpal.core.Fun.zipKeysWithValueFunc;
+import static net.adamcin.oakpal.core.JavaxJson.hasNonNull;
+
+/**
+ * Index of the META-INF/MANIFEST.MF files of classpath elements, used to discover checklists and Sling-Nodetypes
+ * without reading every manifest on every run. Each jar, and each manifest file of a directory, is indexed by its
+ * absolute path, size, and last modified time, and is only read again when one of them changes. Manifest header values
+ * and the resources looked up in each jar are remembered with the indexed manifest. Classpath elements are read in
+ * parallel.
+ * <p>
+ * The {@link #getDefault()} index is shared by {@link ChecklistPlanner}, {@link SlingNodetypesScanner}, and
+ * {@link Util#mapManifestHeaderResources(String, ClassLoader)}, and lasts for the life of the JVM. An index can be
+ * {@link #save(File) saved} to an index file in a cache directory and {@link #load(File) loaded} by a later process,
+ * so that the manifests of unchanged jars are not read again when a new JVM starts. The index file is written to a
+ * temp file and atomically moved into place, and only keeps the {@link #DEFAULT_MAX_ENTRIES} most recently used
+ * entries of files that are unchanged when it is saved.
+ */
+public final class ManifestIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManifestIndex.class);
+
+    /**
+     * The maximum number of entries written to an index file.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Incremented whenever the index file format changes, which also invalidates every existing index file.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    static final String TEMP_SUFFIX = ".tmp";
+    static final String KEY_VERSION = "version";
+    static final String KEY_ENTRIES = "entries";
+    static final String KEY_LENGTH = "length";
+    static final String KEY_LAST_MODIFIED = "lastModified";
+    static final String KEY_MANIFEST = "manifest";
+    static final String KEY_RESOURCES = "resources";
+
+    private static final ManifestIndex DEFAULT = new ManifestIndex();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Set whenever a manifest is read or a jar resource is looked up, so that an unchanged index is not saved again.
+     */
+    private final AtomicBoolean modified = new AtomicBoolean(false);
+
+    /**
+     * Get the process-wide index.
+     *
+     * @return the default index
+     */
+    public static ManifestIndex getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * An indexed manifest, valid as long as the size and last modified time of its file are unchanged.
+     */
+    static final class Entry {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final Manifest manifest;
+        private final Map<String, List<String>> headerValues = new ConcurrentHashMap<>();
+        private final Map<String, Boolean> resources = new ConcurrentHashMap<>();
+        private final AtomicBoolean modified;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        Entry(final @NotNull File file, final long length, final long lastModified, final @Nullable Manifest manifest) {
+            this(file, length, lastModified, manifest, new AtomicBoolean(false));
+        }
+
+        Entry(final @NotNull File file, final long length, final long lastModified, final @Nullable Manifest manifest,
+              final @NotNull AtomicBoolean modified) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.manifest = manifest;
+            this.modified = modified;
+        }
+
+        boolean isCurrent(final @NotNull File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+
+        List<String> getHeaderValues(final @NotNull String headerName) {
+            if (manifest == null) {
+                return Collections.emptyList();
+            }
+            return headerValues.computeIfAbsent(headerName, name ->
+                    Collections.unmodifiableList(Util.getManifestHeaderValues(manifest, name)));
+        }
+
+        boolean hasJarResource(final @NotNull String name) throws IOException {
+            final Boolean cached = resources.get(name);
+            if (cached != null) {
+                return cached;
+            }
+            try (JarFile jar = new JarFile(file)) {
+                final boolean exists = jar.getEntry(name) != null;
+                resources.put(name, exists);
+                modified.set(true);
+                return exists;
+            }
+        }
+
+        JsonObject toJson() throws IOException {
+            final JavaxJson.Obj json = JavaxJson.obj()
+                    .key(KEY_LENGTH, length)
+                    .key(KEY_LAST_MODIFIED, lastModified);
+            if (manifest != null) {
+                final ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+                manifest.write(manifestBytes);
+                json.key(KEY_MANIFEST, new String(manifestBytes.toByteArray(), StandardCharsets.UTF_8));
+            }
+            if (!resources.isEmpty()) {
+                json.key(KEY_RESOURCES, JavaxJson.obj(new TreeMap<>(resources)));
+            }
+            return json.get();
+        }
+
+        static Entry fromJson(final @NotNull File file, final @NotNull JsonObject json,
+                              final @NotNull AtomicBoolean modified) throws IOException {
+            final Manifest manifest;
+            if (hasNonNull(json, KEY_MANIFEST)) {
+                manifest = new Manifest(new ByteArrayInputStream(
+                        json.getString(KEY_MANIFEST).getBytes(StandardCharsets.UTF_8)));
+            } else {
+                manifest = null;
+            }
+            final Entry entry = new Entry(file, json.getJsonNumber(KEY_LENGTH).longValue(),
+                    json.getJsonNumber(KEY_LAST_MODIFIED).longValue(), manifest, modified);
+            if (hasNonNull(json, KEY_RESOURCES)) {
+                json.getJsonObject(KEY_RESOURCES).forEach((name, value) ->
+                        entry.resources.put(name, JsonValue.TRUE.equals(value)));
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Get the values of a manifest header for each manifest on a classloader, by manifest URL, in classloader order.
+     *
+     * @param headerName  the manifest header name
+     * @param classLoader the classloader to scan
+     * @return the header values by manifest URL
+     * @throws IOException if a manifest can't be read
+     */
+    public Map<URL, List<String>> getHeaderValues(final @NotNull String headerName,
+                                                  final @NotNull ClassLoader classLoader) throws IOException {
+        final List<URL> manifestUrls = new ArrayList<>();
+        final Enumeration<URL> resEnum = classLoader.getResources(JarFile.MANIFEST_NAME);
+        while (resEnum.hasMoreElements()) {
+            manifestUrls.add(resEnum.nextElement());
+        }
+        final List<Map.Entry<URL, Result<Entry>>> indexed = manifestUrls.parallelStream()
+                .map(zipKeysWithValueFunc(result1(this::getEntry)))
+                .collect(Collectors.toList());
+        return collectHeaderValues(headerName, indexed);
+    }
+
+    /**
+     * Get the values of a manifest header for each manifest of a list of jars and directories, by manifest URL, in
+     * list order. Directories without a manifest are skipped.
+     *
+     * @param headerName the manifest header name
+     * @param files      the jars and directories to scan
+     * @return the header values by manifest URL
+     * @throws IOException if a manifest can't be read
+     */
+    public Map<URL, List<String>> getHeaderValues(final @NotNull String headerName,
+                                                  final @NotNull List<File> files) throws IOException {
+        final List<Map.Entry<URL, Result<Entry>>> indexed = files.parallelStream()
+                .map(result1(this::getManifestUrl))
+                .flatMap(Result::stream)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .map(zipKeysWithValueFunc(result1(this::getEntry)))
+                .collect(Collectors.toList());
+        return collectHeaderValues(headerName, indexed);
+    }
+
+    private static Map<URL, List<String>>
+    collectHeaderValues(final @NotNull String headerName,
+                        final @NotNull List<Map.Entry<URL, Result<Entry>>> indexed) throws IOException {
+        final Map<URL, List<String>> map = new LinkedHashMap<>();
+        for (Map.Entry<URL, Result<Entry>> result : indexed) {
+            result.getValue().throwCause(IOException.class);
+            map.put(result.getKey(), result.getValue().getOrDefault(null).getHeaderValues(headerName));
+        }
+        return map;
+    }
+
+    /**
+     * Find a resource in a jar or directory.
+     *
+     * @param file the jar or directory
+     * @param name the resource name
+     * @return the resource URL, if found
+     * @throws IOException if the jar can't be read
+     */
+    public Optional<URL> findResource(final @NotNull File file, final @NotNull String name) throws IOException {
+        if (!file.exists() || file.isDirectory()) {
+            final File entryFile = new File(file, name);
+            return entryFile.exists() ? Optional.of(entryFile.toURI().toURL()) : Optional.empty();
+        }
+        if (!getEntry(jarUrl(file, JarFile.MANIFEST_NAME)).hasJarResource(name)) {
+            return Optional.empty();
+        }
+        return Optional.of(jarUrl(file, name));
+    }
+
+    /**
+     * Forget all indexed manifests.
+     */
+    public void clear() {
+        entries.clear();
+        modified.set(false);
+    }
+
+    /**
+     * Add the entries of an index file saved by {@link #save(File)} to this index, skipping entries whose files have
+     * changed since they were saved, and entries that are already indexed. A missing index file is ignored, and an
+     * unreadable index file is deleted.
+     *
+     * @param indexFile the index file
+     */
+    public void load(final @NotNull File indexFile) {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try (JsonReader reader = Json.createReader(new InputStreamReader(new FileInputStream(indexFile),
+                StandardCharsets.UTF_8))) {
+            final JsonObject json = reader.readObject();
+            if (!hasNonNull(json, KEY_VERSION) || json.getInt(KEY_VERSION) != FORMAT_VERSION
+                    || !hasNonNull(json, KEY_ENTRIES)) {
+                LOGGER.debug("[load] ignoring manifest index with a different format: {}", indexFile);
+                return;
+            }
+            int loaded = 0;
+            for (Map.Entry<String, JsonValue> saved : json.getJsonObject(KEY_ENTRIES).entrySet()) {
+                final File file = new File(saved.getKey());
+                final Entry entry = Entry.fromJson(file, saved.getValue().asJsonObject(), modified);
+                if (entry.isCurrent(file) && entries.putIfAbsent(saved.getKey(), entry) == null) {
+                    loaded++;
+                }
+            }
+            LOGGER.debug("[load] loaded {} manifests from {}", loaded, indexFile);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("[load] deleting unreadable manifest index {}: {}", indexFile, e.getMessage());
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Save the entries of this index to an index file that can be {@link #load(File) loaded} by a later process,
+     * replacing any existing index file, unless nothing was indexed since the index was last loaded or saved. Only the
+     * {@link #DEFAULT_MAX_ENTRIES} most recently used entries of local files that are unchanged are saved.
+     *
+     * @param indexFile the index file
+     * @throws IOException for I/O errors
+     */
+    public void save(final @NotNull File indexFile) throws IOException {
+        if (!modified.getAndSet(false) && indexFile.isFile()) {
+            return;
+        }
+        final File indexDir = indexFile.getAbsoluteFile().getParentFile();
+        if (!indexDir.isDirectory() && !indexDir.mkdirs()) {
+            throw new IOException("failed to create manifest index directory " + indexDir.getAbsolutePath());
+        }
+        final List<Map.Entry<String, Entry>> current = entries.entrySet().stream()
+                .filter(entry -> entry.getValue().length >= 0L && entry.getValue().isCurrent(entry.getValue().file))
+                .sorted(Comparator.comparing((Map.Entry<String, Entry> entry) -> entry.getValue().lastUsed)
+                        .reversed())
+                .limit(DEFAULT_MAX_ENTRIES)
+                .collect(Collectors.toList());
+        final JavaxJson.Obj saved = JavaxJson.obj();
+        for (Map.Entry<String, Entry> entry : current) {
+            saved.key(entry.getKey(), entry.getValue().toJson());
+        }
+        final JsonObject json = JavaxJson.obj()
+                .key(KEY_VERSION, FORMAT_VERSION)
+                .key(KEY_ENTRIES, saved)
+                .get();
+        final File tempFile = Files.createTempFile(indexDir.toPath(), indexFile.getName(), TEMP_SUFFIX).toFile();
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8);
+                 JsonWriter jsonWriter = Json.createWriter(writer)) {
+                jsonWriter.writeObject(json);
+            }
+            try {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    static URL jarUrl(final @NotNull File jarFile, final @NotNull String name) throws MalformedURLException {
+        return new URL(String.format("jar:%s!/%s", jarFile.toURI().toURL().toExternalForm(), name));
+    }
+
+    /**
+     * Get the manifest URL of a jar or directory.
+     *
+     * @param file the jar or directory
+     * @return the manifest URL, or empty for a directory without a manifest
+     * @throws MalformedURLException if the file path can't be converted to a URL
+     */
+    Optional<URL> getManifestUrl(final @NotNull File file) throws MalformedURLException {
+        if (!file.exists() || file.isDirectory()) {
+            final File manifestFile = new File(file, JarFile.MANIFEST_NAME);
+            return manifestFile.exists() ? Optional.of(manifestFile.toURI().toURL()) : Optional.empty();
+        }
+        return Optional.of(jarUrl(file, JarFile.MANIFEST_NAME));
+    }
+
+    /**
+     * Get the indexed manifest for a manifest URL returned by a classloader. Manifests that are not in a local jar or
+     * directory are read without indexing.
+     *
+     * @param manifestUrl the manifest URL
+     * @return the indexed manifest
+     * @throws IOException if the manifest can't be read
+     */
+    @NotNull Entry getEntry(final @NotNull URL manifestUrl) throws IOException {
+        final File file = toLocalFile(manifestUrl);
+        if (file != null && file.isFile()) {
+            return getIndexed(file, "jar".equals(manifestUrl.getProtocol()));
+        }
+        try (InputStream is = manifestUrl.openStream()) {
+            return new Entry(new File(manifestUrl.getPath()), -1L, -1L, new Manifest(is));
+        }
+    }
+
+    /**
+     * Get the local jar file of a jar manifest URL, or the local file of a file manifest URL.
+     *
+     * @param manifestUrl the manifest URL
+     * @return the jar or manifest file, or null if not local
+     */
+    static @Nullable File toLocalFile(final @NotNull URL manifestUrl) {
+        try {
+            if ("file".equals(manifestUrl.getProtocol())) {
+                return new File(manifestUrl.toURI());
+            } else if ("jar".equals(manifestUrl.getProtocol())) {
+                final String path = manifestUrl.getPath();
+                final int separator = path.indexOf("!/");
+                if (separator > 0 && path.indexOf("!/", separator + 2) < 0) {
+                    final URL jarUrl = new URL(path.substring(0, separator));
+                    if ("file".equals(jarUrl.getProtocol())) {
+                        return new File(jarUrl.toURI());
+                    }
+                }
+            }
+        } catch (final MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+            LOGGER.debug("[toLocalFile] not a local manifest url: {}", manifestUrl);
+        }
+        return null;
+    }
+
+    private @NotNull Entry getIndexed(final @NotNull File file, final boolean isJar)
+            throws IOException {
+        final String key = file.getAbsolutePath();
+        final Entry existing = entries.get(key);
+        if (existing != null && existing.isCurrent(file)) {
+            existing.lastUsed = System.currentTimeMillis();
+            return existing;
+        }
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final Manifest manifest;
+        if (isJar) {
+            try (JarFile jar = new JarFile(file)) {
+                manifest = jar.getManifest();
+            }
+        } else {
+            try (InputStream fis = new FileInputStream(file)) {
+                manifest = new Manifest(fis);
+            }
+        }
+        final Entry entry = new Entry(file, length, lastModified, manifest, modified);
+        entries.put(key, entry);
+        modified.set(true);
+        return entry;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.function.Supplier;
+
+import static net.adamcin.oakpal.core.Fun.uncheck0;
+
+/**
+ * Enumeration of the {@link NodeStore} backends for the scan repository. Repositories forked from a shared post-init
+ * state, for package groups and repository pools, use a node store of the same type, with a copy of the post-init
+ * content for {@link #SEGMENT}.
+ *
+ * @see OakpalPlan#getNodeStore()
+ * @since 1.5.2
+ */
+public enum NodeStoreType {
+    /**
+     * Keep the repository content on the heap in a {@link MemoryNodeStore}, which is fastest for smaller scans.
+     */
+    MEMORY,
+
+    /**
+     * Keep the repository content in a memory-mapped segment-tar store in a temp directory, which is deleted after the
+     * scan, so that large packages can be scanned with a heap smaller than the package.
+     *
+     * @see TempSegmentNodeStore
+     */
+    SEGMENT;
+
+    public static final NodeStoreType DEFAULT = MEMORY;
+
+    /**
+     * Return a supplier of new node stores of this type.
+     *
+     * @return a node store supplier
+     */
+    public @NotNull Supplier<NodeStore> newSupplier() {
+        return newSupplier(null, SharedBlobStore.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Return a supplier of new node stores of this type, with binaries offloaded to a {@link SharedBlobStore} if a
+     * blob store directory is specified.
+     *
+     * @param blobStoreDir      the shared blob store directory, or null to keep binaries in the node store
+     * @param blobStoreMaxBytes the maximum total size of blobs in the shared blob store directory
+     * @return a node store supplier
+     */
+    public @NotNull Supplier<NodeStore> newSupplier(final @Nullable File blobStoreDir, final long blobStoreMaxBytes) {
+        switch (this) {
+            case SEGMENT:
+                return uncheck0(() -> new TempSegmentNodeStore(null, blobStoreDir != null
+                        ? new SharedBlobStore(blobStoreDir, blobStoreMaxBytes)
+                        : null));
+            case MEMORY:
+            default:
+                if (blobStoreDir != null) {
+                    return () -> new FileBlobMemoryNodeStore(new SharedBlobStore(blobStoreDir, blobStoreMaxBytes));
+                }
+                return MemoryNodeStore::new;
+        }
+    }
+
+    public static @Nullable NodeStoreType forName(final @Nullable String name) {
+        for (NodeStoreType value : values()) {
+            if (value.name().equalsIgnoreCase(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.commons.cnd.CompactNodeTypeDefReader;
+import org.apache.jackrabbit.commons.cnd.ParseException;
+import org.apache.jackrabbit.spi.QNodeTypeDefinition;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.spi.commons.nodetype.QDefinitionBuilderFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static net.adamcin.oakpal.core.Digests.digestString;
+import static net.adamcin.oakpal.core.JavaxJson.hasNonNull;
+
+/**
+ * A cache of parsed {@link QNodeTypeDefinition}s, keyed by a SHA-256 digest of the CND or JSON CND content they were
+ * parsed from, so that repeated scans and plan loads with large node type sets skip parsing entirely. Parsed
+ * definitions are held in a size-bounded in-memory map that is shared by every instance in the process. When a cache
+ * directory is specified, parsed CND files are also written to it as JSON CND entries, so that a new JVM can read
+ * them back without the CND parser. Entries are written to a temp file and atomically moved into place, and when the
+ * total size of the entries exceeds the configured maximum, the least-recently-used entries are deleted.
+ * <p>
+ * Only CND files that can be parsed with the namespaces they declare, plus the builtin namespaces, are cached. A CND
+ * that relies on a namespace prefix registered in the repository by an earlier CND is parsed against the repository
+ * namespaces every time.
+ *
+ * @see OakMachine.Builder#withNodeTypeDefinitionCache(NodeTypeDefinitionCache)
+ */
+public final class NodeTypeDefinitionCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NodeTypeDefinitionCache.class);
+
+    /**
+     * The maximum number of parsed definition sets held in memory by the process.
+     */
+    public static final int MAX_MEMORY_ENTRIES = 256;
+
+    /**
+     * The default maximum total size of the entries in the cache directory, 64 MiB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+
+    /**
+     * Incremented whenever the entry format or the key computation changes, which also invalidates every existing key.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    static final String ENTRY_SUFFIX = ".json";
+    static final String TEMP_SUFFIX = ".tmp";
+    static final String KEY_NAMESPACES = "namespaces";
+    static final String KEY_NODETYPES = "nodetypes";
+
+    private static final Map<String, Definitions> MEMORY = Collections.synchronizedMap(
+            new LinkedHashMap<String, Definitions>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Definitions> eldest) {
+                    return size() > MAX_MEMORY_ENTRIES;
+                }
+            });
+
+    private static final NodeTypeDefinitionCache DEFAULT = new NodeTypeDefinitionCache(null);
+
+    private final File cacheDir;
+    private final long maxBytes;
+
+    /**
+     * Create a node type definition cache that also writes parsed CND files to the specified directory, with the
+     * {@link #DEFAULT_MAX_BYTES} size limit.
+     *
+     * @param cacheDir the cache directory, or null for the shared in-memory cache only
+     */
+    public NodeTypeDefinitionCache(final @Nullable File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a node type definition cache that also writes parsed CND files to the specified directory.
+     *
+     * @param cacheDir the cache directory, or null for the shared in-memory cache only
+     * @param maxBytes the maximum total size of the entries in the cache directory in bytes
+     */
+    public NodeTypeDefinitionCache(final @Nullable File cacheDir, final long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the default instance, which only uses the shared in-memory cache.
+     *
+     * @return the default instance
+     */
+    public static NodeTypeDefinitionCache getDefault() {
+        return DEFAULT;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * The node type definitions and declared namespaces parsed from a single CND file.
+     */
+    public static final class Definitions {
+        private final Map<String, String> namespaces;
+        private final List<QNodeTypeDefinition> nodeTypes;
+
+        Definitions(final @NotNull Map<String, String> namespaces,
+                    final @NotNull List<QNodeTypeDefinition> nodeTypes) {
+            this.namespaces = Collections.unmodifiableMap(new LinkedHashMap<>(namespaces));
+            this.nodeTypes = Collections.unmodifiableList(new ArrayList<>(nodeTypes));
+        }
+
+        /**
+         * Get the namespaces declared by the CND, as a map of prefix to uri.
+         *
+         * @return the declared namespaces
+         */
+        public Map<String, String> getNamespaces() {
+            return namespaces;
+        }
+
+        public List<QNodeTypeDefinition> getNodeTypes() {
+            return nodeTypes;
+        }
+    }
+
+    /**
+     * Read and parse a CND file, or return the cached definitions for identical content.
+     *
+     * @param cndUrl           the CND url
+     * @param fallbackResolver a namespace resolver for prefixes that are neither declared by the CND nor builtin, such
+     *                         as one backed by the repository session. The result is not cached when this resolver is
+     *                         needed.
+     * @return the parsed definitions
+     * @throws IOException if the url can't be read or the CND can't be parsed
+     */
+    public Definitions readCnd(final @NotNull URL cndUrl,
+                               final @Nullable NamespaceResolver fallbackResolver) throws IOException {
+        final byte[] content;
+        try (InputStream input = cndUrl.openStream()) {
+            content = readFully(input);
+        }
+        final MessageDigest digest = Digests.newDigest();
+        digestString(digest, "cnd:" + FORMAT_VERSION);
+        digest.update(content);
+        final String key = Digests.toHex(digest.digest());
+
+        final Definitions cached = Optional.ofNullable(MEMORY.get(key)).orElseGet(() -> loadEntry(key));
+        if (cached != null) {
+            return cached;
+        }
+
+        final String systemId = cndUrl.toExternalForm();
+        try {
+            final Definitions parsed = parseCnd(content, systemId, new NamespaceMapping(JsonCnd.BUILTIN_MAPPINGS));
+            MEMORY.put(key, parsed);
+            saveEntry(key, parsed);
+            return parsed;
+        } catch (final ParseException e) {
+            if (fallbackResolver == null) {
+                throw new IOException(e);
+            }
+            LOGGER.debug("[readCnd] parsing {} with fallback namespace resolver: {}", systemId, e.getMessage());
+            try {
+                return parseCnd(content, systemId, new NamespaceMapping(fallbackResolver));
+            } catch (final ParseException fallbackError) {
+                throw new IOException(fallbackError);
+            }
+        }
+    }
+
+    /**
+     * Read a serialized JSON CND into a list of qualified node type definitions, or return the cached definitions for
+     * an identical JSON object and namespace list. Parsed JSON is only cached in memory.
+     *
+     * @param json      the jcrNodetypes object, organized by "typeName": { node type definition }
+     * @param jcrNsList the namespaces used to resolve prefixes, in addition to the builtin namespaces
+     * @return an unmodifiable list of qualified node type definitions
+     * @see JsonCnd#getQTypesFromJson(JsonObject, NamespaceMapping)
+     */
+    public List<QNodeTypeDefinition> getQTypesFromJson(final @NotNull JsonObject json,
+                                                       final @NotNull List<JcrNs> jcrNsList) {
+        final MessageDigest digest = Digests.newDigest();
+        digestString(digest, "json:" + FORMAT_VERSION);
+        for (JcrNs jcrNs : jcrNsList) {
+            digestString(digest, jcrNs.getPrefix());
+            digestString(digest, jcrNs.getUri());
+        }
+        digestString(digest, json.toString());
+        final String key = Digests.toHex(digest.digest());
+        final Definitions cached = MEMORY.get(key);
+        if (cached != null) {
+            return cached.getNodeTypes();
+        }
+        final Definitions parsed = new Definitions(Collections.emptyMap(),
+                JsonCnd.getQTypesFromJson(json, JsonCnd.toNamespaceMapping(jcrNsList)));
+        MEMORY.put(key, parsed);
+        return parsed.getNodeTypes();
+    }
+
+    static Definitions parseCnd(final byte[] content, final @NotNull String systemId,
+                                final @NotNull NamespaceMapping mapping) throws ParseException {
+        final CompactNodeTypeDefReader<QNodeTypeDefinition, NamespaceMapping> cndReader;
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)) {
+            cndReader = new CompactNodeTypeDefReader<>(reader, systemId, mapping, new QDefinitionBuilderFactory());
+        } catch (final IOException e) {
+            throw new ParseException(e, 0, 0, systemId);
+        }
+        return new Definitions(cndReader.getNamespaceMapping().getPrefixToURIMapping(),
+                cndReader.getNodeTypeDefinitions());
+    }
+
+    /**
+     * Remove all entries from the shared in-memory cache.
+     */
+    public static void clearMemory() {
+        MEMORY.clear();
+    }
+
+    /**
+     * Delete all entries in the cache directory and any temp files left behind by interrupted saves.
+     */
+    public void clear() {
+        if (cacheDir == null) {
+            return;
+        }
+        final File[] files = cacheDir.listFiles(file -> file.isFile()
+                && (file.getName().endsWith(ENTRY_SUFFIX) || file.getName().endsWith(TEMP_SUFFIX)));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    File getEntryFile(final @NotNull String key) {
+        return new File(cacheDir, key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Load the entry for the key from the cache directory into the in-memory cache. The entry is marked as recently
+     * used. If the entry is unreadable, it is deleted and treated as a miss.
+     *
+     * @param key the cache key
+     * @return the loaded definitions, or null if the key was missing
+     */
+    @Nullable Definitions loadEntry(final @NotNull String key) {
+        if (cacheDir == null) {
+            return null;
+        }
+        final File entryFile = getEntryFile(key);
+        if (!entryFile.isFile()) {
+            return null;
+        }
+        try (JsonReader reader = Json.createReader(new InputStreamReader(new FileInputStream(entryFile),
+                StandardCharsets.UTF_8))) {
+            final JsonObject json = reader.readObject();
+            final List<JcrNs> jcrNsList = hasNonNull(json, KEY_NAMESPACES)
+                    ? JavaxJson.mapArrayOfObjects(json.getJsonArray(KEY_NAMESPACES), JcrNs::fromJson)
+                    : Collections.emptyList();
+            final List<QNodeTypeDefinition> nodeTypes = hasNonNull(json, KEY_NODETYPES)
+                    ? JsonCnd.getQTypesFromJson(json.getJsonObject(KEY_NODETYPES),
+                    JsonCnd.toNamespaceMapping(jcrNsList))
+                    : Collections.emptyList();
+            final Definitions loaded = new Definitions(jcrNsList.stream()
+                    .collect(Collectors.toMap(JcrNs::getPrefix, JcrNs::getUri, (left, right) -> right,
+                            LinkedHashMap::new)), nodeTypes);
+            MEMORY.put(key, loaded);
+            entryFile.setLastModified(System.currentTimeMillis());
+            return loaded;
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("[loadEntry] deleting unreadable node type definitions {}: {}", entryFile, e.getMessage());
+            entryFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Save the definitions as the entry for the key in the cache directory, and then evict least-recently-used entries
+     * until the total size is within the limit. Failures are logged and otherwise ignored, because the definitions
+     * remain available in memory.
+     *
+     * @param key         the cache key
+     * @param definitions the parsed definitions
+     */
+    void saveEntry(final @NotNull String key, final @NotNull Definitions definitions) {
+        if (cacheDir == null) {
+            return;
+        }
+        try {
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+                throw new IOException("failed to create node type cache directory " + cacheDir.getAbsolutePath());
+            }
+            final List<JcrNs> jcrNsList = definitions.getNamespaces().entrySet().stream()
+                    .map(entry -> JcrNs.create(entry.getKey(), entry.getValue()))
+                    .collect(Collectors.toList());
+            final JsonObject json = JavaxJson.obj()
+                    .key(KEY_NAMESPACES).opt(jcrNsList)
+                    .key(KEY_NODETYPES).opt(JsonCnd.toJson(definitions.getNodeTypes(),
+                            JsonCnd.toNamespaceMapping(jcrNsList)))
+                    .get();
+            final File entryFile = getEntryFile(key);
+            final File tempFile = Files.createTempFile(cacheDir.toPath(), key, TEMP_SUFFIX).toFile();
+            try {
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8);
+                     JsonWriter jsonWriter = Json.createWriter(writer)) {
+                    jsonWriter.writeObject(json);
+                }
+                try {
+                    Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+            evict();
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("[saveEntry] failed to save node type definitions {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Delete entries in order of least-recent use until the total size of the remaining entries is within the limit.
+     */
+    void evict() {
+        if (cacheDir == null) {
+            return;
+        }
+        final File[] entries = cacheDir.listFiles(file -> file.isFile() && file.getName().endsWith(ENTRY_SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparing(File::lastModified).reversed());
+        long total = 0L;
+        for (File entry : entries) {
+            total += entry.length();
+            if (total > maxBytes) {
+                LOGGER.debug("[evict] deleting node type definitions {}", entry);
+                total -= entry.length();
+                entry.delete();
+            }
+        }
+    }
+
+    static byte[] readFully(final @NotNull InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.QNodeDefinition;
+import org.apache.jackrabbit.spi.QNodeTypeDefinition;
+import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.namespace.SessionNamespaceResolver;
+import org.apache.jackrabbit.spi.commons.nodetype.NodeTypeDefinitionFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.InvalidNodeTypeDefinitionException;
+import javax.jcr.nodetype.NoSuchNodeTypeException;
+import javax.jcr.nodetype.NodeTypeDefinition;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.nodetype.NodeTypeTemplate;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Collects node type definitions from CND URLs and from qualified definitions, such as the {@code jcrNodetypes} of
+ * plans and checklists, and registers all of them with a single {@link NodeTypeManager#registerNodeTypes} call.
+ * <p>
+ * Before registration, the definitions are arranged in a dependency graph of supertypes and required or default child
+ * node types. Definitions with missing dependencies, definitions in supertype cycles, and definitions that depend on
+ * either are reported to the {@link ErrorListener} with the URL they were read from, and are left out of the batch.
+ * The remaining definitions are sorted so that supertypes precede their subtypes. If the repository still rejects the
+ * batch, each source is registered separately in the same order, so that the error is attributed to its source.
+ * <p>
+ * Like {@link org.apache.jackrabbit.commons.cnd.CndImporter}, namespaces declared by a CND are registered if possible,
+ * CND types that already exist in the repository are not re-registered, and nt:base is added as an implicit supertype
+ * of CND primary types that lack a primary supertype. Qualified definitions are always registered, replacing any
+ * existing definition with the same name, including one read from a CND.
+ */
+final class NodeTypeRegistrar {
+
+    private final ErrorListener errorListener;
+
+    private final NodeTypeDefinitionCache nodeTypeCache;
+
+    private final Map<Name, Entry> entries = new LinkedHashMap<>();
+
+    private static final class Entry {
+        private final QNodeTypeDefinition definition;
+        private final URL source;
+        private final boolean fromCnd;
+
+        private Entry(final @NotNull QNodeTypeDefinition definition, final @Nullable URL source,
+                      final boolean fromCnd) {
+            this.definition = definition;
+            this.source = source;
+            this.fromCnd = fromCnd;
+        }
+
+        private Name getName() {
+            return definition.getName();
+        }
+    }
+
+    NodeTypeRegistrar(final @Nullable ErrorListener errorListener,
+                      final @Nullable NodeTypeDefinitionCache nodeTypeCache) {
+        this.errorListener = errorListener != null ? errorListener : new DefaultErrorListener();
+        this.nodeTypeCache = nodeTypeCache != null ? nodeTypeCache : NodeTypeDefinitionCache.getDefault();
+    }
+
+    /**
+     * Read the CNDs, register the namespaces they declare, and add their definitions. A CND that can't be parsed until
+     * the namespaces declared by the other CNDs in the list are registered is parsed again after them. A definition
+     * with the same name as a definition that has already been added is ignored.
+     *
+     * @param session the admin session
+     * @param cndUrls the CND urls
+     */
+    void addCnds(final @NotNull Session session, final @NotNull List<URL> cndUrls) {
+        final List<URL> unparsed = new ArrayList<>();
+        for (URL cndUrl : cndUrls) {
+            try {
+                addCnd(session, cndUrl);
+            } catch (final IOException e) {
+                unparsed.add(cndUrl);
+            }
+        }
+        for (URL cndUrl : unparsed) {
+            try {
+                addCnd(session, cndUrl);
+            } catch (final IOException e) {
+                errorListener.onNodeTypeRegistrationError(e, cndUrl);
+            }
+        }
+    }
+
+    private void addCnd(final @NotNull Session session, final @NotNull URL cndUrl) throws IOException {
+        final NodeTypeDefinitionCache.Definitions definitions =
+                nodeTypeCache.readCnd(cndUrl, new SessionNamespaceResolver(session));
+        try {
+            final NamespaceRegistry namespaceRegistry = session.getWorkspace().getNamespaceRegistry();
+            for (Map.Entry<String, String> namespace : definitions.getNamespaces().entrySet()) {
+                try {
+                    namespaceRegistry.registerNamespace(namespace.getKey(), namespace.getValue());
+                } catch (final RepositoryException e) {
+                    // ignore, like CndImporter
+                }
+            }
+        } catch (final RepositoryException e) {
+            errorListener.onNodeTypeRegistrationError(e, cndUrl);
+        }
+        for (QNodeTypeDefinition definition : definitions.getNodeTypes()) {
+            entries.putIfAbsent(definition.getName(), new Entry(definition, cndUrl, true));
+        }
+    }
+
+    /**
+     * Add qualified definitions, replacing any definitions with the same names that have already been added.
+     *
+     * @param definitions the qualified definitions
+     */
+    void addQNodeTypes(final @NotNull List<QNodeTypeDefinition> definitions) {
+        for (QNodeTypeDefinition definition : definitions) {
+            entries.remove(definition.getName());
+            entries.put(definition.getName(), new Entry(definition, null, false));
+        }
+    }
+
+    /**
+     * Register all added definitions that can be registered, and report the rest. The added definitions are cleared.
+     *
+     * @param session the admin session
+     * @throws RepositoryException if the node type manager can't be retrieved
+     */
+    void register(final @NotNull Session session) throws RepositoryException {
+        final NodeTypeManager nodeTypeManager = session.getWorkspace().getNodeTypeManager();
+        final NamePathResolver resolver = new DefaultNamePathResolver(session);
+        final Map<Name, Entry> batch = new LinkedHashMap<>();
+        for (Entry entry : entries.values()) {
+            if (!entry.fromCnd || !isRegistered(nodeTypeManager, resolver, entry.getName())) {
+                batch.put(entry.getName(), entry);
+            }
+        }
+        entries.clear();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final List<Entry> sorted = sortAndReport(batch, nodeTypeManager, resolver);
+        if (sorted.isEmpty()) {
+            return;
+        }
+        try {
+            nodeTypeManager.registerNodeTypes(createTemplates(session, nodeTypeManager, sorted), true);
+        } catch (final RepositoryException batchError) {
+            final Map<URL, List<Entry>> bySource = new LinkedHashMap<>();
+            for (Entry entry : sorted) {
+                bySource.computeIfAbsent(entry.source, key -> new ArrayList<>()).add(entry);
+            }
+            for (Map.Entry<URL, List<Entry>> group : bySource.entrySet()) {
+                try {
+                    nodeTypeManager.registerNodeTypes(
+                            createTemplates(session, nodeTypeManager, group.getValue()), true);
+                } catch (final RepositoryException e) {
+                    errorListener.onNodeTypeRegistrationError(e, group.getKey());
+                }
+            }
+        }
+    }
+
+    static boolean isRegistered(final @NotNull NodeTypeManager nodeTypeManager,
+                                final @NotNull NamePathResolver resolver,
+                                final @NotNull Name name) {
+        try {
+            return nodeTypeManager.hasNodeType(resolver.getJCRName(name));
+        } catch (final RepositoryException e) {
+            // the namespace is not registered
+            return false;
+        }
+    }
+
+    static Stream<Name> streamSupertypes(final @NotNull QNodeTypeDefinition definition) {
+        return Arrays.stream(definition.getSupertypes());
+    }
+
+    static Stream<Name> streamChildNodeTypes(final @NotNull QNodeTypeDefinition definition) {
+        return Arrays.stream(definition.getChildNodeDefs())
+                .flatMap(childDef -> Stream.concat(Arrays.stream(childDef.getRequiredPrimaryTypes()),
+                        Stream.of(childDef).map(QNodeDefinition::getDefaultPrimaryType).filter(Objects::nonNull)));
+    }
+
+    /**
+     * Report definitions that can't be registered and return the rest, with supertypes before their subtypes.
+     *
+     * @param batch           the definitions to register, by name
+     * @param nodeTypeManager the node type manager
+     * @param resolver        the session name resolver
+     * @return the definitions that can be registered, in dependency order
+     */
+    private List<Entry> sortAndReport(final @NotNull Map<Name, Entry> batch,
+                              final @NotNull NodeTypeManager nodeTypeManager,
+                              final @NotNull NamePathResolver resolver) {
+        final Map<Name, String> failed = new HashMap<>();
+        final Map<Name, Boolean> registered = new HashMap<>();
+
+        // supertype cycles
+        final Set<Name> visited = new LinkedHashSet<>();
+        for (Name name : batch.keySet()) {
+            findCycles(name, batch, new ArrayList<>(), visited, failed, resolver);
+        }
+
+        // missing and failed dependencies, until no more definitions fail
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Entry entry : batch.values()) {
+                if (failed.containsKey(entry.getName())) {
+                    continue;
+                }
+                final String reason = Stream.concat(
+                        streamSupertypes(entry.definition).map(name -> dependencyError(name, "supertype",
+                                batch, failed, registered, nodeTypeManager, resolver)),
+                        streamChildNodeTypes(entry.definition).map(name -> dependencyError(name, "child node type",
+                                batch, failed, registered, nodeTypeManager, resolver)))
+                        .filter(Objects::nonNull)
+                        .findFirst().orElse(null);
+                if (reason != null) {
+                    failed.put(entry.getName(), reason);
+                    changed = true;
+                }
+            }
+        }
+
+        for (Entry entry : batch.values()) {
+            final String reason = failed.get(entry.getName());
+            if (reason != null) {
+                final String message = "node type " + jcrName(resolver, entry.getName()) + " " + reason;
+                errorListener.onNodeTypeRegistrationError(reason.startsWith("is in a supertype cycle")
+                        ? new InvalidNodeTypeDefinitionException(message)
+                        : new NoSuchNodeTypeException(message), entry.source);
+            }
+        }
+
+        final List<Entry> sorted = new ArrayList<>();
+        final Set<Name> emitted = new LinkedHashSet<>();
+        for (Name name : batch.keySet()) {
+            emitSorted(name, batch, failed.keySet(), emitted, sorted);
+        }
+        return sorted;
+    }
+
+    private static void findCycles(final @NotNull Name name,
+                                   final @NotNull Map<Name, Entry> batch,
+                                   final @NotNull List<Name> path,
+                                   final @NotNull Set<Name> visited,
+                                   final @NotNull Map<Name, String> failed,
+                                   final @NotNull NamePathResolver resolver) {
+        final int index = path.indexOf(name);
+        if (index >= 0) {
+            final List<Name> cycle = new ArrayList<>(path.subList(index, path.size()));
+            cycle.add(name);
+            final String reason = "is in a supertype cycle: " + cycle.stream().map(member -> jcrName(resolver, member))
+                    .collect(Collectors.joining(" > "));
+            cycle.forEach(member -> failed.putIfAbsent(member, reason));
+            return;
+        }
+        if (!batch.containsKey(name) || !visited.add(name)) {
+            return;
+        }
+        path.add(name);
+        for (Name supertype : batch.get(name).definition.getSupertypes()) {
+            findCycles(supertype, batch, path, visited, failed, resolver);
+        }
+        path.remove(path.size() - 1);
+    }
+
+    private static @Nullable String dependencyError(final @NotNull Name dependency,
+                                                    final @NotNull String kind,
+                                                    final @NotNull Map<Name, Entry> batch,
+                                                    final @NotNull Map<Name, String> failed,
+                                                    final @NotNull Map<Name, Boolean> registered,
+                                                    final @NotNull NodeTypeManager nodeTypeManager,
+                                                    final @NotNull NamePathResolver resolver) {
+        if (batch.containsKey(dependency)) {
+            return failed.containsKey(dependency)
+                    ? "depends on " + kind + " " + jcrName(resolver, dependency) + ", which can't be registered"
+                    : null;
+        }
+        if (registered.computeIfAbsent(dependency, name -> isRegistered(nodeTypeManager, resolver, name))) {
+            return null;
+        }
+        return "depends on missing " + kind + " " + jcrName(resolver, dependency);
+    }
+
+    private static void emitSorted(final @NotNull Name name,
+                                   final @NotNull Map<Name, Entry> batch,
+                                   final @NotNull Set<Name> failed,
+                                   final @NotNull Set<Name> emitted,
+                                   final @NotNull List<Entry> sorted) {
+        if (!batch.containsKey(name) || failed.contains(name) || !emitted.add(name)) {
+            return;
+        }
+        for (Name supertype : batch.get(name).definition.getSupertypes()) {
+            emitSorted(supertype, batch, failed, emitted, sorted);
+        }
+        sorted.add(batch.get(name));
+    }
+
+    static String jcrName(final @NotNull NamePathResolver resolver, final @NotNull Name name) {
+        try {
+            return resolver.getJCRName(name);
+        } catch (final RepositoryException e) {
+            return name.toString();
+        }
+    }
+
+    private static NodeTypeDefinition[] createTemplates(final @NotNull Session session,
+                                                        final @NotNull NodeTypeManager nodeTypeManager,
+                                                        final @NotNull List<Entry> sorted)
+            throws RepositoryException {
+        final List<NodeTypeDefinition> templates = new NodeTypeDefinitionFactory(session)
+                .create(sorted.stream().map(entry -> entry.definition).collect(Collectors.toList()));
+        final Map<String, NodeTypeDefinition> byName = new LinkedHashMap<>();
+        templates.forEach(template -> byName.put(template.getName(), template));
+        for (int i = 0; i < templates.size(); i++) {
+            if (sorted.get(i).fromCnd) {
+                ensureNtBase(templates.get(i), byName, nodeTypeManager);
+            }
+        }
+        return templates.toArray(new NodeTypeDefinition[0]);
+    }
+
+    private static void ensureNtBase(final NodeTypeDefinition definition,
+                                     final Map<String, NodeTypeDefinition> byName,
+                                     final NodeTypeManager nodeTypeManager) throws RepositoryException {
+        if (definition.isMixin() || JcrConstants.NT_BASE.equals(definition.getName())
+                || !(definition instanceof NodeTypeTemplate)) {
+            return;
+        }
+        final String[] supertypes = definition.getDeclaredSupertypeNames();
+        for (String supertype : supertypes) {
+            final NodeTypeDefinition supertypeDef = byName.containsKey(supertype)
+                    ? byName.get(supertype)
+                    : nodeTypeManager.getNodeType(supertype);
+            if (!supertypeDef.isMixin()) {
+                return;
+            }
+        }
+        final List<String> withNtBase = new ArrayList<>(Arrays.asList(supertypes));
+        withNtBase.add(JcrConstants.NT_BASE);
+        ((NodeTypeTemplate) definition).setDeclaredSuperTypeNames(withNtBase.toArray(new String[0]));
+    }
+}
@@ -16,14 +16,34 @@
 
 package net.adamcin.oakpal.core;
 
+import net.adamcin.oakpal.core.jcrfacade.SessionFacade;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.api.JackrabbitRepository;
 import org.apache.jackrabbit.commons.cnd.DefinitionBuilderFactory;
 import org.apache.jackrabbit.commons.cnd.TemplateBuilderFactory;
+import org.apache.jackrabbit.oak.InitialContent;
 import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.OakVersion;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.plugins.commit.ConflictValidatorProvider;
+import org.apache.jackrabbit.oak.plugins.commit.JcrConflictHandler;
+import org.apache.jackrabbit.oak.plugins.index.IndexConstants;
+import org.apache.jackrabbit.oak.plugins.index.counter.NodeCounterEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.nodetype.NodeTypeIndexProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.OrderedPropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexProvider;
+import org.apache.jackrabbit.oak.plugins.index.reference.ReferenceEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.reference.ReferenceIndexProvider;
+import org.apache.jackrabbit.oak.plugins.itemsave.ItemSaveValidatorProvider;
 import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.name.NameValidatorProvider;
+import org.apache.jackrabbit.oak.plugins.name.NamespaceEditorProvider;
+import org.apache.jackrabbit.oak.plugins.nodetype.TypeEditorProvider;
+import org.apache.jackrabbit.oak.plugins.observation.ChangeCollectorProvider;
+import org.apache.jackrabbit.oak.plugins.version.VersionHook;
+import org.apache.jackrabbit.oak.segment.SegmentNodeState;
 import org.apache.jackrabbit.oak.security.SecurityProviderImpl;
 import org.apache.jackrabbit.oak.spi.lifecycle.RepositoryInitializer;
 import org.apache.jackrabbit.oak.spi.nodetype.NodeTypeConstants;
@@ -35,10 +55,12 @@ import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
 import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
 import org.apache.jackrabbit.oak.spi.security.user.action.AccessControlAction;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.apache.jackrabbit.oak.spi.xml.ImportBehavior;
 import org.apache.jackrabbit.oak.spi.xml.ProtectedItemImporter;
 import org.apache.jackrabbit.vault.fs.api.ProgressTrackerListener;
+import org.apache.jackrabbit.vault.fs.io.Archive;
 import org.apache.jackrabbit.vault.packaging.DependencyHandling;
 import org.apache.jackrabbit.vault.packaging.InstallHookProcessorFactory;
 import org.apache.jackrabbit.vault.packaging.JcrPackage;
@@ -48,6 +70,9 @@ import org.apache.jackrabbit.vault.packaging.PackageId;
 import org.apache.jackrabbit.vault.packaging.Packaging;
 import org.apache.jackrabbit.vault.packaging.VaultPackage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.jcr.Node;
 import javax.jcr.Property;
@@ -58,29 +83,52 @@ import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 import javax.jcr.nodetype.NodeTypeTemplate;
 import javax.jcr.version.OnParentVersionAction;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiPredicate;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 
+import static net.adamcin.oakpal.core.Digests.digestString;
+import static net.adamcin.oakpal.core.Digests.digestUrl;
 import static net.adamcin.oakpal.core.Fun.uncheck1;
 import static net.adamcin.oakpal.core.Fun.uncheckVoid1;
 
 /**
  * Entry point for OakPAL Acceptance Library. See {@link ProgressCheck} for the event listener interface.
  */
-public final class OakMachine {
+public final class OakMachine implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OakMachine.class);
+
     public static final String NS_URI_OAKPAL = "oakpaltmp";
     public static final String NS_PREFIX_OAKPAL = "oakpaltmp";
     public static final String LN_UNDECLARED = "Undeclared";
@@ -102,6 +150,11 @@ public final class OakMachine {
 
     private final ClassLoader installHookClassLoader;
 
+    /**
+     * Whether the install hook class loader was provided to the builder, rather than the default class loader.
+     */
+    private final boolean customInstallHookClassLoader;
+
     private final boolean enablePreInstallHooks;
 
     private final InstallHookPolicy scanInstallHookPolicy;
@@ -110,6 +163,43 @@ public final class OakMachine {
 
     private final SubpackageSilencer subpackageSilencer;
 
+    private static final SubpackageSilencer DEFAULT_SUBPACKAGE_SILENCER = (packageId, parentId) -> false;
+
+    private final boolean reusePostInitState;
+
+    private final BaselineCache baselineCache;
+
+    private final boolean archiveInstall;
+
+    private final boolean profiling;
+
+    private final Supplier<List<ProgressCheck>> progressCheckSupplier;
+
+    private final Supplier<ErrorListener> errorListenerSupplier;
+
+    private final ScanResultCache scanResultCache;
+
+    private final String checkFingerprint;
+
+    private final RepositoryPool repositoryPool;
+
+    private final EnumSet<RepositoryFeature> repositoryFeatures;
+
+    private final boolean deferIndexes;
+
+    private final NodeTypeDefinitionCache nodeTypeDefinitionCache;
+
+    private final Map<ProgressCheck.Event, List<ProgressCheck>> subscribers;
+
+    private RepositoryCheckpoint postInitCheckpoint;
+
+    private boolean postInitCheckpointHeld;
+
+    // the deferred indexes of each scan in progress, by admin session, so that a scan started while another is in
+    // progress, such as from an inspect body, does not replace the deferred indexes of the other scan.
+    private final Map<Session, DeferredIndexes> scanDeferredIndexes =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
     private OakMachine(final Packaging packagingService,
                        final List<ProgressCheck> progressChecks,
                        final ErrorListener errorListener,
@@ -118,22 +208,53 @@ public final class OakMachine {
                        final JcrCustomizer jcrCustomizer,
                        final InstallHookProcessorFactory installHookProcessorFactory,
                        final ClassLoader installHookClassLoader,
+                       final boolean customInstallHookClassLoader,
                        final boolean enablePreInstallHooks,
                        final InstallHookPolicy scanInstallHookPolicy,
                        final Supplier<NodeStore> nodeStoreSupplier,
-                       final SubpackageSilencer subpackageSilencer) {
+                       final SubpackageSilencer subpackageSilencer,
+                       final boolean reusePostInitState,
+                       final BaselineCache baselineCache,
+                       final boolean archiveInstall,
+                       final boolean profiling,
+                       final Supplier<List<ProgressCheck>> progressCheckSupplier,
+                       final Supplier<ErrorListener> errorListenerSupplier,
+                       final ScanResultCache scanResultCache,
+                       final String checkFingerprint,
+                       final RepositoryPool repositoryPool,
+                       final EnumSet<RepositoryFeature> repositoryFeatures,
+                       final boolean deferIndexes,
+                       final NodeTypeDefinitionCache nodeTypeDefinitionCache) {
         this.packagingService = packagingService != null ? packagingService : newOakpalPackagingService();
-        this.progressChecks = progressChecks;
+        this.progressChecks = profiling
+                ? progressChecks.stream().map(ProfilingProgressCheck::new).collect(Collectors.toList())
+                : progressChecks;
         this.errorListener = errorListener;
         this.preInstallUrls = preInstallUrls;
         this.initStages = initStages;
         this.jcrCustomizer = jcrCustomizer;
         this.installHookProcessorFactory = installHookProcessorFactory;
         this.installHookClassLoader = installHookClassLoader;
+        this.customInstallHookClassLoader = customInstallHookClassLoader;
         this.enablePreInstallHooks = enablePreInstallHooks;
         this.scanInstallHookPolicy = scanInstallHookPolicy;
         this.nodeStoreSupplier = nodeStoreSupplier != null ? nodeStoreSupplier : MemoryNodeStore::new;
-        this.subpackageSilencer = subpackageSilencer != null ? subpackageSilencer : (packageId, parentId) -> false;
+        this.subpackageSilencer = subpackageSilencer != null ? subpackageSilencer : DEFAULT_SUBPACKAGE_SILENCER;
+        this.reusePostInitState = reusePostInitState;
+        this.baselineCache = baselineCache;
+        this.archiveInstall = archiveInstall;
+        this.profiling = profiling;
+        this.progressCheckSupplier = progressCheckSupplier;
+        this.errorListenerSupplier = errorListenerSupplier != null ? errorListenerSupplier : DefaultErrorListener::new;
+        this.scanResultCache = scanResultCache;
+        this.checkFingerprint = checkFingerprint;
+        this.repositoryPool = repositoryPool;
+        this.repositoryFeatures = repositoryFeatures;
+        this.deferIndexes = deferIndexes;
+        this.nodeTypeDefinitionCache = nodeTypeDefinitionCache != null
+                ? nodeTypeDefinitionCache
+                : NodeTypeDefinitionCache.getDefault();
+        this.subscribers = subscribersByEvent(this.progressChecks);
     }
 
     /**
@@ -164,6 +285,32 @@ public final class OakMachine {
 
         private SubpackageSilencer subpackageSilencer;
 
+        private boolean reusePostInitState;
+
+        private BaselineCache baselineCache;
+
+        private boolean archiveInstall;
+
+        private boolean profiling;
+
+        private Supplier<List<ProgressCheck>> progressCheckSupplier;
+
+        private Supplier<ErrorListener> errorListenerSupplier;
+
+        private ScanResultCache scanResultCache;
+
+        private String checkFingerprint;
+
+        private Supplier<String> checkFingerprintSupplier;
+
+        private RepositoryPool repositoryPool;
+
+        private RepositoryProfile repositoryProfile;
+
+        private boolean deferIndexes;
+
+        private NodeTypeDefinitionCache nodeTypeDefinitionCache;
+
         /**
          * Provide a {@link Packaging} service for use in retrieving a {@link JcrPackageManager} for an admin session.
          * <p>
@@ -382,9 +529,12 @@ public final class OakMachine {
          * <p>
          * Note: OakMachine will call {@link Supplier#get} for every execution of {@link #scanPackage(File...)}.
          * Beyond the call to this supplier function, it is the client's responsibility to manage the external
-         * NodeStore's state between scans when using the same {@link OakMachine} instance.
+         * NodeStore's state between scans when using the same {@link OakMachine} instance. A supplied NodeStore that
+         * implements {@link Closeable}, like a {@link TempSegmentNodeStore}, is closed after its repository is
+         * shutdown.
          *
          * @param nodeStoreSupplier the NodeStore
+         * @see NodeStoreType#newSupplier()
          * @return my builder self
          */
         public Builder withNodeStoreSupplier(final Supplier<NodeStore> nodeStoreSupplier) {
@@ -407,12 +557,227 @@ public final class OakMachine {
             return this;
         }
 
+        /**
+         * Set to {@code true} to retain the repository after the {@link InitStage}s and pre-install packages have been
+         * applied for the first time, and to restore it to that post-init state at the beginning of each subsequent
+         * scan, instead of constructing and initializing a new repository for every scan. This trades a retained
+         * repository for the repeated cost of repository construction, init stages, and pre-install packages.
+         * <p>
+         * Note: the retained repository is held for the whole of each scan, and a scan that starts while it is held by
+         * another scan, such as a scan started from an {@link InspectBody}, falls back to a new post-init repository,
+         * which is shutdown at the end of that scan. The progress checks and error listener of the machine are shared
+         * by every scan, so scans that must run concurrently should use separate machines, or
+         * {@link OakMachine#scanPackageGroups(List, int)} with a {@link #withProgressCheckSupplier(Supplier)}. Otherwise,
+         * the {@link NodeStore} supplier is only called once in this mode, and the retained repository is only
+         * shutdown by {@link OakMachine#close()}. Errors reported during initialization will only be reported to the
+         * {@link ErrorListener} during the first scan.
+         *
+         * @param reusePostInitState true to retain and restore the post-init repository state between scans
+         * @return my builder self
+         */
+        public Builder withReusePostInitState(final boolean reusePostInitState) {
+            this.reusePostInitState = reusePostInitState;
+            return this;
+        }
+
+        /**
+         * Provide a {@link BaselineCache} to load the post-init repository state from, instead of applying the
+         * {@link InitStage}s and installing the pre-install packages, when a matching baseline was saved by a previous
+         * scan, possibly in a different JVM. On a miss, the post-init state is saved to the cache, unless errors were
+         * reported during initialization.
+         * <p>
+         * The cache key is computed from the contents of the CND URLs and other definitions of each {@link InitStage},
+         * the contents of each pre-install package, the {@link #withEnablePreInstallHooks(boolean)} flag, and the Oak
+         * and oakpal-core versions. It does not account for the behavior of pre-install package install hooks. The
+         * cache is not used when a {@link JcrCustomizer} is set, because its changes cannot be keyed.
+         *
+         * @param baselineCache the baseline cache, or null to disable
+         * @return my builder self
+         */
+        public Builder withBaselineCache(final BaselineCache baselineCache) {
+            this.baselineCache = baselineCache;
+            return this;
+        }
+
+        /**
+         * Set to {@code true} to install each package by extracting it directly from its archive file, instead of
+         * uploading it to the package registry under /etc/packages first. The package binary is not stored in the
+         * repository, so the repository only contains what the package itself installs. Subpackages are discovered in
+         * the archive under /etc/packages, the same way that FileVault registers them, and are installed the same way.
+         * <p>
+         * The same {@link ProgressCheck} events are reported in this mode, but checks which inspect the package
+         * registry nodes under /etc/packages will no longer find the uploaded package nodes.
+         * <p>
+         * This mode is always enabled when {@link RepositoryFeature#BINARY_CONTENT} is not enabled.
+         *
+         * @param archiveInstall true to install packages directly from their archives
+         * @return my builder self
+         */
+        public Builder withArchiveInstall(final boolean archiveInstall) {
+            this.archiveInstall = archiveInstall;
+            return this;
+        }
+
+        /**
+         * Set to {@code true} to record the call count, wall time, and scan thread allocation of each event received by
+         * each {@link ProgressCheck}, which can be retrieved after a scan with {@link OakMachine#getCheckProfiles()}.
+         * Allocation is measured with the {@link java.lang.management.ThreadMXBean}, when the JVM supports it.
+         * <p>
+         * Checks created by the {@link #withProgressCheckSupplier(Supplier)} for
+         * {@link OakMachine#scanPackageGroups(List, int)} are not profiled.
+         *
+         * @param profiling true to profile the progress checks
+         * @return my builder self
+         */
+        public Builder withProfiling(final boolean profiling) {
+            this.profiling = profiling;
+            return this;
+        }
+
+        /**
+         * Provide a supplier of new {@link ProgressCheck} instances, equivalent to those provided by
+         * {@link #withProgressChecks(List)}, so that each package group scanned by
+         * {@link OakMachine#scanPackageGroups(List, int)} can be checked independently. If no supplier is provided, the
+         * groups will share the machine's checks, and will be scanned one at a time.
+         *
+         * @param progressCheckSupplier a supplier of new progress check instances
+         * @return my builder self
+         */
+        public Builder withProgressCheckSupplier(final Supplier<List<ProgressCheck>> progressCheckSupplier) {
+            this.progressCheckSupplier = progressCheckSupplier;
+            return this;
+        }
+
+        /**
+         * Provide a supplier of new {@link ErrorListener} instances for each package group scanned by
+         * {@link OakMachine#scanPackageGroups(List, int)}. By default, a new {@link DefaultErrorListener} is used for
+         * each group.
+         *
+         * @param errorListenerSupplier a supplier of new error listener instances
+         * @return my builder self
+         */
+        public Builder withErrorListenerSupplier(final Supplier<ErrorListener> errorListenerSupplier) {
+            this.errorListenerSupplier = errorListenerSupplier;
+            return this;
+        }
+
+        /**
+         * Provide a {@link ScanResultCache} to record the reports of each scan in, so that a later scan of the same
+         * packages, in the same order, with the same checks and post-init state, possibly in a different JVM, can
+         * replay the recorded reports instead of installing the packages. Checks can retain state from one package to
+         * the next and report violations that span several packages, so the recorded reports are only replayed for
+         * exactly the same list of packages. Otherwise, all the packages are scanned as usual, and the entry is saved
+         * when the scan completes.
+         * <p>
+         * The key of each entry is computed from the same inputs as the {@link #withBaselineCache(BaselineCache)} key,
+         * the {@link #withCheckFingerprint(String)} fingerprint, the {@link #withInstallHookPolicy(InstallHookPolicy)}
+         * policy, and the contents of every package of the scan in install order. Because the key cannot
+         * describe them, the cache is not used unless a check fingerprint is provided, or when a
+         * {@link #withSubpackageSilencer(SubpackageSilencer)} or a {@link JcrCustomizer} is set.
+         *
+         * @param scanResultCache the scan result cache, or null to disable
+         * @return my builder self
+         */
+        public Builder withScanResultCache(final ScanResultCache scanResultCache) {
+            this.scanResultCache = scanResultCache;
+            return this;
+        }
+
+        /**
+         * Provide a fingerprint of the effective check configuration for the {@link ScanResultCache} key, such as the
+         * one computed by {@link ScanResultCache#fingerprintCheckSpecs(List, ClassLoader)}. The scan result cache is
+         * not used without a fingerprint, because the progress checks themselves cannot be fingerprinted.
+         *
+         * @param checkFingerprint the check fingerprint, or null to disable the scan result cache
+         * @return my builder self
+         */
+        public Builder withCheckFingerprint(final String checkFingerprint) {
+            this.checkFingerprint = checkFingerprint;
+            return this;
+        }
+
+        /**
+         * Provide a supplier of the {@link #withCheckFingerprint(String)} fingerprint, which is only called by
+         * {@link #build()} when a {@link #withScanResultCache(ScanResultCache)} is set and no fingerprint was provided
+         * directly, because computing the fingerprint can require reading every check jar and script.
+         *
+         * @param checkFingerprintSupplier the check fingerprint supplier, or null
+         * @return my builder self
+         */
+        public Builder withCheckFingerprintSupplier(final Supplier<String> checkFingerprintSupplier) {
+            this.checkFingerprintSupplier = checkFingerprintSupplier;
+            return this;
+        }
+
+        /**
+         * Lease a repository from the provided pool for each scan, instead of creating a new repository and applying
+         * the init stages and pre-install packages of this machine. The pool should be created for a machine with the
+         * same init stages, pre-install packages, and repository configuration. Pre-install violations are reported to
+         * the error listener of the pool machine, and are available from
+         * {@link RepositoryPool#getPreInstallViolations()}. Takes precedence over
+         * {@link #withReusePostInitState(boolean)} and {@link #withBaselineCache(BaselineCache)}.
+         *
+         * @param repositoryPool the repository pool, or null to create a repository for each scan
+         * @return my builder self
+         */
+        public Builder withRepositoryPool(final RepositoryPool repositoryPool) {
+            this.repositoryPool = repositoryPool;
+            return this;
+        }
+
+        /**
+         * Select the optional {@link RepositoryFeature}s to enable in the scan repository. The features required by
+         * the progress checks are enabled in addition to those of the profile. The default is
+         * {@link RepositoryProfile#FULL}.
+         *
+         * @param repositoryProfile the repository profile, or null for the default
+         * @return my builder self
+         */
+        public Builder withRepositoryProfile(final RepositoryProfile repositoryProfile) {
+            this.repositoryProfile = repositoryProfile;
+            return this;
+        }
+
+        /**
+         * Set to true to suspend maintenance of the synchronous property indexes that are neither unique nor restricted
+         * to declaring node types, such as the {@code nodetype} index, while scan packages are extracted. The suspended
+         * indexes are rebuilt when a progress check first creates a query through its session, so scans with
+         * query-free checks never pay for them. Queries executed by other means before the rebuild, such as by install
+         * hooks, traverse the repository instead of using the suspended indexes.
+         *
+         * @param deferIndexes true to defer index maintenance until the first query
+         * @return my builder self
+         */
+        public Builder withDeferIndexes(final boolean deferIndexes) {
+            this.deferIndexes = deferIndexes;
+            return this;
+        }
+
+        /**
+         * Provide a {@link NodeTypeDefinitionCache} to reuse parsed CND files across scans and JVMs. Parsed CND files
+         * are always cached in memory for the life of the process, so this is only necessary to also cache them in a
+         * directory.
+         *
+         * @param nodeTypeDefinitionCache the node type definition cache
+         * @return my builder self
+         */
+        public Builder withNodeTypeDefinitionCache(final NodeTypeDefinitionCache nodeTypeDefinitionCache) {
+            this.nodeTypeDefinitionCache = nodeTypeDefinitionCache;
+            return this;
+        }
+
         /**
          * Construct a {@link OakMachine} from the {@link Builder} state.
          *
          * @return a {@link OakMachine}
          */
         public OakMachine build() {
+            final EnumSet<RepositoryFeature> repositoryFeatures =
+                    Optional.ofNullable(repositoryProfile).orElse(RepositoryProfile.DEFAULT).getFeatures();
+            repositoryFeatures.addAll(getRequiredRepositoryFeatures(progressChecks));
+            final boolean binaryContent = repositoryFeatures.contains(RepositoryFeature.BINARY_CONTENT);
+            final String effectiveCheckFingerprint = checkFingerprint == null && scanResultCache != null
+                    && checkFingerprintSupplier != null ? checkFingerprintSupplier.get() : checkFingerprint;
             return new OakMachine(packagingService,
                     progressChecks,
                     errorListener,
@@ -421,10 +786,23 @@ public final class OakMachine {
                     jcrCustomizer,
                     installHookProcessorFactory,
                     installHookClassLoader != null ? installHookClassLoader : Util.getDefaultClassLoader(),
+                    installHookClassLoader != null,
                     enablePreInstallHooks,
                     scanInstallHookPolicy,
                     nodeStoreSupplier,
-                    subpackageSilencer);
+                    subpackageSilencer,
+                    reusePostInitState,
+                    baselineCache,
+                    archiveInstall || !binaryContent,
+                    profiling,
+                    progressCheckSupplier,
+                    errorListenerSupplier,
+                    scanResultCache,
+                    effectiveCheckFingerprint,
+                    repositoryPool,
+                    repositoryFeatures,
+                    deferIndexes,
+                    nodeTypeDefinitionCache);
         }
     }
 
@@ -432,6 +810,88 @@ public final class OakMachine {
         return progressChecks;
     }
 
+    /**
+     * Return the optional repository features enabled for the scan repository, which are those of the
+     * {@link RepositoryProfile} and those required by the progress checks.
+     *
+     * @return the enabled repository features
+     * @see Builder#withRepositoryProfile(RepositoryProfile)
+     */
+    public EnumSet<RepositoryFeature> getRepositoryFeatures() {
+        return EnumSet.copyOf(repositoryFeatures);
+    }
+
+    /**
+     * Collect the repository features required by the progress checks.
+     *
+     * @param progressChecks the progress checks
+     * @return the union of the required repository features
+     * @see ProgressCheck#getRequiredRepositoryFeatures()
+     */
+    static EnumSet<RepositoryFeature> getRequiredRepositoryFeatures(final @NotNull List<ProgressCheck> progressChecks) {
+        final EnumSet<RepositoryFeature> required = EnumSet.noneOf(RepositoryFeature.class);
+        for (ProgressCheck check : progressChecks) {
+            final Set<RepositoryFeature> features = check.getRequiredRepositoryFeatures();
+            if (features != null) {
+                required.addAll(features);
+            }
+        }
+        return required;
+    }
+
+    /**
+     * Throw an {@link AbortedScanException} if any progress check requires a repository feature that is not enabled
+     * in a repository that was initialized elsewhere, such as by a {@link RepositoryPool}.
+     *
+     * @param enabled        the features enabled in the repository
+     * @param progressChecks the progress checks
+     * @throws AbortedScanException if a required feature is not enabled
+     */
+    static void checkRepositoryFeatures(final @NotNull Set<RepositoryFeature> enabled,
+                                        final @NotNull List<ProgressCheck> progressChecks)
+            throws AbortedScanException {
+        final EnumSet<RepositoryFeature> missing = getRequiredRepositoryFeatures(progressChecks);
+        missing.removeAll(enabled);
+        if (!missing.isEmpty()) {
+            throw new AbortedScanException(new IllegalStateException(
+                    "progress checks require repository features that are not enabled: " + missing));
+        }
+    }
+
+    /**
+     * Get the progress checks which subscribe to the specified event, in scan order.
+     *
+     * @param event the event
+     * @return the list of subscribed progress checks
+     * @see ProgressCheck#getSubscribedEvents()
+     */
+    List<ProgressCheck> getSubscribers(final @NotNull ProgressCheck.Event event) {
+        return subscribers.get(event);
+    }
+
+    /**
+     * Build a dispatch list for each event from the checks that subscribe to it, retaining the order of the checks.
+     *
+     * @param progressChecks the progress checks
+     * @return a map of event to subscribed progress checks
+     */
+    static Map<ProgressCheck.Event, List<ProgressCheck>>
+    subscribersByEvent(final @NotNull List<ProgressCheck> progressChecks) {
+        final Map<ProgressCheck.Event, List<ProgressCheck>> subscribers = new EnumMap<>(ProgressCheck.Event.class);
+        for (ProgressCheck.Event event : ProgressCheck.Event.values()) {
+            subscribers.put(event, new ArrayList<>());
+        }
+        for (ProgressCheck check : progressChecks) {
+            final Set<ProgressCheck.Event> events = check.getSubscribedEvents();
+            for (ProgressCheck.Event event : ProgressCheck.Event.values()) {
+                if (events == null || events.contains(event)) {
+                    subscribers.get(event).add(check);
+                }
+            }
+        }
+        return subscribers;
+    }
+
     public ErrorListener getErrorListener() {
         return errorListener;
     }
@@ -459,6 +919,100 @@ public final class OakMachine {
         return preInstallUrls;
     }
 
+    /**
+     * Return true if this machine retains the post-init repository state between scans.
+     *
+     * @return true if the post-init repository state is reused
+     * @see Builder#withReusePostInitState(boolean)
+     */
+    public boolean isReusePostInitState() {
+        return reusePostInitState;
+    }
+
+    /**
+     * Return the baseline cache, if one was provided.
+     *
+     * @return the baseline cache, or null
+     * @see Builder#withBaselineCache(BaselineCache)
+     */
+    public BaselineCache getBaselineCache() {
+        return baselineCache;
+    }
+
+    /**
+     * Return true if this machine profiles its progress checks.
+     *
+     * @return true if the progress checks are profiled
+     * @see Builder#withProfiling(boolean)
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Get the profiles recorded for each progress check during the most recent scan, in check order. The list is
+     * empty unless {@link Builder#withProfiling(boolean)} is enabled.
+     *
+     * @return the check profiles
+     */
+    public List<CheckProfile> getCheckProfiles() {
+        return progressChecks.stream()
+                .filter(ProfilingProgressCheck.class::isInstance)
+                .map(ProfilingProgressCheck.class::cast)
+                .map(ProfilingProgressCheck::getProfile)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Return the scan result cache, if one was provided.
+     *
+     * @return the scan result cache, or null
+     * @see Builder#withScanResultCache(ScanResultCache)
+     */
+    public ScanResultCache getScanResultCache() {
+        return scanResultCache;
+    }
+
+    /**
+     * Return the repository pool, if one was provided.
+     *
+     * @return the repository pool, or null
+     * @see Builder#withRepositoryPool(RepositoryPool)
+     */
+    public RepositoryPool getRepositoryPool() {
+        return repositoryPool;
+    }
+
+    /**
+     * Return true if this machine defers index maintenance until the first query of a progress check.
+     *
+     * @return true if index maintenance is deferred
+     * @see Builder#withDeferIndexes(boolean)
+     */
+    public boolean isDeferIndexes() {
+        return deferIndexes;
+    }
+
+    /**
+     * Get the node type definition cache used to parse CND files during repository initialization.
+     *
+     * @return the node type definition cache
+     * @see Builder#withNodeTypeDefinitionCache(NodeTypeDefinitionCache)
+     */
+    public NodeTypeDefinitionCache getNodeTypeDefinitionCache() {
+        return nodeTypeDefinitionCache;
+    }
+
+    /**
+     * Return true if this machine installs packages directly from their archives.
+     *
+     * @return true if packages are installed directly from their archives
+     * @see Builder#withArchiveInstall(boolean)
+     */
+    public boolean isArchiveInstall() {
+        return archiveInstall;
+    }
+
     /**
      * Functional interface for {@link #initAndInspect(InspectBody)}.
      */
@@ -506,19 +1060,24 @@ public final class OakMachine {
             throws AbortedScanException, RepositoryException, E {
         Session admin = null;
         Repository scanRepo = null;
+        NodeStore scanNodeStore = null;
+        RepositoryPool.Lease lease = null;
+        RepositoryCheckpoint heldCheckpoint = null;
         try {
-            scanRepo = initRepository();
-            admin = loginAdmin(scanRepo);
-            addOakpalTypes(admin);
-
-            final JcrPackageManager manager = packagingService.getPackageManager(admin);
-
-            for (InitStage initStage : this.initStages) {
-                initStage.initSession(admin, getErrorListener());
-            }
-
-            for (final URL url : preInstallUrls) {
-                processPackageUrl(admin, manager, true, url);
+            if (repositoryPool != null && (lease = repositoryPool.leaseIfOpen()) != null) {
+                admin = loginAdmin(lease.getRepository());
+            } else if (reusePostInitState && (heldCheckpoint = acquirePostInitCheckpoint()) != null) {
+                admin = loginAdmin(heldCheckpoint.getRepository());
+            } else if (reusePostInitState || baselineCache != null) {
+                final RepositoryCheckpoint checkpoint = initCheckpoint();
+                scanNodeStore = checkpoint.getNodeStore();
+                scanRepo = checkpoint.getRepository();
+                admin = loginAdmin(scanRepo);
+            } else {
+                scanNodeStore = nodeStoreSupplier.get();
+                scanRepo = initRepository(scanNodeStore);
+                admin = loginAdmin(scanRepo);
+                initAdmin(admin);
             }
 
             inspectBody.tryAccept(admin);
@@ -527,7 +1086,16 @@ public final class OakMachine {
                 admin.logout();
             }
 
+            if (lease != null) {
+                lease.close();
+            }
+
+            if (heldCheckpoint != null) {
+                releasePostInitCheckpoint(heldCheckpoint);
+            }
+
             shutdownRepository(scanRepo);
+            closeNodeStore(scanNodeStore);
         }
     }
 
@@ -547,9 +1115,9 @@ public final class OakMachine {
      * Execute a scan by installing each of the provided package files in sequence. The scan proceeds in the following
      * order:
      * <ol>
-     * <li>{@link #initRepository()} creates an fresh Oak repository.</li>
+     * <li>{@link #initRepository(NodeStore)} creates an fresh Oak repository.</li>
      * <li>{@link #loginAdmin(Repository)} opens an admin user JCR session.</li>
-     * <li>{@link InitStage#initSession(Session, ErrorListener)} is called for each registered {@link InitStage}</li>
+     * <li>{@link InitStage#initSession(Session, ErrorListener, NodeTypeDefinitionCache)} is called for each registered {@link InitStage}</li>
      * <li>{@link #processPackageFile(Session, JcrPackageManager, boolean, File)} is performed for each of the
      * {@link #preInstallUrls}</li>
      * <li>Each registered {@link ProgressCheck} receives a {@link ProgressCheck#startedScan()} event.</li>
@@ -559,31 +1127,88 @@ public final class OakMachine {
      * <li>The admin session is closed.</li>
      * <li>The repository is shutdown.</li>
      * </ol>
+     * <p>
+     * When {@link Builder#withReusePostInitState(boolean)} is enabled, the first four steps are only performed by the
+     * first scan, and subsequent scans instead restore the retained repository to its post-init state. The repository
+     * is not shutdown at the end of the scan.
+     * <p>
+     * When a {@link RepositoryPool} is configured, the first four steps are replaced by leasing a repository from the
+     * pool, which is restored to its post-init state and returned to the pool at the end of the scan. If the pool has
+     * been closed, the repository is created as if no pool was configured.
+     * <p>
+     * When {@link Builder#withDeferIndexes(boolean)} is enabled, eligible indexes are disabled after the post-init
+     * state is reached, and rebuilt when a progress check first creates a query.
+     * <p>
+     * When a {@link ScanResultCache} is configured and it has an entry for the same list of package files, none of
+     * these steps are performed, and the recorded reports are returned instead.
      *
      * @param files a list of FileVault content package files to be installed in sequence.
      * @return a list of any CheckReports reported during the scan.
      * @throws AbortedScanException for any errors that terminate the scan.
+     * @see #scanPackages(List, Consumer) to handle each report as it is generated
      */
     public List<CheckReport> scanPackages(final List<File> files) throws AbortedScanException {
+        final List<CheckReport> reports = new ArrayList<>();
+        scanPackages(files, reports::add);
+        return Collections.unmodifiableList(reports);
+    }
+
+    /**
+     * Execute a scan as described by {@link #scanPackages(List)}, passing the report of the error listener and then
+     * the report of each progress check to the consumer as it is generated at the end of the scan, such as to write
+     * each report to a {@link ReportMapper.ReportWriter} without first collecting all of them in a list.
+     *
+     * @param files          a list of FileVault content package files to be installed in sequence.
+     * @param reportConsumer the consumer of each CheckReport reported during the scan
+     * @throws AbortedScanException for any errors that terminate the scan, before any report is passed.
+     * @since 1.5.2
+     */
+    public void scanPackages(final List<File> files, final @NotNull Consumer<CheckReport> reportConsumer)
+            throws AbortedScanException {
+        final String scanResultKey = scanResultCache != null && files != null && !files.isEmpty()
+                ? getScanResultKey(files)
+                : null;
+        if (scanResultKey != null) {
+            final Optional<List<CheckReport>> replayed = scanResultCache.load(scanResultKey);
+            if (replayed.isPresent()) {
+                LOGGER.debug("[scanPackages] replaying recorded reports for {} packages", files.size());
+                replayed.get().forEach(reportConsumer);
+                return;
+            }
+        }
+
         getErrorListener().startedScan();
 
         Session admin = null;
         Repository scanRepo = null;
+        NodeStore scanNodeStore = null;
+        RepositoryPool.Lease lease = null;
+        RepositoryCheckpoint heldCheckpoint = null;
         try {
-            scanRepo = initRepository();
-
-            admin = loginAdmin(scanRepo);
-
-            addOakpalTypes(admin);
+            if (repositoryPool != null) {
+                checkRepositoryFeatures(repositoryPool.getRepositoryFeatures(), progressChecks);
+            }
+            if (repositoryPool != null && (lease = repositoryPool.leaseIfOpen()) != null) {
+                admin = loginAdmin(lease.getRepository());
+            } else if (reusePostInitState && (heldCheckpoint = acquirePostInitCheckpoint()) != null) {
+                admin = loginAdmin(heldCheckpoint.getRepository());
+            } else if (reusePostInitState || baselineCache != null) {
+                final RepositoryCheckpoint checkpoint = initCheckpoint();
+                scanNodeStore = checkpoint.getNodeStore();
+                scanRepo = checkpoint.getRepository();
+                admin = loginAdmin(scanRepo);
+            } else {
+                scanNodeStore = nodeStoreSupplier.get();
+                scanRepo = initRepository(scanNodeStore);
+                admin = loginAdmin(scanRepo);
+                initAdmin(admin);
+            }
 
             final JcrPackageManager manager = packagingService.getPackageManager(admin);
 
-            for (final InitStage initStage : this.initStages) {
-                initStage.initSession(admin, getErrorListener());
-            }
-
-            for (final URL url : preInstallUrls) {
-                processPackageUrl(admin, manager, true, url);
+            if (deferIndexes) {
+                final Repository adminRepository = admin.getRepository();
+                scanDeferredIndexes.put(admin, DeferredIndexes.suspend(admin, () -> loginAdmin(adminRepository)));
             }
 
             progressChecks.forEach(ProgressCheck::startedScan);
@@ -600,24 +1225,483 @@ public final class OakMachine {
             progressChecks.forEach(ProgressCheck::finishedScan);
 
             if (admin != null) {
+                scanDeferredIndexes.remove(admin);
                 admin.logout();
             }
 
+            if (lease != null) {
+                lease.close();
+            }
+
+            if (heldCheckpoint != null) {
+                releasePostInitCheckpoint(heldCheckpoint);
+            }
+
             shutdownRepository(scanRepo);
+            closeNodeStore(scanNodeStore);
 
             getErrorListener().finishedScan();
         }
 
-        List<CheckReport> reports = new ArrayList<>();
-        reports.add(SimpleReport.generateReport(getErrorListener()));
+        // the reports are only collected when they are saved to the scan result cache
+        final List<CheckReport> reports = scanResultKey != null ? new ArrayList<>() : null;
+        final CheckReport errorReport = SimpleReport.generateReport(getErrorListener());
+        if (reports != null) {
+            reports.add(errorReport);
+        }
+        reportConsumer.accept(errorReport);
 
-        List<CheckReport> listenerReports = progressChecks.stream()
-                .map(SimpleReport::generateReport)
-                .collect(Collectors.toList());
+        for (ProgressCheck progressCheck : progressChecks) {
+            final CheckReport checkReport = SimpleReport.generateReport(progressCheck);
+            if (reports != null) {
+                reports.add(checkReport);
+            }
+            reportConsumer.accept(checkReport);
+        }
 
-        reports.addAll(listenerReports);
+        if (reports != null) {
+            try {
+                scanResultCache.save(scanResultKey, reports);
+            } catch (final IOException e) {
+                LOGGER.warn("[scanPackages] failed to save scan result " + scanResultKey, e);
+            }
+        }
+    }
 
-        return Collections.unmodifiableList(reports);
+    /**
+     * Compute the {@link ScanResultCache} key of a scan of the package files, in install order.
+     *
+     * @param files the package files
+     * @return the cache key of the scan, or null if the scan cannot be cached
+     * @throws AbortedScanException if a package file or pre-install package cannot be read
+     */
+    @Nullable String getScanResultKey(final @NotNull List<File> files) throws AbortedScanException {
+        final String baseKey = getScanResultBaseKey();
+        if (baseKey == null) {
+            return null;
+        }
+        final List<String> fileDigests = new ArrayList<>(files.size());
+        for (File file : files) {
+            try {
+                fileDigests.add(Digests.digestFile(file));
+            } catch (final IOException e) {
+                throw new AbortedScanException(e, file);
+            }
+        }
+        return ScanResultCache.getScanKey(baseKey, fileDigests);
+    }
+
+    /**
+     * Compute the part of the {@link ScanResultCache} key which is shared by every scan, from the
+     * {@link BaselineCache} key, the install hook policy, and the check fingerprint. Scans cannot be cached without a
+     * check fingerprint, or with a subpackage silencer or a jcr customizer, none of which can be keyed. Install hooks
+     * can change the installed content, so scans are also not cached with an {@link InstallHookProcessorFactory} or an
+     * install hook class loader provided to the builder, unless no install hooks are run, because the install hook
+     * policy is {@link InstallHookPolicy#SKIP} and pre-install hooks are disabled.
+     *
+     * @return a hex-encoded SHA-256 digest, or null if the scan cannot be cached
+     * @throws AbortedScanException if a pre-install package cannot be read
+     */
+    @Nullable String getScanResultBaseKey() throws AbortedScanException {
+        if (checkFingerprint == null || subpackageSilencer != DEFAULT_SUBPACKAGE_SILENCER || jcrCustomizer != null) {
+            LOGGER.debug("[getScanResultBaseKey] scan cannot be cached without a check fingerprint, "
+                    + "or with a subpackage silencer or jcr customizer.");
+            return null;
+        }
+        final boolean runsInstallHooks = scanInstallHookPolicy != InstallHookPolicy.SKIP || enablePreInstallHooks;
+        if (runsInstallHooks && (installHookProcessorFactory != null || customInstallHookClassLoader)) {
+            LOGGER.debug("[getScanResultBaseKey] scan cannot be cached with an install hook processor factory "
+                    + "or install hook class loader.");
+            return null;
+        }
+        final MessageDigest digest = Digests.newDigest();
+        digestString(digest, getBaselineKey());
+        digestString(digest, String.valueOf(scanInstallHookPolicy));
+        digestString(digest, checkFingerprint);
+        return Digests.toHex(digest.digest());
+    }
+
+    /**
+     * Scan independent groups of package files on a pool of worker threads. The post-init state is created once,
+     * according to the usual {@link InitStage}, pre-install, {@link BaselineCache}, and
+     * {@link Builder#withReusePostInitState(boolean)} rules, and each group is then installed in sequence into its own
+     * repository, forked from that shared state, with its own {@link ProgressCheck}s from
+     * {@link Builder#withProgressCheckSupplier(Supplier)} and its own {@link ErrorListener} from
+     * {@link Builder#withErrorListenerSupplier(Supplier)}. Errors reported during initialization are reported to this
+     * machine's {@link ErrorListener}.
+     * <p>
+     * If no progress check supplier was provided, the groups are scanned one at a time with this machine's checks.
+     * <p>
+     * Use {@link PackageGroupReports#mergeReports(List)} to combine the reports of all groups.
+     *
+     * @param groups      a list of package file groups, each to be installed in sequence in isolation from the others
+     * @param parallelism the maximum number of groups to scan concurrently
+     * @return the reports for each group, in the same order as the groups
+     * @throws AbortedScanException if initialization fails, or for the first group that failed, in group order. Groups
+     *                              that have not yet started are cancelled, and groups that are running are
+     *                              finished before it is thrown.
+     */
+    public List<PackageGroupReports> scanPackageGroups(final @NotNull List<List<File>> groups, final int parallelism)
+            throws AbortedScanException {
+        final String scanResultBaseKey = scanResultCache != null ? getScanResultBaseKey() : null;
+        // a post-init repository that is not retained by the machine or a pool is kept until the groups are scanned,
+        // because the node store behind the baseline may be closed with it.
+        final RepositoryCheckpoint transientCheckpoint;
+        final NodeState baseline;
+        final SharedBlobStore blobStore;
+        try {
+            transientCheckpoint = repositoryPool == null && !reusePostInitState ? initCheckpoint() : null;
+            baseline = transientCheckpoint != null ? transientCheckpoint.getBaseline() : getPostInitBaseline();
+            blobStore = transientCheckpoint != null
+                    ? transientCheckpoint.getSharedBlobStore()
+                    : getPostInitSharedBlobStore();
+        } catch (final RepositoryException e) {
+            throw new AbortedScanException(e);
+        }
+
+        final boolean sharedChecks = progressCheckSupplier == null && !progressChecks.isEmpty();
+        final int threads = sharedChecks ? 1 : Math.max(1, Math.min(parallelism, groups.size()));
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "oakpal-group-scan-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final List<Future<PackageGroupReports>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < groups.size(); i++) {
+                final int groupIndex = i;
+                final List<File> group = groups.get(i);
+                futures.add(executor.submit(() ->
+                        scanGroup(baseline, blobStore, scanResultBaseKey, sharedChecks, groupIndex, group)));
+            }
+            final List<PackageGroupReports> results = new ArrayList<>();
+            for (final Future<PackageGroupReports> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof AbortedScanException) {
+                        throw (AbortedScanException) e.getCause();
+                    }
+                    throw new AbortedScanException(e.getCause());
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AbortedScanException(e);
+                }
+            }
+            return Collections.unmodifiableList(results);
+        } finally {
+            // groups that have not started are cancelled, but groups that are running are not interrupted, because an
+            // interrupt closes the file channels of a segment store that other forks also read from. The transient
+            // checkpoint is only shutdown after the running groups stop reading its node store and blob store.
+            futures.forEach(future -> future.cancel(false));
+            executor.shutdown();
+            awaitTermination(executor);
+            if (transientCheckpoint != null) {
+                transientCheckpoint.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Wait for the tasks of a shutdown executor to finish. The interrupt status of the thread is restored after
+     * waiting if it was interrupted before or while waiting.
+     *
+     * @param executor the executor
+     */
+    private static void awaitTermination(final @NotNull ExecutorService executor) {
+        boolean interrupted = Thread.interrupted();
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1L, TimeUnit.MINUTES);
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the post-init root state of the {@link RepositoryPool}, or of the retained post-init repository when
+     * {@link Builder#withReusePostInitState(boolean)} is enabled.
+     *
+     * @return the post-init root state
+     * @throws AbortedScanException for pre-install errors
+     * @throws RepositoryException  for repository errors
+     */
+    private synchronized NodeState getPostInitBaseline() throws AbortedScanException, RepositoryException {
+        if (repositoryPool != null) {
+            return repositoryPool.getBaseline();
+        }
+        if (postInitCheckpoint == null) {
+            postInitCheckpoint = initCheckpoint();
+        }
+        return postInitCheckpoint.getBaseline();
+    }
+
+    /**
+     * Return the {@link SharedBlobStore} behind the post-init root state returned by {@link #getPostInitBaseline()},
+     * if any.
+     *
+     * @return the shared blob store, or null
+     */
+    private synchronized @Nullable SharedBlobStore getPostInitSharedBlobStore() {
+        if (repositoryPool != null) {
+            return repositoryPool.getSharedBlobStore();
+        }
+        return postInitCheckpoint != null ? postInitCheckpoint.getSharedBlobStore() : null;
+    }
+
+    /**
+     * Scan one package group in a forked machine with a new repository over a copy of the post-init root state.
+     *
+     * @param baseline          the post-init root state
+     * @param blobStore         the shared blob store behind the post-init root state, or null
+     * @param scanResultBaseKey the scan result cache base key of this machine, or null to not cache group results
+     * @param sharedChecks      true to use this machine's checks instead of new checks from the supplier
+     * @param groupIndex        the index of the group
+     * @param files             the package files of the group
+     * @return the reports for the group
+     * @throws AbortedScanException for any errors that terminate the scan
+     * @throws RepositoryException  if the forked repository could not be created
+     */
+    private PackageGroupReports scanGroup(final @NotNull NodeState baseline,
+                                          final @Nullable SharedBlobStore blobStore,
+                                          final @Nullable String scanResultBaseKey,
+                                          final boolean sharedChecks,
+                                          final int groupIndex,
+                                          final @NotNull List<File> files)
+            throws AbortedScanException, RepositoryException {
+        final List<ProgressCheck> groupChecks = sharedChecks || progressCheckSupplier == null
+                ? progressChecks
+                : new ArrayList<>(progressCheckSupplier.get());
+        checkRepositoryFeatures(repositoryFeatures, groupChecks);
+        try (OakMachine fork = new OakMachine(packagingService,
+                groupChecks,
+                errorListenerSupplier.get(),
+                Collections.emptyList(),
+                Collections.emptyList(),
+                jcrCustomizer,
+                installHookProcessorFactory,
+                installHookClassLoader,
+                customInstallHookClassLoader,
+                enablePreInstallHooks,
+                scanInstallHookPolicy,
+                nodeStoreSupplier,
+                subpackageSilencer,
+                true,
+                null,
+                archiveInstall,
+                false,
+                null,
+                null,
+                scanResultBaseKey != null ? scanResultCache : null,
+                scanResultBaseKey,
+                null,
+                repositoryFeatures,
+                deferIndexes,
+                nodeTypeDefinitionCache)) {
+            fork.postInitCheckpoint = fork.forkCheckpoint(baseline, blobStore);
+            return new PackageGroupReports(groupIndex, files, fork.scanPackages(files));
+        }
+    }
+
+    /**
+     * Shutdown the retained post-init repository, if one has been initialized by a previous scan. This is only
+     * necessary when {@link Builder#withReusePostInitState(boolean)} is enabled. The machine can still be used after
+     * it is closed, in which case a new post-init repository will be initialized by the next scan.
+     */
+    @Override
+    public synchronized void close() {
+        if (postInitCheckpoint != null) {
+            postInitCheckpoint.shutdown();
+            postInitCheckpoint = null;
+            postInitCheckpointHeld = false;
+        }
+    }
+
+    /**
+     * Register the oakpal node types, apply each {@link InitStage}, and install each of the {@link #preInstallUrls}.
+     *
+     * @param admin the admin session of a new repository
+     * @throws AbortedScanException for pre-install errors
+     * @throws RepositoryException  for repository errors
+     */
+    private void initAdmin(final Session admin) throws AbortedScanException, RepositoryException {
+        addOakpalTypes(admin);
+
+        final JcrPackageManager manager = packagingService.getPackageManager(admin);
+
+        // node types of all init stages are registered together, so that they can depend on each other in any order
+        final NodeTypeRegistrar registrar = new NodeTypeRegistrar(getErrorListener(), nodeTypeDefinitionCache);
+        for (final InitStage initStage : this.initStages) {
+            initStage.initNodeTypes(admin, getErrorListener(), registrar, nodeTypeDefinitionCache);
+        }
+        registrar.register(admin);
+
+        for (final InitStage initStage : this.initStages) {
+            initStage.initPrivilegesAndRoots(admin, getErrorListener());
+        }
+
+        for (final URL url : preInstallUrls) {
+            processPackageUrl(admin, manager, true, url);
+        }
+    }
+
+    /**
+     * Acquire the retained post-init repository for the duration of a scan, initializing it on first call, or restoring
+     * it to its post-init state on subsequent calls.
+     *
+     * @return the retained checkpoint, or null if it is held by another scan
+     * @throws AbortedScanException for pre-install errors
+     * @throws RepositoryException  for repository errors
+     */
+    private synchronized @Nullable RepositoryCheckpoint acquirePostInitCheckpoint()
+            throws AbortedScanException, RepositoryException {
+        if (postInitCheckpointHeld) {
+            LOGGER.debug("[acquirePostInitCheckpoint] retained repository is busy. initializing a new repository.");
+            return null;
+        }
+        if (postInitCheckpoint == null) {
+            postInitCheckpoint = initCheckpoint();
+        } else {
+            postInitCheckpoint.restore();
+        }
+        postInitCheckpointHeld = true;
+        return postInitCheckpoint;
+    }
+
+    /**
+     * Release the retained post-init repository at the end of a scan.
+     *
+     * @param checkpoint the checkpoint returned by {@link #acquirePostInitCheckpoint()}
+     */
+    private synchronized void releasePostInitCheckpoint(final @NotNull RepositoryCheckpoint checkpoint) {
+        if (checkpoint == postInitCheckpoint) {
+            postInitCheckpointHeld = false;
+        }
+    }
+
+    /**
+     * Create a new repository, apply {@link #initAdmin(Session)}, and capture the resulting root state. If a
+     * {@link BaselineCache} is configured, the root state is loaded from the cache before the repository is created,
+     * and {@link #initAdmin(Session)} is skipped, or on a miss, the resulting root state is saved to the cache.
+     *
+     * @return a new checkpoint
+     * @throws AbortedScanException for pre-install errors
+     * @throws RepositoryException  for repository errors
+     */
+    RepositoryCheckpoint initCheckpoint() throws AbortedScanException, RepositoryException {
+        final NodeStore nodeStore = Optional.ofNullable(nodeStoreSupplier.get()).orElseGet(MemoryNodeStore::new);
+        // the effect of a jcr customizer cannot be keyed, so the post-init state is not cached when one is set
+        final String baselineKey = baselineCache != null && jcrCustomizer == null ? getBaselineKey() : null;
+        final boolean baselineLoaded = baselineKey != null && baselineCache.load(baselineKey, nodeStore);
+        final Repository repository = initRepository(nodeStore);
+        Session admin = null;
+        try {
+            admin = loginAdmin(repository);
+            if (!baselineLoaded) {
+                final int violationsBefore = getErrorListener().getReportedViolations().size();
+                initAdmin(admin);
+                admin.save();
+                if (baselineKey != null
+                        && getErrorListener().getReportedViolations().size() == violationsBefore) {
+                    saveBaseline(baselineKey, nodeStore.getRoot());
+                }
+            }
+        } catch (final AbortedScanException | RepositoryException | RuntimeException e) {
+            shutdownRepository(repository);
+            closeNodeStore(nodeStore);
+            throw e;
+        } finally {
+            if (admin != null) {
+                admin.logout();
+            }
+        }
+        return new RepositoryCheckpoint(nodeStore, repository, nodeStore.getRoot());
+    }
+
+    /**
+     * Create a new repository over a copy of a post-init root state. When the post-init state was read from a
+     * segment store, such as a {@link TempSegmentNodeStore} from {@link NodeStoreType#SEGMENT}, the fork gets a new
+     * node store from the {@link Builder#withNodeStoreSupplier(Supplier)} supplier and the post-init content is copied
+     * into it, so that the fork also keeps its content off the heap. Otherwise, the fork is created directly over the
+     * post-init state, so that unchanged content is shared with it, and when the post-init state stores its binaries in
+     * a {@link SharedBlobStore}, the fork stores new binaries in the same directory through its own instance, which is
+     * closed when the fork is shut down.
+     *
+     * @param baseline  the post-init root state
+     * @param blobStore the shared blob store behind the post-init root state, or null to keep binaries in memory
+     * @return a new checkpoint
+     * @throws RepositoryException if the repository could not be created
+     */
+    RepositoryCheckpoint forkCheckpoint(final @NotNull NodeState baseline,
+                                        final @Nullable SharedBlobStore blobStore) throws RepositoryException {
+        final NodeStore nodeStore;
+        if (baseline instanceof SegmentNodeState) {
+            nodeStore = Optional.ofNullable(nodeStoreSupplier.get()).orElseGet(MemoryNodeStore::new);
+        } else if (blobStore != null) {
+            nodeStore = new FileBlobMemoryNodeStore(
+                    new SharedBlobStore(blobStore.getStoreDir(), blobStore.getMaxBytes()), baseline);
+        } else {
+            nodeStore = new MemoryNodeStore(baseline);
+        }
+        try {
+            if (baseline instanceof SegmentNodeState) {
+                RepositoryCheckpoint.resetRoot(nodeStore, baseline);
+            }
+            final Repository repository = initRepository(nodeStore);
+            return new RepositoryCheckpoint(nodeStore, repository, nodeStore.getRoot());
+        } catch (final RepositoryException | RuntimeException e) {
+            closeNodeStore(nodeStore);
+            throw e;
+        }
+    }
+
+    private void saveBaseline(final @NotNull String baselineKey, final @NotNull NodeState baseline) {
+        try {
+            baselineCache.save(baselineKey, baseline);
+        } catch (final IOException e) {
+            LOGGER.warn("[saveBaseline] failed to save baseline " + baselineKey, e);
+        }
+    }
+
+    /**
+     * Compute the {@link BaselineCache} key for the post-init state of this machine. Machines with equal keys can share
+     * a {@link RepositoryPool}. The key does not account for a {@link JcrCustomizer}.
+     *
+     * @return a hex-encoded SHA-256 digest
+     * @throws AbortedScanException if a pre-install package cannot be read
+     */
+    public String getBaselineKey() throws AbortedScanException {
+        final MessageDigest digest = Digests.newDigest();
+        digestString(digest, Integer.toString(BaselineCache.FORMAT_VERSION));
+        digestString(digest, OakVersion.getVersion());
+        digestString(digest, OakpalVersion.getVersion());
+        digestString(digest, Boolean.toString(enablePreInstallHooks));
+        if (archiveInstall) {
+            digestString(digest, "archiveInstall");
+        }
+        if (!repositoryFeatures.containsAll(RepositoryProfile.FULL.getFeatures())) {
+            digestString(digest, "repositoryFeatures:" + repositoryFeatures);
+        }
+        for (final InitStage initStage : initStages) {
+            try {
+                initStage.updateDigest(digest);
+            } catch (final IOException e) {
+                throw new AbortedScanException(e);
+            }
+        }
+        for (final URL url : preInstallUrls) {
+            try {
+                digestUrl(digest, url);
+            } catch (final IOException e) {
+                throw new AbortedScanException(e, url);
+            }
+        }
+        return Digests.toHex(digest.digest());
     }
 
     private void addOakpalTypes(final Session admin) throws RepositoryException {
@@ -662,46 +1746,68 @@ public final class OakMachine {
         admin.getWorkspace().getNodeTypeManager().registerNodeType(builder.build(), false);
     }
 
+    private InternalImportOptions newImportOptions(final @NotNull PackageId packageId,
+                                                   final @NotNull ProgressTrackerListener tracker,
+                                                   final boolean preInstall) {
+        final InternalImportOptions options =
+                new InternalImportOptions(packageId, Packaging.class.getClassLoader());
+        options.setNonRecursive(true);
+        options.setDependencyHandling(DependencyHandling.IGNORE);
+        options.setListener(tracker);
+        options.setInstallHookProcessorFactoryDelegate(installHookProcessorFactory);
+        options.setHookClassLoader(installHookClassLoader);
+        options.setViolationReporter(errorListener);
+        // we default to disabling install hooks for preinstall packages, since preinstall packages are
+        // 1) more likely to come off-the-shelf, targeting a larger application's class path
+        // 2) not the subject of an oakpal scan, and thus primarily valuable for the packaged content, not for hook behavior
+        if (preInstall) {
+            options.setInstallHookPolicy(enablePreInstallHooks
+                    ? InstallHookPolicy.ABORT
+                    : InstallHookPolicy.SKIP);
+        } else {
+            options.setInstallHookPolicy(scanInstallHookPolicy);
+        }
+        return options;
+    }
+
+    /**
+     * Wrap the admin session for progress checks, rebuilding the deferred indexes of the current scan, if any, before
+     * the first query.
+     *
+     * @param admin the admin session
+     * @return a read-only session facade
+     */
+    private Session wrapInspectSession(final @NotNull Session admin) {
+        final DeferredIndexes deferredIndexes = scanDeferredIndexes.get(admin);
+        return deferredIndexes != null
+                ? SessionFacade.findBestWrapper(admin, false, deferredIndexes::rebuild)
+                : Util.wrapSessionReadOnly(admin);
+    }
+
     private void processPackage(Session admin, JcrPackageManager manager, JcrPackage jcrPackage, final boolean preInstall)
             throws IOException, PackageException, RepositoryException {
 
         final PackageId packageId = jcrPackage.getPackage().getId();
 
-        if (!preInstall) {
+        if (!preInstall && !getSubscribers(ProgressCheck.Event.READ_MANIFEST).isEmpty()) {
             Optional.ofNullable(jcrPackage.getData()).map(uncheck1(Property::getBinary)).ifPresent(
                     uncheckVoid1(binary -> {
                         try (InputStream input = binary.getStream();
                              JarInputStream jarInput = new JarInputStream(input)) {
                             final Manifest manifest = jarInput.getManifest();
                             if (manifest != null) {
-                                progressChecks.forEach(handler ->
+                                getSubscribers(ProgressCheck.Event.READ_MANIFEST).forEach(handler ->
                                         handler.readManifest(packageId, new Manifest(manifest)));
                             }
                         }
                     }));
         }
 
-        final Session inspectSession = Util.wrapSessionReadOnly(admin);
+        final Session inspectSession = wrapInspectSession(admin);
         final ProgressTrackerListener tracker =
-                new ImporterListenerAdapter(packageId, progressChecks, inspectSession, preInstall);
+                new ImporterListenerAdapter(packageId, inspectSession, preInstall);
 
-        InternalImportOptions options = new InternalImportOptions(packageId, Packaging.class.getClassLoader());
-        options.setNonRecursive(true);
-        options.setDependencyHandling(DependencyHandling.IGNORE);
-        options.setListener(tracker);
-        options.setInstallHookProcessorFactoryDelegate(installHookProcessorFactory);
-        options.setHookClassLoader(installHookClassLoader);
-        options.setViolationReporter(errorListener);
-        // we default to disabling install hooks for preinstall packages, since preinstall packages are
-        // 1) more likely to come off-the-shelf, targeting a larger application's class path
-        // 2) not the subject of an oakpal scan, and thus primarily valuable for the packaged content, not for hook behavior
-        if (preInstall) {
-            options.setInstallHookPolicy(enablePreInstallHooks
-                    ? InstallHookPolicy.ABORT
-                    : InstallHookPolicy.SKIP);
-        } else {
-            options.setInstallHookPolicy(scanInstallHookPolicy);
-        }
+        final InternalImportOptions options = newImportOptions(packageId, tracker, preInstall);
 
         List<PackageId> subpacks = Arrays.asList(jcrPackage.extractSubpackages(options));
 
@@ -711,7 +1817,7 @@ public final class OakMachine {
         }
 
         if (!preInstall) {
-            progressChecks.forEach(handler -> {
+            getSubscribers(ProgressCheck.Event.BEFORE_EXTRACT).forEach(handler -> {
                 try {
                     handler.beforeExtract(packageId, inspectSession,
                             vaultPackage.getProperties(), vaultPackage.getMetaInf(), subpacks);
@@ -727,7 +1833,7 @@ public final class OakMachine {
         jcrPackage.close();
 
         if (!preInstall) {
-            progressChecks.forEach(handler -> {
+            getSubscribers(ProgressCheck.Event.AFTER_EXTRACT).forEach(handler -> {
                 try {
                     handler.afterExtract(packageId, inspectSession);
                 } catch (final Exception e) {
@@ -747,7 +1853,7 @@ public final class OakMachine {
         try (JcrPackage jcrPackage = manager.open(packageId)) {
 
             if (!preInstall) {
-                progressChecks.forEach(handler -> {
+                getSubscribers(ProgressCheck.Event.IDENTIFY_SUBPACKAGE).forEach(handler -> {
                     try {
                         handler.identifySubpackage(packageId, parentId);
                     } catch (final Exception e) {
@@ -773,7 +1879,7 @@ public final class OakMachine {
         final File packageFile = vaultPackage.getFile();
 
         if (!preInstall) {
-            progressChecks.forEach(handler -> {
+            getSubscribers(ProgressCheck.Event.IDENTIFY_PACKAGE).forEach(handler -> {
                 try {
                     handler.identifyPackage(packageId, packageFile);
                 } catch (Exception e) {
@@ -796,6 +1902,11 @@ public final class OakMachine {
             throw new AbortedScanException(e);
         }
 
+        if (archiveInstall) {
+            processArchiveUrl(admin, preInstall, url);
+            return;
+        }
+
         try (InputStream input = url.openStream();
              JcrPackage jcrPackage = manager.upload(input, true, true)) {
             processUploadedPackage(admin, manager, preInstall, jcrPackage);
@@ -815,6 +1926,11 @@ public final class OakMachine {
             throw new AbortedScanException(e);
         }
 
+        if (archiveInstall) {
+            processArchiveFile(admin, preInstall, file);
+            return;
+        }
+
         try (JcrPackage jcrPackage = manager.upload(file, false, true, null, true)) {
             processUploadedPackage(admin, manager, preInstall, jcrPackage);
         } catch (IOException | PackageException | RepositoryException | Fun.FunRuntimeException e) {
@@ -822,6 +1938,237 @@ public final class OakMachine {
         }
     }
 
+    /**
+     * Install a package directly from the archive at the provided url, spooling the url to a temporary file first if
+     * it is not a file url.
+     *
+     * @param admin      the admin session
+     * @param preInstall true if the package is a pre-install package
+     * @param url        the package url
+     * @throws AbortedScanException for any errors that terminate the scan
+     * @see Builder#withArchiveInstall(boolean)
+     */
+    final void processArchiveUrl(final @NotNull Session admin,
+                                 final boolean preInstall,
+                                 final @NotNull URL url)
+            throws AbortedScanException {
+        final File urlFile = toFile(url);
+        if (urlFile != null) {
+            processArchiveFile(admin, preInstall, urlFile);
+            return;
+        }
+        File spooled = null;
+        try {
+            try (InputStream input = url.openStream()) {
+                spooled = spoolToTempFile(input);
+            }
+            processArchiveFile(admin, preInstall, spooled);
+        } catch (final IOException e) {
+            throw new AbortedScanException(e, url);
+        } finally {
+            deleteTempFile(spooled);
+        }
+    }
+
+    /**
+     * Install a package directly from its archive file, without uploading it to the package registry.
+     *
+     * @param admin      the admin session
+     * @param preInstall true if the package is a pre-install package
+     * @param file       the package file
+     * @throws AbortedScanException for any errors that terminate the scan
+     * @see Builder#withArchiveInstall(boolean)
+     */
+    final void processArchiveFile(final @NotNull Session admin,
+                                  final boolean preInstall,
+                                  final @NotNull File file)
+            throws AbortedScanException {
+        try (VaultPackage vaultPackage = packagingService.getPackageManager().open(file, false)) {
+            final PackageId packageId = vaultPackage.getId();
+            if (!preInstall) {
+                getSubscribers(ProgressCheck.Event.IDENTIFY_PACKAGE).forEach(handler -> {
+                    try {
+                        handler.identifyPackage(packageId, file);
+                    } catch (Exception e) {
+                        getErrorListener().onListenerException(e, handler, packageId);
+                    }
+                });
+            }
+
+            processArchivePackage(admin, vaultPackage, preInstall);
+        } catch (IOException | PackageException | RepositoryException | Fun.FunRuntimeException e) {
+            throw new AbortedScanException(e, file);
+        }
+    }
+
+    private void processArchivePackage(final Session admin, final VaultPackage vaultPackage, final boolean preInstall)
+            throws IOException, PackageException, RepositoryException {
+        final PackageId packageId = vaultPackage.getId();
+        if (packageId == null || !vaultPackage.isValid()) {
+            throw new PackageException("Package is not valid: " + vaultPackage.getFile());
+        }
+        final Archive archive = vaultPackage.getArchive();
+
+        if (!preInstall && !getSubscribers(ProgressCheck.Event.READ_MANIFEST).isEmpty()) {
+            final Archive.Entry manifestEntry = archive.getEntry(JarFile.MANIFEST_NAME);
+            if (manifestEntry != null) {
+                try (InputStream input = archive.openInputStream(manifestEntry)) {
+                    final Manifest manifest = new Manifest(input);
+                    getSubscribers(ProgressCheck.Event.READ_MANIFEST).forEach(handler ->
+                            handler.readManifest(packageId, new Manifest(manifest)));
+                }
+            }
+        }
+
+        final Session inspectSession = wrapInspectSession(admin);
+        final ProgressTrackerListener tracker =
+                new ImporterListenerAdapter(packageId, inspectSession, preInstall);
+        final InternalImportOptions options = newImportOptions(packageId, tracker, preInstall);
+
+        final Map<PackageId, File> subpackFiles = new LinkedHashMap<>();
+        try {
+            for (Archive.Entry entry : findSubpackageEntries(archive)) {
+                File subpackFile = null;
+                try (InputStream input = archive.openInputStream(entry)) {
+                    subpackFile = spoolToTempFile(input);
+                }
+                try (VaultPackage subpack = packagingService.getPackageManager().open(subpackFile, false)) {
+                    final PackageId subpackId = subpack.getId();
+                    if (subpackId == null || subpackFiles.containsKey(subpackId)) {
+                        deleteTempFile(subpackFile);
+                    } else {
+                        subpackFiles.put(subpackId, subpackFile);
+                    }
+                } catch (final IOException e) {
+                    deleteTempFile(subpackFile);
+                    throw e;
+                }
+            }
+
+            final List<PackageId> subpacks = new ArrayList<>(subpackFiles.keySet());
+            if (!preInstall) {
+                getSubscribers(ProgressCheck.Event.BEFORE_EXTRACT).forEach(handler -> {
+                    try {
+                        handler.beforeExtract(packageId, inspectSession,
+                                vaultPackage.getProperties(), vaultPackage.getMetaInf(), subpacks);
+                    } catch (final Exception e) {
+                        getErrorListener().onListenerException(e, handler, packageId);
+                    }
+                });
+            }
+
+            final boolean stubBlobs = !preInstall && !repositoryFeatures.contains(RepositoryFeature.BINARY_CONTENT);
+            if (stubBlobs) {
+                StubBlobNodeStore.beginStubbing();
+            }
+            try {
+                vaultPackage.extract(admin, options);
+                admin.save();
+            } finally {
+                if (stubBlobs) {
+                    StubBlobNodeStore.endStubbing();
+                }
+            }
+
+            if (!preInstall) {
+                getSubscribers(ProgressCheck.Event.AFTER_EXTRACT).forEach(handler -> {
+                    try {
+                        handler.afterExtract(packageId, inspectSession);
+                    } catch (final Exception e) {
+                        getErrorListener().onListenerException(e, handler, packageId);
+                    }
+                });
+            }
+
+            for (Map.Entry<PackageId, File> subpack : subpackFiles.entrySet()) {
+                processArchiveSubpackage(admin, subpack.getValue(), subpack.getKey(), packageId,
+                        preInstall || subpackageSilencer.test(subpack.getKey(), packageId));
+            }
+        } finally {
+            subpackFiles.values().forEach(OakMachine::deleteTempFile);
+        }
+    }
+
+    final void processArchiveSubpackage(final Session admin, final File file, final PackageId packageId,
+                                        final PackageId parentId, final boolean preInstall)
+            throws RepositoryException {
+        try (VaultPackage vaultPackage = packagingService.getPackageManager().open(file, false)) {
+            if (!preInstall) {
+                getSubscribers(ProgressCheck.Event.IDENTIFY_SUBPACKAGE).forEach(handler -> {
+                    try {
+                        handler.identifySubpackage(packageId, parentId);
+                    } catch (final Exception e) {
+                        getErrorListener().onListenerException(e, handler, packageId);
+                    }
+                });
+            }
+
+            processArchivePackage(admin, vaultPackage, preInstall);
+
+        } catch (IOException | PackageException | RepositoryException e) {
+            getErrorListener().onSubpackageException(e, packageId);
+            admin.refresh(false);
+        }
+    }
+
+    /**
+     * Find the subpackage entries in the archive, the same way that FileVault finds the subpackages to register when
+     * a package is installed: any zip file under /etc/packages, excluding .snapshot folders.
+     *
+     * @param archive the package archive
+     * @return the list of subpackage entries
+     * @throws IOException if the archive cannot be read
+     */
+    static List<Archive.Entry> findSubpackageEntries(final @NotNull Archive archive) throws IOException {
+        final List<Archive.Entry> entries = new ArrayList<>();
+        final Archive.Entry packagesRoot = archive.getEntry("/jcr_root/etc/packages");
+        if (packagesRoot != null) {
+            collectSubpackageEntries(packagesRoot, entries);
+        }
+        return entries;
+    }
+
+    private static void collectSubpackageEntries(final @NotNull Archive.Entry parent,
+                                                 final @NotNull List<Archive.Entry> entries) {
+        for (Archive.Entry child : parent.getChildren()) {
+            if (child.isDirectory()) {
+                if (!".snapshot".equals(child.getName())) {
+                    collectSubpackageEntries(child, entries);
+                }
+            } else if (child.getName().endsWith(".zip")) {
+                entries.add(child);
+            }
+        }
+    }
+
+    private static File toFile(final @NotNull URL url) {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI());
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static File spoolToTempFile(final @NotNull InputStream input) throws IOException {
+        final File tempFile = File.createTempFile("oakpal-package-", ".zip");
+        try {
+            Files.copy(input, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            deleteTempFile(tempFile);
+            throw e;
+        }
+        return tempFile;
+    }
+
+    private static void deleteTempFile(final File tempFile) {
+        if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+            tempFile.deleteOnExit();
+        }
+    }
+
     @FunctionalInterface
     public interface JcrCustomizer {
         void customize(Jcr jcr);
@@ -834,9 +2181,20 @@ public final class OakMachine {
         return child;
     }
 
-    private Repository initRepository() throws RepositoryException {
-        final NodeStore nodeStore = nodeStoreSupplier.get();
-        final Jcr jcr = nodeStore == null ? new Jcr() : new Jcr(nodeStore);
+    private Repository initRepository(final NodeStore nodeStore) throws RepositoryException {
+        final NodeStore oakNodeStore = nodeStore != null
+                && !repositoryFeatures.contains(RepositoryFeature.BINARY_CONTENT)
+                && StubBlobNodeStore.canWrap(nodeStore)
+                ? new StubBlobNodeStore(nodeStore)
+                : nodeStore;
+        final EnumSet<RepositoryFeature> oakFeatures = RepositoryProfile.FULL.getFeatures();
+        oakFeatures.remove(RepositoryFeature.BINARY_CONTENT);
+        final Jcr jcr;
+        if (repositoryFeatures.containsAll(oakFeatures)) {
+            jcr = oakNodeStore == null ? new Jcr() : new Jcr(oakNodeStore);
+        } else {
+            jcr = newLeanJcr(oakNodeStore == null ? new Oak() : new Oak(oakNodeStore));
+        }
 
         Properties userProps = new Properties();
         userProps.put(UserConstants.PARAM_USER_PATH, "/home/users");
@@ -872,7 +2230,53 @@ public final class OakMachine {
             jcrCustomizer.customize(jcr);
         }
 
-        return jcr.withAtomicCounter().createRepository();
+        if (repositoryFeatures.contains(RepositoryFeature.ATOMIC_COUNTER)) {
+            jcr.withAtomicCounter();
+        }
+        return jcr.createRepository();
+    }
+
+    /**
+     * Create a {@link Jcr} without the default Oak components, and then add back the components that package
+     * installation depends on, along with the components of each enabled {@link RepositoryFeature}. The security
+     * provider is added by {@link #initRepository(NodeStore)}.
+     *
+     * @param oak the oak instance
+     * @return a new jcr
+     */
+    private Jcr newLeanJcr(final @NotNull Oak oak) {
+        final Jcr jcr = new Jcr(oak, false)
+                .with(new InitialContent())
+                .with(JcrConflictHandler.createJcrConflictHandler())
+                .with(new VersionHook())
+                .with(new ItemSaveValidatorProvider())
+                .with(new NameValidatorProvider())
+                .with(new NamespaceEditorProvider())
+                .with(new TypeEditorProvider())
+                .with(new ConflictValidatorProvider())
+                .with(new ReferenceEditorProvider())
+                .with(new PropertyIndexEditorProvider())
+                .with(new ReferenceIndexProvider())
+                .with(new PropertyIndexProvider());
+        if (repositoryFeatures.contains(RepositoryFeature.OBSERVATION)) {
+            jcr.with(new ChangeCollectorProvider());
+        }
+        if (repositoryFeatures.contains(RepositoryFeature.QUERY_INDEXES)) {
+            jcr.with(new NodeCounterEditorProvider())
+                    .with(new OrderedPropertyIndexEditorProvider())
+                    .with(new NodeTypeIndexProvider());
+        } else {
+            // the nodetype index is a synchronous property index, updated for every imported node.
+            jcr.with((RepositoryInitializer) builder -> {
+                final NodeBuilder index = builder.child(IndexConstants.INDEX_DEFINITIONS_NAME);
+                for (String name : Arrays.asList("nodetype", "counter")) {
+                    if (index.hasChildNode(name)) {
+                        index.child(name).setProperty(IndexConstants.TYPE_PROPERTY_NAME, IndexConstants.TYPE_DISABLED);
+                    }
+                }
+            });
+        }
+        return jcr;
     }
 
     private void shutdownRepository(Repository repository) {
@@ -881,6 +2285,22 @@ public final class OakMachine {
         }
     }
 
+    /**
+     * Close the node store of a repository that has been shutdown, if it holds resources, like a
+     * {@link TempSegmentNodeStore}.
+     *
+     * @param nodeStore the node store to close
+     */
+    static void closeNodeStore(final @Nullable NodeStore nodeStore) {
+        if (nodeStore instanceof Closeable) {
+            try {
+                ((Closeable) nodeStore).close();
+            } catch (final IOException | RuntimeException e) {
+                LOGGER.warn("[closeNodeStore] failed to close node store: {}", e.getMessage());
+            }
+        }
+    }
+
     private Session loginAdmin(Repository repository) throws RepositoryException {
         final Thread thread = Thread.currentThread();
         final ClassLoader loader = thread.getContextClassLoader();
@@ -896,22 +2316,26 @@ public final class OakMachine {
         new CNDURLInstaller(getErrorListener(),
                 Collections.emptyList(),
                 Collections.singletonList(JcrPackageManager.class.getResource(
-                        "impl/nodetypes.cnd")))
+                        "impl/nodetypes.cnd")),
+                nodeTypeDefinitionCache)
                 .register(admin);
     }
 
     final class ImporterListenerAdapter implements ProgressTrackerListener {
         private final PackageId packageId;
 
-        private final List<ProgressCheck> handlers;
+        private final List<ProgressCheck> importedPathHandlers;
+
+        private final List<ProgressCheck> deletedPathHandlers;
 
         private final Session session;
 
         private final boolean preInstall;
 
-        ImporterListenerAdapter(PackageId packageId, List<ProgressCheck> handlers, Session session, boolean preInstall) {
+        ImporterListenerAdapter(PackageId packageId, Session session, boolean preInstall) {
             this.packageId = packageId;
-            this.handlers = handlers;
+            this.importedPathHandlers = getSubscribers(ProgressCheck.Event.IMPORTED_PATH);
+            this.deletedPathHandlers = getSubscribers(ProgressCheck.Event.DELETED_PATH);
             this.session = session;
             this.preInstall = preInstall;
         }
@@ -924,7 +2348,7 @@ public final class OakMachine {
             // NOP("-"), MOD("U"), REP("R"), ERR("E"), ADD("A"), DEL("D"), MIS("!")
             if (path != null && path.startsWith("/")) {
                 if ("D".equals(action)) { // deleted
-                    handlers.forEach(handler -> {
+                    deletedPathHandlers.forEach(handler -> {
                         try {
                             handler.deletedPath(packageId, path, session);
                         } catch (final Exception e) {
@@ -932,9 +2356,13 @@ public final class OakMachine {
                         }
                     });
                 } else if ("ARU-".contains(action)) { // added, replaced, updated
+                    if (importedPathHandlers.isEmpty()) {
+                        // skip resolving the node when no check consumes it
+                        return;
+                    }
                     try {
                         Node node = session.getNode(path);
-                        handlers.forEach(handler -> {
+                        importedPathHandlers.forEach(handler -> {
                             try {
                                 handler.importedPath(packageId, path, node);
                             } catch (final Exception e) {
@@ -12,6 +12,7 @@ import org.slf4j.LoggerFactory;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -24,6 +25,7 @@ import java.util.stream.Collectors;
 import static net.adamcin.oakpal.core.Fun.compose;
 import static net.adamcin.oakpal.core.Fun.inferTest1;
 import static net.adamcin.oakpal.core.Fun.result1;
+import static net.adamcin.oakpal.core.Fun.uncheck0;
 import static net.adamcin.oakpal.core.Fun.uncheck1;
 import static net.adamcin.oakpal.core.JavaxJson.hasNonNull;
 
@@ -64,6 +66,9 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
     public static final String KEY_PREINSTALL_URLS = "preInstallUrls";
     public static final String KEY_ENABLE_PRE_INSTALL_HOOKS = "enablePreInstallHooks";
     public static final String KEY_INSTALL_HOOK_POLICY = "installHookPolicy";
+    public static final String KEY_REPOSITORY_PROFILE = "repositoryProfile";
+    public static final String KEY_DEFER_INDEXES = "deferIndexes";
+    public static final String KEY_NODE_STORE = "nodeStore";
 
     private final URL base;
     private final String name;
@@ -77,6 +82,9 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
     private final List<CheckSpec> checks;
     private final boolean enablePreInstallHooks;
     private final InstallHookPolicy installHookPolicy;
+    private final RepositoryProfile repositoryProfile;
+    private final boolean deferIndexes;
+    private final NodeStoreType nodeStore;
 
     private OakpalPlan(final @Nullable URL base,
                        final @Nullable JsonObject originalJson,
@@ -89,7 +97,10 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
                        final @NotNull List<ForcedRoot> forcedRoots,
                        final @NotNull List<CheckSpec> checks,
                        final boolean enablePreInstallHooks,
-                       final @Nullable InstallHookPolicy installHookPolicy) {
+                       final @Nullable InstallHookPolicy installHookPolicy,
+                       final @Nullable RepositoryProfile repositoryProfile,
+                       final boolean deferIndexes,
+                       final @Nullable NodeStoreType nodeStore) {
         this.base = base;
         this.originalJson = originalJson;
         this.name = name;
@@ -102,6 +113,9 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
         this.checks = checks;
         this.enablePreInstallHooks = enablePreInstallHooks;
         this.installHookPolicy = installHookPolicy;
+        this.repositoryProfile = repositoryProfile;
+        this.deferIndexes = deferIndexes;
+        this.nodeStore = nodeStore;
     }
 
     public URL getBase() {
@@ -152,6 +166,18 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
         return installHookPolicy;
     }
 
+    public RepositoryProfile getRepositoryProfile() {
+        return repositoryProfile;
+    }
+
+    public boolean isDeferIndexes() {
+        return deferIndexes;
+    }
+
+    public NodeStoreType getNodeStore() {
+        return nodeStore;
+    }
+
     static URI relativizeToBaseParent(final @NotNull URI baseUri, final @NotNull URI uri) throws URISyntaxException {
         if (baseUri.isOpaque() || uri.isOpaque()) {
             return uri;
@@ -199,6 +225,9 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
                 .key(KEY_JCR_NAMESPACES).opt(jcrNamespaces)
                 .key(KEY_ENABLE_PRE_INSTALL_HOOKS).opt(enablePreInstallHooks, false)
                 .key(KEY_INSTALL_HOOK_POLICY).opt(installHookPolicy)
+                .key(KEY_REPOSITORY_PROFILE).opt(repositoryProfile)
+                .key(KEY_DEFER_INDEXES).opt(deferIndexes, false)
+                .key(KEY_NODE_STORE).opt(nodeStore)
                 .get();
     }
 
@@ -228,10 +257,10 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
         final ChecklistPlanner checklistPlanner = new ChecklistPlanner(checklists);
         checklistPlanner.discoverChecklists(classLoader);
 
+        final List<CheckSpec> effectiveCheckSpecs = checklistPlanner.getEffectiveCheckSpecs(checks);
         final List<ProgressCheck> allChecks;
         try {
-            allChecks = new ArrayList<>(Locator.loadFromCheckSpecs(
-                    checklistPlanner.getEffectiveCheckSpecs(checks), classLoader));
+            allChecks = new ArrayList<>(Locator.loadFromCheckSpecs(effectiveCheckSpecs, classLoader));
         } catch (final Exception e) {
             throw new Exception("Error while loading progress checks.", e);
         }
@@ -239,12 +268,26 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
         return new OakMachine.Builder()
                 .withErrorListener(errorListener)
                 .withProgressChecks(allChecks)
+                .withProgressCheckSupplier(uncheck0(() ->
+                        Locator.loadFromCheckSpecs(effectiveCheckSpecs, classLoader)))
                 .withInitStages(checklistPlanner.getInitStages())
                 .withInitStage(toInitStage())
                 .withPreInstallUrls(preInstallUrls)
                 .withInstallHookPolicy(installHookPolicy)
                 .withInstallHookClassLoader(classLoader)
-                .withEnablePreInstallHooks(enablePreInstallHooks);
+                .withEnablePreInstallHooks(enablePreInstallHooks)
+                .withRepositoryProfile(repositoryProfile)
+                .withDeferIndexes(deferIndexes)
+                .withNodeStoreSupplier(nodeStore != null ? nodeStore.newSupplier() : null)
+                .withCheckFingerprintSupplier(() -> {
+                    try {
+                        return ScanResultCache.fingerprintCheckSpecs(effectiveCheckSpecs, classLoader);
+                    } catch (final IOException e) {
+                        LOGGER.warn("[Plan#toOakMachineBuilder] failed to fingerprint checks, scan result cache "
+                                + "disabled: {}", e.getMessage());
+                        return null;
+                    }
+                });
     }
 
 
@@ -263,17 +306,19 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
         if (hasNonNull(json, KEY_FORCED_ROOTS)) {
             builder.withForcedRoots(JavaxJson.mapArrayOfObjects(json.getJsonArray(KEY_FORCED_ROOTS), ForcedRoot::fromJson));
         }
+        final List<JcrNs> jcrNsList;
         final NamespaceMapping mapping;
         if (hasNonNull(json, KEY_JCR_NAMESPACES)) {
-            final List<JcrNs> jcrNsList = JavaxJson.mapArrayOfObjects(json.getJsonArray(KEY_JCR_NAMESPACES),
-                    JcrNs::fromJson);
+            jcrNsList = JavaxJson.mapArrayOfObjects(json.getJsonArray(KEY_JCR_NAMESPACES), JcrNs::fromJson);
             mapping = JsonCnd.toNamespaceMapping(jcrNsList);
             builder.withJcrNamespaces(jcrNsList);
         } else {
+            jcrNsList = Collections.emptyList();
             mapping = JsonCnd.BUILTIN_MAPPINGS;
         }
         if (hasNonNull(json, KEY_JCR_NODETYPES)) {
-            builder.withJcrNodetypes(JsonCnd.getQTypesFromJson(json.getJsonObject(KEY_JCR_NODETYPES), mapping));
+            builder.withJcrNodetypes(NodeTypeDefinitionCache.getDefault()
+                    .getQTypesFromJson(json.getJsonObject(KEY_JCR_NODETYPES), jcrNsList));
         }
         if (hasNonNull(json, KEY_JCR_PRIVILEGES)) {
             builder.withJcrPrivileges(JsonCnd.getPrivilegesFromJson(json.get(KEY_JCR_PRIVILEGES), mapping));
@@ -285,6 +330,16 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
             builder.withInstallHookPolicy(InstallHookPolicy.forName(
                     json.getString(KEY_INSTALL_HOOK_POLICY)));
         }
+        if (hasNonNull(json, KEY_REPOSITORY_PROFILE)) {
+            builder.withRepositoryProfile(RepositoryProfile.forName(
+                    json.getString(KEY_REPOSITORY_PROFILE)));
+        }
+        if (hasNonNull(json, KEY_DEFER_INDEXES)) {
+            builder.withDeferIndexes(json.getBoolean(KEY_DEFER_INDEXES));
+        }
+        if (hasNonNull(json, KEY_NODE_STORE)) {
+            builder.withNodeStore(NodeStoreType.forName(json.getString(KEY_NODE_STORE)));
+        }
         return builder.build(json);
     }
 
@@ -320,6 +375,9 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
         private List<CheckSpec> checks = Collections.emptyList();
         private boolean enablePreInstallHooks;
         private InstallHookPolicy scanInstallHookPolicy;
+        private RepositoryProfile repositoryProfile;
+        private boolean deferIndexes;
+        private NodeStoreType nodeStore;
 
         public Builder(final @Nullable URL base, final @Nullable String name) {
             this.base = base;
@@ -339,6 +397,9 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
                     .withJcrPrivileges(plan.getJcrPrivileges())
                     .withEnablePreInstallHooks(plan.isEnablePreInstallHooks())
                     .withInstallHookPolicy(plan.getInstallHookPolicy())
+                    .withRepositoryProfile(plan.getRepositoryProfile())
+                    .withDeferIndexes(plan.isDeferIndexes())
+                    .withNodeStore(plan.getNodeStore())
                     .withPreInstallUrls(plan.getPreInstallUrls());
         }
 
@@ -387,9 +448,25 @@ public final class OakpalPlan implements JavaxJson.ObjectConvertible {
             return this;
         }
 
+        public Builder withRepositoryProfile(final RepositoryProfile repositoryProfile) {
+            this.repositoryProfile = repositoryProfile;
+            return this;
+        }
+
+        public Builder withDeferIndexes(final boolean deferIndexes) {
+            this.deferIndexes = deferIndexes;
+            return this;
+        }
+
+        public Builder withNodeStore(final NodeStoreType nodeStore) {
+            this.nodeStore = nodeStore;
+            return this;
+        }
+
         private OakpalPlan build(final @Nullable JsonObject originalJson) {
             return new OakpalPlan(base, originalJson, name, checklists, preInstallUrls, jcrNamespaces,
-                    jcrNodetypes, jcrPrivileges, forcedRoots, checks, enablePreInstallHooks, scanInstallHookPolicy);
+                    jcrNodetypes, jcrPrivileges, forcedRoots, checks, enablePreInstallHooks, scanInstallHookPolicy,
+                    repositoryProfile, deferIndexes, nodeStore);
         }
 
         public OakpalPlan build() {
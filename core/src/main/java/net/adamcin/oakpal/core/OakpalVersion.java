@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Provides the version of oakpal-core, like {@link org.apache.jackrabbit.oak.OakVersion} does for Oak, for cache keys
+ * that must change when oakpal is upgraded.
+ */
+final class OakpalVersion {
+    static final String POM_PROPERTIES = "/META-INF/maven/net.adamcin.oakpal/oakpal-core/pom.properties";
+    static final String UNKNOWN = "SNAPSHOT";
+
+    private static String version;
+
+    private OakpalVersion() {
+        /* No instantiation */
+    }
+
+    /**
+     * Get the version of oakpal-core from the maven pom.properties of its jar, or from the manifest, or
+     * {@link #UNKNOWN} when running from a directory of classes.
+     *
+     * @return the version
+     */
+    static synchronized @NotNull String getVersion() {
+        if (version == null) {
+            version = readPomVersion()
+                    .orElseGet(() -> Optional.ofNullable(OakpalVersion.class.getPackage())
+                            .map(Package::getImplementationVersion)
+                            .orElse(UNKNOWN));
+        }
+        return version;
+    }
+
+    private static Optional<String> readPomVersion() {
+        try (InputStream input = OakpalVersion.class.getResourceAsStream(POM_PROPERTIES)) {
+            if (input == null) {
+                return Optional.empty();
+            }
+            final Properties properties = new Properties();
+            properties.load(input);
+            return Optional.ofNullable(properties.getProperty("version"));
+        } catch (final IOException e) {
+            return Optional.empty();
+        }
+    }
+}
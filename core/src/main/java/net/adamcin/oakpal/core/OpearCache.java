@@ -0,0 +1,254 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.jar.JarFile;
+
+import static java.lang.String.format;
+import static net.adamcin.oakpal.core.Fun.result0;
+
+/**
+ * A size-bounded directory of extracted opear files, keyed by the SHA-256 digest of each opear jar. Jars are extracted
+ * to a temp directory which is atomically renamed into place, so concurrent processes sharing the same directory will
+ * only ever see complete entries. Extraction and eviction are serialized across processes and threads with a
+ * {@link DirectoryLock}.
+ * <p>
+ * The digest of each jar is recorded in an index keyed by its absolute path, size, and last modified time, so that an
+ * unchanged jar is not hashed again. When the total size of the entries exceeds the configured maximum, the
+ * least-recently-used entries are deleted, except for entries used within the {@link #EVICTION_GRACE_MILLIS}, which
+ * may still be in use by a concurrent scan.
+ */
+public final class OpearCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpearCache.class);
+
+    /**
+     * The default maximum total size of extracted opears, 256 MiB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+    /**
+     * Entries used more recently than this are not evicted, 10 minutes.
+     */
+    static final long EVICTION_GRACE_MILLIS = 10L * 60L * 1000L;
+
+    static final String INDEX_FILE = "index.properties";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private final File cacheDir;
+    private final long maxBytes;
+
+    /**
+     * Create an opear cache in the specified directory with the {@link #DEFAULT_MAX_BYTES} size limit.
+     *
+     * @param cacheDir the cache directory
+     */
+    public OpearCache(final @NotNull File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create an opear cache in the specified directory.
+     *
+     * @param cacheDir the cache directory
+     * @param maxBytes the maximum total size of extracted opears in bytes
+     */
+    public OpearCache(final @NotNull File cacheDir, final long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    <T> T withLock(final @NotNull DirectoryLock.LockedAction<T> action) throws IOException {
+        return DirectoryLock.withLock(cacheDir, action);
+    }
+
+    /**
+     * Get the opear for the jar, extracting it into the cache first if necessary. The entry is marked as recently used.
+     *
+     * @param jarFile the opear jar
+     * @return the extracted opear
+     */
+    public Result<OpearFile> fromJar(final @NotNull JarFile jarFile) {
+        return result0(() -> withLock(() -> getEntryDir(jarFile))).get()
+                .flatMap(OpearFile::fromDirectory);
+    }
+
+    File getEntryDir(final @NotNull JarFile jarFile) throws IOException {
+        final String cacheKey = getCacheKey(new File(jarFile.getName()));
+        final File entryDir = new File(cacheDir, cacheKey);
+        if (entryDir.exists() && !entryDir.isDirectory()) {
+            throw new IOException(format("failed to create cache dir %s for specified opear file %s",
+                    entryDir.getPath(), jarFile.getName()));
+        }
+        if (!entryDir.isDirectory()) {
+            // validate before extracting anything
+            final Result<OpearFile.OpearMetadata> metadata = result0(jarFile::getManifest).get()
+                    .flatMap(OpearFile::validateOpearManifest);
+            metadata.throwCause(IOException.class);
+            if (metadata.isFailure()) {
+                throw new IOException(metadata.getError().map(Throwable::getMessage)
+                        .orElse("invalid opear manifest"));
+            }
+            extract(jarFile, entryDir);
+        }
+        entryDir.setLastModified(System.currentTimeMillis());
+        evict(entryDir);
+        return entryDir;
+    }
+
+    void extract(final @NotNull JarFile jarFile, final @NotNull File entryDir) throws IOException {
+        final File tempDir = new File(cacheDir, entryDir.getName() + "." + System.nanoTime() + TEMP_SUFFIX);
+        try {
+            if (!tempDir.mkdirs()) {
+                throw new IOException("failed to create temp dir " + tempDir.getPath());
+            }
+            final Result<File> cached = OpearFile.cacheJar(jarFile, tempDir);
+            cached.throwCause(IOException.class);
+            if (cached.isFailure()) {
+                throw new IOException(cached.getError().map(Throwable::getMessage)
+                        .orElse("failed to extract " + jarFile.getName()));
+            }
+            try {
+                Files.move(tempDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempDir.toPath(), entryDir.toPath());
+            }
+        } finally {
+            if (tempDir.exists()) {
+                FileUtils.deleteQuietly(tempDir);
+            }
+        }
+    }
+
+    /**
+     * Get the SHA-256 cache key of the jar, from the index if the jar path, size, and last modified time are unchanged
+     * since it was last hashed. Must be called with the lock held.
+     *
+     * @param jar the opear jar
+     * @return the cache key
+     * @throws IOException if the jar can't be read
+     */
+    String getCacheKey(final @NotNull File jar) throws IOException {
+        final File indexFile = new File(cacheDir, INDEX_FILE);
+        final Properties index = new Properties();
+        if (indexFile.isFile()) {
+            try (InputStream input = new FileInputStream(indexFile)) {
+                index.load(input);
+            } catch (final IOException | IllegalArgumentException e) {
+                LOGGER.warn("[getCacheKey] ignoring unreadable opear index {}: {}", indexFile, e.getMessage());
+                index.clear();
+            }
+        }
+        final String path = jar.getAbsolutePath();
+        final String stamp = jar.length() + ":" + jar.lastModified() + ":";
+        final String indexed = index.getProperty(path);
+        if (indexed != null && indexed.startsWith(stamp)) {
+            return indexed.substring(stamp.length());
+        }
+        final String cacheKey = OpearFile.getHashCacheKey(jar.getPath()).getOrElse(() -> null);
+        if (cacheKey == null) {
+            throw new IOException("failed to hash opear file " + jar.getPath());
+        }
+        index.setProperty(path, stamp + cacheKey);
+        final File tempFile = Files.createTempFile(cacheDir.toPath(), INDEX_FILE, TEMP_SUFFIX).toFile();
+        try {
+            try (OutputStream output = new FileOutputStream(tempFile)) {
+                index.store(output, null);
+            }
+            try {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+        return cacheKey;
+    }
+
+    /**
+     * Delete entries in order of least-recent use until the total size of the remaining entries is within the limit,
+     * skipping the entry in use and entries used within the grace period, and delete temp directories left behind by
+     * interrupted extractions. Must be called with the lock held.
+     *
+     * @param inUse the entry that was just used
+     */
+    void evict(final @NotNull File inUse) {
+        final long now = System.currentTimeMillis();
+        final File[] temps = cacheDir.listFiles(file -> file.isDirectory() && file.getName().endsWith(TEMP_SUFFIX)
+                && now - file.lastModified() > EVICTION_GRACE_MILLIS);
+        Optional.ofNullable(temps).map(Arrays::stream).ifPresent(stream -> stream.forEach(FileUtils::deleteQuietly));
+
+        final File[] entries = cacheDir.listFiles(file -> file.isDirectory() && !file.getName().endsWith(TEMP_SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparing(File::lastModified).reversed());
+        long total = 0L;
+        for (File entry : entries) {
+            final long size = FileUtils.sizeOfDirectory(entry);
+            total += size;
+            if (total > maxBytes && !entry.equals(inUse) && now - entry.lastModified() > EVICTION_GRACE_MILLIS) {
+                LOGGER.debug("[evict] deleting opear {}", entry);
+                total -= size;
+                FileUtils.deleteQuietly(entry);
+            }
+        }
+    }
+
+    /**
+     * Delete all entries, the index, and any temp directories left behind by interrupted extractions.
+     *
+     * @throws IOException if the lock can't be acquired
+     */
+    public void clear() throws IOException {
+        withLock(() -> {
+            final File[] files = cacheDir.listFiles(file -> !DirectoryLock.LOCK_FILE.equals(file.getName()));
+            if (files != null) {
+                for (File file : files) {
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -199,7 +199,7 @@ public final class OpearFile implements Opear {
     static Result<String> getHashCacheKey(final @NotNull String path) {
         try (FileInputStream is = new FileInputStream(path)) {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            final byte[] buf = new byte[1024];
+            final byte[] buf = new byte[64 * 1024];
             int nread;
             while ((nread = is.read(buf)) != -1) {
                 digest.update(buf, 0, nread);
@@ -211,24 +211,16 @@ public final class OpearFile implements Opear {
         }
     }
 
+    /**
+     * Extract the opear jar into an {@link OpearCache} in the specified directory, with the default size limit.
+     *
+     * @param jarFile      the opear jar
+     * @param cacheBaseDir the opear cache directory
+     * @return the extracted opear
+     * @see OpearCache#fromJar(JarFile)
+     */
     public static Result<OpearFile> fromJar(final @NotNull JarFile jarFile, final @NotNull File cacheBaseDir) {
-        return getHashCacheKey(jarFile.getName()).flatMap(cacheKey -> {
-            return result1(JarFile::getManifest).apply(jarFile)
-                    .flatMap(OpearFile::validateOpearManifest)
-                    .flatMap(metadata -> {
-                        final File cacheDir = new File(cacheBaseDir, cacheKey);
-                        if (cacheDir.isDirectory()) {
-                            return fromDirectory(cacheDir);
-                        } else {
-                            if (!cacheDir.mkdirs()) {
-                                return Result.failure(format("failed to create cache dir %s for specified opear file %s",
-                                        cacheDir.getPath(), jarFile.getName()));
-                            } else {
-                                return cacheJar(jarFile, cacheDir).flatMap(OpearFile::fromDirectory);
-                            }
-                        }
-                    });
-        });
+        return new OpearCache(cacheBaseDir).fromJar(jarFile);
     }
 
     static Result<File> cacheJar(final @NotNull JarFile jarFile, final @NotNull File cacheDir) {
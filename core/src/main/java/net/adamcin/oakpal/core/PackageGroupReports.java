@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The check reports produced by scanning one package group with
+ * {@link OakMachine#scanPackageGroups(List, int)}, attributed to the group by its index and package files.
+ */
+public final class PackageGroupReports {
+    private final int groupIndex;
+    private final List<File> packageFiles;
+    private final List<CheckReport> reports;
+
+    public PackageGroupReports(final int groupIndex,
+                               final @NotNull List<File> packageFiles,
+                               final @NotNull List<CheckReport> reports) {
+        this.groupIndex = groupIndex;
+        this.packageFiles = Collections.unmodifiableList(new ArrayList<>(packageFiles));
+        this.reports = Collections.unmodifiableList(new ArrayList<>(reports));
+    }
+
+    /**
+     * The index of the group in the list of groups that was scanned.
+     *
+     * @return the group index
+     */
+    public int getGroupIndex() {
+        return groupIndex;
+    }
+
+    /**
+     * The package files that were installed in sequence for the group.
+     *
+     * @return the group's package files
+     */
+    public List<File> getPackageFiles() {
+        return packageFiles;
+    }
+
+    /**
+     * The check reports for the group.
+     *
+     * @return the group's check reports
+     */
+    public List<CheckReport> getReports() {
+        return reports;
+    }
+
+    /**
+     * Merge the reports of several groups by check name, concatenating the violations in group order.
+     *
+     * @param groupReports the reports of each group
+     * @return a list of merged check reports, in order of first appearance
+     */
+    public static List<CheckReport> mergeReports(final @NotNull List<PackageGroupReports> groupReports) {
+        final Map<String, List<Violation>> merged = new LinkedHashMap<>();
+        for (PackageGroupReports group : groupReports) {
+            for (CheckReport report : group.getReports()) {
+                merged.computeIfAbsent(report.getCheckName(), key -> new ArrayList<>())
+                        .addAll(report.getViolations());
+            }
+        }
+        return Collections.unmodifiableList(merged.entrySet().stream()
+                .map(entry -> new SimpleReport(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public String toString() {
+        return "PackageGroupReports{" +
+                "groupIndex=" + groupIndex +
+                ", packageFiles=" + packageFiles +
+                ", reports=" + reports +
+                '}';
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.vault.fs.config.MetaInf;
+import org.apache.jackrabbit.vault.packaging.PackageId;
+import org.apache.jackrabbit.vault.packaging.PackageProperties;
+import org.jetbrains.annotations.NotNull;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Manifest;
+
+/**
+ * Internal decorator which records per-event call counts, wall time, and scan thread allocation for the wrapped
+ * {@link ProgressCheck}, including the {@link #startedScan()} and {@link #finishedScan()} callbacks. The statistics are
+ * reset when the scan starts.
+ *
+ * @see OakMachine.Builder#withProfiling(boolean)
+ */
+class ProfilingProgressCheck implements ProgressCheck {
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final ProgressCheck wrapped;
+    private final Map<Event, Stats> stats = new EnumMap<>(Event.class);
+    private Stats startedScanStats;
+    private Stats finishedScanStats;
+
+    ProfilingProgressCheck(final @NotNull ProgressCheck wrapped) {
+        this.wrapped = wrapped;
+    }
+
+    ProgressCheck getWrapped() {
+        return wrapped;
+    }
+
+    /**
+     * Get a snapshot of the statistics recorded since the scan started.
+     *
+     * @return the check profile
+     */
+    CheckProfile getProfile() {
+        final Map<Event, CheckProfile.EventProfile> events = new EnumMap<>(Event.class);
+        stats.forEach((event, eventStats) -> events.put(event, eventStats.toProfile()));
+        return new CheckProfile(getCheckName(),
+                startedScanStats != null ? startedScanStats.toProfile() : null,
+                events,
+                finishedScanStats != null ? finishedScanStats.toProfile() : null);
+    }
+
+    /**
+     * Get the bytes allocated by the current thread, if supported by the JVM.
+     *
+     * @return the allocated bytes, or -1 if unsupported
+     */
+    static long currentThreadAllocatedBytes() {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+    }
+
+    private void record(final @NotNull Event event, final long startNanos, final long startBytes) {
+        record(stats.computeIfAbsent(event, key -> new Stats()), startNanos, startBytes);
+    }
+
+    private static void record(final @NotNull Stats eventStats, final long startNanos, final long startBytes) {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long allocatedBytes = startBytes < 0 ? -1L : currentThreadAllocatedBytes() - startBytes;
+        eventStats.add(elapsedNanos, allocatedBytes);
+    }
+
+    @Override
+    public String getCheckName() {
+        return wrapped.getCheckName();
+    }
+
+    @Override
+    public EnumSet<Event> getSubscribedEvents() {
+        return wrapped.getSubscribedEvents();
+    }
+
+    @Override
+    public EnumSet<RepositoryFeature> getRequiredRepositoryFeatures() {
+        return wrapped.getRequiredRepositoryFeatures();
+    }
+
+    @Override
+    public void startedScan() {
+        stats.clear();
+        startedScanStats = new Stats();
+        finishedScanStats = null;
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.startedScan();
+        } finally {
+            record(startedScanStats, startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public Collection<Violation> getReportedViolations() {
+        return wrapped.getReportedViolations();
+    }
+
+    @Override
+    public void identifyPackage(final PackageId packageId, final File file) {
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.identifyPackage(packageId, file);
+        } finally {
+            record(Event.IDENTIFY_PACKAGE, startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public void readManifest(final PackageId packageId, final Manifest manifest) {
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.readManifest(packageId, manifest);
+        } finally {
+            record(Event.READ_MANIFEST, startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public void identifySubpackage(final PackageId packageId, final PackageId parentId) {
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.identifySubpackage(packageId, parentId);
+        } finally {
+            record(Event.IDENTIFY_SUBPACKAGE, startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                              final PackageProperties packageProperties, final MetaInf metaInf,
+                              final List<PackageId> subpackages) throws RepositoryException {
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.beforeExtract(packageId, inspectSession, packageProperties, metaInf, subpackages);
+        } finally {
+            record(Event.BEFORE_EXTRACT, startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public void importedPath(final PackageId packageId, final String path, final Node node) throws RepositoryException {
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.importedPath(packageId, path, node);
+        } finally {
+            record(Event.IMPORTED_PATH, startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public void deletedPath(final PackageId packageId, final String path, final Session inspectSession)
+            throws RepositoryException {
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.deletedPath(packageId, path, inspectSession);
+        } finally {
+            record(Event.DELETED_PATH, startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public void afterExtract(final PackageId packageId, final Session inspectSession) throws RepositoryException {
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.afterExtract(packageId, inspectSession);
+        } finally {
+            record(Event.AFTER_EXTRACT, startNanos, startBytes);
+        }
+    }
+
+    @Override
+    public void finishedScan() {
+        if (finishedScanStats == null) {
+            finishedScanStats = new Stats();
+        }
+        final long startBytes = currentThreadAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        try {
+            wrapped.finishedScan();
+        } finally {
+            record(finishedScanStats, startNanos, startBytes);
+        }
+    }
+
+    private static final class Stats {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long allocatedBytes;
+
+        private void add(final long elapsedNanos, final long allocated) {
+            count++;
+            totalNanos += elapsedNanos;
+            maxNanos = Math.max(maxNanos, elapsedNanos);
+            if (allocated < 0 || allocatedBytes < 0) {
+                allocatedBytes = -1L;
+            } else {
+                allocatedBytes += allocated;
+            }
+        }
+
+        private CheckProfile.EventProfile toProfile() {
+            return new CheckProfile.EventProfile(count, totalNanos, maxNanos, allocatedBytes);
+        }
+    }
+}
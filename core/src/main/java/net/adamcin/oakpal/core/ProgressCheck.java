@@ -24,6 +24,8 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import java.io.File;
+import java.lang.reflect.Method;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.jar.Manifest;
 
@@ -44,6 +46,88 @@ import java.util.jar.Manifest;
  */
 public interface ProgressCheck extends ScanListener, ViolationReporter {
 
+    /**
+     * Enumerates the package events that a {@link ProgressCheck} may subscribe to. {@link #startedScan()} and
+     * {@link #finishedScan()} are not included, because they are always delivered.
+     *
+     * @see #getSubscribedEvents()
+     * @since 1.5.2
+     */
+    enum Event {
+        IDENTIFY_PACKAGE("identifyPackage", PackageId.class, File.class),
+        IDENTIFY_SUBPACKAGE("identifySubpackage", PackageId.class, PackageId.class),
+        READ_MANIFEST("readManifest", PackageId.class, Manifest.class),
+        BEFORE_EXTRACT("beforeExtract", PackageId.class, Session.class, PackageProperties.class,
+                MetaInf.class, List.class),
+        IMPORTED_PATH("importedPath", PackageId.class, String.class, Node.class),
+        DELETED_PATH("deletedPath", PackageId.class, String.class, Session.class),
+        AFTER_EXTRACT("afterExtract", PackageId.class, Session.class);
+
+        private final String methodName;
+        private final Class<?>[] parameterTypes;
+
+        Event(final String methodName, final Class<?>... parameterTypes) {
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+        }
+
+        /**
+         * The name of the {@link ProgressCheck} method that receives the event.
+         *
+         * @return the method name
+         */
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /**
+         * Find the events whose methods are overridden by the provided {@link ProgressCheck} class, i.e. the events
+         * which are not handled by the empty default methods of this interface.
+         *
+         * @param checkClass the check class
+         * @return the set of events handled by the class
+         */
+        public static EnumSet<Event> overriddenBy(final Class<? extends ProgressCheck> checkClass) {
+            final EnumSet<Event> events = EnumSet.noneOf(Event.class);
+            for (Event event : values()) {
+                try {
+                    final Method method = checkClass.getMethod(event.methodName, event.parameterTypes);
+                    if (method.getDeclaringClass() != ProgressCheck.class) {
+                        events.add(event);
+                    }
+                } catch (final NoSuchMethodException e) {
+                    events.add(event);
+                }
+            }
+            return events;
+        }
+    }
+
+    /**
+     * Declare the events that this check consumes, so that the {@link OakMachine} can skip delivering events, as well
+     * as the work of preparing their arguments, when no check consumes them. The default implementation returns the
+     * events whose methods are overridden by the implementing class. A null return value subscribes to all events.
+     *
+     * @return the set of events to deliver to this check, or null for all events
+     * @since 1.5.2
+     */
+    default EnumSet<Event> getSubscribedEvents() {
+        return Event.overriddenBy(getClass());
+    }
+
+    /**
+     * Declare the optional repository features that this check depends on, such as {@link RepositoryFeature#QUERY_INDEXES}
+     * for a check that executes node type queries over large content trees. The {@link OakMachine} enables each
+     * required feature, even when its {@link RepositoryProfile} leaves it out. The default implementation requires no
+     * features.
+     *
+     * @return the set of required repository features
+     * @since 1.5.2
+     */
+    default EnumSet<RepositoryFeature> getRequiredRepositoryFeatures() {
+        return EnumSet.noneOf(RepositoryFeature.class);
+    }
+
     /**
      * Return an optional label for displaying reports made by this reporter.
      *
@@ -27,6 +27,7 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import java.io.File;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.jar.Manifest;
 
@@ -55,6 +56,16 @@ class ProgressCheckAliasFacade implements ProgressCheck {
         }
     }
 
+    @Override
+    public EnumSet<Event> getSubscribedEvents() {
+        return wrapped.getSubscribedEvents();
+    }
+
+    @Override
+    public EnumSet<RepositoryFeature> getRequiredRepositoryFeatures() {
+        return wrapped.getRequiredRepositoryFeatures();
+    }
+
     @Override
     public void startedScan() {
         wrapped.startedScan();
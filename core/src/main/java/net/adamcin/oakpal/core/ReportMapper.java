@@ -20,12 +20,16 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.json.Json;
 import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.json.JsonWriter;
-import javax.json.JsonWriterFactory;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
 import javax.json.stream.JsonCollectors;
 import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -35,16 +39,21 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import static net.adamcin.oakpal.core.JavaxJson.key;
-import static net.adamcin.oakpal.core.JavaxJson.mapArrayOfObjects;
-import static net.adamcin.oakpal.core.JavaxJson.optArray;
+import static net.adamcin.oakpal.core.Util.isEmpty;
 
 /**
- * Serialize violations to/from json.
+ * Serialize violations to/from json. Use {@link #openReportWriter(WriterSupplier)} to write each report with a
+ * {@link JsonGenerator} as it is passed, one violation at a time, and {@link #openReportReader(ReaderSupplier)} to read
+ * each report or each violation with a {@link JsonParser} as it is needed, so that neither the json document nor every
+ * report is held in memory. The methods that read or write a collection of reports hold all of the reports.
  */
 public final class ReportMapper {
     public static final String KEY_REPORTS = "reports";
@@ -74,6 +83,17 @@ public final class ReportMapper {
         Writer open() throws IOException;
     }
 
+    /**
+     * Callback for each violation read by {@link ReportReader#forEachViolation(ViolationHandler)}, with the check name
+     * of its report.
+     *
+     * @since 1.5.2
+     */
+    @FunctionalInterface
+    public interface ViolationHandler {
+        void onViolation(@NotNull String checkName, @NotNull Violation violation);
+    }
+
     /**
      * Opens a reader, reads a json object, closes the reader, and returns a list of reports.
      *
@@ -82,15 +102,9 @@ public final class ReportMapper {
      * @throws IOException for failing to read
      */
     public static List<CheckReport> readReports(final @NotNull ReaderSupplier readerSupplier) throws IOException {
-        try (Reader reader = readerSupplier.open();
-             JsonReader jsonReader = Json.createReader(reader)) {
-
-            JsonObject json = jsonReader.readObject();
-
-            List<CheckReport> reports = optArray(json, KEY_REPORTS)
-                    .map(jsonReports -> mapArrayOfObjects(jsonReports, ReportMapper::reportFromJson))
-                    .orElseGet(Collections::emptyList);
-
+        try (ReportReader reportReader = openReportReader(readerSupplier)) {
+            final List<CheckReport> reports = new ArrayList<>();
+            reportReader.forEachRemaining(reports::add);
             return Collections.unmodifiableList(reports);
         }
     }
@@ -107,20 +121,468 @@ public final class ReportMapper {
         return readReports(() -> new InputStreamReader(new FileInputStream(jsonFile), StandardCharsets.UTF_8));
     }
 
+    /**
+     * Opens a writer, writes the reports as a json object, and closes the writer.
+     *
+     * @param reports        the reports to write
+     * @param writerSupplier a function supplying a {@link Writer}
+     * @throws IOException for failing to write
+     */
     public static void writeReports(final @NotNull Collection<CheckReport> reports,
                                     final @NotNull WriterSupplier writerSupplier) throws IOException {
-        JsonWriterFactory writerFactory = Json
-                .createWriterFactory(Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true));
-        try (Writer writer = writerSupplier.open(); JsonWriter jsonWriter = writerFactory.createWriter(writer)) {
-            jsonWriter.writeObject(reportsToJsonObject(reports));
+        try (ReportWriter reportWriter = openReportWriter(writerSupplier)) {
+            for (CheckReport report : reports) {
+                reportWriter.write(report);
+            }
         }
     }
 
+    /**
+     * Write reports to a file.
+     *
+     * @param reports    the reports to write
+     * @param outputFile the json file
+     * @throws IOException if fails to write the file
+     */
     public static void writeReportsToFile(final Collection<CheckReport> reports,
                                           final @NotNull File outputFile) throws IOException {
         writeReports(reports, () -> new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8));
     }
 
+    /**
+     * Opens a writer and returns a {@link ReportWriter} that writes each report to it as it is passed, such as when
+     * each check finishes. The writer is closed when the report writer is closed.
+     *
+     * @param writerSupplier a function supplying a {@link Writer}
+     * @return a report writer
+     * @throws IOException for failing to open the writer
+     * @since 1.5.2
+     */
+    public static ReportWriter openReportWriter(final @NotNull WriterSupplier writerSupplier) throws IOException {
+        final JsonGeneratorFactory generatorFactory = Json
+                .createGeneratorFactory(Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true));
+        final Writer writer = writerSupplier.open();
+        try {
+            return new ReportWriter(generatorFactory.createGenerator(writer));
+        } catch (final RuntimeException e) {
+            writer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a {@link ReportWriter} for a file.
+     *
+     * @param outputFile the json file
+     * @return a report writer
+     * @throws IOException if fails to open the file
+     * @since 1.5.2
+     */
+    public static ReportWriter openReportWriterToFile(final @NotNull File outputFile) throws IOException {
+        return openReportWriter(() -> new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Opens a reader and returns a {@link ReportReader} that reads each report from it as it is iterated. The reader
+     * is closed when the report reader is closed.
+     *
+     * @param readerSupplier a function supplying a {@link Reader}
+     * @return a report reader
+     * @throws IOException for failing to open the reader
+     * @since 1.5.2
+     */
+    public static ReportReader openReportReader(final @NotNull ReaderSupplier readerSupplier) throws IOException {
+        final Reader reader = readerSupplier.open();
+        try {
+            return new ReportReader(Json.createParser(reader));
+        } catch (final RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a {@link ReportReader} for a file.
+     *
+     * @param jsonFile a json file
+     * @return a report reader
+     * @throws IOException if fails to open the file
+     * @since 1.5.2
+     */
+    public static ReportReader openReportReaderFromFile(final @NotNull File jsonFile) throws IOException {
+        return openReportReader(() -> new InputStreamReader(new FileInputStream(jsonFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes reports to a json object with a {@link #KEY_REPORTS} array, in the same format as
+     * {@link #reportsToJsonObject(Collection)}, one violation at a time. The object is completed when the writer is
+     * closed.
+     *
+     * @since 1.5.2
+     */
+    public static final class ReportWriter implements Closeable {
+        /**
+         * Whether a report class overrides {@link CheckReport#toJson()}, in which case its json is written whole.
+         */
+        private static final ClassValue<Boolean> OVERRIDES_TO_JSON = new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(final Class<?> type) {
+                try {
+                    return type.getMethod("toJson").getDeclaringClass() != CheckReport.class;
+                } catch (final NoSuchMethodException e) {
+                    return false;
+                }
+            }
+        };
+
+        private final JsonGenerator generator;
+        private boolean reportsEnded;
+        private boolean closed;
+
+        private ReportWriter(final @NotNull JsonGenerator generator) {
+            this.generator = generator;
+            generator.writeStartObject().writeStartArray(KEY_REPORTS);
+        }
+
+        /**
+         * Write a report and its violations, in the same format as {@link CheckReport#toJson()}. The check name is
+         * written first, and then each violation, without building the json object of the report, unless the report
+         * overrides {@link CheckReport#toJson()}.
+         *
+         * @param report the report to write
+         * @throws IOException for failing to write
+         */
+        public void write(final @NotNull CheckReport report) throws IOException {
+            if (closed || reportsEnded) {
+                throw new IOException("report writer is closed");
+            }
+            try {
+                if (OVERRIDES_TO_JSON.get(report.getClass())) {
+                    generator.write(report.toJson());
+                } else {
+                    generator.writeStartObject();
+                    if (!isEmpty(report.getCheckName())) {
+                        generator.write(KEY_CHECK_NAME, report.getCheckName());
+                    }
+                    final Collection<Violation> violations = report.getViolations();
+                    if (!violations.isEmpty()) {
+                        generator.writeStartArray(KEY_VIOLATIONS);
+                        for (Violation violation : violations) {
+                            generator.write(violation.toJson());
+                        }
+                        generator.writeEnd();
+                    }
+                    generator.writeEnd();
+                }
+                generator.flush();
+            } catch (final JsonException e) {
+                throw new IOException("failed to write report " + report.getCheckName(), e);
+            }
+        }
+
+        /**
+         * Ends the reports array, if it has not been ended yet, and writes another member of the outer object after
+         * it, such as the check profiles of the scan. No more reports can be written afterwards.
+         *
+         * @param key   the member key
+         * @param value the member value
+         * @throws IOException for failing to write
+         */
+        public void writeMember(final @NotNull String key, final @NotNull JsonValue value) throws IOException {
+            if (closed) {
+                throw new IOException("report writer is closed");
+            }
+            try {
+                if (!reportsEnded) {
+                    reportsEnded = true;
+                    generator.writeEnd();
+                }
+                generator.write(key, value);
+                generator.flush();
+            } catch (final JsonException e) {
+                throw new IOException("failed to write " + key, e);
+            }
+        }
+
+        /**
+         * Ends the reports array and the outer object, and closes the writer.
+         *
+         * @throws IOException for failing to write
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (!reportsEnded) {
+                    reportsEnded = true;
+                    generator.writeEnd();
+                }
+                generator.writeEnd();
+                generator.close();
+            } catch (final JsonException e) {
+                throw new IOException("failed to close report writer", e);
+            }
+        }
+    }
+
+    /**
+     * Iterates over the reports of a json object written by a {@link ReportWriter} or
+     * {@link #writeReports(Collection, WriterSupplier)}, reading each report from the parser only as it is needed. Use
+     * {@link #forEachViolation(ViolationHandler)} instead to read each violation without collecting the violations of
+     * a report. Malformed json is thrown as a {@link JsonException} by {@link #hasNext()}, {@link #next()}, and
+     * {@link #forEachViolation(ViolationHandler)}.
+     *
+     * @since 1.5.2
+     */
+    public static final class ReportReader implements Iterator<CheckReport>, Closeable {
+        private final JsonParser parser;
+        private boolean started;
+        private boolean finished;
+        private CheckReport nextReport;
+
+        private ReportReader(final @NotNull JsonParser parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextReport == null && !finished) {
+                if (!started) {
+                    started = true;
+                    if (!seekReports()) {
+                        finished = true;
+                        return false;
+                    }
+                }
+                nextReport = readNextReport();
+                finished = nextReport == null;
+            }
+            return nextReport != null;
+        }
+
+        @Override
+        public CheckReport next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final CheckReport report = nextReport;
+            nextReport = null;
+            return report;
+        }
+
+        /**
+         * Pass each violation of the remaining reports to the handler as it is read, with the check name of its
+         * report. Reports without violations are skipped. Violations that precede the check name in a report, which
+         * a {@link ReportWriter} never writes, are held until the check name is read.
+         *
+         * @param handler the violation handler
+         */
+        public void forEachViolation(final @NotNull ViolationHandler handler) {
+            if (nextReport != null) {
+                final CheckReport report = nextReport;
+                nextReport = null;
+                for (Violation violation : report.getViolations()) {
+                    handler.onViolation(report.getCheckName(), violation);
+                }
+            }
+            if (finished) {
+                return;
+            }
+            if (!started) {
+                started = true;
+                if (!seekReports()) {
+                    finished = true;
+                    return;
+                }
+            }
+            while (readNextReport(handler) != null) {
+                // each violation is passed to the handler as it is read
+            }
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finished = true;
+            nextReport = null;
+            try {
+                parser.close();
+            } catch (final JsonException e) {
+                throw new IOException("failed to close report reader", e);
+            }
+        }
+
+        /**
+         * Advance the parser to the start of the reports array.
+         *
+         * @return false if the object has no reports array
+         */
+        private boolean seekReports() {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new JsonException("expected a json object of reports");
+            }
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                final boolean isReports = KEY_REPORTS.equals(parser.getString());
+                final JsonParser.Event event = parser.next();
+                if (isReports && event == JsonParser.Event.START_ARRAY) {
+                    return true;
+                }
+                skipValue(event);
+            }
+            return false;
+        }
+
+        /**
+         * Read the next object in the reports array, skipping other values.
+         *
+         * @return the next report, or null at the end of the array
+         */
+        private CheckReport readNextReport() {
+            final List<Violation> violations = new ArrayList<>();
+            final String checkName = readNextReport((name, violation) -> violations.add(violation));
+            return checkName != null ? new SimpleReport(checkName, violations) : null;
+        }
+
+        /**
+         * Read the next object in the reports array, skipping other values, and pass each of its violations to the
+         * handler.
+         *
+         * @param handler the violation handler
+         * @return the check name of the next report, or null at the end of the array
+         */
+        private String readNextReport(final @NotNull ViolationHandler handler) {
+            JsonParser.Event event;
+            while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                if (event == JsonParser.Event.START_OBJECT) {
+                    return readReport(handler);
+                }
+                skipValue(event);
+            }
+            return null;
+        }
+
+        private String readReport(final @NotNull ViolationHandler handler) {
+            String checkName = null;
+            // violations that precede the check name
+            List<Violation> held = null;
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                final String key = parser.getString();
+                final JsonParser.Event event = parser.next();
+                if (KEY_CHECK_NAME.equals(key) && event == JsonParser.Event.VALUE_STRING) {
+                    checkName = parser.getString();
+                    if (held != null) {
+                        for (Violation violation : held) {
+                            handler.onViolation(checkName, violation);
+                        }
+                        held = null;
+                    }
+                } else if (KEY_VIOLATIONS.equals(key) && event == JsonParser.Event.START_ARRAY) {
+                    JsonParser.Event element;
+                    while ((element = parser.next()) != JsonParser.Event.END_ARRAY) {
+                        if (element == JsonParser.Event.START_OBJECT) {
+                            final Violation violation = violationFromJson(readObject());
+                            if (checkName != null) {
+                                handler.onViolation(checkName, violation);
+                            } else {
+                                if (held == null) {
+                                    held = new ArrayList<>();
+                                }
+                                held.add(violation);
+                            }
+                        } else {
+                            skipValue(element);
+                        }
+                    }
+                } else {
+                    skipValue(event);
+                }
+            }
+            if (checkName == null) {
+                checkName = "";
+                if (held != null) {
+                    for (Violation violation : held) {
+                        handler.onViolation(checkName, violation);
+                    }
+                }
+            }
+            return checkName;
+        }
+
+        /**
+         * Skip the value that begins with the current event, including the rest of an object or array. This does not
+         * rely on {@code JsonParser.skipObject()} or {@code JsonParser.skipArray()}, which some providers of json-p
+         * do not support.
+         *
+         * @param event the current event
+         */
+        private void skipValue(final @NotNull JsonParser.Event event) {
+            if (event != JsonParser.Event.START_OBJECT && event != JsonParser.Event.START_ARRAY) {
+                return;
+            }
+            int depth = 1;
+            while (depth > 0) {
+                switch (parser.next()) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Read the rest of the object that begins with the current event.
+         *
+         * @return the json object
+         */
+        private JsonObject readObject() {
+            final JsonObjectBuilder builder = Json.createObjectBuilder();
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                final String key = parser.getString();
+                builder.add(key, readValue(parser.next()));
+            }
+            return builder.build();
+        }
+
+        private JsonArray readArray() {
+            final JsonArrayBuilder builder = Json.createArrayBuilder();
+            JsonParser.Event event;
+            while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                builder.add(readValue(event));
+            }
+            return builder.build();
+        }
+
+        private JsonValue readValue(final @NotNull JsonParser.Event event) {
+            switch (event) {
+                case START_OBJECT:
+                    return readObject();
+                case START_ARRAY:
+                    return readArray();
+                case VALUE_STRING:
+                    return JavaxJson.wrap(parser.getString());
+                case VALUE_NUMBER:
+                    return JavaxJson.wrap(parser.getBigDecimal());
+                case VALUE_TRUE:
+                    return JsonValue.TRUE;
+                case VALUE_FALSE:
+                    return JsonValue.FALSE;
+                case VALUE_NULL:
+                default:
+                    return JsonValue.NULL;
+            }
+        }
+    }
+
     static CheckReport reportFromJson(final JsonObject jsonReport) {
         return SimpleReport.fromJson(jsonReport);
     }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+
+/**
+ * Retains a live repository together with the root {@link NodeState} of its {@link NodeStore} as captured after
+ * {@link InitStage}s and pre-install packages have been applied, so that the repository can be restored to that state
+ * at the beginning of each scan instead of being rebuilt.
+ */
+final class RepositoryCheckpoint {
+    private final NodeStore nodeStore;
+    private final Repository repository;
+    private final NodeState baseline;
+
+    RepositoryCheckpoint(final @NotNull NodeStore nodeStore,
+                         final @NotNull Repository repository,
+                         final @NotNull NodeState baseline) {
+        this.nodeStore = nodeStore;
+        this.repository = repository;
+        this.baseline = baseline;
+    }
+
+    NodeStore getNodeStore() {
+        return nodeStore;
+    }
+
+    Repository getRepository() {
+        return repository;
+    }
+
+    NodeState getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Get the {@link SharedBlobStore} of the node store, if it offloads binaries to one, so that forks of the baseline
+     * can store binaries in the same directory.
+     *
+     * @return the shared blob store, or null
+     */
+    @Nullable SharedBlobStore getSharedBlobStore() {
+        if (nodeStore instanceof FileBlobMemoryNodeStore) {
+            return ((FileBlobMemoryNodeStore) nodeStore).getBlobStore();
+        } else if (nodeStore instanceof TempSegmentNodeStore
+                && ((TempSegmentNodeStore) nodeStore).getBlobStore() instanceof SharedBlobStore) {
+            return (SharedBlobStore) ((TempSegmentNodeStore) nodeStore).getBlobStore();
+        }
+        return null;
+    }
+
+    /**
+     * Restore the node store root to the baseline state by reverting the difference between the baseline and the
+     * current root. Commit hooks are bypassed, because the baseline already passed through them when it was first
+     * committed, and index content is reverted along with everything else.
+     *
+     * @throws RepositoryException if the merge fails
+     */
+    void restore() throws RepositoryException {
+        resetRoot(nodeStore, baseline);
+    }
+
+    /**
+     * Reset the root of a node store to the provided state by reverting the difference between that state and the
+     * current root, bypassing commit hooks. The state can belong to a different node store, in which case its content
+     * is copied. The current root is compared against the state, and not the reverse, so that binaries written as
+     * {@link StubBlob}s during a scan are compared by {@link StubBlob#equals(Object)}, which never reads content,
+     * instead of by the stream comparison of the blobs they replaced.
+     *
+     * @param nodeStore the node store to reset
+     * @param state     the new root state
+     * @throws RepositoryException if the merge fails
+     */
+    static void resetRoot(final @NotNull NodeStore nodeStore, final @NotNull NodeState state)
+            throws RepositoryException {
+        final NodeState current = nodeStore.getRoot();
+        final NodeBuilder builder = current.builder();
+        current.compareAgainstBaseState(state, new RevertDiff(builder));
+        try {
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        } catch (final CommitFailedException e) {
+            throw e.asRepositoryException();
+        }
+    }
+
+    /**
+     * The inverse of {@link org.apache.jackrabbit.oak.spi.state.ApplyDiff}, which applies the base state of each
+     * reported change to the builder.
+     */
+    static final class RevertDiff implements NodeStateDiff {
+        private final NodeBuilder builder;
+
+        RevertDiff(final @NotNull NodeBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public boolean propertyAdded(final PropertyState after) {
+            builder.removeProperty(after.getName());
+            return true;
+        }
+
+        @Override
+        public boolean propertyChanged(final PropertyState before, final PropertyState after) {
+            builder.setProperty(before);
+            return true;
+        }
+
+        @Override
+        public boolean propertyDeleted(final PropertyState before) {
+            builder.setProperty(before);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after) {
+            builder.getChildNode(name).remove();
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(final String name, final NodeState before, final NodeState after) {
+            return after.compareAgainstBaseState(before, new RevertDiff(builder.getChildNode(name)));
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before) {
+            builder.setChildNode(name, before);
+            return true;
+        }
+    }
+
+    /**
+     * Shutdown the retained repository, and close its node store if it holds resources.
+     */
+    void shutdown() {
+        if (repository instanceof JackrabbitRepository) {
+            ((JackrabbitRepository) repository).shutdown();
+        }
+        OakMachine.closeNodeStore(nodeStore);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Enumeration of optional Oak subsystems that a {@link RepositoryProfile} may leave out of the scan repository. The
+ * security provider, version storage, uuid and reference indexes, and node type and name validation are always
+ * enabled, because package installation depends on them.
+ *
+ * @see ProgressCheck#getRequiredRepositoryFeatures()
+ * @since 1.5.2
+ */
+public enum RepositoryFeature {
+    /**
+     * The synchronous node type index, the node type query index provider, and the editors for the node counter and
+     * ordered property indexes. Without this feature, JCR queries still return the same results, but queries with
+     * node type restrictions traverse the repository instead of using an index.
+     */
+    QUERY_INDEXES,
+
+    /**
+     * The change collector editor, which prepares change sets for filtering observation events. Without this feature,
+     * observation listeners still receive events, but every listener is notified of every commit.
+     */
+    OBSERVATION,
+
+    /**
+     * The atomic counter editor, which maintains the {@code oak:counter} property of {@code mix:atomicCounter}
+     * nodes.
+     */
+    ATOMIC_COUNTER,
+
+    /**
+     * The content of binaries extracted from scan packages. Without this feature, each binary is replaced by a stub
+     * blob that keeps its length and SHA-256 digest, but reading its stream throws an {@link IllegalStateException},
+     * and packages are installed directly from their archives, because uploaded package binaries could not be read
+     * back. Binaries installed by pre-install packages and init stages are kept. Segment node stores always keep
+     * binary content.
+     *
+     * @see OakMachine.Builder#withArchiveInstall(boolean)
+     */
+    BINARY_CONTENT;
+
+    public static @Nullable RepositoryFeature forName(final @Nullable String name) {
+        for (RepositoryFeature value : values()) {
+            if (value.name().equalsIgnoreCase(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
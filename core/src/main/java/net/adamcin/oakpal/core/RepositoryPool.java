@@ -0,0 +1,395 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of repositories that have already been brought to the post-init state of an {@link OakMachine}, for
+ * services that scan a steady stream of packages with the same plan. The first repository is initialized by applying
+ * the init stages and pre-install packages of the machine, and the captured root state is then used to create the
+ * remaining repositories on a background thread, until the number of idle and leased repositories reaches the pool
+ * size. Each {@link Lease} is restored to the post-init state when it is closed, and returned to the pool. If the pool
+ * is empty, a new repository is created for the lease on the calling thread, and it is shutdown when the lease is
+ * closed if the pool is already full. A repository that fails to restore is shutdown and replaced in the background.
+ * When the post-init state is read from a node store that holds resources, such as a {@link TempSegmentNodeStore},
+ * that node store is only closed after the pool is closed and the last lease has been closed.
+ * <p>
+ * Violations reported while the init stages and pre-install packages are applied are only reported to the error
+ * listener of the pool machine, so they are also kept as the {@link #getPreInstallViolations()} of the pool. A
+ * service that reports pre-install violations with each scan should not pool a post-init state that has them.
+ *
+ * @see OakMachine.Builder#withRepositoryPool(RepositoryPool)
+ */
+public final class RepositoryPool implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryPool.class);
+
+    /**
+     * The default number of repositories to keep.
+     */
+    public static final int DEFAULT_SIZE = 2;
+
+    private final OakMachine machine;
+    private final int size;
+    private final BlockingQueue<RepositoryCheckpoint> idle;
+    private final AtomicInteger pendingRefills = new AtomicInteger();
+    private final AtomicInteger leased = new AtomicInteger();
+    private final AtomicInteger references = new AtomicInteger();
+    private final AtomicBoolean baselineShutdown = new AtomicBoolean();
+    private final ExecutorService refiller;
+    private volatile NodeState baseline;
+    private volatile RepositoryCheckpoint baselineCheckpoint;
+    private volatile List<Violation> preInstallViolations = Collections.emptyList();
+    private volatile boolean closed;
+
+    /**
+     * Create a repository pool of {@link #DEFAULT_SIZE} for the post-init state of the machine.
+     *
+     * @param machine the machine providing the init stages, pre-install packages, and repository configuration
+     */
+    public RepositoryPool(final @NotNull OakMachine machine) {
+        this(machine, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create a repository pool for the post-init state of the machine. No repositories are created until
+     * {@link #fill()} or {@link #lease()} is called.
+     *
+     * @param machine the machine providing the init stages, pre-install packages, and repository configuration
+     * @param size    the number of idle and leased repositories to keep
+     */
+    public RepositoryPool(final @NotNull OakMachine machine, final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("repository pool size must be at least 1: " + size);
+        }
+        this.machine = machine;
+        this.size = size;
+        this.idle = new LinkedBlockingQueue<>(size);
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.refiller = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "oakpal-repository-pool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Return the optional repository features enabled for the pooled repositories.
+     *
+     * @return the enabled repository features
+     * @see OakMachine#getRepositoryFeatures()
+     */
+    public EnumSet<RepositoryFeature> getRepositoryFeatures() {
+        return machine.getRepositoryFeatures();
+    }
+
+    /**
+     * Return the number of repositories that are ready to lease.
+     *
+     * @return the number of idle repositories
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Initialize the post-init state on the calling thread, if it has not been initialized yet, and schedule the
+     * creation of repositories in the background until the pool is full.
+     *
+     * @return this pool
+     * @throws AbortedScanException for pre-install errors
+     * @throws RepositoryException  for repository errors
+     */
+    public RepositoryPool fill() throws AbortedScanException, RepositoryException {
+        getBaseline();
+        scheduleRefill();
+        return this;
+    }
+
+    /**
+     * Return the post-init root state, initializing it with the first repository of the pool on first call.
+     *
+     * @return the post-init root state
+     * @throws AbortedScanException for pre-install errors
+     * @throws RepositoryException  for repository errors
+     */
+    NodeState getBaseline() throws AbortedScanException, RepositoryException {
+        if (baseline == null) {
+            synchronized (this) {
+                if (baseline == null) {
+                    checkOpen();
+                    final int violationsBefore = machine.getErrorListener().getReportedViolations().size();
+                    final RepositoryCheckpoint first = machine.initCheckpoint();
+                    final List<Violation> reported =
+                            new ArrayList<>(machine.getErrorListener().getReportedViolations());
+                    preInstallViolations = Collections.unmodifiableList(
+                            new ArrayList<>(reported.subList(Math.min(violationsBefore, reported.size()),
+                                    reported.size())));
+                    baseline = first.getBaseline();
+                    if (first.getNodeStore() instanceof Closeable) {
+                        // the forked repositories read from this node store, so it is kept out of rotation and only
+                        // closed with the pool
+                        baselineCheckpoint = first;
+                    } else {
+                        idle.offer(first);
+                    }
+                }
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * Return the violations reported to the error listener of the pool machine while the post-init state was
+     * initialized, which are not reported again to the scans that lease a repository from this pool.
+     *
+     * @return the pre-install violations, or an empty list before the pool is filled
+     */
+    public List<Violation> getPreInstallViolations() {
+        return preInstallViolations;
+    }
+
+    /**
+     * Return the {@link SharedBlobStore} behind the post-init root state, if any, after {@link #getBaseline()}.
+     *
+     * @return the shared blob store, or null
+     */
+    @Nullable SharedBlobStore getSharedBlobStore() {
+        final RepositoryCheckpoint checkpoint = baselineCheckpoint;
+        return checkpoint != null ? checkpoint.getSharedBlobStore() : null;
+    }
+
+    /**
+     * Lease a repository at the post-init state. The lease must be closed to return the repository to the pool.
+     *
+     * @return a new lease
+     * @throws AbortedScanException for pre-install errors
+     * @throws RepositoryException  for repository errors
+     * @throws IllegalStateException if the pool has been closed
+     */
+    public Lease lease() throws AbortedScanException, RepositoryException {
+        final Lease lease = leaseIfOpen();
+        if (lease == null) {
+            throw new IllegalStateException("repository pool is closed");
+        }
+        return lease;
+    }
+
+    /**
+     * Lease a repository at the post-init state, unless the pool has been closed, such as when it was evicted by a
+     * service after it was handed to the machine.
+     *
+     * @return a new lease, or null if the pool has been closed
+     * @throws AbortedScanException for pre-install errors
+     * @throws RepositoryException  for repository errors
+     */
+    @Nullable Lease leaseIfOpen() throws AbortedScanException, RepositoryException {
+        if (closed) {
+            return null;
+        }
+        final NodeState postInit;
+        try {
+            postInit = getBaseline();
+        } catch (final IllegalStateException e) {
+            return null;
+        }
+        if (!retain()) {
+            return null;
+        }
+        leased.incrementAndGet();
+        RepositoryCheckpoint checkpoint = idle.poll();
+        if (checkpoint == null) {
+            LOGGER.debug("[lease] pool is empty, creating a repository on the calling thread");
+            try {
+                checkpoint = machine.forkCheckpoint(postInit, getSharedBlobStore());
+            } catch (final RepositoryException | RuntimeException e) {
+                leased.decrementAndGet();
+                dereference();
+                throw e;
+            }
+        }
+        scheduleRefill();
+        return new Lease(checkpoint);
+    }
+
+    /**
+     * Add a reference to the node store of the post-init state for a lease or a refill, unless the pool is closed.
+     *
+     * @return true if the reference was added
+     */
+    private boolean retain() {
+        references.incrementAndGet();
+        if (closed) {
+            dereference();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove a reference to the node store of the post-init state, and shut it down if it was the last reference of a
+     * closed pool.
+     */
+    private void dereference() {
+        if (references.decrementAndGet() == 0 && closed) {
+            shutdownBaseline();
+        }
+    }
+
+    private void shutdownBaseline() {
+        final RepositoryCheckpoint checkpoint = baselineCheckpoint;
+        if (checkpoint != null && baselineShutdown.compareAndSet(false, true)) {
+            checkpoint.shutdown();
+        }
+    }
+
+    /**
+     * Restore the checkpoint to the post-init state and return it to the pool, or shut it down if the restore failed
+     * or the pool is full or closed.
+     *
+     * @param checkpoint the checkpoint to return
+     */
+    private void release(final @NotNull RepositoryCheckpoint checkpoint) {
+        boolean restored = false;
+        try {
+            if (!closed) {
+                checkpoint.restore();
+                restored = true;
+            }
+        } catch (final RepositoryException | RuntimeException e) {
+            LOGGER.warn("[release] discarding repository that failed to restore: {}", e.getMessage());
+        }
+        if (!restored || !idle.offer(checkpoint) || (closed && idle.remove(checkpoint))) {
+            checkpoint.shutdown();
+        }
+        leased.decrementAndGet();
+        dereference();
+        scheduleRefill();
+    }
+
+    /**
+     * Schedule background creation of repositories until the sum of the idle, leased, and pending repositories reaches
+     * the pool size.
+     */
+    private void scheduleRefill() {
+        while (!closed && baseline != null) {
+            final int pending = pendingRefills.get();
+            if (idle.size() + leased.get() + pending >= size) {
+                return;
+            }
+            if (pendingRefills.compareAndSet(pending, pending + 1)) {
+                try {
+                    refiller.execute(this::refill);
+                } catch (final RejectedExecutionException e) {
+                    pendingRefills.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void refill() {
+        try {
+            if (retain()) {
+                try {
+                    final RepositoryCheckpoint checkpoint = machine.forkCheckpoint(baseline, getSharedBlobStore());
+                    if (!idle.offer(checkpoint) || (closed && idle.remove(checkpoint))) {
+                        checkpoint.shutdown();
+                    }
+                } finally {
+                    dereference();
+                }
+            }
+        } catch (final RepositoryException | RuntimeException e) {
+            LOGGER.warn("[refill] failed to create repository: {}", e.getMessage());
+        } finally {
+            pendingRefills.decrementAndGet();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("repository pool is closed");
+        }
+    }
+
+    /**
+     * Stop refilling the pool and shutdown the idle repositories. Leased repositories are shutdown when their leases
+     * are closed, and the node store of the post-init state is shutdown when no lease or refill still reads from it.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refiller.shutdownNow();
+        RepositoryCheckpoint checkpoint;
+        while ((checkpoint = idle.poll()) != null) {
+            checkpoint.shutdown();
+        }
+        if (references.get() == 0) {
+            shutdownBaseline();
+        }
+    }
+
+    /**
+     * A repository leased from a {@link RepositoryPool}, which is returned to the pool when closed.
+     */
+    public final class Lease implements AutoCloseable {
+        private final RepositoryCheckpoint checkpoint;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        private Lease(final @NotNull RepositoryCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        public Repository getRepository() {
+            return checkpoint.getRepository();
+        }
+
+        /**
+         * Restore the repository to the post-init state and return it to the pool. Subsequent calls have no effect.
+         */
+        @Override
+        public void close() {
+            if (returned.compareAndSet(false, true)) {
+                release(checkpoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumSet;
+
+/**
+ * Enumeration of the sets of optional {@link RepositoryFeature}s enabled in the scan repository. Features required by
+ * the progress checks of an {@link OakMachine} are added to those of its profile.
+ *
+ * @see OakMachine.Builder#withRepositoryProfile(RepositoryProfile)
+ * @since 1.5.2
+ */
+public enum RepositoryProfile {
+    /**
+     * Enable every {@link RepositoryFeature}, matching the default configuration of an Oak repository.
+     */
+    FULL(EnumSet.allOf(RepositoryFeature.class)),
+
+    /**
+     * Leave out every {@link RepositoryFeature} for faster repository initialization and lower import cost per node
+     * and per binary, unless required by a progress check.
+     */
+    LEAN(EnumSet.noneOf(RepositoryFeature.class));
+
+    public static final RepositoryProfile DEFAULT = FULL;
+
+    private final EnumSet<RepositoryFeature> features;
+
+    RepositoryProfile(final @NotNull EnumSet<RepositoryFeature> features) {
+        this.features = features;
+    }
+
+    /**
+     * Return a new set of the features enabled by this profile.
+     *
+     * @return the enabled features
+     */
+    public EnumSet<RepositoryFeature> getFeatures() {
+        return EnumSet.copyOf(features);
+    }
+
+    public static @Nullable RepositoryProfile forName(final @Nullable String name) {
+        for (RepositoryProfile value : values()) {
+            if (value.name().equalsIgnoreCase(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
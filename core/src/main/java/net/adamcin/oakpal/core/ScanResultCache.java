@@ -0,0 +1,319 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static net.adamcin.oakpal.core.Digests.digestFile;
+import static net.adamcin.oakpal.core.Digests.digestString;
+import static net.adamcin.oakpal.core.Digests.digestUrl;
+import static net.adamcin.oakpal.core.Digests.newDigest;
+import static net.adamcin.oakpal.core.Digests.toHex;
+
+/**
+ * A size-bounded directory of the check reports recorded for previous scans, so that a scan of the same packages with
+ * the same checks can replay the reports instead of installing the packages again. Each entry is keyed by a
+ * fingerprint of the post-init state, the effective checks, and the contents of every package of the scan in install
+ * order, and holds all the reports of that scan. Entries are written to a temp file and atomically moved into place.
+ * When the number of entries exceeds the configured maximum, the least-recently-used entries are deleted.
+ *
+ * @see OakMachine.Builder#withScanResultCache(ScanResultCache)
+ */
+public final class ScanResultCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScanResultCache.class);
+
+    /**
+     * The default maximum number of cache entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Incremented whenever the entry format or the key computation changes, which also invalidates every existing key.
+     */
+    static final int FORMAT_VERSION = 2;
+
+    static final String ENTRY_SUFFIX = ".json";
+    static final String TEMP_SUFFIX = ".tmp";
+    private static final Pattern KEY_PATTERN = Pattern.compile("^[A-Za-z0-9_-]+$");
+    /**
+     * Digests of code source files by absolute path, each with the size and last modified time it was computed for.
+     */
+    private static final Map<String, String[]> CODE_SOURCE_DIGESTS = new ConcurrentHashMap<>();
+
+    private final File cacheDir;
+    private final int maxEntries;
+
+    /**
+     * Create a scan result cache in the specified directory with the {@link #DEFAULT_MAX_ENTRIES} limit.
+     *
+     * @param cacheDir the cache directory
+     */
+    public ScanResultCache(final @NotNull File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Create a scan result cache in the specified directory.
+     *
+     * @param cacheDir   the cache directory
+     * @param maxEntries the maximum number of cache entries
+     */
+    public ScanResultCache(final @NotNull File cacheDir, final int maxEntries) {
+        this.cacheDir = cacheDir;
+        this.maxEntries = maxEntries;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    File getEntryFile(final @NotNull String key) {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("invalid scan result cache key: " + key);
+        }
+        return new File(cacheDir, key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Load the reports recorded for the key. The entry is marked as recently used. If the entry is unreadable, it is
+     * deleted and treated as a miss.
+     *
+     * @param key the cache key
+     * @return the recorded reports, or empty if the key was missing
+     */
+    public Optional<List<CheckReport>> load(final @NotNull String key) {
+        final File entryFile = getEntryFile(key);
+        if (!entryFile.isFile()) {
+            return Optional.empty();
+        }
+        try {
+            final List<CheckReport> reports = ReportMapper.readReportsFromFile(entryFile);
+            entryFile.setLastModified(System.currentTimeMillis());
+            return Optional.of(reports);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("[load] deleting unreadable scan result {}: {}", entryFile, e.getMessage());
+            entryFile.delete();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Save the reports as the entry for the key, replacing any existing entry, and then evict least-recently-used
+     * entries until the number of entries is within the limit.
+     *
+     * @param key     the cache key
+     * @param reports the reports to record
+     * @throws IOException for I/O errors
+     */
+    public void save(final @NotNull String key, final @NotNull List<CheckReport> reports) throws IOException {
+        final File entryFile = getEntryFile(key);
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("failed to create scan result cache directory " + cacheDir.getAbsolutePath());
+        }
+        final File tempFile = Files.createTempFile(cacheDir.toPath(), key, TEMP_SUFFIX).toFile();
+        try {
+            ReportMapper.writeReportsToFile(reports, tempFile);
+            try {
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+        evict();
+    }
+
+    /**
+     * Delete entries in order of least-recent use until the number of remaining entries is within the limit.
+     */
+    void evict() {
+        final File[] entries = cacheDir.listFiles(file -> file.isFile() && file.getName().endsWith(ENTRY_SUFFIX));
+        if (entries == null || entries.length <= maxEntries) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparing(File::lastModified).reversed());
+        for (int i = Math.max(0, maxEntries); i < entries.length; i++) {
+            LOGGER.debug("[evict] deleting scan result {}", entries[i]);
+            entries[i].delete();
+        }
+    }
+
+    /**
+     * Delete all entries and any temp files left behind by interrupted saves.
+     */
+    public void clear() {
+        final File[] files = cacheDir.listFiles(file -> file.isFile()
+                && (file.getName().endsWith(ENTRY_SUFFIX) || file.getName().endsWith(TEMP_SUFFIX)));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Compute a fingerprint of the effective check specs of a plan, including the oakpal-core version and code source,
+     * the contents of any script resources named by the {@code impl} values, and the code source of any check classes
+     * named by the {@code impl} values. Only the code source of each check class is digested, so a change to a
+     * dependency in another jar of the class loader does not change the fingerprint.
+     *
+     * @param checkSpecs  the effective check specs
+     * @param classLoader the class loader used to load the checks
+     * @return a hex-encoded SHA-256 digest
+     * @throws IOException if a script resource or code source cannot be read
+     */
+    public static String fingerprintCheckSpecs(final @NotNull List<CheckSpec> checkSpecs,
+                                               final @NotNull ClassLoader classLoader) throws IOException {
+        final MessageDigest digest = newDigest();
+        digestString(digest, Integer.toString(FORMAT_VERSION));
+        digestString(digest, OakpalVersion.getVersion());
+        digestCodeSource(digest, ScanResultCache.class);
+        for (CheckSpec checkSpec : checkSpecs) {
+            digestString(digest, checkSpec.toJson().toString());
+            final String impl = checkSpec.getImpl();
+            if (impl == null || impl.isEmpty()) {
+                continue;
+            }
+            if (impl.contains("/") || impl.contains("\\")) {
+                final URL resource = classLoader.getResource(impl);
+                if (resource != null) {
+                    digestUrl(digest, resource);
+                }
+            } else {
+                try {
+                    digestCodeSource(digest, classLoader.loadClass(impl));
+                } catch (final ClassNotFoundException | LinkageError e) {
+                    // the check will fail to load anyway
+                    digestString(digest, "unloadable:" + impl);
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Digest the code source of a class, so that the fingerprint changes when the class is upgraded. For a jar, the
+     * contents of the jar are digested. For a directory of classes, such as the {@code target/classes} of a reactor
+     * module, the relative path and contents of every file in the directory tree are digested, so that a change to a
+     * helper or inner class also changes the fingerprint. File digests are remembered by path, size, and last modified
+     * time. Other jars that the class depends on are not digested. For other code sources, the class file itself is
+     * digested.
+     *
+     * @param digest the digest to update
+     * @param clazz  the class
+     * @throws IOException if the code source cannot be read
+     */
+    static void digestCodeSource(final @NotNull MessageDigest digest, final @NotNull Class<?> clazz)
+            throws IOException {
+        digestString(digest, clazz.getName());
+        final URL location = Optional.ofNullable(clazz.getProtectionDomain())
+                .map(ProtectionDomain::getCodeSource)
+                .map(CodeSource::getLocation)
+                .orElse(null);
+        final File file = location != null && "file".equals(location.getProtocol())
+                ? FileUtils.toFile(location)
+                : null;
+        if (file != null && file.isFile()) {
+            digestString(digest, digestCodeSourceFile(file));
+        } else if (file != null && file.isDirectory()) {
+            final Path root = file.toPath();
+            final List<Path> files;
+            try (Stream<Path> walk = Files.walk(root)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            digestString(digest, Integer.toString(files.size()));
+            for (Path path : files) {
+                digestString(digest, root.relativize(path).toString().replace(File.separatorChar, '/'));
+                digestString(digest, digestCodeSourceFile(path.toFile()));
+            }
+        } else {
+            final URL classFile = clazz.getResource("/" + clazz.getName().replace('.', '/') + ".class");
+            if (classFile != null) {
+                digestUrl(digest, classFile);
+            } else if (location != null) {
+                digestString(digest, location.toExternalForm());
+            }
+        }
+    }
+
+    /**
+     * Return the digest of a code source file, computed again only when its size or last modified time changes.
+     *
+     * @param file the jar or class file
+     * @return a hex-encoded SHA-256 digest
+     * @throws IOException if the file cannot be read
+     */
+    private static String digestCodeSourceFile(final @NotNull File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final String stamp = file.length() + ";" + file.lastModified();
+        final String[] cached = CODE_SOURCE_DIGESTS.get(path);
+        if (cached != null && cached[0].equals(stamp)) {
+            return cached[1];
+        }
+        final String fileDigest = digestFile(file);
+        CODE_SOURCE_DIGESTS.put(path, new String[]{stamp, fileDigest});
+        return fileDigest;
+    }
+
+    /**
+     * Compute the cache key of a scan, from a key representing the post-init state and checks, and the digests of
+     * every package file in install order. Checks can report violations that span more than one package, so the
+     * reports are only recorded and replayed for the complete list of packages.
+     *
+     * @param baseKey     the fingerprint of the post-init state and checks
+     * @param fileDigests the digests of the package files, in install order
+     * @return the cache key of the scan
+     */
+    static String getScanKey(final @NotNull String baseKey, final @NotNull List<String> fileDigests) {
+        final MessageDigest digest = newDigest();
+        digestString(digest, Integer.toString(FORMAT_VERSION));
+        digestString(digest, baseKey);
+        digestString(digest, Integer.toString(fileDigests.size()));
+        for (String fileDigest : fileDigests) {
+            digestString(digest, fileDigest);
+        }
+        return toHex(digest.digest());
+    }
+}
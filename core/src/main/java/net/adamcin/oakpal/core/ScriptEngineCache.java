@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Cache of JSR-223 engine discovery and compiled scripts for {@link ScriptProgressCheck}. Script engine factories are
+ * discovered once per class loader, instead of by a new {@link ScriptEngineManager} for every script check.
+ * <p>
+ * ECMAScript engines are shared by the script checks of a class loader, from an {@link EnginePool} that gives each
+ * thread its own engine, so that checks created for concurrent scans do not contend for one engine. Each check
+ * evaluates its script in its own {@link ScriptContext}, which the engine backs with a separate global object, so
+ * checks sharing an engine do not see each other's functions or bindings, and each script is compiled once per engine,
+ * keyed by its URL and content digest. Engines for other languages are created for each check factory, and compile
+ * their script once for all of the factory's checks.
+ * <p>
+ * The {@link #getDefault()} cache lasts for the life of the JVM. Discovery results are softly referenced, so that
+ * class loaders of script engines can be collected.
+ */
+final class ScriptEngineCache {
+    static final int MAX_COMPILED_SCRIPTS = 256;
+    static final int DEFAULT_MAX_POOLED_ENGINES = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ScriptEngineCache DEFAULT = new ScriptEngineCache();
+
+    private final Map<ClassLoader, SoftReference<Discovery>> discoveries = new WeakHashMap<>();
+
+    /**
+     * Get the process-wide cache.
+     *
+     * @return the default cache
+     */
+    static ScriptEngineCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * The script engine factories discovered on a class loader, and the pools of shared engines created from them.
+     */
+    static final class Discovery {
+        private final ScriptEngineManager manager;
+        private final Map<ScriptEngineFactory, EnginePool> sharedEngines = new HashMap<>();
+
+        Discovery(final @Nullable ClassLoader classLoader) {
+            this.manager = new ScriptEngineManager(classLoader);
+        }
+
+        synchronized @Nullable EnginePool getEngine(final @NotNull Predicate<ScriptEngineFactory> selector) {
+            for (ScriptEngineFactory factory : manager.getEngineFactories()) {
+                if (selector.test(factory)) {
+                    if (isShareable(factory)) {
+                        return sharedEngines.computeIfAbsent(factory, key ->
+                                new EnginePool(() -> newEngine(key, true), DEFAULT_MAX_POOLED_ENGINES));
+                    }
+                    return EnginePool.of(newEngine(factory, false));
+                }
+            }
+            return null;
+        }
+
+        private CachedEngine newEngine(final @NotNull ScriptEngineFactory factory, final boolean shared) {
+            final ScriptEngine engine = factory.getScriptEngine();
+            // as ScriptEngineManager would
+            engine.setBindings(manager.getBindings(), ScriptContext.GLOBAL_SCOPE);
+            return new CachedEngine(engine, shared);
+        }
+    }
+
+    /**
+     * A small pool of engines from one factory. Each thread that asks for an engine is given its own, which it keeps,
+     * along with the scripts compiled by it, until the thread exits, after which the engine is given to the next thread
+     * that asks. Once the pool is full and every engine belongs to a live thread, the engines are shared in turn.
+     * Compiled scripts are bound to the engine that compiled them, so each script is compiled once per engine.
+     */
+    static final class EnginePool {
+        private final Supplier<CachedEngine> engineSupplier;
+        private final int maxEngines;
+        private final Map<CachedEngine, WeakReference<Thread>> owners = new LinkedHashMap<>();
+        private int nextShared;
+
+        EnginePool(final @NotNull Supplier<CachedEngine> engineSupplier, final int maxEngines) {
+            this.engineSupplier = engineSupplier;
+            this.maxEngines = Math.max(1, maxEngines);
+        }
+
+        /**
+         * Create a pool of one engine.
+         *
+         * @param engine the engine
+         * @return a pool that always returns the engine
+         */
+        static EnginePool of(final @NotNull CachedEngine engine) {
+            return new EnginePool(() -> engine, 1);
+        }
+
+        /**
+         * Get the engine of the calling thread, assigning one to it if necessary.
+         *
+         * @return an engine
+         */
+        synchronized CachedEngine getEngine() {
+            final Thread current = Thread.currentThread();
+            CachedEngine available = null;
+            for (Map.Entry<CachedEngine, WeakReference<Thread>> entry : owners.entrySet()) {
+                final Thread owner = entry.getValue().get();
+                if (owner == current) {
+                    return entry.getKey();
+                }
+                if (available == null && (owner == null || !owner.isAlive())) {
+                    available = entry.getKey();
+                }
+            }
+            if (available == null && owners.size() < maxEngines) {
+                available = engineSupplier.get();
+            }
+            if (available != null) {
+                owners.put(available, new WeakReference<>(current));
+                return available;
+            }
+            final List<CachedEngine> engines = new ArrayList<>(owners.keySet());
+            return engines.get(nextShared++ % engines.size());
+        }
+
+        synchronized int getEngineCount() {
+            return owners.size();
+        }
+    }
+
+    /**
+     * A script engine with the scripts it has compiled, by URL and content digest.
+     */
+    static final class CachedEngine {
+        private final ScriptEngine engine;
+        private final boolean shared;
+        private final Map<String, CompiledScript> compiledScripts =
+                new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(final Map.Entry<String, CompiledScript> eldest) {
+                        return size() > MAX_COMPILED_SCRIPTS;
+                    }
+                };
+
+        CachedEngine(final @NotNull ScriptEngine engine, final boolean shared) {
+            this.engine = engine;
+            this.shared = shared;
+        }
+
+        ScriptEngine getEngine() {
+            return engine;
+        }
+
+        boolean isShared() {
+            return shared;
+        }
+
+        int getCompiledScriptCount() {
+            synchronized (compiledScripts) {
+                return compiledScripts.size();
+            }
+        }
+
+        /**
+         * Evaluate the script source in the provided context, compiling it first if the engine is {@link Compilable}
+         * and it was not compiled before with the same URL and content. The caller must hold the lock on the engine.
+         *
+         * @param scriptName the script URL, or another name for inline scripts
+         * @param source     the script source
+         * @param context    the script context of the check
+         * @throws ScriptException if the script fails to compile or evaluate
+         */
+        void eval(final @NotNull String scriptName, final @NotNull String source, final @NotNull ScriptContext context)
+                throws ScriptException {
+            if (!(engine instanceof Compilable)) {
+                engine.eval(source, context);
+                return;
+            }
+            final String key = scriptName + "#"
+                    + Digests.toHex(Digests.newDigest().digest(source.getBytes(StandardCharsets.UTF_8)));
+            CompiledScript compiled;
+            synchronized (compiledScripts) {
+                compiled = compiledScripts.get(key);
+            }
+            if (compiled == null) {
+                compiled = ((Compilable) engine).compile(source);
+                synchronized (compiledScripts) {
+                    compiledScripts.put(key, compiled);
+                }
+            }
+            compiled.eval(context);
+        }
+    }
+
+    /**
+     * Only ECMAScript engines are known to keep a separate global object for each engine scope binding, which makes
+     * them safe to share between checks.
+     *
+     * @param factory the script engine factory
+     * @return true if engines of the factory can be shared between checks
+     */
+    static boolean isShareable(final @NotNull ScriptEngineFactory factory) {
+        return "ECMAScript".equalsIgnoreCase(factory.getLanguageName());
+    }
+
+    synchronized Discovery getDiscovery(final @Nullable ClassLoader classLoader) {
+        final Discovery cached = Optional.ofNullable(discoveries.get(classLoader)).map(SoftReference::get).orElse(null);
+        if (cached != null) {
+            return cached;
+        }
+        final Discovery discovery = new Discovery(classLoader);
+        discoveries.put(classLoader, new SoftReference<>(discovery));
+        return discovery;
+    }
+
+    private Discovery getDiscovery() {
+        return getDiscovery(Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Get an engine for a script file extension, using the thread context class loader, like
+     * {@link ScriptEngineManager#getEngineByExtension(String)}.
+     *
+     * @param extension the file extension
+     * @return an engine pool, or null if none is registered for the extension
+     */
+    @Nullable EnginePool getEngineByExtension(final @NotNull String extension) {
+        return getDiscovery().getEngine(factory -> factory.getExtensions().contains(extension));
+    }
+
+    /**
+     * Get an engine by name, using the thread context class loader, like
+     * {@link ScriptEngineManager#getEngineByName(String)}.
+     *
+     * @param name the engine short name
+     * @return an engine pool, or null if none is registered with the name
+     */
+    @Nullable EnginePool getEngineByName(final @NotNull String name) {
+        return getDiscovery().getEngine(factory -> factory.getNames().contains(name));
+    }
+}
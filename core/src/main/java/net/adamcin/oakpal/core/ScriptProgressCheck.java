@@ -16,6 +16,7 @@
 
 package net.adamcin.oakpal.core;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.vault.fs.config.MetaInf;
 import org.apache.jackrabbit.vault.packaging.PackageId;
 import org.apache.jackrabbit.vault.packaging.PackageProperties;
@@ -30,19 +31,21 @@ import javax.script.Bindings;
 import javax.script.Invocable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import javax.script.SimpleBindings;
 import javax.script.SimpleScriptContext;
 import java.io.File;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.jar.Manifest;
 
@@ -56,6 +59,9 @@ import static net.adamcin.oakpal.core.Util.isEmpty;
  * <dl>
  * <dt>getCheckName()</dt>
  * <dd>{@link ProgressCheck#getCheckName()}</dd>
+ * <dt>getRequiredRepositoryFeatures()</dt>
+ * <dd>{@link ProgressCheck#getRequiredRepositoryFeatures()}, as an array of {@link RepositoryFeature} names, such as
+ * {@code ["BINARY_CONTENT"]} for a check that reads the content of binaries</dd>
  * <dt>startedScan()</dt>
  * <dd>{@link ProgressCheck#startedScan()}</dd>
  * <dt>identifyPackage(packageId, packageFile)</dt>
@@ -66,6 +72,10 @@ import static net.adamcin.oakpal.core.Util.isEmpty;
  * <dd>{@link ProgressCheck#beforeExtract(PackageId, Session, PackageProperties, MetaInf, List)}</dd>
  * <dt>importedPath(packageId, path, node)</dt>
  * <dd>{@link ProgressCheck#importedPath(PackageId, String, Node)}</dd>
+ * <dt>importedPaths(batch)</dt>
+ * <dd>an array of {@link ImportedPath} events, which replaces importedPath() when defined</dd>
+ * <dt>getImportedPathsBatchSize()</dt>
+ * <dd>the maximum number of events in a batch passed to importedPaths()</dd>
  * <dt>deletedPath(packageId, path, inspectSession)</dt>
  * <dd>{@link ProgressCheck#deletedPath(PackageId, String, Session)}</dd>
  * <dt>afterExtract(packageId, inspectSession)</dt>
@@ -75,6 +85,18 @@ import static net.adamcin.oakpal.core.Util.isEmpty;
  * </dl>
  * <p>
  * To report package violations, a {@link ScriptHelper} is bound to the global variable "oakpal".
+ * <p>
+ * Calls across the script engine boundary are expensive relative to the work of most importedPath() functions. An
+ * ECMAScript check may instead define importedPaths(batch) to receive imported path events in batches of up to
+ * {@link #DEFAULT_IMPORTED_PATHS_BATCH_SIZE} events, or the number returned by getImportedPathsBatchSize(). Buffered
+ * events are delivered before any other event, and a batch never spans packages, so the events are received in the
+ * same order as by importedPath(). Each node is read when the batch is delivered, so a node that was moved or removed
+ * later in the same package may no longer be accessible.
+ * <p>
+ * Script engines are discovered once per class loader, and scripts are compiled once per engine when the engine
+ * supports {@link javax.script.Compilable}. ECMAScript engines are shared by script checks, each of which evaluates
+ * its script and invokes its functions in its own {@link ScriptContext}. Checks created on different threads, such as
+ * the checks of concurrent package group scans, are given different engines.
  */
 public final class ScriptProgressCheck implements ProgressCheck {
     public static final String DEFAULT_SCRIPT_ENGINE_EXTENSION = "js";
@@ -87,22 +109,113 @@ public final class ScriptProgressCheck implements ProgressCheck {
     public static final String INVOKE_ON_READ_MANIFEST = "readManifest";
     public static final String INVOKE_ON_BEFORE_EXTRACT = "beforeExtract";
     public static final String INVOKE_ON_IMPORTED_PATH = "importedPath";
+    public static final String INVOKE_ON_IMPORTED_PATHS = "importedPaths";
     public static final String INVOKE_ON_DELETED_PATH = "deletedPath";
     public static final String INVOKE_ON_AFTER_EXTRACT = "afterExtract";
     public static final String INVOKE_ON_FINISHED_SCAN = "finishedScan";
     public static final String INVOKE_GET_CHECK_NAME = "getCheckName";
+    public static final String INVOKE_GET_REQUIRED_REPOSITORY_FEATURES = "getRequiredRepositoryFeatures";
+    public static final String INVOKE_GET_IMPORTED_PATHS_BATCH_SIZE = "getImportedPathsBatchSize";
+    public static final int DEFAULT_IMPORTED_PATHS_BATCH_SIZE = 100;
 
     private final Invocable script;
     private final ScriptHelper helper;
     private final URL scriptUrl;
     private final Set<String> handlerMissCache = new HashSet<>();
+    private final EnumSet<Event> subscribedEvents;
+    private final ScriptContext context;
+    private final int importedPathsBatchSize;
+    private final List<ImportedPath> importedPaths = new ArrayList<>();
 
     ScriptProgressCheck(final @NotNull Invocable script,
                         final @NotNull ScriptHelper helper,
                         final @Nullable URL scriptUrl) {
+        this(script, helper, scriptUrl, null);
+    }
+
+    ScriptProgressCheck(final @NotNull Invocable script,
+                        final @NotNull ScriptHelper helper,
+                        final @Nullable URL scriptUrl,
+                        final @Nullable EnumSet<Event> subscribedEvents) {
+        this(script, helper, scriptUrl, subscribedEvents, null);
+    }
+
+    ScriptProgressCheck(final @NotNull Invocable script,
+                        final @NotNull ScriptHelper helper,
+                        final @Nullable URL scriptUrl,
+                        final @Nullable EnumSet<Event> subscribedEvents,
+                        final @Nullable ScriptContext context) {
+        this(script, helper, scriptUrl, subscribedEvents, context, 0);
+    }
+
+    ScriptProgressCheck(final @NotNull Invocable script,
+                        final @NotNull ScriptHelper helper,
+                        final @Nullable URL scriptUrl,
+                        final @Nullable EnumSet<Event> subscribedEvents,
+                        final @Nullable ScriptContext context,
+                        final int importedPathsBatchSize) {
         this.script = script;
         this.helper = helper;
         this.scriptUrl = scriptUrl;
+        this.subscribedEvents = subscribedEvents;
+        this.context = context;
+        this.importedPathsBatchSize = importedPathsBatchSize;
+    }
+
+    /**
+     * Find the events handled by the functions defined by the script most recently evaluated by the engine. This is
+     * only supported for ECMAScript engines, which can report whether a function is defined without invoking it. For
+     * other engines, null is returned to subscribe to all events.
+     *
+     * @param engine the script engine
+     * @return the set of events that the script defines functions for, or null if unknown
+     */
+    static @Nullable EnumSet<Event> findDefinedEvents(final @NotNull ScriptEngine engine) {
+        if (engine.getFactory() == null || !"ECMAScript".equalsIgnoreCase(engine.getFactory().getLanguageName())) {
+            return null;
+        }
+        final EnumSet<Event> events = EnumSet.noneOf(Event.class);
+        try {
+            for (Event event : Event.values()) {
+                if (isFunctionDefined(engine, event.getMethodName())) {
+                    events.add(event);
+                }
+            }
+        } catch (final ScriptException e) {
+            return null;
+        }
+        return events;
+    }
+
+    private static boolean isFunctionDefined(final @NotNull ScriptEngine engine, final @NotNull String name)
+            throws ScriptException {
+        return Boolean.TRUE.equals(engine.eval("typeof " + name + " === 'function'"));
+    }
+
+    /**
+     * Find the batch size for importedPaths() events, if the script most recently evaluated by the engine defines an
+     * importedPaths() function. This is only supported for ECMAScript engines.
+     *
+     * @param engine the script engine
+     * @return the batch size, or 0 to deliver each event to importedPath()
+     * @throws ScriptException if getImportedPathsBatchSize() throws
+     */
+    static int findImportedPathsBatchSize(final @NotNull ScriptEngine engine) throws ScriptException {
+        if (engine.getFactory() == null || !"ECMAScript".equalsIgnoreCase(engine.getFactory().getLanguageName())
+                || !isFunctionDefined(engine, INVOKE_ON_IMPORTED_PATHS)) {
+            return 0;
+        }
+        if (isFunctionDefined(engine, INVOKE_GET_IMPORTED_PATHS_BATCH_SIZE)) {
+            try {
+                final Object result = ((Invocable) engine).invokeFunction(INVOKE_GET_IMPORTED_PATHS_BATCH_SIZE);
+                if (result instanceof Number) {
+                    return Math.max(1, ((Number) result).intValue());
+                }
+            } catch (final NoSuchMethodException ignored) {
+                // fall through to the default
+            }
+        }
+        return DEFAULT_IMPORTED_PATHS_BATCH_SIZE;
     }
 
     private String getFilename() {
@@ -118,10 +231,31 @@ public final class ScriptProgressCheck implements ProgressCheck {
         }
     }
 
+    /**
+     * Invoke a script function in the script context of this check. The engine may be shared with other checks, so
+     * its context is set while holding the lock on the engine.
+     *
+     * @param methodName the function name
+     * @param args       the function arguments
+     * @return the function result
+     * @throws NoSuchMethodException if the function is not defined
+     * @throws ScriptException       if the function throws
+     */
+    Object invokeFunction(final String methodName, final Object... args) throws NoSuchMethodException, ScriptException {
+        if (context == null || !(script instanceof ScriptEngine)) {
+            return script.invokeFunction(methodName, args);
+        }
+        final ScriptEngine engine = (ScriptEngine) script;
+        synchronized (engine) {
+            engine.setContext(context);
+            return script.invokeFunction(methodName, args);
+        }
+    }
+
     @Override
     public String getCheckName() {
         try {
-            Object result = this.script.invokeFunction(INVOKE_GET_CHECK_NAME);
+            Object result = invokeFunction(INVOKE_GET_CHECK_NAME);
             if (result != null) {
                 return String.valueOf(result);
             } else {
@@ -134,6 +268,52 @@ public final class ScriptProgressCheck implements ProgressCheck {
         }
     }
 
+    @Override
+    public EnumSet<RepositoryFeature> getRequiredRepositoryFeatures() {
+        try {
+            return toRepositoryFeatures(invokeFunction(INVOKE_GET_REQUIRED_REPOSITORY_FEATURES));
+        } catch (NoSuchMethodException ignored) {
+            return EnumSet.noneOf(RepositoryFeature.class);
+        } catch (ScriptException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Convert the result of a getRequiredRepositoryFeatures() function, which may be a script array, a java array or
+     * collection, or a single value, to a set of repository features.
+     *
+     * @param result the function result
+     * @return the set of repository features
+     * @throws IllegalArgumentException for a value that does not name a repository feature
+     */
+    static EnumSet<RepositoryFeature> toRepositoryFeatures(final @Nullable Object result) {
+        final EnumSet<RepositoryFeature> features = EnumSet.noneOf(RepositoryFeature.class);
+        final Collection<?> values;
+        if (result == null) {
+            values = Collections.emptyList();
+        } else if (result instanceof Object[]) {
+            values = Arrays.asList((Object[]) result);
+        } else if (result instanceof Collection) {
+            values = (Collection<?>) result;
+        } else if (result instanceof Map) {
+            // script arrays are exposed by the engine as maps of index to value
+            values = ((Map<?, ?>) result).values();
+        } else {
+            values = Collections.singletonList(result);
+        }
+        for (Object value : values) {
+            final RepositoryFeature feature = value instanceof RepositoryFeature
+                    ? (RepositoryFeature) value
+                    : RepositoryFeature.forName(value != null ? String.valueOf(value) : null);
+            if (feature == null) {
+                throw new IllegalArgumentException("unknown repository feature: " + value);
+            }
+            features.add(feature);
+        }
+        return features;
+    }
+
     /**
      * Script handler callback passed to {@link EventHandlerBody}.
      */
@@ -160,7 +340,7 @@ public final class ScriptProgressCheck implements ProgressCheck {
     void guardHandler(final String methodName, final EventHandlerBody body) {
         if (!handlerMissCache.contains(methodName)) {
             try {
-                body.apply((args) -> this.script.invokeFunction(methodName, args));
+                body.apply((args) -> invokeFunction(methodName, args));
             } catch (NoSuchMethodException ignored) {
                 handlerMissCache.add(methodName);
             } catch (ScriptException e) {
@@ -182,7 +362,7 @@ public final class ScriptProgressCheck implements ProgressCheck {
     void guardSessionHandler(final String methodName, final EventHandlerBody body) throws RepositoryException {
         if (!handlerMissCache.contains(methodName)) {
             try {
-                body.apply((args) -> this.script.invokeFunction(methodName, args));
+                body.apply((args) -> invokeFunction(methodName, args));
             } catch (NoSuchMethodException ignored) {
                 handlerMissCache.add(methodName);
             } catch (ScriptException e) {
@@ -194,24 +374,62 @@ public final class ScriptProgressCheck implements ProgressCheck {
         }
     }
 
+    @Override
+    public EnumSet<Event> getSubscribedEvents() {
+        return subscribedEvents != null ? EnumSet.copyOf(subscribedEvents) : null;
+    }
+
+    int getImportedPathsBatchSize() {
+        return importedPathsBatchSize;
+    }
+
+    /**
+     * Deliver the buffered imported path events to the importedPaths() function.
+     *
+     * @throws RepositoryException if a ScriptException is thrown with a RepositoryException cause
+     */
+    void flushImportedPaths() throws RepositoryException {
+        if (importedPaths.isEmpty()) {
+            return;
+        }
+        final ImportedPath[] batch = importedPaths.toArray(new ImportedPath[0]);
+        importedPaths.clear();
+        guardSessionHandler(INVOKE_ON_IMPORTED_PATHS, handle -> handle.apply((Object) batch));
+    }
+
+    /**
+     * Deliver the buffered imported path events before an event whose handler can't throw a RepositoryException.
+     */
+    private void flushImportedPathsUnchecked() {
+        try {
+            flushImportedPaths();
+        } catch (final RepositoryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void startedScan() {
         helper.collector.clearViolations();
+        importedPaths.clear();
         guardHandler(INVOKE_ON_STARTED_SCAN, HandlerHandle::apply);
     }
 
     @Override
     public void identifyPackage(final PackageId packageId, final File file) {
+        flushImportedPathsUnchecked();
         guardHandler(INVOKE_ON_IDENTIFY_PACKAGE, handle -> handle.apply(packageId, file));
     }
 
     @Override
     public void identifySubpackage(final PackageId packageId, final PackageId parentId) {
+        flushImportedPathsUnchecked();
         guardHandler(INVOKE_ON_IDENTIFY_SUBPACKAGE, handle -> handle.apply(packageId, parentId));
     }
 
     @Override
     public void readManifest(final PackageId packageId, final Manifest manifest) {
+        flushImportedPathsUnchecked();
         guardHandler(INVOKE_ON_READ_MANIFEST, handle -> handle.apply(packageId, manifest));
     }
 
@@ -219,28 +437,39 @@ public final class ScriptProgressCheck implements ProgressCheck {
     public void beforeExtract(final PackageId packageId, final Session inspectSession,
                               final PackageProperties packageProperties, final MetaInf metaInf,
                               final List<PackageId> subpackages) throws RepositoryException {
+        flushImportedPaths();
         guardSessionHandler(INVOKE_ON_BEFORE_EXTRACT, handle -> handle.apply(packageId, inspectSession, packageProperties,
                 metaInf, subpackages.toArray(new PackageId[0])));
     }
 
     @Override
     public void importedPath(final PackageId packageId, final String path, final Node node) throws RepositoryException {
+        if (importedPathsBatchSize > 0) {
+            importedPaths.add(new ImportedPath(packageId, path, node));
+            if (importedPaths.size() >= importedPathsBatchSize) {
+                flushImportedPaths();
+            }
+            return;
+        }
         guardSessionHandler(INVOKE_ON_IMPORTED_PATH, handle -> handle.apply(packageId, path, node));
     }
 
     @Override
     public void deletedPath(final PackageId packageId, final String path, final Session inspectSession)
             throws RepositoryException {
+        flushImportedPaths();
         guardSessionHandler(INVOKE_ON_DELETED_PATH, handle -> handle.apply(packageId, path, inspectSession));
     }
 
     @Override
     public void afterExtract(final PackageId packageId, final Session inspectSession) throws RepositoryException {
+        flushImportedPaths();
         guardSessionHandler(INVOKE_ON_AFTER_EXTRACT, handle -> handle.apply(packageId, inspectSession));
     }
 
     @Override
     public void finishedScan() {
+        flushImportedPathsUnchecked();
         guardHandler(INVOKE_ON_FINISHED_SCAN, HandlerHandle::apply);
     }
 
@@ -249,6 +478,33 @@ public final class ScriptProgressCheck implements ProgressCheck {
         return this.helper.collector.getReportedViolations();
     }
 
+    /**
+     * An imported path event, passed to the importedPaths() function of a script in a batch.
+     */
+    public static final class ImportedPath {
+        private final PackageId packageId;
+        private final String path;
+        private final Node node;
+
+        ImportedPath(final @NotNull PackageId packageId, final @NotNull String path, final @NotNull Node node) {
+            this.packageId = packageId;
+            this.path = path;
+            this.node = node;
+        }
+
+        public PackageId getPackageId() {
+            return packageId;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Node getNode() {
+            return node;
+        }
+    }
+
     /**
      * ScriptHelper helps scripts to report violations by eliminating the need to import the severity enumerator type.
      */
@@ -274,33 +530,26 @@ public final class ScriptProgressCheck implements ProgressCheck {
      */
     static class ScriptProgressCheckFactory implements ProgressCheckFactory {
 
-        private final ScriptEngine engine;
+        private final ScriptEngineCache.EnginePool engines;
         private final URL scriptUrl;
 
-        private ScriptProgressCheckFactory(final @NotNull ScriptEngine engine, final @NotNull URL scriptUrl) {
-            this.engine = engine;
+        private ScriptProgressCheckFactory(final @NotNull ScriptEngineCache.EnginePool engines,
+                                           final @NotNull URL scriptUrl) {
+            this.engines = engines;
             this.scriptUrl = scriptUrl;
         }
 
         ScriptEngine getEngine() {
-            return engine;
+            return engines.getEngine().getEngine();
         }
 
         @Override
         public ProgressCheck newInstance(final JsonObject config) throws Exception {
+            final String source;
             try (InputStream is = scriptUrl.openStream()) {
-                Bindings scriptBindings = new SimpleBindings();
-                if (config != null) {
-                    scriptBindings.put(BINDING_CHECK_CONFIG, JavaxJson.unwrapObject(config));
-                } else {
-                    scriptBindings.put(BINDING_CHECK_CONFIG, Collections.<String, Object>emptyMap());
-                }
-                final ScriptHelper helper = new ScriptHelper();
-                scriptBindings.put(BINDING_SCRIPT_HELPER, helper);
-                engine.setContext(contextWithBindings(scriptBindings));
-                engine.eval(new InputStreamReader(is, StandardCharsets.UTF_8));
-                return new ScriptProgressCheck((Invocable) engine, helper, scriptUrl);
+                source = IOUtils.toString(is, StandardCharsets.UTF_8);
             }
+            return evalCheck(engines.getEngine(), scriptUrl.toExternalForm(), source, scriptUrl, config);
         }
     }
 
@@ -311,28 +560,60 @@ public final class ScriptProgressCheck implements ProgressCheck {
         return context;
     }
 
+    /**
+     * Evaluate a script in a new context with the check config and a new {@link ScriptHelper}.
+     *
+     * @param cachedEngine the engine and its compiled scripts
+     * @param scriptName   the name of the script for the compiled script cache
+     * @param source       the script source
+     * @param scriptUrl    the script url, or null for inline scripts
+     * @param config       the check config
+     * @return a new script check
+     * @throws ScriptException if the script fails to evaluate
+     */
+    private static ScriptProgressCheck evalCheck(final @NotNull ScriptEngineCache.CachedEngine cachedEngine,
+                                                 final @NotNull String scriptName,
+                                                 final @NotNull String source,
+                                                 final @Nullable URL scriptUrl,
+                                                 final @Nullable JsonObject config) throws ScriptException {
+        Bindings scriptBindings = new SimpleBindings();
+        if (config != null) {
+            scriptBindings.put(BINDING_CHECK_CONFIG, JavaxJson.unwrapObject(config));
+        } else {
+            scriptBindings.put(BINDING_CHECK_CONFIG, Collections.<String, Object>emptyMap());
+        }
+        final ScriptHelper helper = new ScriptHelper();
+        scriptBindings.put(BINDING_SCRIPT_HELPER, helper);
+        final ScriptContext context = contextWithBindings(scriptBindings);
+        final ScriptEngine engine = cachedEngine.getEngine();
+        synchronized (engine) {
+            engine.setContext(context);
+            cachedEngine.eval(scriptName, source, context);
+            final EnumSet<Event> events = findDefinedEvents(engine);
+            final int importedPathsBatchSize = findImportedPathsBatchSize(engine);
+            if (events != null && importedPathsBatchSize > 0) {
+                // afterExtract delivers the last batch of each package
+                events.add(Event.IMPORTED_PATH);
+                events.add(Event.AFTER_EXTRACT);
+            }
+            return new ScriptProgressCheck((Invocable) engine, helper, scriptUrl, events, context,
+                    importedPathsBatchSize);
+        }
+    }
+
     private static class InlineScriptProgressCheckFactory implements ProgressCheckFactory {
-        private ScriptEngine engine;
+        private final ScriptEngineCache.EnginePool engines;
         private final String source;
 
-        private InlineScriptProgressCheckFactory(final @NotNull ScriptEngine engine, final @NotNull String source) {
-            this.engine = engine;
+        private InlineScriptProgressCheckFactory(final @NotNull ScriptEngineCache.EnginePool engines,
+                                                 final @NotNull String source) {
+            this.engines = engines;
             this.source = source;
         }
 
         @Override
         public ProgressCheck newInstance(final JsonObject config) throws Exception {
-            Bindings scriptBindings = new SimpleBindings();
-            if (config != null) {
-                scriptBindings.put(BINDING_CHECK_CONFIG, JavaxJson.unwrapObject(config));
-            } else {
-                scriptBindings.put(BINDING_CHECK_CONFIG, Collections.<String, Object>emptyMap());
-            }
-            final ScriptHelper helper = new ScriptHelper();
-            scriptBindings.put(BINDING_SCRIPT_HELPER, helper);
-            engine.setContext(contextWithBindings(scriptBindings));
-            engine.eval(this.source);
-            return new ScriptProgressCheck((Invocable) engine, helper, null);
+            return evalCheck(engines.getEngine(), FILENAME_INLINE_SCRIPT, source, null, config);
         }
     }
 
@@ -344,12 +625,12 @@ public final class ScriptProgressCheck implements ProgressCheck {
         } else {
             ext = scriptUrl.getPath().substring(lastPeriod + 1);
         }
-        ScriptEngine engine = new ScriptEngineManager().getEngineByExtension(ext);
+        final ScriptEngineCache.EnginePool engine = ScriptEngineCache.getDefault().getEngineByExtension(ext);
         if (engine == null) {
             throw new UnregisteredScriptEngineNameException(ext,
                     "Failed to find a ScriptEngine for URL extension: " + scriptUrl.toString());
         }
-        return createScriptCheckFactory(engine, scriptUrl);
+        return new ScriptProgressCheckFactory(engine, scriptUrl);
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -376,28 +657,29 @@ public final class ScriptProgressCheck implements ProgressCheck {
     public static ProgressCheckFactory createScriptCheckFactory(final @NotNull String engineName,
                                                                 final @NotNull URL scriptUrl)
             throws UnregisteredScriptEngineNameException {
-        final ScriptEngine engine = new ScriptEngineManager().getEngineByName(engineName);
+        final ScriptEngineCache.EnginePool engine = ScriptEngineCache.getDefault().getEngineByName(engineName);
         if (engine == null) {
             throw new UnregisteredScriptEngineNameException(engineName);
         }
-        return createScriptCheckFactory(engine, scriptUrl);
+        return new ScriptProgressCheckFactory(engine, scriptUrl);
     }
 
     @SuppressWarnings("WeakerAccess")
     public static ProgressCheckFactory createScriptCheckFactory(final @NotNull ScriptEngine engine,
                                                                 final @NotNull URL scriptUrl) {
-        return new ScriptProgressCheckFactory(engine, scriptUrl);
+        return new ScriptProgressCheckFactory(
+                ScriptEngineCache.EnginePool.of(new ScriptEngineCache.CachedEngine(engine, false)), scriptUrl);
     }
 
     @SuppressWarnings("WeakerAccess")
     public static ProgressCheckFactory createInlineScriptCheckFactory(final @NotNull String inlineScript,
                                                                       final @Nullable String inlineEngine)
             throws UnregisteredScriptEngineNameException {
-        final ScriptEngine engine;
+        final ScriptEngineCache.EnginePool engine;
         if (isEmpty(inlineEngine)) {
-            engine = new ScriptEngineManager().getEngineByExtension(DEFAULT_SCRIPT_ENGINE_EXTENSION);
+            engine = ScriptEngineCache.getDefault().getEngineByExtension(DEFAULT_SCRIPT_ENGINE_EXTENSION);
         } else {
-            engine = new ScriptEngineManager().getEngineByName(inlineEngine);
+            engine = ScriptEngineCache.getDefault().getEngineByName(inlineEngine);
         }
         if (engine == null) {
             throw new UnregisteredScriptEngineNameException(inlineEngine);
@@ -0,0 +1,508 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.oak.spi.blob.BlobOptions;
+import org.apache.jackrabbit.oak.spi.blob.BlobStore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A content-addressed {@link BlobStore} in a directory that can be shared by consecutive scans and concurrent
+ * processes. Each binary is stored once, in a file named for the SHA-256 digest of its content, so that binaries that
+ * are repeated within a package, across packages, and across scans are deduplicated. Binaries are written to a temp
+ * file which is atomically moved into place.
+ * <p>
+ * Each instance counts the references to each blob written through it, which normally corresponds to one scan or one
+ * retained post-init state, until it is {@link #close() closed}. The blobs referenced by open instances are recorded
+ * for the whole directory: in memory for the instances of this JVM, and for other processes in a lease file, named with
+ * the {@value #LEASE_SUFFIX} suffix, in the directory. Each process holds a lock on its lease file for as long as it
+ * runs, so the leases of processes that have exited are recognized and deleted.
+ * <p>
+ * When the total size of the blobs exceeds the configured maximum, the least-recently-written blobs are deleted, except
+ * for blobs referenced by open instances in any process, and blobs written within the {@link #GC_GRACE_MILLIS}, which
+ * may be about to be referenced by a concurrent scan. Garbage is collected before the first write and again after every
+ * tenth of the maximum size is written, with a {@link DirectoryLock} held.
+ *
+ * @see FileBlobMemoryNodeStore
+ */
+public final class SharedBlobStore implements BlobStore, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedBlobStore.class);
+
+    /**
+     * The default maximum total size of blobs, 4 GiB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024L * 1024L * 1024L;
+
+    /**
+     * Blobs written more recently than this are not deleted, 10 minutes.
+     */
+    static final long GC_GRACE_MILLIS = 10L * 60L * 1000L;
+
+    static final String TEMP_SUFFIX = ".tmp";
+    static final String LEASE_SUFFIX = ".lease";
+    private static final Pattern BLOB_ID_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File storeDir;
+    private final long maxBytes;
+    private final Map<String, Integer> references = new HashMap<>();
+    private final DirectoryReferences directoryReferences;
+    private long bytesSinceGc = -1L;
+    private boolean closed;
+
+    /**
+     * Create a blob store in the specified directory with the {@link #DEFAULT_MAX_BYTES} size limit.
+     *
+     * @param storeDir the blob store directory
+     */
+    public SharedBlobStore(final @NotNull File storeDir) {
+        this(storeDir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a blob store in the specified directory.
+     *
+     * @param storeDir the blob store directory
+     * @param maxBytes the maximum total size of blobs in bytes
+     */
+    public SharedBlobStore(final @NotNull File storeDir, final long maxBytes) {
+        this.storeDir = storeDir;
+        this.maxBytes = maxBytes;
+        this.directoryReferences = DirectoryReferences.forDirectory(storeDir);
+        this.directoryReferences.register(this);
+    }
+
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the number of times the blob has been written through this instance.
+     *
+     * @param blobId the blob id
+     * @return the reference count
+     */
+    public synchronized int getReferenceCount(final @NotNull String blobId) {
+        return references.getOrDefault(blobId, 0);
+    }
+
+    synchronized Set<String> getReferencedBlobIds() {
+        return new HashSet<>(references.keySet());
+    }
+
+    /**
+     * Release the references of this instance, so that its blobs can be collected as garbage by any instance. Blobs
+     * can still be read after the store is closed, but blobs written afterwards are not referenced.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            references.clear();
+        }
+        directoryReferences.unregister(this);
+    }
+
+    File getBlobFile(final @NotNull String blobId) throws IOException {
+        if (!BLOB_ID_PATTERN.matcher(blobId).matches()) {
+            throw new IOException("invalid blob id: " + blobId);
+        }
+        return new File(new File(storeDir, blobId.substring(0, 2)), blobId);
+    }
+
+    @Override
+    public String writeBlob(final InputStream inputStream) throws IOException {
+        collectGarbageIfDue();
+        if (!storeDir.isDirectory() && !storeDir.mkdirs()) {
+            throw new IOException("failed to create blob store directory " + storeDir.getAbsolutePath());
+        }
+        final MessageDigest digest = Digests.newDigest();
+        final File tempFile = Files.createTempFile(storeDir.toPath(), "blob", TEMP_SUFFIX).toFile();
+        try {
+            long length = 0L;
+            try (InputStream input = inputStream;
+                 OutputStream output = new FileOutputStream(tempFile)) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    output.write(buffer, 0, read);
+                    length += read;
+                }
+            }
+            final String blobId = Digests.toHex(digest.digest());
+            final File blobFile = getBlobFile(blobId);
+            // touching an existing blob both marks it as recently written and confirms that it still exists
+            if (!blobFile.setLastModified(System.currentTimeMillis())) {
+                if (!blobFile.getParentFile().isDirectory() && !blobFile.getParentFile().mkdirs()) {
+                    throw new IOException("failed to create blob directory " + blobFile.getParent());
+                }
+                try {
+                    Files.move(tempFile.toPath(), blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    addWritten(length);
+                } catch (final AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile.toPath(), blobFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    addWritten(length);
+                } catch (final FileAlreadyExistsException e) {
+                    // written concurrently with the same content
+                }
+            }
+            final boolean firstReference;
+            synchronized (this) {
+                firstReference = !closed && references.merge(blobId, 1, Integer::sum) == 1;
+            }
+            if (firstReference) {
+                directoryReferences.record(blobId);
+            }
+            return blobId;
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    @Override
+    public String writeBlob(final InputStream inputStream, final BlobOptions options) throws IOException {
+        return writeBlob(inputStream);
+    }
+
+    @Override
+    public int readBlob(final String blobId, final long pos, final byte[] buff, final int off, final int length)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(getExistingBlobFile(blobId), "r")) {
+            if (pos >= file.length()) {
+                return -1;
+            }
+            file.seek(pos);
+            return file.read(buff, off, length);
+        }
+    }
+
+    @Override
+    public long getBlobLength(final String blobId) throws IOException {
+        return getExistingBlobFile(blobId).length();
+    }
+
+    @Override
+    public InputStream getInputStream(final String blobId) throws IOException {
+        return new FileInputStream(getExistingBlobFile(blobId));
+    }
+
+    private File getExistingBlobFile(final @NotNull String blobId) throws IOException {
+        final File blobFile = getBlobFile(blobId);
+        if (!blobFile.isFile()) {
+            throw new FileNotFoundException("blob " + blobId + " not found in " + storeDir.getAbsolutePath());
+        }
+        return blobFile;
+    }
+
+    /**
+     * References are not supported.
+     *
+     * @param reference the reference
+     * @return null
+     */
+    @Override
+    public @Nullable String getBlobId(final @NotNull String reference) {
+        return null;
+    }
+
+    /**
+     * References are not supported.
+     *
+     * @param blobId the blob id
+     * @return null
+     */
+    @Override
+    public @Nullable String getReference(final @NotNull String blobId) {
+        return null;
+    }
+
+    private synchronized void addWritten(final long length) {
+        bytesSinceGc += length;
+    }
+
+    private void collectGarbageIfDue() {
+        final boolean due;
+        synchronized (this) {
+            due = bytesSinceGc < 0L || bytesSinceGc > maxBytes / 10L;
+            if (due) {
+                bytesSinceGc = 0L;
+            }
+        }
+        if (due) {
+            try {
+                collectGarbage();
+            } catch (final IOException e) {
+                LOGGER.warn("[collectGarbageIfDue] failed to collect garbage in {}: {}", storeDir, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Delete blobs in order of least-recent write until the total size of the remaining blobs is within the limit,
+     * skipping blobs referenced by open instances in any process and blobs written within the grace period, and delete
+     * temp files left behind by interrupted writes.
+     *
+     * @return the number of bytes deleted
+     * @throws IOException if the lock can't be acquired
+     */
+    public long collectGarbage() throws IOException {
+        return DirectoryLock.withLock(storeDir, () -> {
+            final long now = System.currentTimeMillis();
+            final List<File> blobFiles = new ArrayList<>();
+            final File[] children = storeDir.listFiles();
+            if (children == null) {
+                return 0L;
+            }
+            final Set<String> referenced = directoryReferences.collectReferences(now);
+            long deleted = 0L;
+            for (File child : children) {
+                if (child.isFile() && child.getName().endsWith(TEMP_SUFFIX)
+                        && now - child.lastModified() > GC_GRACE_MILLIS) {
+                    deleted += child.length();
+                    child.delete();
+                } else if (child.isDirectory()) {
+                    final File[] blobs = child.listFiles(file -> file.isFile()
+                            && BLOB_ID_PATTERN.matcher(file.getName()).matches());
+                    if (blobs != null) {
+                        for (File blob : blobs) {
+                            blobFiles.add(blob);
+                        }
+                    }
+                }
+            }
+            blobFiles.sort(Comparator.comparing(File::lastModified).reversed());
+            long total = 0L;
+            for (File blob : blobFiles) {
+                final long size = blob.length();
+                total += size;
+                if (total > maxBytes && !referenced.contains(blob.getName())
+                        && now - blob.lastModified() > GC_GRACE_MILLIS) {
+                    LOGGER.debug("[collectGarbage] deleting blob {}", blob);
+                    if (blob.delete()) {
+                        total -= size;
+                        deleted += size;
+                    }
+                }
+            }
+            return deleted;
+        });
+    }
+
+    /**
+     * The blobs referenced by the open instances of this JVM for one store directory, which are recorded in a lease
+     * file for garbage collection by other processes.
+     */
+    static final class DirectoryReferences {
+        private static final Map<File, DirectoryReferences> DIRECTORIES = new HashMap<>();
+
+        private final File storeDir;
+        private final Set<SharedBlobStore> instances = Collections.newSetFromMap(new WeakHashMap<>());
+        private final Set<String> recorded = new HashSet<>();
+        private File leaseFile;
+        private FileChannel leaseChannel;
+
+        private DirectoryReferences(final @NotNull File storeDir) {
+            this.storeDir = storeDir;
+        }
+
+        static DirectoryReferences forDirectory(final @NotNull File storeDir) {
+            File key;
+            try {
+                key = storeDir.getCanonicalFile();
+            } catch (final IOException e) {
+                key = storeDir.getAbsoluteFile();
+            }
+            synchronized (DIRECTORIES) {
+                return DIRECTORIES.computeIfAbsent(key, DirectoryReferences::new);
+            }
+        }
+
+        synchronized void register(final @NotNull SharedBlobStore store) {
+            instances.add(store);
+        }
+
+        synchronized void unregister(final @NotNull SharedBlobStore store) {
+            instances.remove(store);
+        }
+
+        File getLeaseFile() {
+            return leaseFile;
+        }
+
+        /**
+         * Add a blob id to the lease file of this JVM, creating and locking the lease file on first call.
+         *
+         * @param blobId the referenced blob id
+         */
+        synchronized void record(final @NotNull String blobId) {
+            if (recorded.contains(blobId)) {
+                return;
+            }
+            try {
+                if (leaseChannel == null) {
+                    openLease();
+                }
+                leaseChannel.write(ByteBuffer.wrap((blobId + "\n").getBytes(StandardCharsets.US_ASCII)),
+                        leaseChannel.size());
+                recorded.add(blobId);
+            } catch (final IOException e) {
+                LOGGER.warn("[record] failed to record blob reference in lease {}: {}", leaseFile, e.getMessage());
+            }
+        }
+
+        private void openLease() throws IOException {
+            if (!storeDir.isDirectory() && !storeDir.mkdirs()) {
+                throw new IOException("failed to create blob store directory " + storeDir.getAbsolutePath());
+            }
+            final File file = new File(storeDir, UUID.randomUUID().toString() + LEASE_SUFFIX);
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // the lock is held until the JVM exits. it covers a byte beyond the content, so that other processes
+                // can still read the content on platforms with mandatory locks.
+                if (channel.tryLock(Long.MAX_VALUE - 1L, 1L, false) == null) {
+                    throw new IOException("failed to lock lease " + file.getAbsolutePath());
+                }
+            } catch (final IOException | RuntimeException e) {
+                channel.close();
+                Files.deleteIfExists(file.toPath());
+                throw e;
+            }
+            leaseFile = file;
+            leaseChannel = channel;
+        }
+
+        /**
+         * Collect the blob ids referenced by the open instances of this JVM and by the leases of other running
+         * processes, rewrite this JVM's lease to match its open instances, and delete the leases of exited processes.
+         * Leases of exited processes that are younger than the grace period are still honored, because they may
+         * belong to a process that has not yet locked its new lease.
+         *
+         * @param now the current time in milliseconds
+         * @return the referenced blob ids
+         */
+        synchronized Set<String> collectReferences(final long now) {
+            final Set<String> live = new HashSet<>();
+            for (SharedBlobStore instance : new ArrayList<>(instances)) {
+                live.addAll(instance.getReferencedBlobIds());
+            }
+            if (!recorded.equals(live) && (leaseChannel != null || !live.isEmpty())) {
+                compactLease(live);
+            }
+            final Set<String> referenced = new HashSet<>(live);
+            final File[] leases = storeDir.listFiles(file -> file.isFile()
+                    && file.getName().endsWith(LEASE_SUFFIX) && !file.equals(leaseFile));
+            if (leases != null) {
+                for (File lease : leases) {
+                    readLease(lease, now, referenced);
+                }
+            }
+            return referenced;
+        }
+
+        private void compactLease(final @NotNull Set<String> live) {
+            try {
+                if (leaseChannel == null) {
+                    openLease();
+                }
+                final StringBuilder content = new StringBuilder();
+                for (String blobId : live) {
+                    content.append(blobId).append('\n');
+                }
+                leaseChannel.truncate(0L);
+                leaseChannel.write(ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.US_ASCII)), 0L);
+                recorded.clear();
+                recorded.addAll(live);
+            } catch (final IOException e) {
+                LOGGER.warn("[compactLease] failed to rewrite lease {}: {}", leaseFile, e.getMessage());
+            }
+        }
+
+        private static void readLease(final @NotNull File lease, final long now,
+                                      final @NotNull Set<String> referenced) {
+            try (FileChannel channel = FileChannel.open(lease.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                boolean running = true;
+                try {
+                    final FileLock lock = channel.tryLock(Long.MAX_VALUE - 1L, 1L, false);
+                    if (lock != null) {
+                        lock.release();
+                        running = false;
+                    }
+                } catch (final OverlappingFileLockException e) {
+                    // locked by this JVM
+                }
+                if (!running && now - lease.lastModified() > GC_GRACE_MILLIS) {
+                    LOGGER.debug("[readLease] deleting lease of exited process {}", lease);
+                    channel.close();
+                    Files.deleteIfExists(lease.toPath());
+                    return;
+                }
+                for (String line : Files.readAllLines(lease.toPath(), StandardCharsets.US_ASCII)) {
+                    if (BLOB_ID_PATTERN.matcher(line).matches()) {
+                        referenced.add(line);
+                    }
+                }
+            } catch (final NoSuchFileException e) {
+                // deleted concurrently
+            } catch (final IOException e) {
+                LOGGER.warn("[readLease] failed to read lease {}: {}", lease, e.getMessage());
+            }
+        }
+    }
+}
@@ -16,19 +16,12 @@
 package net.adamcin.oakpal.core;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * Singleton class that fetches all node type definitions from OSGi bundle MANIFEST.MF files
@@ -67,14 +60,8 @@ public final class SlingNodetypesScanner {
      */
     public static List<URL> findNodeTypeDefinitions(final ClassLoader classLoader) throws IOException {
         List<String> resourceNames = new ArrayList<>();
-        Enumeration<URL> resEnum = classLoader.getResources(JarFile.MANIFEST_NAME);
-        while (resEnum.hasMoreElements()) {
-            URL url = resEnum.nextElement();
-            try (InputStream is = url.openStream()) {
-                Manifest manifest = new Manifest(is);
-                resourceNames.addAll(Util.getManifestHeaderValues(manifest, SLING_NODETYPES));
-            }
-        }
+        ManifestIndex.getDefault().getHeaderValues(SLING_NODETYPES, classLoader).values()
+                .forEach(resourceNames::addAll);
 
         return new ArrayList<>(resolveNodeTypeDefinitions(resourceNames, classLoader).values());
     }
@@ -91,22 +78,8 @@ public final class SlingNodetypesScanner {
      */
     public static List<URL> findNodeTypeDefinitions(final List<File> zipFiles) throws IOException {
         List<String> resourceNames = new ArrayList<>();
-        for (File zipFile : zipFiles) {
-            if (!zipFile.exists() || zipFile.isDirectory()) {
-                File manifestFile = new File(zipFile, JarFile.MANIFEST_NAME);
-                if (manifestFile.exists()) {
-                    try (InputStream fis = new FileInputStream(manifestFile)) {
-                        Manifest manifest = new Manifest(fis);
-                        resourceNames.addAll(Util.getManifestHeaderValues(manifest, SLING_NODETYPES));
-                    }
-                }
-            } else {
-                try (JarFile jar = new JarFile(zipFile)) {
-                    Manifest manifest = jar.getManifest();
-                    resourceNames.addAll(Util.getManifestHeaderValues(manifest, SLING_NODETYPES));
-                }
-            }
-        }
+        ManifestIndex.getDefault().getHeaderValues(SLING_NODETYPES, zipFiles).values()
+                .forEach(resourceNames::addAll);
 
         return new ArrayList<>(resolveNodeTypeDefinitions(resourceNames, zipFiles).values());
     }
@@ -130,31 +103,12 @@ public final class SlingNodetypesScanner {
 
     public static Map<String, URL> resolveNodeTypeDefinitions(final List<String> resourceNames,
                                                               final List<File> zipFiles) throws IOException {
+        final ManifestIndex index = ManifestIndex.getDefault();
         Map<String, URL> cndUrls = new LinkedHashMap<>();
         for (File zipFile : zipFiles) {
-            if (!zipFile.exists() || zipFile.isDirectory()) {
-                for (String name : resourceNames) {
-                    if (cndUrls.containsKey(name)) {
-                        continue;
-                    }
-                    File entryFile = new File(zipFile, name);
-                    if (entryFile.exists()) {
-                        cndUrls.put(name, entryFile.toURI().toURL());
-                    }
-                }
-            } else {
-                try (ZipFile zip = new JarFile(zipFile)) {
-                    for (String name : resourceNames) {
-                        if (cndUrls.containsKey(name)) {
-                            continue;
-                        }
-                        ZipEntry zipEntry = zip.getEntry(name);
-                        if (zipEntry != null) {
-                            URL cndUrl = new URL(String.format("jar:%s!/%s",
-                                    zipFile.toURI().toURL().toExternalForm(), name));
-                            cndUrls.put(name, cndUrl);
-                        }
-                    }
+            for (String name : resourceNames) {
+                if (!cndUrls.containsKey(name)) {
+                    index.findResource(zipFile, name).ifPresent(cndUrl -> cndUrls.put(name, cndUrl));
                 }
             }
         }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.memory.AbstractBlob;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * A {@link Blob} that keeps the length and SHA-256 digest of a binary, but not its content. Stub blobs are created by
+ * a {@link StubBlobNodeStore} for binaries extracted from scan packages when no progress check requires
+ * {@link RepositoryFeature#BINARY_CONTENT}.
+ */
+final class StubBlob extends AbstractBlob {
+    private final long length;
+    private final String digest;
+
+    StubBlob(final long length, final @NotNull String digest) {
+        this.length = length;
+        this.digest = digest;
+    }
+
+    /**
+     * Read the input stream to the end to compute the length and digest of a new stub blob, discarding the content.
+     *
+     * @param inputStream the binary content
+     * @return a new stub blob
+     * @throws IOException if the stream can't be read
+     */
+    static StubBlob fromStream(final @NotNull InputStream inputStream) throws IOException {
+        final MessageDigest messageDigest = Digests.newDigest();
+        final long length = Digests.digestStream(messageDigest, inputStream);
+        return new StubBlob(length, Digests.toHex(messageDigest.digest()));
+    }
+
+    /**
+     * Always throws, because the content of the binary was discarded.
+     *
+     * @return never
+     * @throws IllegalStateException always
+     */
+    @NotNull
+    @Override
+    public InputStream getNewStream() {
+        throw new IllegalStateException(String.format("Binary content of stub blob %s (%d bytes) is not available. "
+                        + "A progress check must declare RepositoryFeature.%s to read binaries from scan packages.",
+                digest, length, RepositoryFeature.BINARY_CONTENT));
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Return the hex-encoded SHA-256 digest of the discarded content.
+     *
+     * @return the content digest
+     */
+    @NotNull
+    @Override
+    public String getContentIdentity() {
+        return digest;
+    }
+
+    /**
+     * Compare by length and content identity only, because the content can't be read. FileVault compares each
+     * imported binary to the existing one before replacing it, so a stub is never equal to a blob without a content
+     * identity. Other blobs compare their content with a stub by reading it, which throws, so comparisons that can
+     * involve a stub, such as {@link RepositoryCheckpoint#resetRoot}, must be made from the stub side.
+     */
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Blob)) {
+            return false;
+        }
+        final Blob otherBlob = (Blob) other;
+        return length == otherBlob.length() && digest.equals(otherBlob.getContentIdentity());
+    }
+
+    @Override
+    public int hashCode() {
+        return digest.hashCode();
+    }
+}
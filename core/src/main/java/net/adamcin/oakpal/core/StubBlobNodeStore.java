@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.Observable;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.apache.jackrabbit.oak.spi.state.ProxyNodeStore;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps the node store of a scan repository to create {@link StubBlob}s instead of storing binaries while the current
+ * thread is extracting a scan package, between {@link #beginStubbing()} and {@link #endStubbing()}. Binaries created at
+ * any other time, such as by pre-install packages, are stored by the wrapped node store.
+ */
+final class StubBlobNodeStore extends ProxyNodeStore implements Observable {
+    private static final ThreadLocal<Boolean> STUBBING = new ThreadLocal<>();
+
+    private final NodeStore nodeStore;
+
+    StubBlobNodeStore(final @NotNull NodeStore nodeStore) {
+        this.nodeStore = nodeStore;
+    }
+
+    /**
+     * Stub blobs are only kept by node stores that hold blob instances on the heap. A segment store would have to read
+     * each blob to write it to a tar file.
+     *
+     * @param nodeStore the node store of a scan repository
+     * @return true if the node store can be wrapped
+     */
+    static boolean canWrap(final @NotNull NodeStore nodeStore) {
+        return nodeStore instanceof MemoryNodeStore || nodeStore instanceof FileBlobMemoryNodeStore;
+    }
+
+    static void beginStubbing() {
+        STUBBING.set(Boolean.TRUE);
+    }
+
+    static void endStubbing() {
+        STUBBING.remove();
+    }
+
+    static boolean isStubbing() {
+        return Boolean.TRUE.equals(STUBBING.get());
+    }
+
+    @Override
+    protected NodeStore getNodeStore() {
+        return nodeStore;
+    }
+
+    @Override
+    public Blob createBlob(final InputStream inputStream) throws IOException {
+        if (isStubbing()) {
+            return StubBlob.fromStream(inputStream);
+        }
+        return super.createBlob(inputStream);
+    }
+
+    @Override
+    public Closeable addObserver(final Observer observer) {
+        if (nodeStore instanceof Observable) {
+            return ((Observable) nodeStore).addObserver(observer);
+        }
+        return () -> { /* not observable */ };
+    }
+}
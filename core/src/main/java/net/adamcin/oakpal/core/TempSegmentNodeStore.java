@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.spi.blob.BlobStore;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.apache.jackrabbit.oak.spi.state.ProxyNodeStore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A segment-tar {@link NodeStore} in a new temp directory, with memory-mapped tar files, so that the content of a
+ * scan is kept on disk instead of on the heap. The file store is closed and the temp directory is deleted when this
+ * node store is closed, which {@link OakMachine} does when the scan repository is shutdown.
+ *
+ * @see NodeStoreType#SEGMENT
+ */
+public final class TempSegmentNodeStore extends ProxyNodeStore implements Closeable {
+    static final String TEMP_PREFIX = "oakpal-segment";
+
+    private final File storeDir;
+    private final FileStore fileStore;
+    private final NodeStore nodeStore;
+    private final BlobStore blobStore;
+
+    /**
+     * Create a segment node store in a new temp directory.
+     *
+     * @param parentDir the directory in which to create the temp directory, or null for the default temp directory
+     * @param blobStore an external blob store for binaries, or null to store binaries in the segments. A
+     *                  {@link SharedBlobStore} is closed with this node store.
+     * @throws IOException if the store can't be created
+     */
+    public TempSegmentNodeStore(final @Nullable File parentDir, final @Nullable BlobStore blobStore)
+            throws IOException {
+        if (parentDir != null && !parentDir.isDirectory() && !parentDir.mkdirs()) {
+            throw new IOException("failed to create directory " + parentDir.getAbsolutePath());
+        }
+        this.storeDir = (parentDir != null
+                ? Files.createTempDirectory(parentDir.toPath(), TEMP_PREFIX)
+                : Files.createTempDirectory(TEMP_PREFIX)).toFile();
+        final FileStoreBuilder builder = FileStoreBuilder.fileStoreBuilder(storeDir).withMemoryMapping(true);
+        if (blobStore != null) {
+            builder.withBlobStore(blobStore);
+        }
+        try {
+            this.fileStore = builder.build();
+        } catch (final InvalidFileStoreVersionException | IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(storeDir);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        this.nodeStore = SegmentNodeStoreBuilders.builder(fileStore).build();
+        this.blobStore = blobStore;
+    }
+
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    public @Nullable BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    @Override
+    protected NodeStore getNodeStore() {
+        return nodeStore;
+    }
+
+    /**
+     * Close the file store and delete the temp directory.
+     */
+    @Override
+    public void close() {
+        try {
+            fileStore.close();
+        } finally {
+            FileUtils.deleteQuietly(storeDir);
+            if (blobStore instanceof SharedBlobStore) {
+                ((SharedBlobStore) blobStore).close();
+            }
+        }
+    }
+}
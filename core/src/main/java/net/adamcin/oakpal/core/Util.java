@@ -26,13 +26,11 @@ import org.slf4j.LoggerFactory;
 
 import javax.jcr.Session;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,7 +39,6 @@ import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
-import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -95,43 +92,16 @@ public final class Util {
     }
 
     public static Map<URL, List<URL>> mapManifestHeaderResources(final String headerName, final ClassLoader classLoader) throws IOException {
-        Map<URL, List<URL>> map = new LinkedHashMap<>();
-        Enumeration<URL> resEnum = classLoader.getResources(JarFile.MANIFEST_NAME);
-        while (resEnum.hasMoreElements()) {
-            URL url = resEnum.nextElement();
-            try (InputStream is = url.openStream()) {
-                Manifest manifest = new Manifest(is);
-                List<URL> headerResources = resolveManifestResources(url, getManifestHeaderValues(manifest, headerName));
-                map.put(url, headerResources);
-            }
-        }
-
-        return map;
+        return resolveManifestHeaderResources(ManifestIndex.getDefault().getHeaderValues(headerName, classLoader));
     }
 
     public static Map<URL, List<URL>> mapManifestHeaderResources(final String headerName, final List<File> files) throws IOException {
+        return resolveManifestHeaderResources(ManifestIndex.getDefault().getHeaderValues(headerName, files));
+    }
+
+    static Map<URL, List<URL>> resolveManifestHeaderResources(final Map<URL, List<String>> headerValues) {
         Map<URL, List<URL>> map = new LinkedHashMap<>();
-        for (File zipFile : files) {
-            if (!zipFile.exists() || zipFile.isDirectory()) {
-                File manifestFile = new File(zipFile, JarFile.MANIFEST_NAME);
-                if (manifestFile.exists()) {
-                    try (InputStream fis = new FileInputStream(manifestFile)) {
-                        Manifest manifest = new Manifest(fis);
-                        final URL manifestUrl = manifestFile.toURI().toURL();
-                        map.put(manifestUrl, resolveManifestResources(manifestUrl,
-                                getManifestHeaderValues(manifest, headerName)));
-                    }
-                }
-            } else {
-                try (JarFile jar = new JarFile(zipFile)) {
-                    Manifest manifest = jar.getManifest();
-                    final URL manifestUrl = new URL(String.format("jar:%s!/%s",
-                            zipFile.toURI().toURL().toExternalForm(), JarFile.MANIFEST_NAME));
-                    map.put(manifestUrl, resolveManifestResources(manifestUrl,
-                            getManifestHeaderValues(manifest, headerName)));
-                }
-            }
-        }
+        headerValues.forEach((manifestUrl, values) -> map.put(manifestUrl, resolveManifestResources(manifestUrl, values)));
         return map;
     }
 
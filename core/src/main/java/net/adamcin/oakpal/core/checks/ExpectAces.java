@@ -199,6 +199,7 @@ public final class ExpectAces implements ProgressCheckFactory {
         final Map<AceCriteria, List<PackageId>> expectedViolators = new LinkedHashMap<>();
         final Map<AceCriteria, List<PackageId>> notExpectedViolators = new LinkedHashMap<>();
         final List<Rule> afterPackageIdRules;
+        final RuleSet afterPackageIdRuleSet;
         final Violation.Severity severity;
 
         Check(final @NotNull List<AceCriteria> expectedAces,
@@ -208,6 +209,7 @@ public final class ExpectAces implements ProgressCheckFactory {
             this.expectedAces = expectedAces;
             this.notExpectedAces = notExpectedAces;
             this.afterPackageIdRules = afterPackageIdRules;
+            this.afterPackageIdRuleSet = RuleSet.compile(afterPackageIdRules);
             this.severity = severity;
         }
 
@@ -228,7 +230,7 @@ public final class ExpectAces implements ProgressCheckFactory {
         }
 
         boolean shouldExpectAfterExtract(final @NotNull PackageId packageId) {
-            return Rule.lastMatch(afterPackageIdRules, packageId.toString()).isInclude();
+            return afterPackageIdRuleSet.lastMatch(packageId.toString()).isInclude();
         }
 
         static List<PackageId> getViolatorListForExpectedCriteria(final @NotNull Map<AceCriteria, List<PackageId>> violatorsMap,
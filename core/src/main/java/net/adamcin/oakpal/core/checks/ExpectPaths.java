@@ -77,6 +77,7 @@ public final class ExpectPaths implements ProgressCheckFactory {
         final List<String> expectedPaths;
         final List<String> notExpectedPaths;
         final List<Rule> afterPackageIdRules;
+        final RuleSet afterPackageIdRuleSet;
         final Violation.Severity severity;
         final Map<String, List<PackageId>> expectedViolators = new LinkedHashMap<>();
         final Map<String, List<PackageId>> notExpectedViolators = new LinkedHashMap<>();
@@ -88,6 +89,7 @@ public final class ExpectPaths implements ProgressCheckFactory {
             this.expectedPaths = expectedPaths;
             this.notExpectedPaths = notExpectedPaths;
             this.afterPackageIdRules = afterPackageIdRules;
+            this.afterPackageIdRuleSet = RuleSet.compile(afterPackageIdRules);
             this.severity = severity;
         }
 
@@ -112,7 +114,7 @@ public final class ExpectPaths implements ProgressCheckFactory {
         }
 
         boolean shouldExpectAfterExtract(final @NotNull PackageId packageId) {
-            return Rule.lastMatch(afterPackageIdRules, packageId.toString()).isInclude();
+            return afterPackageIdRuleSet.lastMatch(packageId.toString()).isInclude();
         }
 
         @Override
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core.checks;
+
+import org.apache.jackrabbit.vault.fs.api.PathFilterSet;
+import org.apache.jackrabbit.vault.fs.api.WorkspaceFilter;
+import org.apache.jackrabbit.vault.fs.config.DefaultWorkspaceFilter;
+import org.apache.jackrabbit.vault.packaging.PackageId;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Indexes the {@link PathFilterSet}s of package workspace filters in a trie of path segments by their root paths, so
+ * that finding the filters which contain a path only needs to evaluate the filter sets rooted at the path or one of
+ * its ancestors, rather than every filter collected so far.
+ * <p>
+ * The result is equivalent to calling {@link WorkspaceFilter#contains(String)} on each filter. Filters which are not
+ * {@link DefaultWorkspaceFilter}s, and filter sets with unusual root paths, are not indexed and are always evaluated.
+ */
+final class FilterRootIndex {
+    private final Map<PackageId, WorkspaceFilter> filters = new LinkedHashMap<>();
+    private final Map<PackageId, List<TrieNode>> indexedNodes = new HashMap<>();
+    private final Map<PackageId, WorkspaceFilter> unindexed = new LinkedHashMap<>();
+    private final TrieNode root = new TrieNode();
+
+    /**
+     * Add the workspace filter of a package, replacing any filter previously added for the same package.
+     *
+     * @param packageId the package id
+     * @param filter    the package workspace filter
+     */
+    void put(final @NotNull PackageId packageId, final @NotNull WorkspaceFilter filter) {
+        remove(packageId);
+        filters.put(packageId, filter);
+        if (!(filter instanceof DefaultWorkspaceFilter)) {
+            unindexed.put(packageId, filter);
+            return;
+        }
+        final List<PathFilterSet> filterSets = filter.getFilterSets();
+        final List<TrieNode> nodes = new ArrayList<>();
+        for (PathFilterSet filterSet : filterSets) {
+            final TrieNode node = insert(filterSet.getRoot());
+            if (node == null) {
+                unindexed.put(packageId, filter);
+                return;
+            }
+            nodes.add(node);
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.get(i).entries.add(new Entry(packageId, filter, filterSets.get(i)));
+        }
+        indexedNodes.put(packageId, nodes);
+    }
+
+    /**
+     * Get the workspace filter added for the package.
+     *
+     * @param packageId the package id
+     * @return the workspace filter or null
+     */
+    @Nullable WorkspaceFilter get(final @NotNull PackageId packageId) {
+        return filters.get(packageId);
+    }
+
+    /**
+     * Remove the workspace filter of a package.
+     *
+     * @param packageId the package id
+     */
+    void remove(final @NotNull PackageId packageId) {
+        filters.remove(packageId);
+        unindexed.remove(packageId);
+        final List<TrieNode> nodes = indexedNodes.remove(packageId);
+        if (nodes != null) {
+            for (TrieNode node : nodes) {
+                node.entries.removeIf(entry -> entry.packageId.equals(packageId));
+            }
+        }
+    }
+
+    /**
+     * Remove all filters.
+     */
+    void clear() {
+        filters.clear();
+        indexedNodes.clear();
+        unindexed.clear();
+        root.children.clear();
+        root.entries.clear();
+    }
+
+    /**
+     * Find the packages, other than the excluded package, whose workspace filters contain the path.
+     *
+     * @param path      the path to find
+     * @param excludeId the package to exclude, usually the package that affected the path
+     * @return the ids of packages whose filters contain the path, in the order their filters were added
+     */
+    List<PackageId> findContaining(final @NotNull String path, final @Nullable PackageId excludeId) {
+        final Set<PackageId> found = new HashSet<>();
+        unindexed.forEach((packageId, filter) -> {
+            if (!packageId.equals(excludeId) && filter.contains(path)) {
+                found.add(packageId);
+            }
+        });
+        if (path.startsWith("/")) {
+            TrieNode node = root;
+            collect(node, path, excludeId, found);
+            int start = 1;
+            while (node != null && start < path.length()) {
+                int end = path.indexOf('/', start);
+                if (end < 0) {
+                    end = path.length();
+                }
+                node = node.children.get(path.substring(start, end));
+                if (node != null) {
+                    collect(node, path, excludeId, found);
+                }
+                start = end + 1;
+            }
+        }
+        if (found.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return filters.keySet().stream().filter(found::contains).collect(Collectors.toList());
+    }
+
+    private static void collect(final @NotNull TrieNode node, final @NotNull String path,
+                                final @Nullable PackageId excludeId, final @NotNull Set<PackageId> found) {
+        for (Entry entry : node.entries) {
+            if (!entry.packageId.equals(excludeId)
+                    && !found.contains(entry.packageId)
+                    && !entry.filter.isGloballyIgnored(path)
+                    && entry.filterSet.contains(path)) {
+                found.add(entry.packageId);
+            }
+        }
+    }
+
+    /**
+     * Find or create the trie node for the root path, or return null if the root path is not a normalized absolute
+     * path, for which the segment walk would not reproduce {@link PathFilterSet#covers(String)}.
+     *
+     * @param rootPath the filter set root path
+     * @return the trie node or null
+     */
+    private @Nullable TrieNode insert(final @Nullable String rootPath) {
+        if (rootPath == null || !rootPath.startsWith("/")) {
+            return null;
+        }
+        if ("/".equals(rootPath)) {
+            return root;
+        }
+        if (rootPath.endsWith("/") || rootPath.contains("//")) {
+            return null;
+        }
+        TrieNode node = root;
+        for (String segment : rootPath.substring(1).split("/")) {
+            node = node.children.computeIfAbsent(segment, key -> new TrieNode());
+        }
+        return node;
+    }
+
+    private static final class Entry {
+        private final PackageId packageId;
+        private final WorkspaceFilter filter;
+        private final PathFilterSet filterSet;
+
+        private Entry(final PackageId packageId, final WorkspaceFilter filter, final PathFilterSet filterSet) {
+            this.packageId = packageId;
+            this.filter = filter;
+            this.filterSet = filterSet;
+        }
+    }
+
+    private static final class TrieNode {
+        private final Map<String, TrieNode> children = new HashMap<>();
+        private final List<Entry> entries = new ArrayList<>();
+    }
+}
@@ -18,6 +18,7 @@ package net.adamcin.oakpal.core.checks;
 
 import net.adamcin.oakpal.core.ProgressCheck;
 import net.adamcin.oakpal.core.ProgressCheckFactory;
+import net.adamcin.oakpal.core.RepositoryFeature;
 import net.adamcin.oakpal.core.SimpleProgressCheck;
 import org.apache.jackrabbit.vault.fs.api.WorkspaceFilter;
 import org.apache.jackrabbit.vault.fs.config.MetaInf;
@@ -29,6 +30,7 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.nodetype.NodeTypeDefinition;
 import javax.json.JsonObject;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -53,7 +55,8 @@ import static net.adamcin.oakpal.core.JavaxJson.mapArrayOfStrings;
  * <dd>A list of nodeType strings, which specify primary or mixin types that the list of property constraints should
  * apply to.</dd>
  * <dt>{@code properties}</dt>
- * <dd>A list of {@link JcrPropertyConstraints} definitions.</dd>
+ * <dd>A list of {@link JcrPropertyConstraints} definitions. {@link RepositoryFeature#BINARY_CONTENT} is required when
+ * {@code valueRules} may be applied to Binary properties.</dd>
  * </dl>
  * <pre>
  *     "config": {
@@ -108,7 +111,7 @@ public final class JcrProperties implements ProgressCheckFactory {
     }
 
     static final class Check extends SimpleProgressCheck {
-        private final List<Rule> scopePaths;
+        private final RuleSet scopePaths;
         private final List<String> denyNodeTypes;
         private final List<String> scopeNodeTypes;
         private final List<JcrPropertyConstraints> propertyChecks;
@@ -118,7 +121,7 @@ public final class JcrProperties implements ProgressCheckFactory {
               final List<String> denyNodeTypes,
               final List<String> scopeNodeTypes,
               final List<JcrPropertyConstraints> propertyChecks) {
-            this.scopePaths = scopePaths;
+            this.scopePaths = RuleSet.compile(scopePaths);
             this.denyNodeTypes = denyNodeTypes;
             this.scopeNodeTypes = scopeNodeTypes;
             this.propertyChecks = propertyChecks;
@@ -129,6 +132,14 @@ public final class JcrProperties implements ProgressCheckFactory {
             return JcrProperties.class.getSimpleName();
         }
 
+        @Override
+        public EnumSet<RepositoryFeature> getRequiredRepositoryFeatures() {
+            if (propertyChecks.stream().anyMatch(JcrPropertyConstraints::isBinaryValueRead)) {
+                return EnumSet.of(RepositoryFeature.BINARY_CONTENT);
+            }
+            return EnumSet.noneOf(RepositoryFeature.class);
+        }
+
         @Override
         public void beforeExtract(final PackageId packageId, final Session inspectSession,
                                   final PackageProperties packageProperties, final MetaInf metaInf,
@@ -142,7 +153,7 @@ public final class JcrProperties implements ProgressCheckFactory {
                 return;
             }
 
-            final Rule lastMatch = Rule.lastMatch(scopePaths, path);
+            final Rule lastMatch = scopePaths.lastMatch(path);
             if (lastMatch.isInclude()) {
                 this.checkNode(packageId, node);
             }
@@ -16,6 +16,7 @@
 
 package net.adamcin.oakpal.core.checks;
 
+import net.adamcin.oakpal.core.RepositoryFeature;
 import net.adamcin.oakpal.core.SimpleViolation;
 import net.adamcin.oakpal.core.Violation;
 import org.apache.jackrabbit.vault.packaging.PackageId;
@@ -99,6 +100,7 @@ public final class JcrPropertyConstraints {
     private final boolean denyIfMultivalued;
     private final String requireType;
     private final List<Rule> valueRules;
+    private final RuleSet valueRuleSet;
     private final Violation.Severity severity;
 
     public JcrPropertyConstraints(final String name,
@@ -114,6 +116,7 @@ public final class JcrPropertyConstraints {
         this.denyIfMultivalued = denyIfMultivalued;
         this.requireType = requireType;
         this.valueRules = valueRules;
+        this.valueRuleSet = RuleSet.compile(valueRules);
         this.severity = severity;
     }
 
@@ -159,6 +162,18 @@ public final class JcrPropertyConstraints {
                 packageId);
     }
 
+    /**
+     * Whether {@link #evaluate(PackageId, Node)} may read the value of a Binary property, which requires
+     * {@link RepositoryFeature#BINARY_CONTENT}. Values are only read for value rules, and a property that does not
+     * have the required type is reported before its values are read.
+     *
+     * @return true if the string value of a Binary property may be read
+     */
+    boolean isBinaryValueRead() {
+        return !valueRules.isEmpty() && (getRequireType() == null || getRequireType().isEmpty()
+                || PropertyType.TYPENAME_BINARY.equals(getRequireType()));
+    }
+
     Optional<Violation> evaluate(final PackageId packageId, final Node node) throws RepositoryException {
         if (!node.hasProperty(getName())) {
             if (isDenyIfAbsent()) {
@@ -182,6 +197,10 @@ public final class JcrPropertyConstraints {
                                 PropertyType.nameFromValue(property.getType()), getRequireType())));
             }
 
+            if (valueRules.isEmpty()) {
+                return Optional.empty();
+            }
+
             List<String> values = new ArrayList<>();
             if (property.isMultiple()) {
                 for (Value value : property.getValues()) {
@@ -192,7 +211,7 @@ public final class JcrPropertyConstraints {
             }
 
             for (String value : values) {
-                final Rule lastMatch = Rule.lastMatch(getValueRules(), value);
+                final Rule lastMatch = valueRuleSet.lastMatch(value);
                 if (lastMatch.isDeny()) {
                     return Optional.of(constructViolation(packageId, node,
                             String.format("value %s denied by pattern %s",
@@ -32,16 +32,15 @@ import javax.json.JsonObject;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import static net.adamcin.oakpal.core.JavaxJson.hasNonNull;
 
 /**
  * The {@code overlaps} check keeps track of installed package workspace filters, and checks every affected path going
- * forward against previous workspace filters for overlap, using {@link WorkspaceFilter#contains(String)}. Overlapping
- * deletions are reported as {@link net.adamcin.oakpal.core.Violation.Severity#MAJOR}, whereas other affected paths are
- * reported as {@link net.adamcin.oakpal.core.Violation.Severity#MINOR}.
+ * forward against previous workspace filters for overlap, using {@link WorkspaceFilter#contains(String)}. Filters are
+ * indexed by filter root, so that each path is only checked against the filters rooted at the path or its ancestors.
+ * Overlapping deletions are reported as {@link net.adamcin.oakpal.core.Violation.Severity#MAJOR}, whereas other
+ * affected paths are reported as {@link net.adamcin.oakpal.core.Violation.Severity#MINOR}.
  * <p>
  * This check is sequence-dependent, in that changing the sequence of packages in the scan may result in a different
  * outcome. It is recommended to test multiple sequences if the actual process for package deployment is undefined or
@@ -67,7 +66,7 @@ public final class Overlaps implements ProgressCheckFactory {
 
     static final class Check extends SimpleProgressCheck {
 
-        final Map<PackageId, WorkspaceFilter> filters = new HashMap<>();
+        final FilterRootIndex filters = new FilterRootIndex();
         final Map<PackageId, Violation.Severity> reported = new HashMap<>();
 
         final boolean reportAllOverlaps;
@@ -95,10 +94,6 @@ public final class Overlaps implements ProgressCheckFactory {
             filters.put(packageId, metaInf.getFilter());
         }
 
-        Predicate<? super Map.Entry<PackageId, WorkspaceFilter>> overlaps(final String path) {
-            return entry -> entry.getValue().contains(path);
-        }
-
         void findOverlaps(final PackageId currentPackageId, final String path,
                           final Violation.Severity severity) {
             // fast escape! no need to belabor the point.
@@ -109,12 +104,7 @@ public final class Overlaps implements ProgressCheckFactory {
             }
 
             // find any overlapping filters, looking forward.
-            List<PackageId> overlapping = filters.entrySet().stream()
-                    .filter(entry -> !entry.getKey().equals(currentPackageId))
-                    .filter(overlaps(path))
-                    .map(Map.Entry::getKey)
-                    .collect(Collectors.toList());
-
+            List<PackageId> overlapping = filters.findContaining(path, currentPackageId);
 
             if (!overlapping.isEmpty()) {
                 if (!reportAllOverlaps) {
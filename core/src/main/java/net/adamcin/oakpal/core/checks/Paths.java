@@ -84,12 +84,12 @@ public final class Paths implements ProgressCheckFactory {
     }
 
     static final class Check extends SimpleProgressCheck {
-        private final List<Rule> rules;
+        private final RuleSet rules;
         private final boolean denyAllDeletes;
         private final Violation.Severity severity;
 
         Check(final List<Rule> rules, final boolean denyAllDeletes, final Violation.Severity severity) {
-            this.rules = rules;
+            this.rules = RuleSet.compile(rules);
             this.denyAllDeletes = denyAllDeletes;
             this.severity = severity;
         }
@@ -103,7 +103,7 @@ public final class Paths implements ProgressCheckFactory {
         public void importedPath(final PackageId packageId, final String path, final Node node)
                 throws RepositoryException {
 
-            Rule lastMatch = Rule.lastMatch(rules, path);
+            Rule lastMatch = rules.lastMatch(path);
             if (lastMatch.isDeny()) {
                 reportViolation(severity,
                         String.format("imported path %s matches deny pattern %s", path,
@@ -118,7 +118,7 @@ public final class Paths implements ProgressCheckFactory {
                 reportViolation(severity,
                         String.format("deleted path %s. All deletions are denied.", path), packageId);
             } else {
-                final Rule lastMatch = Rule.lastMatch(rules, path);
+                final Rule lastMatch = rules.lastMatch(path);
                 if (lastMatch.isDeny()) {
                     reportViolation(severity,
                             String.format("deleted path %s matches deny rule %s", path,
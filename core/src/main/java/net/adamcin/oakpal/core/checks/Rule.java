@@ -267,6 +267,7 @@ public final class Rule implements JavaxJson.ObjectConvertible {
      * @param value         the string value to match against.
      * @param selectDefault a function to select the default rule based on the specified list of rules.
      * @return the last rule in the list that matches the value, or a default rule
+     * @see RuleSet for a compiled equivalent when the same rules are evaluated repeatedly
      */
     public static Rule lastMatch(final List<Rule> rules,
                                  final String value,
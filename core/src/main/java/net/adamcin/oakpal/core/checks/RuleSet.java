@@ -0,0 +1,307 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core.checks;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled form of a list of {@link Rule}s which returns the same result as
+ * {@link Rule#lastMatch(List, String, Function)}, without evaluating every pattern against every value.
+ * <p>
+ * Patterns which are plain literals, literal prefixes followed by {@code .*}, or literal paths followed by
+ * {@code (/.*)?}, are resolved by walking a character trie once per value. The remaining patterns are combined into a
+ * single alternation, in reverse rule order, so that the first alternative to match the value identifies the last
+ * matching rule. Patterns which cannot be combined safely, such as those with compile flags, inline flags, or
+ * back references, are evaluated individually.
+ */
+public final class RuleSet {
+    private static final String SUFFIX_ANY = ".*";
+    private static final String[] SUFFIXES_DESCENDANTS = {"(/.*)?", "(?:/.*)?"};
+    private static final String REGEX_METACHARS = "\\^$.|?*+()[]{}";
+    private static final Pattern PATTERN_UNCOMBINABLE = Pattern.compile("\\\\[1-9k]|\\(\\?[a-zA-Z-]");
+
+    private final List<Rule> rules;
+    private final Rule defaultRule;
+    private final TrieNode trie = new TrieNode();
+    private final Pattern combined;
+    private final int[] combinedGroups;
+    private final int[] combinedIndexes;
+    private final int[] individualIndexes;
+
+    private RuleSet(final @NotNull List<Rule> rules, final @NotNull Rule defaultRule) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.defaultRule = defaultRule;
+        final List<Integer> regexIndexes = new ArrayList<>();
+        for (int i = 0; i < this.rules.size(); i++) {
+            if (!addToTrie(this.rules.get(i).getPattern(), i)) {
+                regexIndexes.add(i);
+            }
+        }
+        final List<Integer> combinable = new ArrayList<>();
+        final List<Integer> individual = new ArrayList<>();
+        for (Integer index : regexIndexes) {
+            final Pattern pattern = this.rules.get(index).getPattern();
+            if (pattern.flags() == 0 && !PATTERN_UNCOMBINABLE.matcher(pattern.pattern()).find()) {
+                combinable.add(index);
+            } else {
+                individual.add(index);
+            }
+        }
+        Pattern combinedPattern = null;
+        int[] groups = new int[0];
+        if (combinable.size() > 1) {
+            groups = new int[combinable.size()];
+            final StringBuilder alternation = new StringBuilder();
+            int group = 1;
+            for (int i = 0; i < combinable.size(); i++) {
+                // reverse order, so that the first alternative to match is the last matching rule
+                final Pattern pattern = this.rules.get(combinable.get(combinable.size() - 1 - i)).getPattern();
+                if (i > 0) {
+                    alternation.append('|');
+                }
+                alternation.append('(').append(pattern.pattern()).append(')');
+                groups[i] = group;
+                group += 1 + pattern.matcher("").groupCount();
+            }
+            try {
+                combinedPattern = Pattern.compile(alternation.toString());
+            } catch (final PatternSyntaxException e) {
+                // e.g. duplicate named groups; fall back to evaluating each pattern
+                combinedPattern = null;
+            }
+        }
+        if (combinedPattern != null) {
+            Collections.reverse(combinable);
+            this.combined = combinedPattern;
+            this.combinedGroups = groups;
+            this.combinedIndexes = toArray(combinable);
+        } else {
+            individual.addAll(combinable);
+            Collections.sort(individual);
+            this.combined = null;
+            this.combinedGroups = new int[0];
+            this.combinedIndexes = new int[0];
+        }
+        Collections.reverse(individual);
+        this.individualIndexes = toArray(individual);
+    }
+
+    /**
+     * Compile a list of rules, using {@link Rule#fuzzyDefaultInclude(List)} to select the default rule when none
+     * match.
+     *
+     * @param rules the list of rules
+     * @return the compiled rule set
+     */
+    public static RuleSet compile(final @Nullable List<Rule> rules) {
+        return compile(rules, Rule::fuzzyDefaultInclude);
+    }
+
+    /**
+     * Compile a list of rules, using the provided selector function to select the default rule when none match.
+     *
+     * @param rules         the list of rules
+     * @param selectDefault a function to select the default rule based on the specified list of rules.
+     * @return the compiled rule set
+     */
+    public static RuleSet compile(final @Nullable List<Rule> rules,
+                                  final @Nullable Function<List<Rule>, Rule> selectDefault) {
+        final List<Rule> ruleList = rules != null ? rules : Collections.emptyList();
+        final Rule defaultRule = Optional.ofNullable(selectDefault)
+                .map(func -> func.apply(ruleList))
+                .orElse(Rule.DEFAULT_INCLUDE);
+        return new RuleSet(ruleList, defaultRule);
+    }
+
+    /**
+     * The rules in evaluation order.
+     *
+     * @return the list of rules
+     */
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    /**
+     * The rule returned when no rule matches.
+     *
+     * @return the default rule
+     */
+    public Rule getDefaultRule() {
+        return defaultRule;
+    }
+
+    /**
+     * Evaluate the rules against the String value.
+     *
+     * @param value the string value to match against.
+     * @return the last rule in the list that matches the value, or the default rule
+     */
+    public Rule lastMatch(final @NotNull String value) {
+        if (hasLineTerminator(value)) {
+            // "." does not match line terminators, so the literal prefix shortcuts do not apply.
+            return Rule.lastMatch(rules, value, list -> defaultRule);
+        }
+        int lastIndex = trie.lastMatch(value);
+        for (int index : individualIndexes) {
+            if (index <= lastIndex) {
+                break;
+            }
+            if (rules.get(index).matches(value)) {
+                lastIndex = index;
+                break;
+            }
+        }
+        if (combined != null && combinedIndexes[0] > lastIndex) {
+            final Matcher matcher = combined.matcher(value);
+            if (matcher.matches()) {
+                for (int i = 0; i < combinedGroups.length; i++) {
+                    if (matcher.start(combinedGroups[i]) >= 0) {
+                        lastIndex = Math.max(lastIndex, combinedIndexes[i]);
+                        break;
+                    }
+                }
+            }
+        }
+        return lastIndex >= 0 ? rules.get(lastIndex) : defaultRule;
+    }
+
+    private boolean addToTrie(final @NotNull Pattern pattern, final int index) {
+        if (pattern.flags() != 0) {
+            return false;
+        }
+        final String regex = pattern.pattern();
+        for (String suffix : SUFFIXES_DESCENDANTS) {
+            if (regex.endsWith(suffix)) {
+                final String literal = unquoteLiteral(regex.substring(0, regex.length() - suffix.length()));
+                if (literal != null) {
+                    trie.insert(literal).exactIndex = index;
+                    trie.insert(literal + "/").prefixIndex = index;
+                    return true;
+                }
+            }
+        }
+        if (regex.endsWith(SUFFIX_ANY) && !regex.endsWith("\\" + SUFFIX_ANY)) {
+            final String literal = unquoteLiteral(regex.substring(0, regex.length() - SUFFIX_ANY.length()));
+            if (literal != null) {
+                trie.insert(literal).prefixIndex = index;
+                return true;
+            }
+        }
+        final String literal = unquoteLiteral(regex);
+        if (literal != null) {
+            trie.insert(literal).exactIndex = index;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the literal string matched by the regex, or null if the regex is not a plain literal. Only escapes of
+     * non-alphanumeric characters are accepted.
+     *
+     * @param regex the regex
+     * @return the literal value or null
+     */
+    static @Nullable String unquoteLiteral(final @NotNull String regex) {
+        final StringBuilder literal = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regex.length()) {
+                    return null;
+                }
+                final char escaped = regex.charAt(++i);
+                if (Character.isLetterOrDigit(escaped)) {
+                    return null;
+                }
+                literal.append(escaped);
+            } else if (REGEX_METACHARS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    static boolean hasLineTerminator(final @NotNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] toArray(final List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        return "RuleSet" + rules;
+    }
+
+    /**
+     * Character trie node recording the highest rule index matching the exact path to the node, and the highest rule
+     * index matching any value beginning with the path to the node.
+     */
+    private static final class TrieNode {
+        private final Map<Character, TrieNode> children = new HashMap<>();
+        private int exactIndex = -1;
+        private int prefixIndex = -1;
+
+        TrieNode insert(final String literal) {
+            TrieNode node = this;
+            for (int i = 0; i < literal.length(); i++) {
+                node = node.children.computeIfAbsent(literal.charAt(i), key -> new TrieNode());
+            }
+            return node;
+        }
+
+        int lastMatch(final String value) {
+            int lastIndex = prefixIndex;
+            TrieNode node = this;
+            for (int i = 0; i < value.length(); i++) {
+                node = node.children.get(value.charAt(i));
+                if (node == null) {
+                    return lastIndex;
+                }
+                lastIndex = Math.max(lastIndex, node.prefixIndex);
+            }
+            return Math.max(lastIndex, node.exactIndex);
+        }
+    }
+}
@@ -72,11 +72,11 @@ public final class Subpackages implements ProgressCheckFactory {
     }
 
     static final class Check extends SimpleProgressCheck {
-        private final List<Rule> rules;
+        private final RuleSet rules;
         private final boolean denyAll;
 
         Check(final List<Rule> rules, final boolean denyAll) {
-            this.rules = rules;
+            this.rules = RuleSet.compile(rules);
             this.denyAll = denyAll;
         }
 
@@ -92,7 +92,7 @@ public final class Subpackages implements ProgressCheckFactory {
                         String.format("subpackage %s included by %s. no subpackages are allowed.",
                                 packageId, parentId), packageId);
             } else {
-                final Rule lastMatch = Rule.lastMatch(rules, packageId.toString());
+                final Rule lastMatch = rules.lastMatch(packageId.toString());
                 if (lastMatch.isDeny()) {
                     reportViolation(Violation.Severity.MAJOR,
                             String.format("subpackage %s included by %s matches deny pattern %s",
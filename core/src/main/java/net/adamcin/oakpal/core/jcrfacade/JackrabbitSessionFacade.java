@@ -21,6 +21,7 @@ import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.principal.PrincipalManager;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.jcr.Item;
 import javax.jcr.Node;
@@ -37,6 +38,11 @@ public final class JackrabbitSessionFacade extends SessionFacade<JackrabbitSessi
         super(delegate, notProtected);
     }
 
+    public JackrabbitSessionFacade(final @NotNull JackrabbitSession delegate, final boolean notProtected,
+                                   final @Nullable QueryHook queryHook) {
+        super(delegate, notProtected, queryHook);
+    }
+
     @Override
     public boolean hasPermission(final @NotNull String absPath, final @NotNull String... actions)
             throws RepositoryException {
@@ -17,6 +17,7 @@
 package net.adamcin.oakpal.core.jcrfacade;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.jcr.Session;
 
@@ -28,4 +29,9 @@ public final class JcrSessionFacade extends SessionFacade<Session> implements Se
     public JcrSessionFacade(final @NotNull Session delegate, final boolean notProtected) {
         super(delegate, notProtected);
     }
+
+    public JcrSessionFacade(final @NotNull Session delegate, final boolean notProtected,
+                            final @Nullable QueryHook queryHook) {
+        super(delegate, notProtected, queryHook);
+    }
 }
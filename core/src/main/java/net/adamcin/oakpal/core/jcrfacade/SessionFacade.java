@@ -50,22 +50,65 @@ public class SessionFacade<S extends Session> implements Session {
 
     protected final @NotNull S delegate;
     private final boolean notProtected;
+    private final @Nullable QueryHook queryHook;
 
     public SessionFacade(final @NotNull S delegate, final boolean notProtected) {
+        this(delegate, notProtected, null);
+    }
+
+    public SessionFacade(final @NotNull S delegate, final boolean notProtected, final @Nullable QueryHook queryHook) {
         this.delegate = delegate;
         this.notProtected = notProtected;
+        this.queryHook = queryHook;
     }
 
     public static @Nullable Session findBestWrapper(final @Nullable Session session, final boolean notProtected) {
+        return findBestWrapper(session, notProtected, null);
+    }
+
+    /**
+     * Wrap the session with the best available facade.
+     *
+     * @param session      the session to wrap
+     * @param notProtected true to allow writes through the facade
+     * @param queryHook    an optional hook to call before each query is created through the facade
+     * @return the wrapped session, or null if session is null
+     * @since 1.5.2
+     */
+    public static @Nullable Session findBestWrapper(final @Nullable Session session, final boolean notProtected,
+                                                    final @Nullable QueryHook queryHook) {
         if (session instanceof JackrabbitSession) {
-            return new JackrabbitSessionFacade((JackrabbitSession) session, notProtected);
+            return new JackrabbitSessionFacade((JackrabbitSession) session, notProtected, queryHook);
         } else if (session != null) {
-            return new JcrSessionFacade(session, notProtected);
+            return new JcrSessionFacade(session, notProtected, queryHook);
         } else {
             return null;
         }
     }
 
+    /**
+     * Callback for preparing the repository before a query is created through a session facade.
+     *
+     * @since 1.5.2
+     */
+    @FunctionalInterface
+    public interface QueryHook {
+        void beforeQuery() throws RepositoryException;
+    }
+
+    /**
+     * Call the {@link QueryHook} of this facade, if one was provided. Called by the
+     * {@link net.adamcin.oakpal.core.jcrfacade.query.QueryManagerFacade} before a query is created.
+     *
+     * @throws RepositoryException if the hook fails
+     * @since 1.5.2
+     */
+    public final void beforeQuery() throws RepositoryException {
+        if (queryHook != null) {
+            queryHook.beforeQuery();
+        }
+    }
+
     @Override
     public final Repository getRepository() {
         Repository internal = delegate.getRepository();
@@ -29,7 +29,8 @@ import javax.jcr.query.QueryManager;
 import javax.jcr.query.qom.QueryObjectModelFactory;
 
 /**
- * Wraps {@link QueryManager} to ensure returned items are wrapped with appropriate facades.
+ * Wraps {@link QueryManager} to ensure returned items are wrapped with appropriate facades. Calls
+ * {@link SessionFacade#beforeQuery()} before each query is created.
  */
 public final class QueryManagerFacade<S extends Session> implements QueryManager {
     private final @NotNull QueryManager delegate;
@@ -42,6 +43,7 @@ public final class QueryManagerFacade<S extends Session> implements QueryManager
 
     @Override
     public Query createQuery(String statement, String language) throws RepositoryException {
+        session.beforeQuery();
         Query internal = delegate.createQuery(statement, language);
         return new QueryFacade<>(internal, session);
     }
@@ -54,6 +56,7 @@ public final class QueryManagerFacade<S extends Session> implements QueryManager
 
     @Override
     public Query getQuery(Node node) throws RepositoryException {
+        session.beforeQuery();
         Query internal = delegate.getQuery(NodeFacade.unwrap(node));
         return new QueryFacade<>(internal, session);
     }
@@ -44,6 +44,7 @@ public class QueryObjectModelFactoryFacade<S extends Session> implements QueryOb
                                         final Constraint constraint,
                                         final Ordering[] orderings,
                                         final Column[] columns) throws RepositoryException {
+        session.beforeQuery();
         QueryObjectModel internal = delegate.createQuery(source, constraint, orderings, columns);
         return new QueryObjectModelFacade<>(internal, session);
     }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BaselineCacheTest {
+
+    private NodeState buildState(final NodeStore store) throws Exception {
+        final NodeBuilder root = store.getRoot().builder();
+        root.setProperty("rootProp", "rootValue");
+        final NodeBuilder foo = root.child("foo");
+        foo.setProperty("jcr:primaryType", "nt:unstructured", Type.NAME);
+        foo.setProperty("aString", "a value");
+        foo.setProperty("aLong", 42L);
+        foo.setProperty("aDouble", 4.2D);
+        foo.setProperty("aBoolean", true);
+        foo.setProperty("aDecimal", new BigDecimal("4.20"), Type.DECIMAL);
+        foo.setProperty("aDate", "2019-10-31T00:00:00.000Z", Type.DATE);
+        foo.setProperty("aPath", "/foo/bar", Type.PATH);
+        foo.setProperty("strings", Arrays.asList("one", "two"), Type.STRINGS);
+        foo.setProperty("longs", Arrays.asList(1L, 2L, 3L), Type.LONGS);
+        foo.setProperty("emptyNames", Arrays.asList(), Type.NAMES);
+        foo.setProperty(":hidden", "hidden value");
+        foo.setProperty("aBinary", store.createBlob(
+                new ByteArrayInputStream("binary content".getBytes(StandardCharsets.UTF_8))));
+        final StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            large.append('x');
+        }
+        foo.setProperty("aLargeString", large.toString());
+        foo.child("bar").child("baz").setProperty("deep", "value");
+        root.child(":index").setProperty("hiddenChild", true);
+        return store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final File cacheDir = new File("target/test-output/BaselineCacheTest/testSaveAndLoad");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final BaselineCache cache = new BaselineCache(cacheDir);
+        assertEquals("expect cacheDir", cacheDir, cache.getCacheDir());
+        assertEquals("expect default max", BaselineCache.DEFAULT_MAX_BYTES, cache.getMaxBytes());
+
+        final NodeState expected = buildState(new MemoryNodeStore());
+        final NodeStore target = new MemoryNodeStore();
+        assertFalse("expect miss", cache.load("abc123", target));
+        cache.save("abc123", expected);
+        assertTrue("expect entry file", cache.getEntryFile("abc123").isFile());
+        assertTrue("expect hit", cache.load("abc123", target));
+
+        final NodeState actual = target.getRoot();
+        assertEquals("expect equal states", expected, actual);
+        final NodeState foo = actual.getChildNode("foo");
+        assertEquals("expect decimal type", Type.DECIMAL, foo.getProperty("aDecimal").getType());
+        assertEquals("expect date type", Type.DATE, foo.getProperty("aDate").getType());
+        assertEquals("expect empty names type", Type.NAMES, foo.getProperty("emptyNames").getType());
+        assertEquals("expect large string", 70000, foo.getString("aLargeString").length());
+        final byte[] binary = new byte[14];
+        try (InputStream input = foo.getProperty("aBinary").getValue(Type.BINARY).getNewStream()) {
+            assertEquals("expect binary length", 14, input.read(binary));
+        }
+        assertArrayEquals("expect binary content", "binary content".getBytes(StandardCharsets.UTF_8), binary);
+    }
+
+    @Test
+    public void testLoad_replacesExistingContent() throws Exception {
+        final File cacheDir = new File("target/test-output/BaselineCacheTest/testLoad_replacesExistingContent");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final BaselineCache cache = new BaselineCache(cacheDir);
+        cache.save("key", buildState(new MemoryNodeStore()));
+        final NodeStore target = new MemoryNodeStore();
+        final NodeBuilder builder = target.getRoot().builder();
+        builder.setProperty("stale", "value");
+        builder.child("stale");
+        target.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        assertTrue("expect hit", cache.load("key", target));
+        assertFalse("expect no stale property", target.getRoot().hasProperty("stale"));
+        assertFalse("expect no stale child", target.getRoot().hasChildNode("stale"));
+        assertTrue("expect foo child", target.getRoot().hasChildNode("foo"));
+    }
+
+    @Test
+    public void testLoad_corrupt() throws Exception {
+        final File cacheDir = new File("target/test-output/BaselineCacheTest/testLoad_corrupt");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final BaselineCache cache = new BaselineCache(cacheDir);
+        cache.save("key", buildState(new MemoryNodeStore()));
+        final File entryFile = cache.getEntryFile("key");
+        final byte[] truncated = Arrays.copyOf(FileUtils.readFileToByteArray(entryFile), 100);
+        FileUtils.writeByteArrayToFile(entryFile, truncated);
+        final NodeStore target = new MemoryNodeStore();
+        assertFalse("expect miss for truncated entry", cache.load("key", target));
+        assertFalse("expect truncated entry is deleted", entryFile.exists());
+        assertFalse("expect no partial content", target.getRoot().hasChildNode("foo"));
+
+        FileUtils.writeStringToFile(entryFile, "not a baseline", StandardCharsets.UTF_8);
+        assertFalse("expect miss for unrecognized entry", cache.load("key", target));
+        assertFalse("expect unrecognized entry is deleted", entryFile.exists());
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        final File cacheDir = new File("target/test-output/BaselineCacheTest/testEvict");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final NodeState state = buildState(new MemoryNodeStore());
+        new BaselineCache(cacheDir).save("first", state);
+        final long entrySize = new File(cacheDir, "first" + BaselineCache.ENTRY_SUFFIX).length();
+        final BaselineCache cache = new BaselineCache(cacheDir, entrySize * 2);
+        cache.save("second", state);
+        // make sure "first" is the least recently used, regardless of file time resolution
+        assertTrue(cache.getEntryFile("first").setLastModified(System.currentTimeMillis() - 60000L));
+        assertTrue(cache.getEntryFile("second").setLastModified(System.currentTimeMillis() - 30000L));
+        cache.save("third", state);
+        assertFalse("expect first evicted", cache.getEntryFile("first").exists());
+        assertTrue("expect second retained", cache.getEntryFile("second").exists());
+        assertTrue("expect third retained", cache.getEntryFile("third").exists());
+
+        // a load marks the entry as recently used
+        assertTrue(cache.getEntryFile("third").setLastModified(System.currentTimeMillis() - 90000L));
+        assertTrue("expect hit", cache.load("third", new MemoryNodeStore()));
+        cache.save("fourth", state);
+        assertFalse("expect second evicted", cache.getEntryFile("second").exists());
+        assertTrue("expect third retained", cache.getEntryFile("third").exists());
+        assertTrue("expect fourth retained", cache.getEntryFile("fourth").exists());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        final File cacheDir = new File("target/test-output/BaselineCacheTest/testClear");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final BaselineCache cache = new BaselineCache(cacheDir);
+        cache.clear();
+        cache.save("key", buildState(new MemoryNodeStore()));
+        final File tempFile = new File(cacheDir, "orphan" + BaselineCache.TEMP_SUFFIX);
+        FileUtils.touch(tempFile);
+        final File otherFile = new File(cacheDir, "other.txt");
+        FileUtils.touch(otherFile);
+        cache.clear();
+        assertFalse("expect entry deleted", cache.getEntryFile("key").exists());
+        assertFalse("expect temp file deleted", tempFile.exists());
+        assertTrue("expect other file retained", otherFile.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetEntryFile_invalidKey() {
+        new BaselineCache(new File("target/test-output/BaselineCacheTest")).getEntryFile("../escape");
+    }
+}
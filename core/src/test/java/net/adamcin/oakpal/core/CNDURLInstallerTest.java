@@ -27,6 +27,7 @@ import java.util.Collections;
 
 import javax.jcr.nodetype.NodeTypeManager;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -82,11 +83,51 @@ public class CNDURLInstallerTest {
             assertTrue("has c:primaryType", ntManager.hasNodeType("c:primaryType"));
             assertTrue("has d:primaryType", ntManager.hasNodeType("d:primaryType"));
             assertTrue("has e:primaryType", ntManager.hasNodeType("e:primaryType"));
-            assertFalse("does not have f:primaryType", ntManager.hasNodeType("f:primaryType"));
+            assertTrue("has f:primaryType", ntManager.hasNodeType("f:primaryType"));
             assertFalse("does not have y:primaryType", ntManager.hasNodeType("y:primaryType"));
+            assertTrue("has y:mixinType", ntManager.hasNodeType("y:mixinType"));
             assertTrue("has z:primaryType", ntManager.hasNodeType("z:primaryType"));
         });
-        assertEquals("f and y should report errors: " + errorListener.getReportedViolations(), 2,
+        assertEquals("y should report an error: " + errorListener.getReportedViolations(), 1,
                 errorListener.getReportedViolations().size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRegister_withNodeTypeDefinitionCache() throws Exception {
+        final File cacheDir = new File("target/test-output/CNDURLInstallerTest/testRegister_withNodeTypeDefinitionCache");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final URL richUrl = new File("src/test/resources/NodeTypeDefinitionCacheTest/rich.cnd").toURI().toURL();
+        final URL undeclaredUrl = new File("src/test/resources/NodeTypeDefinitionCacheTest/undeclared.cnd")
+                .toURI().toURL();
+        final DefaultErrorListener errorListener = new DefaultErrorListener();
+        final CNDURLInstaller installer = new CNDURLInstaller(errorListener,
+                Arrays.asList(undeclaredUrl, cndAUrl), Collections.singletonList(richUrl),
+                new NodeTypeDefinitionCache(cacheDir));
+        NodeTypeDefinitionCache.clearMemory();
+        new OakMachine.Builder().build().adminInitAndInspect(session -> {
+            // undeclared.cnd only resolves after rich.cnd registers the rich namespace, which it never does in the
+            // unordered pass, so it is expected to fail
+            installer.register(session);
+            NodeTypeManager ntManager = session.getWorkspace().getNodeTypeManager();
+            assertTrue("has a:primaryType", ntManager.hasNodeType("a:primaryType"));
+            assertTrue("has rich:folder", ntManager.hasNodeType("rich:folder"));
+            assertTrue("rich:folder is nt:hierarchyNode",
+                    ntManager.getNodeType("rich:folder").isNodeType("nt:hierarchyNode"));
+            assertTrue("rich:tagged is mixin", ntManager.getNodeType("rich:tagged").isMixin());
+            assertFalse("does not have rich:undeclared", ntManager.hasNodeType("rich:undeclared"));
+
+            new CNDURLInstaller(errorListener, Collections.emptyList(),
+                    Collections.singletonList(undeclaredUrl), new NodeTypeDefinitionCache(cacheDir))
+                    .register(session);
+            assertTrue("has rich:undeclared after rich namespace is registered",
+                    ntManager.hasNodeType("rich:undeclared"));
+            assertTrue("rich:undeclared is nt:base", ntManager.getNodeType("rich:undeclared").isNodeType("nt:base"));
+        });
+        assertEquals("undeclared should report an error: " + errorListener.getReportedViolations(), 1,
+                errorListener.getReportedViolations().size());
+        final File[] entries = cacheDir.listFiles(file -> file.getName().endsWith(NodeTypeDefinitionCache.ENTRY_SUFFIX));
+        assertEquals("expect entries for a.cnd and rich.cnd", 2, entries != null ? entries.length : 0);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.junit.Test;
+
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static net.adamcin.oakpal.core.JavaxJson.key;
+import static net.adamcin.oakpal.core.JavaxJson.obj;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CheckProfileTest {
+
+    @Test
+    public void testToJson() {
+        final Map<ProgressCheck.Event, CheckProfile.EventProfile> events = new EnumMap<>(ProgressCheck.Event.class);
+        events.put(ProgressCheck.Event.IMPORTED_PATH, new CheckProfile.EventProfile(3L, 300L, 200L, 1024L));
+        events.put(ProgressCheck.Event.AFTER_EXTRACT, new CheckProfile.EventProfile(1L, 50L, 50L, -1L));
+        final CheckProfile profile = new CheckProfile("check", events);
+        assertEquals("expect total", 350L, profile.getTotalNanos());
+        final JsonObject expected = obj()
+                .key("checkName", "check")
+                .key("events", obj()
+                        .key("importedPath", obj(key("count", 3L), key("totalNanos", 300L),
+                                key("maxNanos", 200L), key("allocatedBytes", 1024L)))
+                        .key("afterExtract", obj(key("count", 1L), key("totalNanos", 50L),
+                                key("maxNanos", 50L), key("allocatedBytes", -1L))))
+                .get();
+        assertEquals("same json", expected, profile.toJson());
+        assertTrue("expect event in toString", profile.toString().contains("IMPORTED_PATH"));
+    }
+
+    @Test
+    public void testToJson_scanCallbacks() {
+        final Map<ProgressCheck.Event, CheckProfile.EventProfile> events = new EnumMap<>(ProgressCheck.Event.class);
+        events.put(ProgressCheck.Event.IMPORTED_PATH, new CheckProfile.EventProfile(3L, 300L, 200L, 1024L));
+        final CheckProfile.EventProfile started = new CheckProfile.EventProfile(1L, 20L, 20L, 16L);
+        final CheckProfile.EventProfile finished = new CheckProfile.EventProfile(1L, 30L, 30L, 32L);
+        final CheckProfile profile = new CheckProfile("check", started, events, finished);
+        assertSame("same started", started, profile.getStartedScan());
+        assertSame("same finished", finished, profile.getFinishedScan());
+        assertEquals("expect total", 350L, profile.getTotalNanos());
+        final JsonObject expected = obj()
+                .key("checkName", "check")
+                .key("events", obj()
+                        .key("startedScan", obj(key("count", 1L), key("totalNanos", 20L),
+                                key("maxNanos", 20L), key("allocatedBytes", 16L)))
+                        .key("importedPath", obj(key("count", 3L), key("totalNanos", 300L),
+                                key("maxNanos", 200L), key("allocatedBytes", 1024L)))
+                        .key("finishedScan", obj(key("count", 1L), key("totalNanos", 30L),
+                                key("maxNanos", 30L), key("allocatedBytes", 32L))))
+                .get();
+        assertEquals("same json", expected, profile.toJson());
+        assertEquals("same json keys in call order", Arrays.asList("startedScan", "importedPath", "finishedScan"),
+                new ArrayList<>(profile.toJson().getJsonObject("events").keySet()));
+    }
+
+    @Test
+    public void testNoEvents() {
+        final CheckProfile profile = new CheckProfile(null, Collections.emptyMap());
+        assertEquals("expect no total", 0L, profile.getTotalNanos());
+        assertNull("expect no startedScan", profile.getStartedScan());
+        assertNull("expect no finishedScan", profile.getFinishedScan());
+        assertEquals("expect empty events", obj().key("events", obj()).get(), profile.toJson());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.query.Query;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeferredIndexesTest {
+
+    private static Session login(final Session admin) throws RepositoryException {
+        return admin.getRepository().login(new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    private static List<String> queryPaths(final Session session) throws RepositoryException {
+        final List<String> paths = new ArrayList<>();
+        final NodeIterator nodes = session.getWorkspace().getQueryManager()
+                .createQuery("select * from [nt:folder] as a where isdescendantnode(a, '/foo')", Query.JCR_SQL2)
+                .execute().getNodes();
+        while (nodes.hasNext()) {
+            paths.add(nodes.nextNode().getPath());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static Node addIndex(final Session admin, final String name) throws RepositoryException {
+        final Node definition = admin.getNode("/oak:index").addNode(name, "oak:QueryIndexDefinition");
+        definition.setProperty("type", "property");
+        definition.setProperty("propertyNames", new String[]{name}, PropertyType.NAME);
+        return definition;
+    }
+
+    @Test
+    public void testIsDeferrable() throws Exception {
+        new OakMachine.Builder().build().adminInitAndInspect(admin -> {
+            assertTrue("expect nodetype", DeferredIndexes.isDeferrable(admin.getNode("/oak:index/nodetype")));
+            assertFalse("expect not uuid", DeferredIndexes.isDeferrable(admin.getNode("/oak:index/uuid")));
+            assertFalse("expect not repMembers", DeferredIndexes.isDeferrable(admin.getNode("/oak:index/repMembers")));
+            assertFalse("expect not reference", DeferredIndexes.isDeferrable(admin.getNode("/oak:index/reference")));
+            assertFalse("expect not counter", DeferredIndexes.isDeferrable(admin.getNode("/oak:index/counter")));
+            assertTrue("expect custom", DeferredIndexes.isDeferrable(addIndex(admin, "custom")));
+            final Node unique = addIndex(admin, "unique");
+            unique.setProperty("unique", true);
+            assertFalse("expect not unique", DeferredIndexes.isDeferrable(unique));
+            final Node notUnique = addIndex(admin, "notUnique");
+            notUnique.setProperty("unique", false);
+            assertTrue("expect explicitly not unique", DeferredIndexes.isDeferrable(notUnique));
+            final Node async = addIndex(admin, "async");
+            async.setProperty("async", "async");
+            assertFalse("expect not async", DeferredIndexes.isDeferrable(async));
+            assertFalse("expect not without type",
+                    DeferredIndexes.isDeferrable(admin.getNode("/oak:index").addNode("untyped", "nt:unstructured")));
+        });
+    }
+
+    @Test
+    public void testSuspendAndRebuild() throws Exception {
+        new OakMachine.Builder().build().adminInitAndInspect(admin -> {
+            final List<Session> logins = new ArrayList<>();
+            final DeferredIndexes deferred = DeferredIndexes.suspend(admin, () -> {
+                final Session session = login(admin);
+                logins.add(session);
+                return session;
+            });
+            assertEquals("expect suspended nodetype", Collections.singletonList("/oak:index/nodetype"),
+                    deferred.getSuspendedPaths());
+            assertEquals("expect disabled", "disabled",
+                    admin.getProperty("/oak:index/nodetype/type").getString());
+            assertEquals("expect uuid remains", "property", admin.getProperty("/oak:index/uuid/type").getString());
+
+            admin.getRootNode().addNode("foo", "nt:folder").addNode("bar", "nt:folder");
+            admin.save();
+            assertEquals("expect traversal result before rebuild", Collections.singletonList("/foo/bar"),
+                    queryPaths(admin));
+
+            admin.getNode("/foo").addNode("pending", "nt:folder");
+            deferred.rebuild();
+            assertTrue("expect transient changes are retained", admin.hasPendingChanges());
+            assertEquals("expect one rebuild login", 1, logins.size());
+            assertFalse("expect rebuild session logged out", logins.get(0).isLive());
+            assertEquals("expect enabled", "property", admin.getProperty("/oak:index/nodetype/type").getString());
+            assertFalse("expect reindexed", admin.getProperty("/oak:index/nodetype/reindex").getBoolean());
+            assertTrue("expect no suspended paths", deferred.getSuspendedPaths().isEmpty());
+            admin.save();
+            assertEquals("expect index result after rebuild", Arrays.asList("/foo/bar", "/foo/pending"),
+                    queryPaths(admin));
+
+            deferred.rebuild();
+            assertEquals("expect no second rebuild login", 1, logins.size());
+        });
+    }
+}
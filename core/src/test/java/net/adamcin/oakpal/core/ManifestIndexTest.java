@@ -0,0 +1,221 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ManifestIndexTest {
+
+    private final File testBaseDir = new File("target/test-output/ManifestIndexTest");
+
+    private static Manifest manifest(final String headerValue) {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Test-Header", headerValue);
+        return manifest;
+    }
+
+    private static void writeJar(final File jarFile, final String headerValue, final String... entries)
+            throws Exception {
+        try (JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(jarFile), manifest(headerValue))) {
+            for (String entry : entries) {
+                jarOut.putNextEntry(new JarEntry(entry));
+                jarOut.closeEntry();
+            }
+        }
+    }
+
+    private static void writeDir(final File dir, final String headerValue) throws Exception {
+        final File manifestFile = new File(dir, JarFile.MANIFEST_NAME);
+        manifestFile.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(manifestFile)) {
+            manifest(headerValue).write(out);
+        }
+    }
+
+    @Test
+    public void testGetHeaderValues_files() throws Exception {
+        final File dir = new File("target/test-output/ManifestIndexTest/testGetHeaderValues_files");
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        final File jarFile = new File(dir, "test.jar");
+        writeJar(jarFile, "one.json,two.json");
+        final File classesDir = new File(dir, "classes");
+        writeDir(classesDir, "three.json");
+        final File emptyDir = new File(dir, "empty");
+        emptyDir.mkdirs();
+
+        final ManifestIndex index = new ManifestIndex();
+        final Map<URL, List<String>> values = index.getHeaderValues("Test-Header",
+                Arrays.asList(jarFile, emptyDir, classesDir));
+        assertEquals("expect manifests in order, without empty dir", Arrays.asList(
+                ManifestIndex.jarUrl(jarFile, JarFile.MANIFEST_NAME),
+                new File(classesDir, JarFile.MANIFEST_NAME).toURI().toURL()),
+                Arrays.asList(values.keySet().toArray()));
+        assertEquals("expect jar values", Arrays.asList("one.json", "two.json"),
+                values.get(ManifestIndex.jarUrl(jarFile, JarFile.MANIFEST_NAME)));
+        assertEquals("expect two indexed", 2, index.size());
+
+        final List<String> jarValues = values.get(ManifestIndex.jarUrl(jarFile, JarFile.MANIFEST_NAME));
+        assertSame("expect same values from index", jarValues, index.getHeaderValues("Test-Header",
+                Collections.singletonList(jarFile)).values().iterator().next());
+
+        writeJar(jarFile, "four.json");
+        jarFile.setLastModified(jarFile.lastModified() + 2000L);
+        assertEquals("expect values read again after jar changes", Collections.singletonList("four.json"),
+                index.getHeaderValues("Test-Header", Collections.singletonList(jarFile)).values().iterator().next());
+        assertEquals("expect empty values for other header", Collections.emptyList(),
+                index.getHeaderValues("Other-Header", Collections.singletonList(jarFile)).values().iterator().next());
+
+        index.clear();
+        assertEquals("expect none indexed after clear", 0, index.size());
+    }
+
+    @Test
+    public void testGetHeaderValues_classLoader() throws Exception {
+        final File dir = new File("target/test-output/ManifestIndexTest/testGetHeaderValues_classLoader");
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        final File jarFile = new File(dir, "test.jar");
+        writeJar(jarFile, "one.json");
+        final File classesDir = new File(dir, "classes");
+        writeDir(classesDir, "two.json");
+
+        final ManifestIndex index = new ManifestIndex();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{jarFile.toURI().toURL(),
+                classesDir.toURI().toURL()}, null)) {
+            final Map<URL, List<String>> values = index.getHeaderValues("Test-Header", classLoader);
+            assertEquals("expect two manifests", 2, values.size());
+            assertEquals("expect values in classloader order", Arrays.asList(
+                    Collections.singletonList("one.json"), Collections.singletonList("two.json")),
+                    Arrays.asList(values.values().toArray()));
+            assertEquals("expect both indexed", 2, index.size());
+            assertEquals("expect same values by files", Arrays.asList(values.values().toArray()),
+                    Arrays.asList(index.getHeaderValues("Test-Header",
+                            Arrays.asList(jarFile, classesDir)).values().toArray()));
+            assertEquals("expect no more indexed", 2, index.size());
+        }
+    }
+
+    @Test
+    public void testFindResource() throws Exception {
+        final File dir = new File("target/test-output/ManifestIndexTest/testFindResource");
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        final File jarFile = new File(dir, "test.jar");
+        writeJar(jarFile, "", "a.cnd");
+        final File classesDir = new File(dir, "classes");
+        new File(classesDir, "b.cnd").getParentFile().mkdirs();
+        FileUtils.touch(new File(classesDir, "b.cnd"));
+
+        final ManifestIndex index = new ManifestIndex();
+        assertEquals("expect jar resource", ManifestIndex.jarUrl(jarFile, "a.cnd"),
+                index.findResource(jarFile, "a.cnd").orElse(null));
+        assertFalse("expect no jar resource", index.findResource(jarFile, "b.cnd").isPresent());
+        assertEquals("expect dir resource", new File(classesDir, "b.cnd").toURI().toURL(),
+                index.findResource(classesDir, "b.cnd").orElse(null));
+        assertFalse("expect no dir resource", index.findResource(classesDir, "a.cnd").isPresent());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final File dir = new File("target/test-output/ManifestIndexTest/testSaveAndLoad");
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        final File jarFile = new File(dir, "test.jar");
+        writeJar(jarFile, "one.json", "a.cnd");
+        final File changedJarFile = new File(dir, "changed.jar");
+        writeJar(changedJarFile, "two.json");
+        final File indexFile = new File(dir, "index/manifest-index.json");
+
+        final ManifestIndex index = new ManifestIndex();
+        index.load(indexFile);
+        assertEquals("expect nothing loaded from missing file", 0, index.size());
+        index.getHeaderValues("Test-Header", Arrays.asList(jarFile, changedJarFile));
+        assertTrue("expect jar resource", index.findResource(jarFile, "a.cnd").isPresent());
+        index.save(indexFile);
+        assertTrue("expect index file", indexFile.isFile());
+        final long savedModified = indexFile.lastModified();
+        indexFile.setLastModified(savedModified - 60000L);
+        index.save(indexFile);
+        assertEquals("expect unchanged index not saved again", savedModified - 60000L, indexFile.lastModified());
+
+        writeJar(changedJarFile, "three.json");
+        changedJarFile.setLastModified(changedJarFile.lastModified() + 2000L);
+        final ManifestIndex loaded = new ManifestIndex();
+        loaded.load(indexFile);
+        assertEquals("expect only unchanged jar loaded", 1, loaded.size());
+        assertEquals("expect header values from loaded manifest", Collections.singletonList("one.json"),
+                loaded.getHeaderValues("Test-Header", Collections.singletonList(jarFile)).values().iterator().next());
+        assertEquals("expect no more indexed for unchanged jar", 1, loaded.size());
+        assertTrue("expect loaded jar resource", loaded.findResource(jarFile, "a.cnd").isPresent());
+        assertFalse("expect no loaded jar resource", loaded.findResource(jarFile, "b.cnd").isPresent());
+        assertEquals("expect changed jar read again", Collections.singletonList("three.json"),
+                loaded.getHeaderValues("Test-Header", Collections.singletonList(changedJarFile))
+                        .values().iterator().next());
+
+        FileUtils.write(indexFile, "{not json", StandardCharsets.UTF_8);
+        final ManifestIndex corrupt = new ManifestIndex();
+        corrupt.load(indexFile);
+        assertEquals("expect nothing loaded from corrupt file", 0, corrupt.size());
+        assertFalse("expect corrupt file deleted", indexFile.exists());
+    }
+
+    @Test
+    public void testToLocalFile() throws Exception {
+        final File jarFile = new File(testBaseDir, "local.jar").getAbsoluteFile();
+        assertEquals("expect jar file", jarFile,
+                ManifestIndex.toLocalFile(ManifestIndex.jarUrl(jarFile, JarFile.MANIFEST_NAME)));
+        final File manifestFile = new File(testBaseDir, JarFile.MANIFEST_NAME).getAbsoluteFile();
+        assertEquals("expect manifest file", manifestFile, ManifestIndex.toLocalFile(manifestFile.toURI().toURL()));
+        assertNull("expect no nested jar file", ManifestIndex.toLocalFile(
+                new URL(ManifestIndex.jarUrl(jarFile, "lib/nested.jar").toExternalForm()
+                        + "!/" + JarFile.MANIFEST_NAME)));
+        assertNull("expect no remote file",
+                ManifestIndex.toLocalFile(new URL("http://localhost/" + JarFile.MANIFEST_NAME)));
+    }
+}
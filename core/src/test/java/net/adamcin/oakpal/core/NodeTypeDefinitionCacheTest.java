@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.QNodeTypeDefinition;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
+import org.apache.jackrabbit.vault.packaging.JcrPackageManager;
+import org.junit.Test;
+
+import javax.json.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static net.adamcin.oakpal.core.JavaxJson.arr;
+import static net.adamcin.oakpal.core.JavaxJson.key;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NodeTypeDefinitionCacheTest {
+
+    private static URL cndUrl(final String name) throws Exception {
+        return new File("src/test/resources/NodeTypeDefinitionCacheTest/" + name).toURI().toURL();
+    }
+
+    private static List<QNodeTypeDefinition> parse(final URL cndUrl) throws Exception {
+        return NodeTypeDefinitionCache.parseCnd(
+                NodeTypeDefinitionCache.readFully(cndUrl.openStream()), cndUrl.toExternalForm(),
+                new NamespaceMapping(JsonCnd.BUILTIN_MAPPINGS)).getNodeTypes();
+    }
+
+    private static Map<Name, QNodeTypeDefinition> byName(final List<QNodeTypeDefinition> nodeTypes) {
+        return nodeTypes.stream().collect(Collectors.toMap(QNodeTypeDefinition::getName, Function.identity()));
+    }
+
+    @Test
+    public void testReadCnd_memory() throws Exception {
+        NodeTypeDefinitionCache.clearMemory();
+        final NodeTypeDefinitionCache cache = NodeTypeDefinitionCache.getDefault();
+        assertNull("expect no cache dir", cache.getCacheDir());
+        final URL richCnd = cndUrl("rich.cnd");
+        final NodeTypeDefinitionCache.Definitions definitions = cache.readCnd(richCnd, null);
+        assertEquals("expect declared namespace", "http://rich.com/1.0",
+                definitions.getNamespaces().get("rich"));
+        assertEquals("expect parsed types", parse(richCnd), definitions.getNodeTypes());
+        assertSame("expect same definitions from memory", definitions, cache.readCnd(richCnd, null));
+        assertSame("expect memory shared by instances", definitions,
+                new NodeTypeDefinitionCache(null).readCnd(richCnd, null));
+        NodeTypeDefinitionCache.clearMemory();
+        assertNotSame("expect new definitions after clear", definitions, cache.readCnd(richCnd, null));
+    }
+
+    @Test
+    public void testReadCnd_disk() throws Exception {
+        final File cacheDir = new File("target/test-output/NodeTypeDefinitionCacheTest/testReadCnd_disk");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final NodeTypeDefinitionCache cache = new NodeTypeDefinitionCache(cacheDir);
+        for (URL cndUrl : new URL[]{cndUrl("rich.cnd"), JcrPackageManager.class.getResource("impl/nodetypes.cnd")}) {
+            NodeTypeDefinitionCache.clearMemory();
+            final NodeTypeDefinitionCache.Definitions parsed = cache.readCnd(cndUrl, null);
+            NodeTypeDefinitionCache.clearMemory();
+            final NodeTypeDefinitionCache.Definitions loaded = cache.readCnd(cndUrl, null);
+            assertNotSame("expect definitions loaded from disk", parsed, loaded);
+            assertEquals("expect same namespaces from disk", parsed.getNamespaces(), loaded.getNamespaces());
+            assertEquals("expect same types from disk for " + cndUrl, byName(parsed.getNodeTypes()),
+                    byName(loaded.getNodeTypes()));
+        }
+        final File[] entries = cacheDir.listFiles(file ->
+                file.getName().endsWith(NodeTypeDefinitionCache.ENTRY_SUFFIX));
+        assertEquals("expect two entries", 2, entries != null ? entries.length : 0);
+        cache.clear();
+        assertEquals("expect no files after clear", 0, cacheDir.listFiles().length);
+    }
+
+    @Test
+    public void testReadCnd_corrupt() throws Exception {
+        final File cacheDir = new File("target/test-output/NodeTypeDefinitionCacheTest/testReadCnd_corrupt");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final NodeTypeDefinitionCache cache = new NodeTypeDefinitionCache(cacheDir);
+        final URL richCnd = cndUrl("rich.cnd");
+        NodeTypeDefinitionCache.clearMemory();
+        cache.readCnd(richCnd, null);
+        final File[] entries = cacheDir.listFiles(file ->
+                file.getName().endsWith(NodeTypeDefinitionCache.ENTRY_SUFFIX));
+        assertTrue("expect entry", entries != null && entries.length == 1);
+        FileUtils.write(entries[0], "{not json", StandardCharsets.UTF_8);
+        NodeTypeDefinitionCache.clearMemory();
+        assertEquals("expect types parsed again", parse(richCnd), cache.readCnd(richCnd, null).getNodeTypes());
+        assertTrue("expect entry rewritten", FileUtils.readFileToString(entries[0], StandardCharsets.UTF_8)
+                .startsWith("{\""));
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        final File cacheDir = new File("target/test-output/NodeTypeDefinitionCacheTest/testEvict");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final NodeTypeDefinitionCache cache = new NodeTypeDefinitionCache(cacheDir);
+        assertEquals("expect default max", NodeTypeDefinitionCache.DEFAULT_MAX_BYTES, cache.getMaxBytes());
+        NodeTypeDefinitionCache.clearMemory();
+        cache.readCnd(JcrPackageManager.class.getResource("impl/nodetypes.cnd"), null);
+        final File[] firstEntries = cacheDir.listFiles(file ->
+                file.getName().endsWith(NodeTypeDefinitionCache.ENTRY_SUFFIX));
+        assertTrue("expect first entry", firstEntries != null && firstEntries.length == 1);
+        final File firstEntry = firstEntries[0];
+        firstEntry.setLastModified(System.currentTimeMillis() - 60000L);
+
+        final NodeTypeDefinitionCache boundedCache = new NodeTypeDefinitionCache(cacheDir, firstEntry.length());
+        boundedCache.readCnd(cndUrl("rich.cnd"), null);
+        assertFalse("expect least-recently-used entry evicted", firstEntry.exists());
+        final File[] remaining = cacheDir.listFiles(file ->
+                file.getName().endsWith(NodeTypeDefinitionCache.ENTRY_SUFFIX));
+        assertEquals("expect newest entry retained", 1, remaining != null ? remaining.length : 0);
+    }
+
+    @Test
+    public void testReadCnd_fallbackResolver() throws Exception {
+        NodeTypeDefinitionCache.clearMemory();
+        final NodeTypeDefinitionCache cache = NodeTypeDefinitionCache.getDefault();
+        final URL undeclaredCnd = cndUrl("undeclared.cnd");
+        try {
+            cache.readCnd(undeclaredCnd, null);
+            fail("expect IOException for undeclared prefix");
+        } catch (final IOException e) {
+            // expected
+        }
+        final NamespaceMapping fallback = new NamespaceMapping();
+        fallback.setMapping("rich", "http://rich.com/1.0");
+        final NodeTypeDefinitionCache.Definitions definitions = cache.readCnd(undeclaredCnd, fallback);
+        assertEquals("expect one type", 1, definitions.getNodeTypes().size());
+        assertEquals("expect resolved name", "{http://rich.com/1.0}undeclared",
+                definitions.getNodeTypes().get(0).getName().toString());
+        assertFalse("expect no declared rich namespace", definitions.getNamespaces().containsKey("rich"));
+        assertNotSame("expect fallback results are not cached", definitions,
+                cache.readCnd(undeclaredCnd, fallback));
+    }
+
+    @Test
+    public void testGetQTypesFromJson() {
+        NodeTypeDefinitionCache.clearMemory();
+        final List<JcrNs> jcrNsList = Collections.singletonList(JcrNs.create("foo", "http://foo.com/1.0"));
+        final JsonObject json = key("foo:primaryType", key("extends", arr("nt:base"))).get();
+        final List<QNodeTypeDefinition> types = NodeTypeDefinitionCache.getDefault()
+                .getQTypesFromJson(json, jcrNsList);
+        assertEquals("expect same types as JsonCnd",
+                JsonCnd.getQTypesFromJson(json, JsonCnd.toNamespaceMapping(jcrNsList)), types);
+        assertSame("expect same types from memory", types,
+                NodeTypeDefinitionCache.getDefault().getQTypesFromJson(json, jcrNsList));
+        assertNotSame("expect different types for different namespaces", types,
+                NodeTypeDefinitionCache.getDefault().getQTypesFromJson(json,
+                        Collections.singletonList(JcrNs.create("foo", "http://foo.com/2.0"))));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.spi.QNodeTypeDefinition;
+import org.junit.Test;
+
+import javax.jcr.nodetype.InvalidNodeTypeDefinitionException;
+import javax.jcr.nodetype.NoSuchNodeTypeException;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.json.JsonObject;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static net.adamcin.oakpal.core.JavaxJson.arr;
+import static net.adamcin.oakpal.core.JavaxJson.key;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NodeTypeRegistrarTest {
+
+    private static final List<JcrNs> T_NS = Collections.singletonList(JcrNs.create("t", "http://t.com/1.0"));
+
+    private static URL cndUrl(final String name) throws Exception {
+        return new File("src/test/resources/NodeTypeRegistrarTest/" + name).toURI().toURL();
+    }
+
+    private static List<QNodeTypeDefinition> jsonTypes(final JsonObject json) {
+        return JsonCnd.getQTypesFromJson(json, JsonCnd.toNamespaceMapping(T_NS));
+    }
+
+    private static final class CapturingErrorListener extends DefaultErrorListener {
+        private final List<Throwable> errors = new ArrayList<>();
+        private final List<URL> resources = new ArrayList<>();
+
+        @Override
+        public void onNodeTypeRegistrationError(final Throwable e, final URL resource) {
+            errors.add(e);
+            resources.add(resource);
+            super.onNodeTypeRegistrationError(e, resource);
+        }
+
+        List<String> messages() {
+            return errors.stream().map(Throwable::getMessage).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testRegister_cycle() throws Exception {
+        final CapturingErrorListener errorListener = new CapturingErrorListener();
+        final URL cycleCnd = cndUrl("cycle.cnd");
+        new OakMachine.Builder().build().adminInitAndInspect(session -> {
+            final NodeTypeRegistrar registrar = new NodeTypeRegistrar(errorListener, null);
+            registrar.addCnds(session, Collections.singletonList(cycleCnd));
+            registrar.register(session);
+            final NodeTypeManager ntManager = session.getWorkspace().getNodeTypeManager();
+            assertTrue("has t:acyclic", ntManager.hasNodeType("t:acyclic"));
+            assertFalse("does not have t:cycleA", ntManager.hasNodeType("t:cycleA"));
+            assertFalse("does not have t:cycleB", ntManager.hasNodeType("t:cycleB"));
+            assertFalse("does not have t:cycleSub", ntManager.hasNodeType("t:cycleSub"));
+        });
+        assertEquals("expect errors for cycle members and subtype", Arrays.asList(
+                "node type t:cycleA is in a supertype cycle: t:cycleA > t:cycleB > t:cycleA",
+                "node type t:cycleB is in a supertype cycle: t:cycleA > t:cycleB > t:cycleA",
+                "node type t:cycleSub depends on supertype t:cycleA, which can't be registered"),
+                errorListener.messages());
+        assertTrue("expect invalid definition for cycle",
+                errorListener.errors.get(0) instanceof InvalidNodeTypeDefinitionException);
+        assertTrue("expect no such node type for subtype",
+                errorListener.errors.get(2) instanceof NoSuchNodeTypeException);
+        assertEquals("expect cnd url for all errors", Collections.nCopies(3, cycleCnd), errorListener.resources);
+    }
+
+    @Test
+    public void testRegister_missing() throws Exception {
+        final CapturingErrorListener errorListener = new CapturingErrorListener();
+        new OakMachine.Builder().build().adminInitAndInspect(session -> {
+            final NodeTypeRegistrar registrar = new NodeTypeRegistrar(errorListener, null);
+            registrar.addCnds(session, Collections.singletonList(cndUrl("missing.cnd")));
+            registrar.register(session);
+            final NodeTypeManager ntManager = session.getWorkspace().getNodeTypeManager();
+            assertTrue("has t:recursive", ntManager.hasNodeType("t:recursive"));
+            assertFalse("does not have t:missingSuper", ntManager.hasNodeType("t:missingSuper"));
+            assertFalse("does not have t:missingChild", ntManager.hasNodeType("t:missingChild"));
+            assertFalse("does not have t:dependent", ntManager.hasNodeType("t:dependent"));
+        });
+        assertEquals("expect precise errors", Arrays.asList(
+                "node type t:missingSuper depends on missing supertype x:missing",
+                "node type t:missingChild depends on missing child node type x:missingChild",
+                "node type t:dependent depends on supertype t:missingSuper, which can't be registered"),
+                errorListener.messages());
+    }
+
+    @Test
+    public void testRegister_anyOrder() throws Exception {
+        final CapturingErrorListener errorListener = new CapturingErrorListener();
+        new OakMachine.Builder().build().adminInitAndInspect(session -> {
+            final NodeTypeRegistrar registrar = new NodeTypeRegistrar(errorListener, null);
+            registrar.addCnds(session, Arrays.asList(cndUrl("sub.cnd"), cndUrl("super.cnd")));
+            registrar.addQNodeTypes(jsonTypes(key("t:overridden", key("@", arr("mixin")))
+                    .key("t:fromJson", key("extends", arr("t:sub"))).get()));
+            registrar.register(session);
+            final NodeTypeManager ntManager = session.getWorkspace().getNodeTypeManager();
+            assertTrue("t:sub is t:super", ntManager.getNodeType("t:sub").isNodeType("t:super"));
+            assertTrue("t:fromJson is t:sub", ntManager.getNodeType("t:fromJson").isNodeType("t:sub"));
+            assertTrue("json overrides cnd", ntManager.getNodeType("t:overridden").isMixin());
+
+            final NodeTypeRegistrar again = new NodeTypeRegistrar(errorListener, null);
+            again.addCnds(session, Collections.singletonList(cndUrl("super.cnd")));
+            again.register(session);
+            assertTrue("existing types are not replaced by cnd", ntManager.getNodeType("t:overridden").isMixin());
+        });
+        assertTrue("expect no errors: " + errorListener.messages(), errorListener.errors.isEmpty());
+    }
+
+    @Test
+    public void testRegister_acrossInitStages() throws Exception {
+        final CapturingErrorListener errorListener = new CapturingErrorListener();
+        final InitStage first = new InitStage.Builder()
+                .withNs("t", "http://t.com/1.0")
+                .withQNodeTypes(jsonTypes(key("t:fromJson", key("extends", arr("t:sub"))).get()))
+                .withForcedRoot("/fromJson", "t:fromJson")
+                .build();
+        final InitStage second = new InitStage.Builder()
+                .withUnorderedCndUrl(cndUrl("super.cnd"), cndUrl("sub.cnd"))
+                .build();
+        new OakMachine.Builder().withErrorListener(errorListener).withInitStage(first, second).build()
+                .adminInitAndInspect(session -> {
+                    final NodeTypeManager ntManager = session.getWorkspace().getNodeTypeManager();
+                    assertTrue("t:fromJson is t:super", ntManager.getNodeType("t:fromJson").isNodeType("t:super"));
+                    assertEquals("expect forced root of first stage type", "t:fromJson",
+                            session.getNode("/fromJson").getPrimaryNodeType().getName());
+                });
+        assertTrue("expect no errors: " + errorListener.messages(), errorListener.errors.isEmpty());
+    }
+}
@@ -17,13 +17,20 @@
 package net.adamcin.oakpal.core;
 
 import junitx.util.PrivateAccessor;
+import net.adamcin.oakpal.core.checks.JcrProperties;
+import net.adamcin.oakpal.testing.SyntheticPackage;
 import net.adamcin.oakpal.testing.TestPackageUtil;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
 import org.apache.jackrabbit.oak.security.SecurityProviderImpl;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
 import org.apache.jackrabbit.oak.spi.security.ConfigurationParameters;
 import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
 import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.apache.jackrabbit.oak.spi.state.ProxyNodeStore;
@@ -37,6 +44,7 @@ import org.apache.jackrabbit.vault.packaging.PackageException;
 import org.apache.jackrabbit.vault.packaging.PackageId;
 import org.apache.jackrabbit.vault.packaging.PackageProperties;
 import org.apache.jackrabbit.vault.packaging.Packaging;
+import org.apache.jackrabbit.vault.packaging.VaultPackage;
 import org.apache.jackrabbit.vault.packaging.impl.PackagingImpl;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Before;
@@ -47,10 +55,14 @@ import org.mockito.junit.MockitoJUnitRunner;
 import javax.jcr.Binary;
 import javax.jcr.NamespaceRegistry;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.query.Query;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
@@ -59,12 +71,17 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Calendar;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -73,11 +90,16 @@ import static net.adamcin.oakpal.core.Fun.compose;
 import static net.adamcin.oakpal.core.Fun.toEntry;
 import static net.adamcin.oakpal.core.Fun.uncheck1;
 import static net.adamcin.oakpal.core.Fun.uncheckVoid1;
+import static net.adamcin.oakpal.core.JavaxJson.arr;
+import static net.adamcin.oakpal.core.JavaxJson.key;
+import static net.adamcin.oakpal.core.JavaxJson.obj;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.anyBoolean;
@@ -86,7 +108,9 @@ import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockitoSession;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.nullable;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.withSettings;
 
@@ -444,6 +468,372 @@ public class OakMachineTest {
         assertTrue("uri is same", fooUrlLatch.getNow(false));
     }
 
+    @Test
+    public void testReusePostInitState() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final InitStage stage = new InitStage.Builder().withNs("foo", "http://foo.com").build();
+        final List<Boolean> existedBeforeExtract = new ArrayList<>();
+        final List<String> fooUris = new ArrayList<>();
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                                      final PackageProperties packageProperties, final MetaInf metaInf,
+                                      final List<PackageId> subpackages) throws RepositoryException {
+                existedBeforeExtract.add(inspectSession.nodeExists("/tmp/foo/bar"));
+                fooUris.add(inspectSession.getNamespaceURI("foo"));
+            }
+        };
+        final List<NodeStore> suppliedStores = new ArrayList<>();
+        try (OakMachine machine = builder()
+                .withReusePostInitState(true)
+                .withNodeStoreSupplier(() -> {
+                    final NodeStore store = new MemoryNodeStore();
+                    suppliedStores.add(store);
+                    return store;
+                })
+                .withInitStage(stage)
+                .withProgressCheck(check)
+                .build()) {
+            assertTrue("expect reuse", machine.isReusePostInitState());
+            machine.scanPackage(testPackage);
+            machine.scanPackage(testPackage);
+            machine.initAndInspect(session ->
+                    assertFalse("/tmp/foo/bar should not exist after restore", session.nodeExists("/tmp/foo/bar")));
+        }
+        assertEquals("expect one supplied store", 1, suppliedStores.size());
+        assertEquals("expect package was not installed before each extract", Arrays.asList(false, false),
+                existedBeforeExtract);
+        assertEquals("expect init stage namespace for each scan", Arrays.asList("http://foo.com", "http://foo.com"),
+                fooUris);
+    }
+
+    @Test
+    public void testReusePostInitState_withPreInstallUrl() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final List<Boolean> existedBeforeExtract = new ArrayList<>();
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                                      final PackageProperties packageProperties, final MetaInf metaInf,
+                                      final List<PackageId> subpackages) throws RepositoryException {
+                existedBeforeExtract.add(inspectSession.nodeExists("/tmp/foo/bar"));
+            }
+        };
+        final OakMachine machine = builder()
+                .withReusePostInitState(true)
+                .withPreInstallUrl(testPackage.toURI().toURL())
+                .withProgressCheck(check)
+                .build();
+        machine.scanPackage(testPackage);
+        machine.close();
+        // the machine can be reused after close
+        machine.scanPackage(testPackage);
+        machine.close();
+        assertEquals("expect pre-installed content before each extract", Arrays.asList(true, true),
+                existedBeforeExtract);
+    }
+
+    @Test
+    public void testReusePostInitState_busy() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final List<NodeStore> suppliedStores = new ArrayList<>();
+        try (OakMachine machine = builder()
+                .withReusePostInitState(true)
+                .withNodeStoreSupplier(() -> {
+                    final NodeStore store = new MemoryNodeStore();
+                    suppliedStores.add(store);
+                    return store;
+                })
+                .build()) {
+            machine.adminInitAndInspect(admin -> {
+                admin.getRootNode().addNode("held", "nt:unstructured");
+                admin.save();
+                // the retained repository is held, so this scan must not restore it
+                machine.scanPackage(testPackage);
+                admin.refresh(false);
+                assertTrue("/held should survive the concurrent scan", admin.nodeExists("/held"));
+                assertFalse("/tmp/foo/bar should not be installed in the held repository",
+                        admin.nodeExists("/tmp/foo/bar"));
+            });
+            machine.initAndInspect(session ->
+                    assertFalse("/held should not exist after restore", session.nodeExists("/held")));
+        }
+        assertEquals("expect a second store for the busy fallback", 2, suppliedStores.size());
+    }
+
+    @Test(expected = AbortedScanException.class)
+    public void testReusePostInitState_throws() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("unfiltered_package.zip");
+        try (OakMachine machine = builder().withReusePostInitState(true)
+                .withPreInstallUrl(testPackage.toURI().toURL()).build()) {
+            machine.scanPackage();
+        }
+    }
+
+    @Test
+    public void testBaselineCache() throws Exception {
+        final File cacheDir = new File("target/test-output/OakMachineTest/testBaselineCache");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final File preInstall = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final InitStage stage = new InitStage.Builder().withNs("foo", "http://foo.com").build();
+        final List<Boolean> markerExisted = new ArrayList<>();
+        final List<Boolean> preInstallExisted = new ArrayList<>();
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                                      final PackageProperties packageProperties, final MetaInf metaInf,
+                                      final List<PackageId> subpackages) throws RepositoryException {
+                markerExisted.add(inspectSession.nodeExists("/marker"));
+                preInstallExisted.add(inspectSession.nodeExists("/tmp/foo/bar"));
+                assertEquals("expect namespace", "http://foo.com", inspectSession.getNamespaceURI("foo"));
+            }
+        };
+        final BaselineCache cache = new BaselineCache(cacheDir);
+        final OakMachine machine = builder().withBaselineCache(cache)
+                .withInitStage(stage)
+                .withPreInstallUrl(preInstall.toURI().toURL())
+                .withProgressCheck(check)
+                .build();
+        assertSame("expect cache", cache, machine.getBaselineCache());
+        final String baselineKey = machine.getBaselineKey();
+        assertEquals("expect same key", baselineKey, machine.getBaselineKey());
+        assertFalse("expect no entry before scan", cache.getEntryFile(baselineKey).exists());
+        machine.scanPackage(testPackage);
+        assertTrue("expect entry after scan", cache.getEntryFile(baselineKey).exists());
+
+        // plant a marker in the cached baseline to prove that the next machine loads it
+        final NodeStore store = new MemoryNodeStore();
+        assertTrue("expect hit", cache.load(baselineKey, store));
+        final NodeBuilder root = store.getRoot().builder();
+        root.child("marker").setProperty("jcr:primaryType", "nt:unstructured", Type.NAME);
+        cache.save(baselineKey, store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY));
+
+        final OakMachine nextMachine = builder().withBaselineCache(new BaselineCache(cacheDir))
+                .withInitStage(new InitStage.Builder().withNs("foo", "http://foo.com").build())
+                .withPreInstallUrl(preInstall.toURI().toURL())
+                .withProgressCheck(check)
+                .build();
+        assertEquals("expect same key for same init", baselineKey, nextMachine.getBaselineKey());
+        nextMachine.scanPackage(testPackage);
+        try (OakMachine reuseMachine = builder().withBaselineCache(new BaselineCache(cacheDir))
+                .withReusePostInitState(true)
+                .withInitStage(new InitStage.Builder().withNs("foo", "http://foo.com").build())
+                .withPreInstallUrl(preInstall.toURI().toURL())
+                .withProgressCheck(check)
+                .build()) {
+            reuseMachine.scanPackage(testPackage);
+            reuseMachine.scanPackage(testPackage);
+        }
+        assertEquals("expect marker loaded after first scan", Arrays.asList(false, true, true, true), markerExisted);
+        assertEquals("expect pre-installed content for each scan", Arrays.asList(true, true, true, true),
+                preInstallExisted);
+    }
+
+    @Test
+    public void testBaselineCache_notSavedWithErrors() throws Exception {
+        final File cacheDir = new File("target/test-output/OakMachineTest/testBaselineCache_notSavedWithErrors");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final BaselineCache cache = new BaselineCache(cacheDir);
+        final OakMachine machine = builder().withBaselineCache(cache)
+                .withInitStage(new InitStage.Builder().withForcedRoot("/foo", "nt:nonexistent").build())
+                .build();
+        machine.scanPackage();
+        assertFalse("expect violation", machine.getErrorListener().getReportedViolations().isEmpty());
+        assertFalse("expect no entry", cache.getEntryFile(machine.getBaselineKey()).exists());
+    }
+
+    @Test
+    public void testBaselineCache_notUsedWithJcrCustomizer() throws Exception {
+        final File cacheDir = new File("target/test-output/OakMachineTest/testBaselineCache_notUsedWithJcrCustomizer");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final BaselineCache cache = new BaselineCache(cacheDir);
+        final OakMachine machine = builder().withBaselineCache(cache)
+                .withJcrCustomizer(jcr -> { /* do nothing */ })
+                .build();
+        machine.scanPackage();
+        assertFalse("expect no entry", cache.getEntryFile(machine.getBaselineKey()).exists());
+    }
+
+    @Test
+    public void testGetBaselineKey() throws Exception {
+        final File preInstall = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final File otherPreInstall = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final List<String> keys = Stream.of(
+                builder(),
+                builder().withInitStage(new InitStage.Builder().withNs("foo", "http://foo.com").build()),
+                builder().withInitStage(new InitStage.Builder().withNs("foo", "http://bar.com").build()),
+                builder().withInitStage(new InitStage.Builder().withPrivilege("foo:canBar").build()),
+                builder().withInitStage(new InitStage.Builder().withForcedRoot("/foo", "nt:folder").build()),
+                builder().withInitStage(new InitStage.Builder()
+                        .withOrderedCndUrl(getClass().getResource("/OpearFileTest/embedded_module_src/a.cnd")).build()),
+                builder().withInitStage(new InitStage.Builder()
+                        .withOrderedCndUrl(getClass().getResource("/OpearFileTest/embedded_module_src/b.cnd")).build()),
+                builder().withPreInstallUrl(preInstall.toURI().toURL()),
+                builder().withPreInstallUrl(otherPreInstall.toURI().toURL()),
+                builder().withPreInstallUrl(preInstall.toURI().toURL()).withEnablePreInstallHooks(true))
+                .map(OakMachine.Builder::build)
+                .map(uncheck1(OakMachine::getBaselineKey))
+                .collect(Collectors.toList());
+        assertEquals("expect distinct keys: " + keys, keys.size(), new HashSet<>(keys).size());
+    }
+
+    static class GroupCheck extends SimpleProgressCheck {
+        @Override
+        public String getCheckName() {
+            return "groupCheck";
+        }
+
+        @Override
+        public void identifyPackage(final PackageId packageId, final File file) {
+            minorViolation(file.getName(), packageId);
+        }
+
+        @Override
+        public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                                  final PackageProperties packageProperties, final MetaInf metaInf,
+                                  final List<PackageId> subpackages) throws RepositoryException {
+            if (!inspectSession.nodeExists("/tmp/foo/bar")) {
+                majorViolation("expected pre-installed /tmp/foo/bar", packageId);
+            }
+            if (!"http://foo.com".equals(inspectSession.getNamespaceURI("foo"))) {
+                majorViolation("expected foo namespace", packageId);
+            }
+        }
+    }
+
+    @Test
+    public void testScanPackageGroups() throws Exception {
+        final File preInstall = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final File tmpFoo = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final File package1 = TestPackageUtil.prepareTestPackage("package_1.0.zip");
+        final List<NodeStore> suppliedStores = Collections.synchronizedList(new ArrayList<>());
+        final List<ProgressCheck> suppliedChecks = Collections.synchronizedList(new ArrayList<>());
+        final OakMachine machine = builder()
+                .withInitStage(new InitStage.Builder().withNs("foo", "http://foo.com").build())
+                .withPreInstallUrl(preInstall.toURI().toURL())
+                .withNodeStoreSupplier(() -> {
+                    final NodeStore store = new MemoryNodeStore();
+                    suppliedStores.add(store);
+                    return store;
+                })
+                .withProgressCheckSupplier(() -> {
+                    final ProgressCheck check = new GroupCheck();
+                    suppliedChecks.add(check);
+                    return Collections.singletonList(check);
+                })
+                .build();
+        final List<List<File>> groups = Arrays.asList(
+                Collections.singletonList(tmpFoo),
+                Collections.singletonList(package1),
+                Arrays.asList(tmpFoo, package1));
+        final List<PackageGroupReports> groupReports = machine.scanPackageGroups(groups, 3);
+        assertEquals("expect one supplied store", 1, suppliedStores.size());
+        assertEquals("expect checks for each group", 3, suppliedChecks.size());
+        assertEquals("expect reports for each group", 3, groupReports.size());
+        for (int i = 0; i < groups.size(); i++) {
+            final PackageGroupReports group = groupReports.get(i);
+            assertEquals("expect group index", i, group.getGroupIndex());
+            assertEquals("expect group files", groups.get(i), group.getPackageFiles());
+            final CheckReport report = group.getReports().stream()
+                    .filter(r -> "groupCheck".equals(r.getCheckName())).findFirst().orElse(null);
+            assertNotNull("expect groupCheck report", report);
+            assertEquals("expect one violation per package in group",
+                    groups.get(i).stream().map(File::getName).collect(Collectors.toList()),
+                    report.getViolations().stream().map(Violation::getDescription).collect(Collectors.toList()));
+        }
+        final List<CheckReport> merged = PackageGroupReports.mergeReports(groupReports);
+        assertEquals("expect merged violations for all groups",
+                Arrays.asList(tmpFoo.getName(), package1.getName(), tmpFoo.getName(), package1.getName()),
+                merged.stream().filter(r -> "groupCheck".equals(r.getCheckName()))
+                        .flatMap(r -> r.getViolations().stream())
+                        .map(Violation::getDescription).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testScanPackageGroups_sharedChecks() throws Exception {
+        final File preInstall = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final File tmpFoo = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final File package1 = TestPackageUtil.prepareTestPackage("package_1.0.zip");
+        try (OakMachine machine = builder()
+                .withReusePostInitState(true)
+                .withInitStage(new InitStage.Builder().withNs("foo", "http://foo.com").build())
+                .withPreInstallUrl(preInstall.toURI().toURL())
+                .withProgressCheck(new GroupCheck())
+                .build()) {
+            final List<PackageGroupReports> groupReports = machine.scanPackageGroups(
+                    Arrays.asList(Collections.singletonList(tmpFoo), Collections.singletonList(package1)), 4);
+            assertEquals("expect shared check reports for first group",
+                    Collections.singletonList(tmpFoo.getName()),
+                    groupReports.get(0).getReports().stream().filter(r -> "groupCheck".equals(r.getCheckName()))
+                            .flatMap(r -> r.getViolations().stream())
+                            .map(Violation::getDescription).collect(Collectors.toList()));
+            assertEquals("expect shared check reports for second group",
+                    Collections.singletonList(package1.getName()),
+                    groupReports.get(1).getReports().stream().filter(r -> "groupCheck".equals(r.getCheckName()))
+                            .flatMap(r -> r.getViolations().stream())
+                            .map(Violation::getDescription).collect(Collectors.toList()));
+            // the retained post-init repository is still usable after the groups are scanned
+            machine.scanPackage(tmpFoo);
+        }
+    }
+
+    @Test(expected = AbortedScanException.class)
+    public void testScanPackageGroups_aborted() throws Exception {
+        final File tmpFoo = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final File invalid = TestPackageUtil.prepareTestPackage("unfiltered_package.zip");
+        builder().build().scanPackageGroups(Arrays.asList(
+                Collections.singletonList(tmpFoo),
+                Collections.singletonList(invalid)), 2);
+    }
+
+    @Test
+    public void testScanPackageGroups_abortedAfterRunningGroups() throws Exception {
+        final File tmpFoo = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final File invalid = TestPackageUtil.prepareTestPackage("unfiltered_package.zip");
+        final CompletableFuture<Boolean> slowGroupFinished = new CompletableFuture<>();
+        final OakMachine machine = builder()
+                .withProgressCheckSupplier(() -> Collections.singletonList(new GroupCheck() {
+                    private boolean slowGroup;
+
+                    @Override
+                    public void identifyPackage(final PackageId packageId, final File file) {
+                        if (tmpFoo.getName().equals(file.getName())) {
+                            slowGroup = true;
+                            try {
+                                Thread.sleep(1000L);
+                            } catch (final InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        super.identifyPackage(packageId, file);
+                    }
+
+                    @Override
+                    public void finishedScan() {
+                        if (slowGroup) {
+                            slowGroupFinished.complete(true);
+                        }
+                        super.finishedScan();
+                    }
+                }))
+                .build();
+        try {
+            machine.scanPackageGroups(Arrays.asList(
+                    Collections.singletonList(invalid),
+                    Collections.singletonList(tmpFoo)), 2);
+            fail("expect AbortedScanException");
+        } catch (final AbortedScanException e) {
+            assertTrue("expect running group finished before the scan aborted", slowGroupFinished.isDone());
+        }
+    }
+
     @Test(expected = AbortedScanException.class)
     public void testScanInvalidPackage() throws Exception {
         final File testPackage = TestPackageUtil.prepareTestPackage("unfiltered_package.zip");
@@ -593,6 +983,396 @@ public class OakMachineTest {
         assertEquals("expect ids", expectIds, subToParent);
     }
 
+    @Test
+    public void testScanPackage_profiling() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public String getCheckName() {
+                return "profiled";
+            }
+
+            @Override
+            public void importedPath(final PackageId packageId, final String path, final Node node) {
+                // only subscribe to imported paths
+            }
+        };
+        final OakMachine unprofiled = builder().withProgressCheck(check).build();
+        assertFalse("expect not profiling", unprofiled.isProfiling());
+        unprofiled.scanPackage(testPackage);
+        assertTrue("expect no profiles", unprofiled.getCheckProfiles().isEmpty());
+
+        final OakMachine machine = builder().withProgressCheck(check).withProfiling(true).build();
+        assertTrue("expect profiling", machine.isProfiling());
+        final List<CheckReport> reports = machine.scanPackage(testPackage);
+        assertTrue("expect report for check name",
+                reports.stream().anyMatch(report -> "profiled".equals(report.getCheckName())));
+        final List<CheckProfile> profiles = machine.getCheckProfiles();
+        assertEquals("expect one profile", 1, profiles.size());
+        assertEquals("expect check name", "profiled", profiles.get(0).getCheckName());
+        assertEquals("expect only subscribed events", Collections.singleton(ProgressCheck.Event.IMPORTED_PATH),
+                profiles.get(0).getEvents().keySet());
+        assertTrue("expect imported paths counted",
+                profiles.get(0).getEvents().get(ProgressCheck.Event.IMPORTED_PATH).getCount() > 0L);
+    }
+
+    @Test
+    public void testScanWithSubpackages_archiveInstall() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("subsubtest.zip");
+        final Map<PackageId, PackageId> expectIds = new LinkedHashMap<>();
+        final PackageId root = PackageId.fromString("my_packages:subsubtest");
+        final PackageId sub1 = PackageId.fromString("my_packages:subtest");
+        final PackageId suba = PackageId.fromString("my_packages:sub_a");
+        final PackageId subb = PackageId.fromString("my_packages:sub_b");
+        expectIds.put(sub1, root);
+        expectIds.put(suba, sub1);
+        expectIds.put(subb, sub1);
+        final Map<PackageId, PackageId> subToParent = new LinkedHashMap<>();
+        final ProgressCheck check = mock(ProgressCheck.class);
+        doAnswer(call -> subToParent.put(call.getArgument(0), call.getArgument(1)))
+                .when(check).identifySubpackage(any(PackageId.class), any(PackageId.class));
+        builder().withArchiveInstall(true).withProgressCheck(check).build().scanPackage(testPackage);
+        assertEquals("expect ids", expectIds, subToParent);
+    }
+
+    private static List<String> recordScanEvents(final OakMachine.Builder builder, final File testPackage,
+                                                 final Map<String, Boolean> registryExisted) throws Exception {
+        final List<String> events = new ArrayList<>();
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public void identifyPackage(final PackageId packageId, final File file) {
+                events.add("identifyPackage " + packageId);
+            }
+
+            @Override
+            public void readManifest(final PackageId packageId, final Manifest manifest) {
+                events.add("readManifest " + packageId);
+            }
+
+            @Override
+            public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                                      final PackageProperties packageProperties, final MetaInf metaInf,
+                                      final List<PackageId> subpackages) {
+                events.add("beforeExtract " + packageId + " " + subpackages);
+            }
+
+            @Override
+            public void importedPath(final PackageId packageId, final String path, final Node node) {
+                events.add("importedPath " + packageId + " " + path);
+            }
+
+            @Override
+            public void afterExtract(final PackageId packageId, final Session inspectSession)
+                    throws RepositoryException {
+                events.add("afterExtract " + packageId);
+                registryExisted.put(packageId.toString(),
+                        inspectSession.nodeExists("/etc/packages/my_packages/tmp_foo_bar.zip"));
+            }
+        };
+        builder.withProgressCheck(check).build().scanPackage(testPackage);
+        return events;
+    }
+
+    @Test
+    public void testScanPackage_archiveInstall() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        assertFalse("expect not archive install by default", builder().build().isArchiveInstall());
+        assertTrue("expect archive install", builder().withArchiveInstall(true).build().isArchiveInstall());
+
+        final Map<String, Boolean> uploadedRegistry = new LinkedHashMap<>();
+        final List<String> uploadedEvents = recordScanEvents(builder(), testPackage, uploadedRegistry);
+        final Map<String, Boolean> archiveRegistry = new LinkedHashMap<>();
+        final List<String> archiveEvents = recordScanEvents(builder().withArchiveInstall(true), testPackage,
+                archiveRegistry);
+
+        assertTrue("expect imported path", archiveEvents.contains("importedPath my_packages:tmp_foo_bar /tmp/foo/bar"));
+        assertEquals("expect same events", uploadedEvents, archiveEvents);
+        assertEquals("expect uploaded package node",
+                Collections.singletonMap("my_packages:tmp_foo_bar", true), uploadedRegistry);
+        assertEquals("expect no uploaded package node",
+                Collections.singletonMap("my_packages:tmp_foo_bar", false), archiveRegistry);
+
+        final File manifestPackage = TestPackageUtil.prepareTestPackage("null-dependency-test.zip");
+        final List<String> manifestEvents = recordScanEvents(builder().withArchiveInstall(true), manifestPackage,
+                new LinkedHashMap<>());
+        assertTrue("expect read manifest", manifestEvents.stream().anyMatch(event -> event.startsWith("readManifest")));
+        assertEquals("expect same manifest package events",
+                recordScanEvents(builder(), manifestPackage, new LinkedHashMap<>()), manifestEvents);
+    }
+
+    @Test
+    public void testScanPackage_archiveInstallPreInstallUrl() throws Exception {
+        final File preInstall = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final List<Boolean> preInstallExisted = new ArrayList<>();
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                                      final PackageProperties packageProperties, final MetaInf metaInf,
+                                      final List<PackageId> subpackages) throws RepositoryException {
+                preInstallExisted.add(inspectSession.nodeExists("/tmp/foo/bar"));
+                preInstallExisted.add(inspectSession.nodeExists("/etc/packages/my_packages/tmp_foo_bar.zip"));
+            }
+        };
+        builder().withArchiveInstall(true)
+                .withPreInstallUrl(preInstall.toURI().toURL())
+                .withProgressCheck(check)
+                .build().scanPackage(testPackage);
+        assertEquals("expect pre-install content without package node", Arrays.asList(true, false),
+                preInstallExisted);
+    }
+
+    @Test
+    public void testScanPackages_reportConsumer() throws Exception {
+        final File tmpFoo = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final List<String> identified = new ArrayList<>();
+        final List<CheckReport> consumed = new ArrayList<>();
+        builder().withProgressCheck(new GroupCheck() {
+            @Override
+            public void finishedScan() {
+                identified.add("finished");
+                assertTrue("expect no report before every check has finished", consumed.isEmpty());
+                super.finishedScan();
+            }
+        }).build().scanPackages(Collections.singletonList(tmpFoo), report -> {
+            assertEquals("expect each check finished", Collections.singletonList("finished"), identified);
+            consumed.add(report);
+        });
+        assertEquals("expect error listener report and check report", 2, consumed.size());
+        assertEquals("expect check report last", "groupCheck", consumed.get(1).getCheckName());
+    }
+
+    @Test
+    public void testScanPackages_scanResultCache() throws Exception {
+        final File tmpFoo = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final File package1 = TestPackageUtil.prepareTestPackage("package_1.0.zip");
+        final File cacheDir = new File(testOutDir, "testScanPackages_scanResultCache");
+        if (cacheDir.isDirectory()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final ScanResultCache cache = new ScanResultCache(cacheDir);
+        final List<String> identified = new ArrayList<>();
+        final Supplier<OakMachine.Builder> machineBuilder = () -> builder()
+                .withScanResultCache(cache)
+                .withCheckFingerprint("groupCheck")
+                .withProgressCheck(new GroupCheck() {
+                    @Override
+                    public void identifyPackage(final PackageId packageId, final File file) {
+                        identified.add(file.getName());
+                        super.identifyPackage(packageId, file);
+                    }
+                });
+        assertSame("expect cache", cache, machineBuilder.get().build().getScanResultCache());
+
+        final List<CheckReport> scanned = machineBuilder.get().build().scanPackages(Arrays.asList(tmpFoo, package1));
+        assertEquals("expect packages scanned", Arrays.asList(tmpFoo.getName(), package1.getName()), identified);
+        identified.clear();
+
+        final List<CheckReport> replayed = machineBuilder.get().build().scanPackages(Arrays.asList(tmpFoo, package1));
+        assertTrue("expect no packages scanned", identified.isEmpty());
+        assertEquals("expect replayed reports", scanned, replayed);
+        final List<CheckReport> consumed = new ArrayList<>();
+        machineBuilder.get().build().scanPackages(Arrays.asList(tmpFoo, package1), consumed::add);
+        assertTrue("expect no packages scanned", identified.isEmpty());
+        assertEquals("expect replayed reports passed to the consumer", scanned, consumed);
+
+        machineBuilder.get().build().scanPackages(Arrays.asList(package1, tmpFoo));
+        assertEquals("expect reordered packages scanned", Arrays.asList(package1.getName(), tmpFoo.getName()),
+                identified);
+        identified.clear();
+
+        machineBuilder.get().build().scanPackages(Collections.singletonList(tmpFoo));
+        assertEquals("expect prefix of recorded scan scanned", Collections.singletonList(tmpFoo.getName()),
+                identified);
+        identified.clear();
+
+        machineBuilder.get().withCheckFingerprint("changed").build()
+                .scanPackages(Arrays.asList(tmpFoo, package1));
+        assertEquals("expect packages scanned with changed checks",
+                Arrays.asList(tmpFoo.getName(), package1.getName()), identified);
+        identified.clear();
+
+        machineBuilder.get().withInstallHookPolicy(InstallHookPolicy.SKIP).build()
+                .scanPackages(Arrays.asList(tmpFoo, package1));
+        assertEquals("expect packages scanned with changed install hook policy",
+                Arrays.asList(tmpFoo.getName(), package1.getName()), identified);
+        identified.clear();
+
+        machineBuilder.get().withCheckFingerprint(null).build()
+                .scanPackages(Arrays.asList(tmpFoo, package1));
+        assertEquals("expect packages scanned without check fingerprint",
+                Arrays.asList(tmpFoo.getName(), package1.getName()), identified);
+        identified.clear();
+
+        machineBuilder.get().withSubpackageSilencer((subpackageId, parentId) -> true).build()
+                .scanPackages(Arrays.asList(tmpFoo, package1));
+        machineBuilder.get().withSubpackageSilencer((subpackageId, parentId) -> true).build()
+                .scanPackages(Arrays.asList(tmpFoo, package1));
+        assertEquals("expect packages scanned each time with subpackage silencer",
+                Arrays.asList(tmpFoo.getName(), package1.getName(), tmpFoo.getName(), package1.getName()),
+                identified);
+        identified.clear();
+
+        final ClassLoader hookClassLoader = getClass().getClassLoader();
+        machineBuilder.get().withInstallHookClassLoader(hookClassLoader).build()
+                .scanPackages(Arrays.asList(tmpFoo, package1));
+        machineBuilder.get().withInstallHookClassLoader(hookClassLoader).build()
+                .scanPackages(Arrays.asList(tmpFoo, package1));
+        assertEquals("expect packages scanned each time with install hook class loader",
+                Arrays.asList(tmpFoo.getName(), package1.getName(), tmpFoo.getName(), package1.getName()),
+                identified);
+        identified.clear();
+
+        machineBuilder.get().withInstallHookPolicy(InstallHookPolicy.SKIP)
+                .withInstallHookClassLoader(hookClassLoader).build()
+                .scanPackages(Arrays.asList(tmpFoo, package1));
+        assertTrue("expect replayed reports when install hooks are skipped", identified.isEmpty());
+    }
+
+    @Test
+    public void testBuilder_checkFingerprintSupplier() throws Exception {
+        final File tmpFoo = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final File cacheDir = new File(testOutDir, "testBuilder_checkFingerprintSupplier");
+        if (cacheDir.isDirectory()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final AtomicInteger calls = new AtomicInteger(0);
+        final Supplier<String> fingerprintSupplier = () -> {
+            calls.incrementAndGet();
+            return "groupCheck";
+        };
+        builder().withCheckFingerprintSupplier(fingerprintSupplier).build();
+        assertEquals("expect supplier not called without scan result cache", 0, calls.get());
+
+        final List<String> identified = new ArrayList<>();
+        final Supplier<OakMachine.Builder> machineBuilder = () -> builder()
+                .withScanResultCache(new ScanResultCache(cacheDir))
+                .withCheckFingerprintSupplier(fingerprintSupplier)
+                .withProgressCheck(new GroupCheck() {
+                    @Override
+                    public void identifyPackage(final PackageId packageId, final File file) {
+                        identified.add(file.getName());
+                        super.identifyPackage(packageId, file);
+                    }
+                });
+        machineBuilder.get().build().scanPackages(Collections.singletonList(tmpFoo));
+        machineBuilder.get().build().scanPackages(Collections.singletonList(tmpFoo));
+        assertEquals("expect supplier called for each build with scan result cache", 2, calls.get());
+        assertEquals("expect second scan replayed", Collections.singletonList(tmpFoo.getName()), identified);
+
+        machineBuilder.get().withCheckFingerprint("explicit").build();
+        assertEquals("expect supplier not called with explicit fingerprint", 2, calls.get());
+    }
+
+    @Test
+    public void testScanPackageGroups_scanResultCache() throws Exception {
+        final File tmpFoo = TestPackageUtil.prepareTestPackage("tmp_foo.zip");
+        final File package1 = TestPackageUtil.prepareTestPackage("package_1.0.zip");
+        final File cacheDir = new File(testOutDir, "testScanPackageGroups_scanResultCache");
+        if (cacheDir.isDirectory()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final List<String> identified = Collections.synchronizedList(new ArrayList<>());
+        final OakMachine machine = builder()
+                .withScanResultCache(new ScanResultCache(cacheDir))
+                .withCheckFingerprint("groupCheck")
+                .withProgressCheckSupplier(() -> Collections.singletonList(new GroupCheck() {
+                    @Override
+                    public void identifyPackage(final PackageId packageId, final File file) {
+                        identified.add(file.getName());
+                        super.identifyPackage(packageId, file);
+                    }
+                }))
+                .build();
+        final List<CheckReport> scanned = PackageGroupReports.mergeReports(machine.scanPackageGroups(
+                Arrays.asList(Collections.singletonList(tmpFoo), Collections.singletonList(package1)), 2));
+        assertEquals("expect both groups scanned", 2, identified.size());
+        identified.clear();
+        final List<CheckReport> replayed = PackageGroupReports.mergeReports(machine.scanPackageGroups(
+                Arrays.asList(Collections.singletonList(tmpFoo), Arrays.asList(package1, tmpFoo)), 2));
+        assertEquals("expect only changed group scanned", Arrays.asList(package1.getName(), tmpFoo.getName()),
+                identified);
+        assertEquals("expect replayed group violations",
+                Arrays.asList(tmpFoo.getName(), package1.getName(), tmpFoo.getName()),
+                replayed.stream().filter(r -> "groupCheck".equals(r.getCheckName()))
+                        .flatMap(r -> r.getViolations().stream())
+                        .map(Violation::getDescription)
+                        .filter(description -> description.endsWith(".zip"))
+                        .collect(Collectors.toList()));
+        assertEquals("expect same first group violations", scanned.get(1).getViolations().iterator().next(),
+                replayed.get(1).getViolations().iterator().next());
+    }
+
+    @Test
+    public void testScanSyntheticPackage() throws Exception {
+        final SyntheticPackage syntheticPackage = new SyntheticPackage.Builder()
+                .withName("scanSynthetic").withSeed(7L).withNodeCount(300).withTreeShape(3, 5)
+                .withBinaries(50, 100, 200).withAcls(25).withSubpackages(2, 1)
+                .withFilterLayout(SyntheticPackage.FilterLayout.PER_BRANCH)
+                .build();
+        final File testPackage = TestPackageUtil.prepareSyntheticPackage("scanSynthetic-1.0.zip", syntheticPackage);
+        final Map<PackageId, Integer> unstructuredCounts = new LinkedHashMap<>();
+        final List<PackageId> subpackages = new ArrayList<>();
+        final List<Boolean> aclsExist = new ArrayList<>();
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public void identifySubpackage(final PackageId packageId, final PackageId parentId) {
+                subpackages.add(packageId);
+            }
+
+            @Override
+            public void importedPath(final PackageId packageId, final String path, final Node node)
+                    throws RepositoryException {
+                if (path.matches(".*/b\\d+(/n\\d+)*") && node.isNodeType("nt:unstructured")) {
+                    unstructuredCounts.merge(packageId, 1, Integer::sum);
+                }
+            }
+
+            @Override
+            public void afterExtract(final PackageId packageId, final Session inspectSession)
+                    throws RepositoryException {
+                if (!subpackages.isEmpty() && packageId.equals(subpackages.get(0))) {
+                    aclsExist.add(inspectSession.nodeExists(
+                            "/content/oakpal-synthetic/scanSynthetic-0/b0/rep:policy"));
+                    aclsExist.add(inspectSession.nodeExists(
+                            "/content/oakpal-synthetic/scanSynthetic-0/b0/n1/rep:policy"));
+                }
+            }
+        };
+        final DefaultErrorListener errorListener = new DefaultErrorListener();
+        builder().withErrorListener(errorListener).withProgressCheck(check).build().scanPackage(testPackage);
+        assertTrue("expect no errors: " + errorListener.getReportedViolations(),
+                errorListener.getReportedViolations().isEmpty());
+        assertEquals("expect subpackages", Arrays.asList(
+                PackageId.fromString("oakpal-synthetic:scanSynthetic-0:1.0"),
+                PackageId.fromString("oakpal-synthetic:scanSynthetic-1:1.0")), subpackages);
+        assertEquals("expect nodes divided among subpackages",
+                Arrays.asList(150, 150), new ArrayList<>(unstructuredCounts.values()));
+        assertEquals("expect acl on branch node only", Arrays.asList(true, false), aclsExist);
+    }
+
+    @Test(expected = AbortedScanException.class)
+    public void testProcessArchiveFile_abortOnInvalidPackage() throws Exception {
+        final File notAPackage = new File(testOutDir, "testProcessArchiveFile_abortOnInvalidPackage.zip");
+        FileUtils.writeStringToFile(notAPackage, "not a zip", StandardCharsets.UTF_8);
+        builder().withArchiveInstall(true).build().scanPackage(notAPackage);
+    }
+
+    @Test
+    public void testFindSubpackageEntries() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("subsubtest.zip");
+        try (VaultPackage vaultPackage = new PackagingImpl().getPackageManager().open(testPackage, false)) {
+            final List<String> names = OakMachine.findSubpackageEntries(vaultPackage.getArchive()).stream()
+                    .map(Archive.Entry::getName).collect(Collectors.toList());
+            assertEquals("expect subpackage entry", Collections.singletonList("subtest.zip"), names);
+        }
+        try (VaultPackage vaultPackage = new PackagingImpl().getPackageManager()
+                .open(TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip"), false)) {
+            assertTrue("expect no subpackage entries",
+                    OakMachine.findSubpackageEntries(vaultPackage.getArchive()).isEmpty());
+        }
+    }
+
     @Test
     public void testProcessSubpackage_onSubpackageException() throws Exception {
         final JcrPackageManager manager = mock(JcrPackageManager.class);
@@ -729,8 +1509,8 @@ public class OakMachineTest {
             return true;
         }).when(errorListener).onImporterException(any(Exception.class), any(PackageId.class), anyString());
         final OakMachine machine = builder().withErrorListener(errorListener).build();
-        final OakMachine.ImporterListenerAdapter adapter = machine.new ImporterListenerAdapter(expectId,
-                machine.getProgressChecks(), session, false);
+        final OakMachine.ImporterListenerAdapter adapter = machine.new ImporterListenerAdapter(expectId, session,
+                false);
         adapter.onError(ProgressTrackerListener.Mode.PATHS, expectPath, expectError);
         assertSame("error is same", expectError, eLatch.getNow(null));
         assertEquals("package id is", expectId, idLatch.getNow(null));
@@ -755,14 +1535,76 @@ public class OakMachineTest {
             return true;
         }).when(errorListener).onImporterException(any(Exception.class), any(PackageId.class), anyString());
         final OakMachine machine = builder().withErrorListener(errorListener).build();
-        final OakMachine.ImporterListenerAdapter adapter = machine.new ImporterListenerAdapter(expectId,
-                machine.getProgressChecks(), session, false);
+        final OakMachine.ImporterListenerAdapter adapter = machine.new ImporterListenerAdapter(expectId, session,
+                false);
         adapter.onMessage(ProgressTrackerListener.Mode.PATHS, "E", expectPath);
         assertEquals("package id is", expectId, idLatch.getNow(null));
         assertEquals("path is", expectPath, pathLatch.getNow(null));
         throw eLatch.getNow(new Exception());
     }
 
+    @Test
+    public void testSubscribersByEvent() {
+        final ProgressCheck afterExtractCheck = new SimpleProgressCheck() {
+            @Override
+            public void afterExtract(final PackageId packageId, final Session inspectSession) {
+            }
+        };
+        final ProgressCheck allEventsCheck = mock(ProgressCheck.class);
+        when(allEventsCheck.getSubscribedEvents()).thenReturn(null);
+        final ProgressCheck noEventsCheck = new SimpleProgressCheck();
+        final OakMachine machine = builder()
+                .withProgressChecks(Arrays.asList(afterExtractCheck, allEventsCheck, noEventsCheck))
+                .build();
+        assertEquals("expect after extract subscribers", Arrays.asList(afterExtractCheck, allEventsCheck),
+                machine.getSubscribers(ProgressCheck.Event.AFTER_EXTRACT));
+        for (ProgressCheck.Event event : EnumSet.complementOf(EnumSet.of(ProgressCheck.Event.AFTER_EXTRACT))) {
+            assertEquals("expect only all events check for " + event, Collections.singletonList(allEventsCheck),
+                    machine.getSubscribers(event));
+        }
+    }
+
+    @Test
+    public void testImporterListenerAdapter_onMessage_noSubscribers() throws Exception {
+        final PackageId expectId = PackageId.fromString("my_packages:tmp_foo_bar");
+        final Session session = mock(Session.class);
+        final ErrorListener errorListener = mock(ErrorListener.class);
+        final OakMachine machine = builder()
+                .withProgressCheck(new SimpleProgressCheck())
+                .withErrorListener(errorListener)
+                .build();
+        final OakMachine.ImporterListenerAdapter adapter = machine.new ImporterListenerAdapter(expectId, session,
+                false);
+        adapter.onMessage(ProgressTrackerListener.Mode.PATHS, "A", "/tmp/foo");
+        adapter.onMessage(ProgressTrackerListener.Mode.PATHS, "D", "/tmp/bar");
+        verify(session, never()).getNode(anyString());
+        verify(errorListener, never()).onImporterException(any(Exception.class), any(PackageId.class), anyString());
+    }
+
+    @Test
+    public void testScanPackage_subscribedEvents() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final List<String> importedPaths = new ArrayList<>();
+        final List<PackageId> extracted = new ArrayList<>();
+        final ProgressCheck importedPathCheck = new SimpleProgressCheck() {
+            @Override
+            public void importedPath(final PackageId packageId, final String path, final Node node) {
+                importedPaths.add(path);
+            }
+        };
+        final ProgressCheck afterExtractCheck = new SimpleProgressCheck() {
+            @Override
+            public void afterExtract(final PackageId packageId, final Session inspectSession) {
+                extracted.add(packageId);
+            }
+        };
+        builder().withProgressChecks(Arrays.asList(importedPathCheck, afterExtractCheck))
+                .build().scanPackage(testPackage);
+        assertTrue("expect imported path", importedPaths.contains("/tmp/foo/bar"));
+        assertEquals("expect extracted package",
+                Collections.singletonList(PackageId.fromString("my_packages:tmp_foo_bar")), extracted);
+    }
+
     @Test
     public void testNewOakpalPackagingServiceNoArgs() throws Exception {
         Packaging service = OakMachine.newOakpalPackagingService();
@@ -843,11 +1685,311 @@ public class OakMachineTest {
                     assertTrue("blob is retrievable", fooNode.getProperty("data").getString().startsWith("abcdefg"));
                 });
 
-        final File[] blobChildren = blobStoreFile.listFiles();
+        final File[] blobChildren = blobStoreFile.listFiles(File::isDirectory);
         assertNotNull("should have non-null blobChildren", blobChildren);
         assertEquals("blobChildren is not empty @>4k", 1, blobChildren.length);
     }
 
+    @Test
+    public void testRepositoryProfile_lean() throws Exception {
+        final OakMachine fullMachine = builder().build();
+        assertEquals("expect all features by default", EnumSet.allOf(RepositoryFeature.class),
+                fullMachine.getRepositoryFeatures());
+        fullMachine.adminInitAndInspect(session -> {
+            assertEquals("expect nodetype index enabled", "property",
+                    session.getProperty("/oak:index/nodetype/type").getString());
+            final Node counter = session.getRootNode().addNode("counter", "nt:unstructured");
+            counter.addMixin("mix:atomicCounter");
+            counter.setProperty("oak:increment", 5L);
+            session.save();
+            assertEquals("expect atomic counter", 5L, counter.getProperty("oak:counter").getLong());
+        });
+
+        final OakMachine leanMachine = builder().withRepositoryProfile(RepositoryProfile.LEAN).build();
+        assertTrue("expect no features", leanMachine.getRepositoryFeatures().isEmpty());
+        leanMachine.adminInitAndInspect(session -> {
+            assertEquals("expect nodetype index disabled", "disabled",
+                    session.getProperty("/oak:index/nodetype/type").getString());
+            final Node foo = session.getRootNode().addNode("foo", "nt:unstructured");
+            final Node bar = foo.addNode("bar", "nt:unstructured");
+            bar.addMixin("mix:referenceable");
+            session.save();
+            assertTrue("expect uuid lookup", bar.isSame(session.getNodeByIdentifier(bar.getIdentifier())));
+            final NodeIterator results = session.getWorkspace().getQueryManager()
+                    .createQuery("select * from [mix:referenceable] as a where isdescendantnode(a, '/foo')",
+                            Query.JCR_SQL2).execute().getNodes();
+            assertTrue("expect query result", results.hasNext());
+            assertEquals("expect bar", "/foo/bar", results.nextNode().getPath());
+            final Node counter = session.getRootNode().addNode("counter", "nt:unstructured");
+            counter.addMixin("mix:atomicCounter");
+            counter.setProperty("oak:increment", 5L);
+            session.save();
+            assertEquals("expect no atomic counter", 0L, counter.getProperty("oak:counter").getLong());
+            final Node modified = session.getRootNode().addNode("modified", "nt:unstructured");
+            modified.addMixin("mix:lastModified");
+            session.save();
+            final Session other = session.getRepository()
+                    .login(new SimpleCredentials("admin", "admin".toCharArray()));
+            final Calendar later = Calendar.getInstance();
+            later.add(Calendar.HOUR, 1);
+            try {
+                other.getNode("/modified").setProperty("jcr:lastModified", later);
+                modified.setProperty("jcr:lastModified", Calendar.getInstance());
+                other.save();
+                session.save();
+            } finally {
+                other.logout();
+            }
+            assertEquals("expect concurrent jcr:lastModified resolved to the later value", later.getTimeInMillis(),
+                    modified.getProperty("jcr:lastModified").getDate().getTimeInMillis());
+        });
+
+        assertEquals("expect same baseline key for default and full",
+                fullMachine.getBaselineKey(),
+                builder().withRepositoryProfile(RepositoryProfile.FULL).build().getBaselineKey());
+        assertNotEquals("expect different baseline key for lean",
+                fullMachine.getBaselineKey(), leanMachine.getBaselineKey());
+    }
+
+    @Test
+    public void testRepositoryProfile_requiredFeatures() throws Exception {
+        final ProgressCheck queryCheck = new SimpleProgressCheck() {
+            @Override
+            public EnumSet<RepositoryFeature> getRequiredRepositoryFeatures() {
+                return EnumSet.of(RepositoryFeature.QUERY_INDEXES);
+            }
+        };
+        final OakMachine machine = builder().withRepositoryProfile(RepositoryProfile.LEAN)
+                .withProgressCheck(queryCheck).withProfiling(true).build();
+        assertEquals("expect required feature", EnumSet.of(RepositoryFeature.QUERY_INDEXES),
+                machine.getRepositoryFeatures());
+        machine.adminInitAndInspect(session ->
+                assertEquals("expect nodetype index enabled", "property",
+                        session.getProperty("/oak:index/nodetype/type").getString()));
+        assertNotEquals("expect different baseline key for lean with query indexes",
+                builder().withRepositoryProfile(RepositoryProfile.LEAN).build().getBaselineKey(),
+                machine.getBaselineKey());
+
+        final OakMachine leanMachine = builder().withRepositoryProfile(RepositoryProfile.LEAN).build();
+        try (RepositoryPool pool = new RepositoryPool(leanMachine, 1)) {
+            builder().withRepositoryPool(pool).build().scanPackage();
+            try {
+                builder().withRepositoryPool(pool).withProgressCheck(queryCheck).build().scanPackage();
+                fail("expect AbortedScanException for missing repository feature");
+            } catch (final AbortedScanException e) {
+                assertTrue("expect feature in message: " + e.getCause().getMessage(),
+                        e.getCause().getMessage().contains("QUERY_INDEXES"));
+            }
+        }
+    }
+
+    @Test
+    public void testRepositoryFeature_binaryContent() throws Exception {
+        final SyntheticPackage syntheticPackage = new SyntheticPackage.Builder()
+                .withName("binaryContent").withSeed(13L).withNodeCount(20).withTreeShape(2, 3)
+                .withBinaries(5, 8192, 8192)
+                .build();
+        final File testPackage = TestPackageUtil.prepareSyntheticPackage("binaryContent-1.0.zip", syntheticPackage);
+
+        class BinaryCheck extends SimpleProgressCheck {
+            final List<String> binaryPaths = new ArrayList<>();
+            final List<Long> sizes = new ArrayList<>();
+            final List<String> errors = new ArrayList<>();
+
+            @Override
+            public void importedPath(final PackageId packageId, final String path, final Node node) {
+                if (path.endsWith(".bin")) {
+                    binaryPaths.add(path);
+                }
+            }
+
+            @Override
+            public void afterExtract(final PackageId packageId, final Session inspectSession)
+                    throws RepositoryException {
+                for (String path : binaryPaths) {
+                    final Binary binary = inspectSession.getProperty(path + "/jcr:content/jcr:data").getBinary();
+                    sizes.add(binary.getSize());
+                    try (InputStream input = binary.getStream()) {
+                        input.read();
+                    } catch (final Exception e) {
+                        errors.add(e.getMessage());
+                    }
+                }
+            }
+        }
+
+        final BinaryCheck stubCheck = new BinaryCheck();
+        final OakMachine stubMachine = builder().withRepositoryProfile(RepositoryProfile.LEAN)
+                .withProgressCheck(stubCheck).build();
+        assertFalse("expect no binary content", stubMachine.getRepositoryFeatures()
+                .contains(RepositoryFeature.BINARY_CONTENT));
+        assertTrue("expect archive install without binary content", stubMachine.isArchiveInstall());
+        stubMachine.scanPackage(testPackage);
+        assertFalse("expect binaries", stubCheck.binaryPaths.isEmpty());
+        assertTrue("expect stub sizes: " + stubCheck.sizes,
+                stubCheck.sizes.stream().allMatch(size -> size == 8192L));
+        assertEquals("expect error for each stub", stubCheck.binaryPaths.size(), stubCheck.errors.size());
+        assertTrue("expect feature in message: " + stubCheck.errors.get(0),
+                stubCheck.errors.get(0).contains("BINARY_CONTENT"));
+
+        final BinaryCheck contentCheck = new BinaryCheck() {
+            @Override
+            public EnumSet<RepositoryFeature> getRequiredRepositoryFeatures() {
+                return EnumSet.of(RepositoryFeature.BINARY_CONTENT);
+            }
+        };
+        final OakMachine contentMachine = builder().withRepositoryProfile(RepositoryProfile.LEAN)
+                .withProgressCheck(contentCheck).build();
+        assertFalse("expect no archive install with binary content", contentMachine.isArchiveInstall());
+        contentMachine.scanPackage(testPackage);
+        assertEquals("expect same binaries", stubCheck.binaryPaths, contentCheck.binaryPaths);
+        assertTrue("expect no errors with binary content: " + contentCheck.errors, contentCheck.errors.isEmpty());
+    }
+
+    @Test
+    public void testRepositoryFeature_stubOverwritesBinary() throws Exception {
+        final SyntheticPackage.Builder packageBuilder = new SyntheticPackage.Builder()
+                .withName("stubOverwritesBinary").withNodeCount(20).withTreeShape(2, 3)
+                .withBinaries(5, 8192, 8192);
+        final SyntheticPackage preInstallSynthetic = packageBuilder.withSeed(13L).build();
+        final File preInstallPackage = TestPackageUtil.prepareSyntheticPackage("stubOverwritesBinary-1.0.zip",
+                preInstallSynthetic);
+        final File testPackage = TestPackageUtil.prepareSyntheticPackage("stubOverwritesBinary-2.0.zip",
+                packageBuilder.withSeed(17L).withVersion("2.0").build());
+        final DefaultErrorListener errorListener = new DefaultErrorListener();
+        final OakMachine machine = builder().withRepositoryProfile(RepositoryProfile.LEAN)
+                .withErrorListener(errorListener)
+                .withPreInstallUrl(preInstallPackage.toURI().toURL())
+                .withReusePostInitState(true)
+                .build();
+        try {
+            machine.scanPackage(testPackage);
+            machine.scanPackage(testPackage);
+            machine.adminInitAndInspect(session -> {
+                final NodeIterator files = session.getWorkspace().getQueryManager()
+                        .createQuery("select * from [nt:file] as a where isdescendantnode(a, '"
+                                + preInstallSynthetic.getContentRoot() + "')", Query.JCR_SQL2)
+                        .execute().getNodes();
+                assertTrue("expect pre-installed binaries", files.hasNext());
+                while (files.hasNext()) {
+                    final Binary binary = files.nextNode().getProperty("jcr:content/jcr:data").getBinary();
+                    try (InputStream input = binary.getStream()) {
+                        assertEquals("expect restored binary content", 8192L, IOUtils.toByteArray(input).length);
+                    } catch (final IOException e) {
+                        throw new RepositoryException(e);
+                    }
+                }
+            });
+        } finally {
+            machine.close();
+        }
+        assertTrue("expect no errors: " + errorListener.getReportedViolations(),
+                errorListener.getReportedViolations().isEmpty());
+    }
+
+    @Test
+    public void testRepositoryFeature_binaryContentDeclared() throws Exception {
+        final SyntheticPackage syntheticPackage = new SyntheticPackage.Builder()
+                .withName("binaryContentDeclared").withSeed(13L).withNodeCount(20).withTreeShape(2, 3)
+                .withBinaries(5, 8192, 8192)
+                .build();
+        final File testPackage = TestPackageUtil.prepareSyntheticPackage("binaryContentDeclared-1.0.zip",
+                syntheticPackage);
+
+        final ProgressCheck propertiesCheck = new JcrProperties().newInstance(obj()
+                .key("scopePaths", arr().and(key("pattern", ".*").key("type", "allow")))
+                .key("properties", arr().and(key("name", "jcr:data")
+                        .key("valueRules", arr().and(key("pattern", "(?s).*").key("type", "deny")))))
+                .get());
+        final ProgressCheck scriptCheck = ScriptProgressCheck.createInlineScriptCheckFactory(
+                "var reads = 0;\n"
+                        + "function getRequiredRepositoryFeatures() { return [\"BINARY_CONTENT\"]; }\n"
+                        + "function importedPath(packageId, path, node) {\n"
+                        + "  if (node.hasProperty(\"jcr:data\")) {\n"
+                        + "    var input = node.getProperty(\"jcr:data\").getBinary().getStream();\n"
+                        + "    try { input.read(); reads++; } finally { input.close(); }\n"
+                        + "  }\n"
+                        + "}\n"
+                        + "function finishedScan() { if (reads === 0) { oakpal.majorViolation(\"no reads\"); } }",
+                "js").newInstance(null);
+
+        for (ProgressCheck check : Arrays.asList(propertiesCheck, scriptCheck)) {
+            final OakMachine machine = builder().withRepositoryProfile(RepositoryProfile.LEAN)
+                    .withProgressCheck(check).build();
+            assertTrue("expect binary content for " + check.getCheckName(),
+                    machine.getRepositoryFeatures().contains(RepositoryFeature.BINARY_CONTENT));
+            final List<Throwable> errors = new ArrayList<>();
+            final List<CheckReport> reports = builder().withRepositoryProfile(RepositoryProfile.LEAN)
+                    .withProgressCheck(check)
+                    .withErrorListener(new DefaultErrorListener() {
+                        @Override
+                        public void onListenerException(final Exception e, final ProgressCheck listener,
+                                                        final PackageId packageId) {
+                            errors.add(e);
+                        }
+                    }).build().scanPackage(testPackage);
+            assertTrue("expect no listener errors for " + check.getCheckName() + ": " + errors, errors.isEmpty());
+            final CheckReport report = reports.stream()
+                    .filter(candidate -> check.getCheckName().equals(candidate.getCheckName()))
+                    .findFirst().orElseThrow(IllegalStateException::new);
+            if (check == propertiesCheck) {
+                assertEquals("expect a denied value for each binary", 5, report.getViolations().size());
+            } else {
+                assertTrue("expect binaries read: " + report.getViolations(), report.getViolations().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testDeferIndexes() throws Exception {
+        assertFalse("expect not deferred by default", builder().build().isDeferIndexes());
+        final SyntheticPackage syntheticPackage = new SyntheticPackage.Builder()
+                .withName("deferIndexes").withSeed(11L).withNodeCount(50).withTreeShape(2, 5)
+                .build();
+        final File testPackage = TestPackageUtil.prepareSyntheticPackage("deferIndexes-1.0.zip", syntheticPackage);
+        final List<String> importedPaths = new ArrayList<>();
+        final List<String> indexTypes = new ArrayList<>();
+        final List<String> queriedPaths = new ArrayList<>();
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                                      final PackageProperties packageProperties, final MetaInf metaInf,
+                                      final List<PackageId> subpackages) throws RepositoryException {
+                indexTypes.add(inspectSession.getProperty("/oak:index/nodetype/type").getString());
+            }
+
+            @Override
+            public void importedPath(final PackageId packageId, final String path, final Node node)
+                    throws RepositoryException {
+                if (path.startsWith("/content/") && node.isNodeType("nt:unstructured")) {
+                    importedPaths.add(path);
+                }
+            }
+
+            @Override
+            public void afterExtract(final PackageId packageId, final Session inspectSession)
+                    throws RepositoryException {
+                indexTypes.add(inspectSession.getProperty("/oak:index/nodetype/type").getString());
+                final NodeIterator results = inspectSession.getWorkspace().getQueryManager()
+                        .createQuery("select * from [nt:unstructured] as a where isdescendantnode(a, '/content')",
+                                Query.JCR_SQL2).execute().getNodes();
+                while (results.hasNext()) {
+                    queriedPaths.add(results.nextNode().getPath());
+                }
+                indexTypes.add(inspectSession.getProperty("/oak:index/nodetype/type").getString());
+            }
+        };
+        final OakMachine machine = builder().withDeferIndexes(true).withProgressCheck(check).build();
+        assertTrue("expect deferred", machine.isDeferIndexes());
+        machine.scanPackage(testPackage);
+        assertEquals("expect index disabled until first query", Arrays.asList("disabled", "disabled", "property"),
+                indexTypes);
+        assertFalse("expect imported nodes", importedPaths.isEmpty());
+        Collections.sort(importedPaths);
+        Collections.sort(queriedPaths);
+        assertEquals("expect query finds imported nodes", importedPaths, queriedPaths);
+    }
+
     private static Binary alphaFill(final @NotNull Session session, final int bufSize) throws RepositoryException {
         final byte[] buffer = new byte[bufSize];
         final String fillString = "abcdefghijklmnopqrstuvwxyz";
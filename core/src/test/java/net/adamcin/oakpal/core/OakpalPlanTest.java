@@ -40,6 +40,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 
 import static net.adamcin.oakpal.core.JavaxJson.*;
@@ -187,6 +188,49 @@ public class OakpalPlanTest {
         }
     }
 
+    @Test
+    public void testBuilder_withRepositoryProfile() throws Exception {
+        assertNull("implicit null", builder().build().getRepositoryProfile());
+        for (RepositoryProfile profile : RepositoryProfile.values()) {
+            final OakpalPlan plan = builder().withRepositoryProfile(profile).build();
+            assertSame("same profile", profile, plan.getRepositoryProfile());
+            assertSame("same profile from startingWithPlan", profile,
+                    builder().startingWithPlan(plan).build().getRepositoryProfile());
+            assertSame("same profile from json", profile,
+                    OakpalPlan.fromJson(plan.toJson()).getRepositoryProfile());
+        }
+        assertEquals("expect lean machine", EnumSet.noneOf(RepositoryFeature.class),
+                builder().withRepositoryProfile(RepositoryProfile.LEAN).build()
+                        .toOakMachineBuilder(null, getClass().getClassLoader()).build().getRepositoryFeatures());
+    }
+
+    @Test
+    public void testBuilder_withDeferIndexes() throws Exception {
+        assertFalse("implicit false", builder().build().isDeferIndexes());
+        final OakpalPlan plan = builder().withDeferIndexes(true).build();
+        assertTrue("expect deferIndexes", plan.isDeferIndexes());
+        assertTrue("expect deferIndexes from startingWithPlan",
+                builder().startingWithPlan(plan).build().isDeferIndexes());
+        assertTrue("expect deferIndexes from json", OakpalPlan.fromJson(plan.toJson()).isDeferIndexes());
+        assertTrue("expect deferIndexes machine",
+                plan.toOakMachineBuilder(null, getClass().getClassLoader()).build().isDeferIndexes());
+    }
+
+    @Test
+    public void testBuilder_withNodeStore() throws Exception {
+        assertNull("implicit null", builder().build().getNodeStore());
+        for (NodeStoreType nodeStore : NodeStoreType.values()) {
+            final OakpalPlan plan = builder().withNodeStore(nodeStore).build();
+            assertSame("same nodeStore", nodeStore, plan.getNodeStore());
+            assertSame("same nodeStore from startingWithPlan", nodeStore,
+                    builder().startingWithPlan(plan).build().getNodeStore());
+            assertSame("same nodeStore from json", nodeStore,
+                    OakpalPlan.fromJson(plan.toJson()).getNodeStore());
+        }
+        assertSame("expect segment from lower case json", NodeStoreType.SEGMENT,
+                OakpalPlan.fromJson(key(OakpalPlan.KEY_NODE_STORE, "segment").get()).getNodeStore());
+    }
+
     @Test
     public void testBuilder_startingWithPlan_defaults() {
         final OakpalPlan derived = builder().startingWithPlan(builder().build()).build();
@@ -198,6 +242,7 @@ public class OakpalPlanTest {
         assertEquals("default privileges", Collections.emptyList(), derived.getJcrPrivileges());
         assertFalse("default enablePreInstallHook", derived.isEnablePreInstallHooks());
         assertNull("default installHooksPolicy", derived.getInstallHookPolicy());
+        assertFalse("default deferIndexes", derived.isDeferIndexes());
         assertEquals("default preInstallUrls", Collections.emptyList(), derived.getPreInstallUrls());
         assertNull("default builder originalJson is null", derived.getOriginalJson());
         assertEquals("default builder toJson is empty",
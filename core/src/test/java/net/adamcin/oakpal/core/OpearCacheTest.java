@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpearCacheTest {
+
+    private static void buildOpear(final File jarFile, final String bsn, final int payloadBytes) throws Exception {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(OpearFile.NAME_BUNDLE_SYMBOLICNAME, bsn);
+        manifest.getMainAttributes().put(OpearFile.NAME_OAKPAL_PLAN, "plan.json");
+        try (JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(jarFile), manifest)) {
+            jarOut.putNextEntry(new JarEntry("plan.json"));
+            jarOut.write("{}".getBytes(StandardCharsets.UTF_8));
+            jarOut.closeEntry();
+            jarOut.putNextEntry(new JarEntry("payload.bin"));
+            jarOut.write(new byte[payloadBytes]);
+            jarOut.closeEntry();
+        }
+    }
+
+    private static File[] entryDirs(final File cacheDir) {
+        return cacheDir.listFiles(file -> file.isDirectory() && !file.getName().endsWith(OpearCache.TEMP_SUFFIX));
+    }
+
+    private static Properties readIndex(final File cacheDir) throws Exception {
+        final Properties index = new Properties();
+        try (InputStream input = new FileInputStream(new File(cacheDir, OpearCache.INDEX_FILE))) {
+            index.load(input);
+        }
+        return index;
+    }
+
+    @Test
+    public void testFromJar() throws Exception {
+        final File dir = new File("target/test-output/OpearCacheTest/testFromJar");
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        final File jar = new File(dir, "test.opear");
+        buildOpear(jar, "test", 16);
+        final File cacheDir = new File(dir, "cache");
+        final OpearCache cache = new OpearCache(cacheDir);
+        assertEquals("expect default max bytes", OpearCache.DEFAULT_MAX_BYTES, cache.getMaxBytes());
+        assertEquals("expect cache dir", cacheDir, cache.getCacheDir());
+
+        final Result<OpearFile> opear = cache.fromJar(new JarFile(jar));
+        opear.throwCause(Exception.class);
+        final String cacheKey = OpearFile.getHashCacheKey(jar.getPath()).getOrDefault("");
+        assertEquals("expect entry dir named for cache key", new File(cacheDir, cacheKey),
+                opear.map(opearFile -> opearFile.cacheDir).getOrDefault(null));
+        assertTrue("expect extracted plan", new File(cacheDir, cacheKey + "/plan.json").isFile());
+        assertEquals("expect indexed key", jar.length() + ":" + jar.lastModified() + ":" + cacheKey,
+                readIndex(cacheDir).getProperty(jar.getAbsolutePath()));
+
+        // an indexed key is trusted while the jar path, size, and last modified time are unchanged
+        final String fakeKey = "fakeKey";
+        final Properties index = readIndex(cacheDir);
+        index.setProperty(jar.getAbsolutePath(), jar.length() + ":" + jar.lastModified() + ":" + fakeKey);
+        try (FileOutputStream output = new FileOutputStream(new File(cacheDir, OpearCache.INDEX_FILE))) {
+            index.store(output, null);
+        }
+        assertEquals("expect key from index", fakeKey, cache.withLock(() -> cache.getCacheKey(jar)));
+        jar.setLastModified(jar.lastModified() + 2000L);
+        assertEquals("expect key hashed again after touch", cacheKey, cache.withLock(() -> cache.getCacheKey(jar)));
+
+        cache.clear();
+        assertEquals("expect only lock file after clear", 1, cacheDir.listFiles().length);
+    }
+
+    @Test
+    public void testFromJar_invalid() throws Exception {
+        final File dir = new File("target/test-output/OpearCacheTest/testFromJar_invalid");
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        final File jar = new File(dir, "invalid.opear");
+        try (JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(jar), new Manifest())) {
+            jarOut.putNextEntry(new JarEntry("plan.json"));
+            jarOut.closeEntry();
+        }
+        final File cacheDir = new File(dir, "cache");
+        assertTrue("expect failure without bsn", new OpearCache(cacheDir).fromJar(new JarFile(jar)).isFailure());
+        assertEquals("expect nothing extracted", 0, entryDirs(cacheDir).length);
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        final File dir = new File("target/test-output/OpearCacheTest/testEvict");
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        final File cacheDir = new File(dir, "cache");
+        final OpearCache cache = new OpearCache(cacheDir, 1500L);
+        final List<File> jars = new ArrayList<>();
+        for (String name : new String[]{"one", "two", "three"}) {
+            final File jar = new File(dir, name + ".opear");
+            buildOpear(jar, name, 1000);
+            jars.add(jar);
+        }
+        final long longAgo = System.currentTimeMillis() - OpearCache.EVICTION_GRACE_MILLIS - 60000L;
+        final File staleTemp = new File(cacheDir, "stale" + OpearCache.TEMP_SUFFIX);
+        staleTemp.mkdirs();
+        staleTemp.setLastModified(longAgo);
+
+        assertTrue("expect one", cache.fromJar(new JarFile(jars.get(0))).isSuccess());
+        assertFalse("expect stale temp deleted", staleTemp.exists());
+        assertTrue("expect two", cache.fromJar(new JarFile(jars.get(1))).isSuccess());
+        assertEquals("expect recently used entries retained over budget", 2, entryDirs(cacheDir).length);
+
+        for (File entry : entryDirs(cacheDir)) {
+            entry.setLastModified(longAgo);
+        }
+        final File oldest = new File(cacheDir, OpearFile.getHashCacheKey(jars.get(0).getPath()).getOrDefault(""));
+        oldest.setLastModified(longAgo - 1000L);
+        assertTrue("expect three", cache.fromJar(new JarFile(jars.get(2))).isSuccess());
+        assertEquals("expect least recently used entries evicted", 1, entryDirs(cacheDir).length);
+        assertTrue("expect entry in use retained", new File(cacheDir,
+                OpearFile.getHashCacheKey(jars.get(2).getPath()).getOrDefault("")).isDirectory());
+    }
+
+    @Test
+    public void testFromJar_concurrent() throws Exception {
+        final File dir = new File("target/test-output/OpearCacheTest/testFromJar_concurrent");
+        if (dir.exists()) {
+            FileUtils.deleteDirectory(dir);
+        }
+        dir.mkdirs();
+        final File jar = new File(dir, "test.opear");
+        buildOpear(jar, "test", 4096);
+        final File cacheDir = new File(dir, "cache");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Result<OpearFile>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> new OpearCache(cacheDir).fromJar(new JarFile(jar))));
+            }
+            for (Future<Result<OpearFile>> future : futures) {
+                future.get().throwCause(Exception.class);
+                assertTrue("expect success", future.get().isSuccess());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("expect one entry", 1, entryDirs(cacheDir).length);
+        assertEquals("expect no temp dirs", 0, cacheDir.listFiles(file ->
+                file.getName().endsWith(OpearCache.TEMP_SUFFIX)).length);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.vault.packaging.PackageId;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackageGroupReportsTest {
+
+    @Test
+    public void testGetters() {
+        final List<File> files = Arrays.asList(new File("a.zip"), new File("b.zip"));
+        final List<CheckReport> reports = Collections.singletonList(
+                new SimpleReport("check", Collections.emptyList()));
+        final PackageGroupReports group = new PackageGroupReports(2, files, reports);
+        assertEquals("expect index", 2, group.getGroupIndex());
+        assertEquals("expect files", files, group.getPackageFiles());
+        assertEquals("expect reports", reports, group.getReports());
+        assertTrue("expect toString", group.toString().contains("groupIndex=2"));
+    }
+
+    @Test
+    public void testMergeReports() {
+        final Violation first = new SimpleViolation(Violation.Severity.MINOR, "first",
+                PackageId.fromString("my_packages:first"));
+        final Violation second = new SimpleViolation(Violation.Severity.MAJOR, "second",
+                PackageId.fromString("my_packages:second"));
+        final Violation third = new SimpleViolation(Violation.Severity.SEVERE, "third");
+        final List<CheckReport> merged = PackageGroupReports.mergeReports(Arrays.asList(
+                new PackageGroupReports(0, Collections.emptyList(), Arrays.asList(
+                        new SimpleReport("errors", Collections.emptyList()),
+                        new SimpleReport("alpha", Collections.singletonList(first)))),
+                new PackageGroupReports(1, Collections.emptyList(), Arrays.asList(
+                        new SimpleReport("errors", Collections.singletonList(third)),
+                        new SimpleReport("beta", Collections.emptyList()),
+                        new SimpleReport("alpha", Collections.singletonList(second))))));
+        assertEquals("expect merged reports in order of first appearance", Arrays.asList(
+                new SimpleReport("errors", Collections.singletonList(third)),
+                new SimpleReport("alpha", Arrays.asList(first, second)),
+                new SimpleReport("beta", Collections.emptyList())), merged);
+    }
+}
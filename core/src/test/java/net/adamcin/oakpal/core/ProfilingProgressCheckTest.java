@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.vault.fs.config.MetaInf;
+import org.apache.jackrabbit.vault.packaging.PackageId;
+import org.apache.jackrabbit.vault.packaging.PackageProperties;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProfilingProgressCheckTest {
+    private static final PackageId PACKAGE_ID = PackageId.fromString("my_packages:example:1.0");
+
+    @Test
+    public void testDelegation() throws Exception {
+        final ProgressCheck delegate = mock(ProgressCheck.class);
+        when(delegate.getCheckName()).thenReturn("delegate");
+        final EnumSet<ProgressCheck.Event> events = EnumSet.of(ProgressCheck.Event.AFTER_EXTRACT);
+        when(delegate.getSubscribedEvents()).thenReturn(events);
+        final Collection<Violation> violations = new ArrayList<>();
+        when(delegate.getReportedViolations()).thenReturn(violations);
+        final ProfilingProgressCheck check = new ProfilingProgressCheck(delegate);
+        assertSame("same wrapped", delegate, check.getWrapped());
+        assertEquals("same name", "delegate", check.getCheckName());
+        assertSame("same events", events, check.getSubscribedEvents());
+        assertSame("same violations", violations, check.getReportedViolations());
+
+        final File file = new File("example.zip");
+        final Manifest manifest = new Manifest();
+        final Session session = mock(Session.class);
+        final Node node = mock(Node.class);
+        final PackageProperties props = mock(PackageProperties.class);
+        final MetaInf metaInf = mock(MetaInf.class);
+        check.startedScan();
+        check.identifyPackage(PACKAGE_ID, file);
+        check.readManifest(PACKAGE_ID, manifest);
+        check.identifySubpackage(PACKAGE_ID, PACKAGE_ID);
+        check.beforeExtract(PACKAGE_ID, session, props, metaInf, Collections.emptyList());
+        check.importedPath(PACKAGE_ID, "/foo", node);
+        check.deletedPath(PACKAGE_ID, "/foo", session);
+        check.afterExtract(PACKAGE_ID, session);
+        check.finishedScan();
+        verify(delegate).startedScan();
+        verify(delegate).identifyPackage(PACKAGE_ID, file);
+        verify(delegate).readManifest(PACKAGE_ID, manifest);
+        verify(delegate).identifySubpackage(PACKAGE_ID, PACKAGE_ID);
+        verify(delegate).beforeExtract(PACKAGE_ID, session, props, metaInf, Collections.emptyList());
+        verify(delegate).importedPath(PACKAGE_ID, "/foo", node);
+        verify(delegate).deletedPath(PACKAGE_ID, "/foo", session);
+        verify(delegate).afterExtract(PACKAGE_ID, session);
+        verify(delegate).finishedScan();
+
+        final CheckProfile profile = check.getProfile();
+        assertEquals("same name", "delegate", profile.getCheckName());
+        assertEquals("expect every event", EnumSet.allOf(ProgressCheck.Event.class), profile.getEvents().keySet());
+        profile.getEvents().values().forEach(eventProfile ->
+                assertEquals("expect one call", 1L, eventProfile.getCount()));
+        assertEquals("expect one startedScan call", 1L, profile.getStartedScan().getCount());
+        assertEquals("expect one finishedScan call", 1L, profile.getFinishedScan().getCount());
+    }
+
+    @Test
+    public void testGetProfile() throws Exception {
+        final ProgressCheck delegate = mock(ProgressCheck.class);
+        doThrow(RepositoryException.class).when(delegate)
+                .importedPath(any(PackageId.class), any(String.class), any(Node.class));
+        final ProfilingProgressCheck check = new ProfilingProgressCheck(delegate);
+        check.startedScan();
+        for (int i = 0; i < 3; i++) {
+            try {
+                check.importedPath(PACKAGE_ID, "/foo" + i, mock(Node.class));
+            } catch (final RepositoryException e) {
+                // still recorded
+            }
+        }
+        final CheckProfile.EventProfile imported =
+                check.getProfile().getEvents().get(ProgressCheck.Event.IMPORTED_PATH);
+        assertEquals("expect count", 3L, imported.getCount());
+        assertTrue("expect max no greater than total", imported.getMaxNanos() <= imported.getTotalNanos());
+        assertTrue("expect total", imported.getTotalNanos() > 0L);
+        assertEquals("expect same total", check.getProfile().getStartedScan().getTotalNanos()
+                + imported.getTotalNanos(), check.getProfile().getTotalNanos());
+        assertNull("expect no finishedScan yet", check.getProfile().getFinishedScan());
+        if (ProfilingProgressCheck.currentThreadAllocatedBytes() >= 0) {
+            assertTrue("expect allocated bytes", imported.getAllocatedBytes() >= 0L);
+        } else {
+            assertEquals("expect unsupported", -1L, imported.getAllocatedBytes());
+        }
+
+        check.finishedScan();
+        assertEquals("expect finishedScan count", 1L, check.getProfile().getFinishedScan().getCount());
+
+        check.startedScan();
+        assertTrue("expect reset", check.getProfile().getEvents().isEmpty());
+        assertEquals("expect startedScan reset", 1L, check.getProfile().getStartedScan().getCount());
+        assertNull("expect finishedScan reset", check.getProfile().getFinishedScan());
+    }
+
+    @Test
+    public void testFinishedScan_throws() {
+        final ProgressCheck delegate = mock(ProgressCheck.class);
+        doThrow(IllegalStateException.class).when(delegate).finishedScan();
+        final ProfilingProgressCheck check = new ProfilingProgressCheck(delegate);
+        check.startedScan();
+        try {
+            check.finishedScan();
+        } catch (final IllegalStateException e) {
+            // still recorded
+        }
+        assertEquals("expect finishedScan recorded", 1L, check.getProfile().getFinishedScan().getCount());
+    }
+}
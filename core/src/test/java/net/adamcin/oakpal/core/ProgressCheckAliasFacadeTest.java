@@ -28,6 +28,7 @@ import javax.jcr.Session;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.jar.Manifest;
@@ -51,6 +52,15 @@ public class ProgressCheckAliasFacadeTest {
         assertEquals("alias name", "alias", withAlias.getCheckName());
     }
 
+    @Test
+    public void testGetSubscribedEvents() {
+        final ProgressCheck delegate = mock(ProgressCheck.class);
+        final EnumSet<ProgressCheck.Event> events = EnumSet.of(ProgressCheck.Event.AFTER_EXTRACT);
+        when(delegate.getSubscribedEvents()).thenReturn(events);
+        final ProgressCheckAliasFacade alias = new ProgressCheckAliasFacade(delegate, "alias");
+        assertSame("same value", events, alias.getSubscribedEvents());
+    }
+
     private static class DelegateSuccessfullyCalledException extends RuntimeException {
     }
 
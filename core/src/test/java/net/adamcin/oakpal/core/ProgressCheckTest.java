@@ -18,9 +18,16 @@ package net.adamcin.oakpal.core;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 
+import org.apache.jackrabbit.vault.packaging.PackageId;
 import org.junit.Test;
 
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import static org.junit.Assert.assertEquals;
+
 public class ProgressCheckTest {
 
     @Test
@@ -42,4 +49,35 @@ public class ProgressCheckTest {
         mock.afterExtract(null, null);
         mock.finishedScan();
     }
+
+    @Test
+    public void testGetSubscribedEvents() {
+        ProgressCheck noEvents = new ProgressCheck() {
+            @Override
+            public Collection<Violation> getReportedViolations() {
+                return Collections.emptyList();
+            }
+        };
+        assertEquals("expect no events", EnumSet.noneOf(ProgressCheck.Event.class), noEvents.getSubscribedEvents());
+
+        ProgressCheck someEvents = new ProgressCheck() {
+            @Override
+            public Collection<Violation> getReportedViolations() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public void importedPath(final PackageId packageId, final String path, final Node node) {
+            }
+
+            @Override
+            public void afterExtract(final PackageId packageId, final Session inspectSession) {
+            }
+        };
+        assertEquals("expect overridden events",
+                EnumSet.of(ProgressCheck.Event.IMPORTED_PATH, ProgressCheck.Event.AFTER_EXTRACT),
+                someEvents.getSubscribedEvents());
+        assertEquals("expect all events for this interface", EnumSet.allOf(ProgressCheck.Event.class),
+                ProgressCheck.Event.overriddenBy(ScriptProgressCheck.class));
+    }
 }
@@ -19,12 +19,23 @@ package net.adamcin.oakpal.core;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.NoSuchElementException;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
 
 import org.apache.jackrabbit.vault.packaging.PackageId;
 import org.junit.Before;
@@ -96,4 +107,194 @@ public class ReportMapperTest {
                 new ArrayList<>(ReportMapper.readReportsFromFile(jsonFile)));
 
     }
+
+    @Test
+    public void testReportWriterThenReader() throws Exception {
+        final File jsonFile = new File(baseDir, "streamed-reports.json");
+        final CheckReport first = new SimpleReport("test/first",
+                singletonList(new SimpleViolation(Violation.Severity.MAJOR,
+                        "one", PackageId.fromString("test:first"))));
+        final CheckReport empty = new SimpleReport("test/empty", new ArrayList<>());
+        final CheckReport second = new SimpleReport("test/second",
+                asList(new SimpleViolation(Violation.Severity.MINOR,
+                                "one", PackageId.fromString("test:first")),
+                        new SimpleViolation(Violation.Severity.SEVERE,
+                                "two",
+                                PackageId.fromString("test:first"),
+                                PackageId.fromString("test:second"))));
+
+        try (ReportMapper.ReportWriter writer = ReportMapper.openReportWriterToFile(jsonFile)) {
+            writer.write(first);
+            writer.write(empty);
+            writer.write(second);
+        }
+        assertEquals("expect same reports read whole",
+                asList(first, empty, second), new ArrayList<>(ReportMapper.readReportsFromFile(jsonFile)));
+
+        try (ReportMapper.ReportReader reader = ReportMapper.openReportReaderFromFile(jsonFile)) {
+            assertTrue("expect first", reader.hasNext());
+            assertTrue("expect hasNext to not advance", reader.hasNext());
+            assertEquals("expect first", first, reader.next());
+            assertEquals("expect empty", empty, reader.next());
+            assertEquals("expect second", second, reader.next());
+            assertFalse("expect no more", reader.hasNext());
+            try {
+                reader.next();
+                fail("expect NoSuchElementException");
+            } catch (final NoSuchElementException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testReportReader_forEachViolation() throws Exception {
+        final File jsonFile = new File(baseDir, "streamed-violations.json");
+        final Violation firstOne = new SimpleViolation(Violation.Severity.MAJOR,
+                "one", PackageId.fromString("test:first"));
+        final Violation secondOne = new SimpleViolation(Violation.Severity.MINOR,
+                "one", PackageId.fromString("test:first"));
+        final Violation secondTwo = new SimpleViolation(Violation.Severity.SEVERE,
+                "two", PackageId.fromString("test:second"));
+        final CheckReport first = new SimpleReport("test/first", singletonList(firstOne));
+        final CheckReport empty = new SimpleReport("test/empty", new ArrayList<>());
+        final CheckReport second = new SimpleReport("test/second", asList(secondOne, secondTwo));
+        ReportMapper.writeReportsToFile(asList(first, empty, second), jsonFile);
+
+        final List<String> handled = new ArrayList<>();
+        try (ReportMapper.ReportReader reader = ReportMapper.openReportReaderFromFile(jsonFile)) {
+            reader.forEachViolation((checkName, violation) ->
+                    handled.add(checkName + ":" + violation.getDescription()));
+            assertFalse("expect no more reports", reader.hasNext());
+        }
+        assertEquals("expect each violation with its check name",
+                asList("test/first:one", "test/second:one", "test/second:two"), handled);
+
+        final List<Violation> afterFirst = new ArrayList<>();
+        try (ReportMapper.ReportReader reader = ReportMapper.openReportReaderFromFile(jsonFile)) {
+            assertTrue("expect first", reader.hasNext());
+            reader.forEachViolation((checkName, violation) -> afterFirst.add(violation));
+        }
+        assertEquals("expect violations of the report read by hasNext", asList(firstOne, secondOne, secondTwo),
+                afterFirst);
+
+        final String json = "{\"reports\":[{\"violations\":[{\"severity\":\"MAJOR\",\"description\":\"one\","
+                + "\"packages\":[\"test:first\"]}],\"checkName\":\"test/first\"},"
+                + "{\"violations\":[{\"severity\":\"MINOR\",\"description\":\"one\"}]}]}";
+        final List<String> outOfOrder = new ArrayList<>();
+        try (ReportMapper.ReportReader reader = ReportMapper.openReportReader(() -> new StringReader(json))) {
+            reader.forEachViolation((checkName, violation) ->
+                    outOfOrder.add(checkName + ":" + violation.getDescription()));
+        }
+        assertEquals("expect violations held until the check name", asList("test/first:one", ":one"), outOfOrder);
+    }
+
+    @Test
+    public void testReportWriter_empty() throws Exception {
+        final StringWriter writer = new StringWriter();
+        ReportMapper.openReportWriter(() -> writer).close();
+        assertEquals("expect empty reports object",
+                ReportMapper.reportsToJsonObject(new ArrayList<>()),
+                javax.json.Json.createReader(new StringReader(writer.toString())).readObject());
+        assertTrue("expect no reports", ReportMapper.readReports(() -> new StringReader(writer.toString())).isEmpty());
+    }
+
+    @Test
+    public void testReportWriter_writeMember() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final CheckReport report = new SimpleReport("test/first", new ArrayList<>());
+        try (ReportMapper.ReportWriter reportWriter = ReportMapper.openReportWriter(() -> writer)) {
+            reportWriter.write(report);
+            reportWriter.writeMember("profiles", JsonValue.EMPTY_JSON_ARRAY);
+            reportWriter.writeMember("done", JsonValue.TRUE);
+            try {
+                reportWriter.write(report);
+                fail("expect IOException for report after member");
+            } catch (final IOException e) {
+                // expected
+            }
+        }
+        final JsonObject json = Json.createReader(new StringReader(writer.toString())).readObject();
+        assertEquals("expect members after reports", JsonValue.EMPTY_JSON_ARRAY, json.get("profiles"));
+        assertEquals("expect second member", JsonValue.TRUE, json.get("done"));
+        assertEquals("expect reports", singletonList(report),
+                ReportMapper.readReports(() -> new StringReader(writer.toString())));
+    }
+
+    @Test
+    public void testReportWriter_writesToJson() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final CheckReport report = new CheckReport() {
+            @Override
+            public String getCheckName() {
+                return "test/custom";
+            }
+
+            @Override
+            public Collection<Violation> getViolations() {
+                return singletonList(new SimpleViolation(Violation.Severity.MINOR,
+                        "one", PackageId.fromString("test:first")));
+            }
+
+            @Override
+            public JsonObject toJson() {
+                final JsonObjectBuilder builder = Json.createObjectBuilder();
+                CheckReport.super.toJson().forEach(builder::add);
+                return builder.add("custom", true).build();
+            }
+        };
+        try (ReportMapper.ReportWriter reportWriter = ReportMapper.openReportWriter(() -> writer)) {
+            reportWriter.write(report);
+        }
+        final JsonObject json = Json.createReader(new StringReader(writer.toString())).readObject();
+        assertEquals("expect report toJson", report.toJson(),
+                json.getJsonArray(ReportMapper.KEY_REPORTS).getJsonObject(0));
+    }
+
+    @Test
+    public void testReportWriter_streamsViolations() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final CheckReport report = new CheckReport() {
+            @Override
+            public String getCheckName() {
+                return "test/streamed";
+            }
+
+            @Override
+            public Collection<Violation> getViolations() {
+                return asList(new SimpleViolation(Violation.Severity.MINOR, "one", PackageId.fromString("test:first")),
+                        new SimpleViolation(Violation.Severity.MAJOR, "two"));
+            }
+        };
+        try (ReportMapper.ReportWriter reportWriter = ReportMapper.openReportWriter(() -> writer)) {
+            reportWriter.write(report);
+            reportWriter.write(new SimpleReport(null, new ArrayList<>()));
+        }
+        final JsonObject json = Json.createReader(new StringReader(writer.toString())).readObject();
+        assertEquals("expect same json as toJson", report.toJson(),
+                json.getJsonArray(ReportMapper.KEY_REPORTS).getJsonObject(0));
+        assertEquals("expect empty report", JsonValue.EMPTY_JSON_OBJECT,
+                json.getJsonArray(ReportMapper.KEY_REPORTS).getJsonObject(1));
+    }
+
+    @Test
+    public void testReportReader_skipsUnknownValues() throws Exception {
+        final String json = "{\"version\":{\"major\":1},\"tags\":[[1],{}],"
+                + "\"reports\":[\"ignored\",{\"extra\":[{}],\"checkName\":\"test/first\","
+                + "\"violations\":[1,{\"severity\":\"MAJOR\",\"description\":\"one\","
+                + "\"packages\":[\"test:first\"]}]},{}],\"after\":true}";
+        assertEquals("expect reports with unknown values skipped",
+                asList(new SimpleReport("test/first",
+                                singletonList(new SimpleViolation(Violation.Severity.MAJOR,
+                                        "one", PackageId.fromString("test:first")))),
+                        new SimpleReport("", new ArrayList<>())),
+                new ArrayList<>(ReportMapper.readReports(() -> new StringReader(json))));
+        assertTrue("expect no reports without reports key",
+                ReportMapper.readReports(() -> new StringReader("{\"foo\":\"bar\"}")).isEmpty());
+    }
+
+    @Test(expected = JsonException.class)
+    public void testReportReader_notAnObject() throws Exception {
+        ReportMapper.readReports(() -> new StringReader("[]"));
+    }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import net.adamcin.oakpal.testing.TestPackageUtil;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.apache.jackrabbit.vault.fs.config.MetaInf;
+import org.apache.jackrabbit.vault.packaging.PackageId;
+import org.apache.jackrabbit.vault.packaging.PackageProperties;
+import org.junit.Test;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryPoolTest {
+
+    private static Session login(final RepositoryPool.Lease lease) throws RepositoryException {
+        return lease.getRepository().login(new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    private static void awaitIdleCount(final RepositoryPool pool, final int expected) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (pool.getIdleCount() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(50L);
+        }
+        assertEquals("expect idle count", expected, pool.getIdleCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNewPool_invalidSize() {
+        new RepositoryPool(new OakMachine.Builder().build(), 0);
+    }
+
+    @Test
+    public void testFill() throws Exception {
+        final List<NodeStore> suppliedStores = new ArrayList<>();
+        final OakMachine machine = new OakMachine.Builder()
+                .withNodeStoreSupplier(() -> {
+                    final NodeStore store = new MemoryNodeStore();
+                    suppliedStores.add(store);
+                    return store;
+                })
+                .build();
+        try (RepositoryPool pool = new RepositoryPool(machine, 3)) {
+            assertEquals("expect size", 3, pool.getSize());
+            assertEquals("expect no repositories before fill", 0, pool.getIdleCount());
+            assertSame("expect same pool", pool, pool.fill());
+            awaitIdleCount(pool, 3);
+        }
+        assertEquals("expect one supplied store for the init stages", 1, suppliedStores.size());
+    }
+
+    @Test
+    public void testGetPreInstallViolations() throws Exception {
+        try (RepositoryPool pool = new RepositoryPool(new OakMachine.Builder().build(), 1)) {
+            assertTrue("expect no violations before fill", pool.getPreInstallViolations().isEmpty());
+            pool.fill();
+            assertTrue("expect no violations", pool.getPreInstallViolations().isEmpty());
+        }
+        final OakMachine machine = new OakMachine.Builder()
+                .withInitStage(new InitStage.Builder().withForcedRoot("/foo", "nt:nonexistent").build())
+                .build();
+        try (RepositoryPool pool = new RepositoryPool(machine, 1)) {
+            pool.fill();
+            assertFalse("expect violation", pool.getPreInstallViolations().isEmpty());
+            assertEquals("expect violations reported to the pool machine",
+                    new ArrayList<>(machine.getErrorListener().getReportedViolations()),
+                    pool.getPreInstallViolations());
+        }
+    }
+
+    @Test
+    public void testLease() throws Exception {
+        final OakMachine machine = new OakMachine.Builder()
+                .withInitStage(new InitStage.Builder().withNs("foo", "http://foo.com").build())
+                .build();
+        try (RepositoryPool pool = new RepositoryPool(machine, 1)) {
+            final RepositoryPool.Lease lease = pool.lease();
+            Session admin = login(lease);
+            assertEquals("expect init stage namespace", "http://foo.com", admin.getNamespaceURI("foo"));
+            admin.getRootNode().addNode("marker", "nt:unstructured");
+            admin.save();
+            admin.logout();
+            lease.close();
+            lease.close();
+            awaitIdleCount(pool, 1);
+
+            try (RepositoryPool.Lease next = pool.lease()) {
+                assertSame("expect returned repository", lease.getRepository(), next.getRepository());
+                admin = login(next);
+                assertFalse("expect marker reverted", admin.nodeExists("/marker"));
+                assertEquals("expect init stage namespace", "http://foo.com", admin.getNamespaceURI("foo"));
+                admin.logout();
+            }
+        }
+    }
+
+    @Test
+    public void testLease_emptyPool() throws Exception {
+        try (RepositoryPool pool = new RepositoryPool(new OakMachine.Builder().build(), 1)) {
+            try (RepositoryPool.Lease first = pool.lease();
+                 RepositoryPool.Lease second = pool.lease()) {
+                assertNotNull("expect first repository", first.getRepository());
+                assertNotNull("expect second repository", second.getRepository());
+                assertFalse("expect different repositories", first.getRepository() == second.getRepository());
+            }
+            assertEquals("expect returned repositories beyond the size are discarded", 1, pool.getIdleCount());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLease_closed() throws Exception {
+        final RepositoryPool pool = new RepositoryPool(new OakMachine.Builder().build(), 1);
+        pool.fill();
+        pool.close();
+        assertEquals("expect no idle repositories after close", 0, pool.getIdleCount());
+        pool.lease();
+    }
+
+    @Test
+    public void testClose_leasedSegmentStore() throws Exception {
+        final List<TempSegmentNodeStore> created = new ArrayList<>();
+        final Supplier<NodeStore> segmentSupplier = NodeStoreType.SEGMENT.newSupplier();
+        final OakMachine machine = new OakMachine.Builder().withNodeStoreSupplier(() -> {
+            final TempSegmentNodeStore nodeStore = (TempSegmentNodeStore) segmentSupplier.get();
+            synchronized (created) {
+                created.add(nodeStore);
+            }
+            return nodeStore;
+        }).build();
+        final RepositoryPool pool = new RepositoryPool(machine, 1);
+        final RepositoryPool.Lease lease = pool.lease();
+        synchronized (created) {
+            assertTrue("expect post-init and forked segment stores", created.size() >= 2);
+        }
+        pool.close();
+        assertTrue("expect post-init store retained for the lease", created.get(0).getStoreDir().exists());
+        final Session admin = login(lease);
+        assertTrue("expect post-init content", admin.nodeExists("/jcr:system"));
+        admin.logout();
+        lease.close();
+        synchronized (created) {
+            for (TempSegmentNodeStore store : created) {
+                assertFalse("expect store deleted after last lease", store.getStoreDir().exists());
+            }
+        }
+    }
+
+    @Test
+    public void testScanPackages_closedPool() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final RepositoryPool pool = new RepositoryPool(new OakMachine.Builder().build(), 1).fill();
+        final OakMachine machine = new OakMachine.Builder().withRepositoryPool(pool).build();
+        pool.close();
+        assertEquals("expect scan without the closed pool", 1, machine.scanPackage(testPackage).size());
+    }
+
+    @Test(expected = AbortedScanException.class)
+    public void testLease_throws() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("unfiltered_package.zip");
+        final OakMachine machine = new OakMachine.Builder()
+                .withPreInstallUrl(testPackage.toURI().toURL()).build();
+        try (RepositoryPool pool = new RepositoryPool(machine)) {
+            pool.lease();
+        }
+    }
+
+    @Test
+    public void testScanPackages() throws Exception {
+        final File testPackage = TestPackageUtil.prepareTestPackage("tmp_foo_bar.zip");
+        final List<String> fooUris = new ArrayList<>();
+        final List<Boolean> packageExisted = new ArrayList<>();
+        final ProgressCheck check = new SimpleProgressCheck() {
+            @Override
+            public void beforeExtract(final PackageId packageId, final Session inspectSession,
+                                      final PackageProperties packageProperties, final MetaInf metaInf,
+                                      final List<PackageId> subpackages) throws RepositoryException {
+                fooUris.add(inspectSession.getNamespaceURI("foo"));
+                packageExisted.add(inspectSession.nodeExists("/tmp/foo/bar"));
+            }
+        };
+        final OakMachine poolMachine = new OakMachine.Builder()
+                .withInitStage(new InitStage.Builder().withNs("foo", "http://foo.com").build())
+                .build();
+        try (RepositoryPool pool = new RepositoryPool(poolMachine, 1).fill()) {
+            final OakMachine machine = new OakMachine.Builder()
+                    .withRepositoryPool(pool)
+                    .withProgressCheck(check)
+                    .build();
+            assertSame("expect pool", pool, machine.getRepositoryPool());
+            machine.scanPackage(testPackage);
+            machine.scanPackage(testPackage);
+            machine.initAndInspect(session ->
+                    assertFalse("/tmp/foo/bar should not exist after return", session.nodeExists("/tmp/foo/bar")));
+            final List<PackageGroupReports> groupReports = machine.scanPackageGroups(
+                    Arrays.asList(Arrays.asList(testPackage), Arrays.asList(testPackage)), 2);
+            assertEquals("expect two groups", 2, groupReports.size());
+            awaitIdleCount(pool, 1);
+        }
+        assertEquals("expect init stage namespace before each extract",
+                Arrays.asList("http://foo.com", "http://foo.com", "http://foo.com", "http://foo.com"), fooUris);
+        assertEquals("expect package was not installed before each extract", Arrays.asList(false, false, false, false),
+                packageExisted);
+    }
+}
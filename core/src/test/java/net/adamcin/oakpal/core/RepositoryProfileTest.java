@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryProfileTest {
+
+    @Test
+    public void testForName() {
+        assertNull("expect null for null", RepositoryProfile.forName(null));
+        assertNull("expect null for unknown", RepositoryProfile.forName("slim"));
+        for (RepositoryProfile profile : RepositoryProfile.values()) {
+            assertSame("expect same profile for lower case name", profile,
+                    RepositoryProfile.forName(profile.name().toLowerCase()));
+        }
+        assertNull("expect null feature for null", RepositoryFeature.forName(null));
+        for (RepositoryFeature feature : RepositoryFeature.values()) {
+            assertSame("expect same feature for lower case name", feature,
+                    RepositoryFeature.forName(feature.name().toLowerCase()));
+        }
+    }
+
+    @Test
+    public void testGetFeatures() {
+        assertSame("expect full default", RepositoryProfile.FULL, RepositoryProfile.DEFAULT);
+        assertEquals("expect all features", EnumSet.allOf(RepositoryFeature.class),
+                RepositoryProfile.FULL.getFeatures());
+        assertTrue("expect no features", RepositoryProfile.LEAN.getFeatures().isEmpty());
+        RepositoryProfile.LEAN.getFeatures().add(RepositoryFeature.OBSERVATION);
+        assertTrue("expect copy of features", RepositoryProfile.LEAN.getFeatures().isEmpty());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.vault.packaging.PackageId;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static net.adamcin.oakpal.core.JavaxJson.key;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScanResultCacheTest {
+    private static final PackageId ID_A = PackageId.fromString("test:a:1.0");
+    private static final PackageId ID_A_SUB = PackageId.fromString("test:a-sub:1.0");
+    private static final PackageId ID_B = PackageId.fromString("test:b:1.0");
+
+
+    private static List<CheckReport> sampleReports() {
+        return Arrays.asList(
+                new SimpleReport("errors", Collections.emptyList()),
+                new SimpleReport("check", Arrays.asList(
+                        new SimpleViolation(Violation.Severity.MAJOR, "a violation", ID_A),
+                        new SimpleViolation(Violation.Severity.MINOR, "a-sub violation", ID_A_SUB, ID_B),
+                        new SimpleViolation(Violation.Severity.SEVERE, "b violation", ID_B),
+                        new SimpleViolation(Violation.Severity.MINOR, "unattributed violation"))));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final File cacheDir = new File("target/test-output/ScanResultCacheTest/testSaveAndLoad");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final ScanResultCache cache = new ScanResultCache(cacheDir);
+        assertEquals("expect default max entries", ScanResultCache.DEFAULT_MAX_ENTRIES, cache.getMaxEntries());
+        assertFalse("expect miss", cache.load("abc").isPresent());
+        cache.save("abc", sampleReports());
+        assertTrue("expect entry file", cache.getEntryFile("abc").isFile());
+        assertEquals("expect same reports", sampleReports(), cache.load("abc").orElse(null));
+    }
+
+    @Test
+    public void testLoad_corrupt() throws Exception {
+        final File cacheDir = new File("target/test-output/ScanResultCacheTest/testLoad_corrupt");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final ScanResultCache cache = new ScanResultCache(cacheDir);
+        cacheDir.mkdirs();
+        FileUtils.write(cache.getEntryFile("abc"), "{not json", StandardCharsets.UTF_8);
+        assertFalse("expect miss", cache.load("abc").isPresent());
+        assertFalse("expect corrupt entry deleted", cache.getEntryFile("abc").exists());
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        final File cacheDir = new File("target/test-output/ScanResultCacheTest/testEvict");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final ScanResultCache cache = new ScanResultCache(cacheDir, 2);
+        cache.save("one", sampleReports());
+        cache.getEntryFile("one").setLastModified(1000L);
+        cache.save("two", sampleReports());
+        cache.getEntryFile("two").setLastModified(2000L);
+        assertTrue("expect loaded", cache.load("one").isPresent());
+        cache.save("three", sampleReports());
+        assertTrue("expect recently loaded entry retained", cache.getEntryFile("one").isFile());
+        assertFalse("expect least-recently-used entry deleted", cache.getEntryFile("two").exists());
+        assertTrue("expect new entry retained", cache.getEntryFile("three").isFile());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        final File cacheDir = new File("target/test-output/ScanResultCacheTest/testClear");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        final ScanResultCache cache = new ScanResultCache(cacheDir);
+        cache.clear();
+        cache.save("one", sampleReports());
+        final File tempFile = new File(cacheDir, "two" + ScanResultCache.TEMP_SUFFIX);
+        FileUtils.touch(tempFile);
+        cache.clear();
+        assertFalse("expect entry deleted", cache.getEntryFile("one").exists());
+        assertFalse("expect temp file deleted", tempFile.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetEntryFile_invalidKey() throws Exception {
+        final File cacheDir = new File("target/test-output/ScanResultCacheTest/testGetEntryFile_invalidKey");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+        new ScanResultCache(cacheDir).getEntryFile("../abc");
+    }
+
+    @Test
+    public void testFingerprintCheckSpecs() throws Exception {
+        final File scriptDir = new File("target/test-output/ScanResultCacheTest/testFingerprintCheckSpecs");
+        if (scriptDir.exists()) {
+            FileUtils.deleteDirectory(scriptDir);
+        }
+        final File script = new File(scriptDir, "checks/check.js");
+        FileUtils.write(script, "function importedPath() {}", StandardCharsets.UTF_8);
+        final ClassLoader classLoader = new URLClassLoader(new URL[]{scriptDir.toURI().toURL()}, null);
+
+        final CheckSpec spec = new CheckSpec();
+        spec.setName("check");
+        spec.setImpl("checks/check.js");
+        final String original = ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(spec), classLoader);
+        assertEquals("expect same fingerprint", original,
+                ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(CheckSpec.copyOf(spec)), classLoader));
+
+        final CheckSpec configured = CheckSpec.copyOf(spec);
+        configured.setConfig(key("foo", "bar").get());
+        assertNotEquals("expect config change", original,
+                ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(configured), classLoader));
+
+        FileUtils.write(script, "function importedPath(packageId) {}", StandardCharsets.UTF_8);
+        assertNotEquals("expect script change", original,
+                ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(spec), classLoader));
+    }
+
+    private static void writeCheckJar(final File jarFile, final String extraEntry) throws Exception {
+        jarFile.getParentFile().mkdirs();
+        try (JarOutputStream jarOut = new JarOutputStream(new FileOutputStream(jarFile));
+             InputStream classInput = OakpalVersion.class.getResourceAsStream("OakpalVersion.class")) {
+            jarOut.putNextEntry(new JarEntry(OakpalVersion.class.getName().replace('.', '/') + ".class"));
+            IOUtils.copy(classInput, jarOut);
+            jarOut.closeEntry();
+            jarOut.putNextEntry(new JarEntry("extra.txt"));
+            jarOut.write(extraEntry.getBytes(StandardCharsets.UTF_8));
+            jarOut.closeEntry();
+        }
+    }
+
+    @Test
+    public void testFingerprintCheckSpecs_checkClass() throws Exception {
+        final File jarDir = new File("target/test-output/ScanResultCacheTest/testFingerprintCheckSpecs_checkClass");
+        if (jarDir.exists()) {
+            FileUtils.deleteDirectory(jarDir);
+        }
+        final CheckSpec spec = new CheckSpec();
+        spec.setName("check");
+        spec.setImpl(OakpalVersion.class.getName());
+
+        final File jar1 = new File(jarDir, "checks-1.0.jar");
+        writeCheckJar(jar1, "1.0");
+        final File jar2 = new File(jarDir, "checks-2.0.jar");
+        writeCheckJar(jar2, "2.0");
+        try (URLClassLoader loader1 = new URLClassLoader(new URL[]{jar1.toURI().toURL()}, null);
+             URLClassLoader loader1Again = new URLClassLoader(new URL[]{jar1.toURI().toURL()}, null);
+             URLClassLoader loader2 = new URLClassLoader(new URL[]{jar2.toURI().toURL()}, null)) {
+            final String original = ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(spec), loader1);
+            assertEquals("expect same fingerprint for same jar", original,
+                    ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(spec), loader1Again));
+            assertNotEquals("expect changed fingerprint for upgraded check jar", original,
+                    ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(spec), loader2));
+            final CheckSpec missing = CheckSpec.copyOf(spec);
+            missing.setImpl("com.example.MissingCheck");
+            assertNotEquals("expect fingerprint for missing class", original,
+                    ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(missing), loader1));
+        }
+    }
+
+    @Test
+    public void testFingerprintCheckSpecs_classDirectory() throws Exception {
+        final File classDir =
+                new File("target/test-output/ScanResultCacheTest/testFingerprintCheckSpecs_classDirectory");
+        if (classDir.exists()) {
+            FileUtils.deleteDirectory(classDir);
+        }
+        final File classFile = new File(classDir, OakpalVersion.class.getName().replace('.', '/') + ".class");
+        classFile.getParentFile().mkdirs();
+        try (InputStream classInput = OakpalVersion.class.getResourceAsStream("OakpalVersion.class")) {
+            FileUtils.copyInputStreamToFile(classInput, classFile);
+        }
+        final File helperFile = new File(classFile.getParentFile(), "Helper.class");
+        FileUtils.write(helperFile, "1.0", StandardCharsets.UTF_8);
+        final CheckSpec spec = new CheckSpec();
+        spec.setName("check");
+        spec.setImpl(OakpalVersion.class.getName());
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classDir.toURI().toURL()}, null)) {
+            final String original = ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(spec), loader);
+            assertEquals("expect same fingerprint", original,
+                    ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(spec), loader));
+            // a different length, since the last modified time may not change within the same second
+            FileUtils.write(helperFile, "2.0.1", StandardCharsets.UTF_8);
+            assertNotEquals("expect changed fingerprint for changed helper class", original,
+                    ScanResultCache.fingerprintCheckSpecs(Collections.singletonList(spec), loader));
+        }
+    }
+
+    @Test
+    public void testGetScanKey() {
+        final String key = ScanResultCache.getScanKey("base", Arrays.asList("a", "b", "c"));
+        assertEquals("expect same key", key, ScanResultCache.getScanKey("base", Arrays.asList("a", "b", "c")));
+        assertNotEquals("expect changed key for prefix", key,
+                ScanResultCache.getScanKey("base", Arrays.asList("a", "b")));
+        assertNotEquals("expect changed key for changed package", key,
+                ScanResultCache.getScanKey("base", Arrays.asList("a", "b", "x")));
+        assertNotEquals("expect changed key for changed base", key,
+                ScanResultCache.getScanKey("other", Arrays.asList("a", "b", "c")));
+        assertNotEquals("expect changed key for reordered packages", key,
+                ScanResultCache.getScanKey("base", Arrays.asList("b", "a", "c")));
+        assertNotEquals("expect changed key for joined digests", key,
+                ScanResultCache.getScanKey("base", Arrays.asList("ab", "c")));
+    }
+}
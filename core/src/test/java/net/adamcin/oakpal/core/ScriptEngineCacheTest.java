@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.junit.Test;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineManager;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptEngineCacheTest {
+
+    private static ScriptContext newContext(final Bindings bindings) {
+        final ScriptContext context = new SimpleScriptContext();
+        context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        return context;
+    }
+
+    @Test
+    public void testGetDiscovery() {
+        final ScriptEngineCache cache = new ScriptEngineCache();
+        final ClassLoader classLoader = getClass().getClassLoader();
+        assertSame("expect same discovery for class loader",
+                cache.getDiscovery(classLoader), cache.getDiscovery(classLoader));
+        assertSame("expect default cache", ScriptEngineCache.getDefault(), ScriptEngineCache.getDefault());
+    }
+
+    @Test
+    public void testGetEngine() {
+        final ScriptEngineCache cache = new ScriptEngineCache();
+        final ScriptEngineCache.EnginePool byExtension = cache.getEngineByExtension("js");
+        assertNotNull("expect js engine", byExtension);
+        assertTrue("expect shared js engine", byExtension.getEngine().isShared());
+        assertTrue("expect ecmascript is shareable",
+                ScriptEngineCache.isShareable(byExtension.getEngine().getEngine().getFactory()));
+        assertSame("expect same pool by extension", byExtension, cache.getEngineByExtension("js"));
+        assertSame("expect same pool by name", byExtension, cache.getEngineByName("nashorn"));
+        assertSame("expect same engine for thread", byExtension.getEngine(), byExtension.getEngine());
+        assertNull("expect no engine for unknown extension", cache.getEngineByExtension("foobar"));
+        assertNull("expect no engine for unknown name", cache.getEngineByName("foobar"));
+    }
+
+    @Test
+    public void testEnginePool() throws Exception {
+        final ScriptEngineCache.EnginePool pool = new ScriptEngineCache.EnginePool(() ->
+                new ScriptEngineCache.CachedEngine(new ScriptEngineManager().getEngineByExtension("js"), true), 2);
+        final ScriptEngineCache.CachedEngine mine = pool.getEngine();
+        assertSame("expect same engine for thread", mine, pool.getEngine());
+
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<ScriptEngineCache.CachedEngine> other = new AtomicReference<>();
+        final Thread otherThread = new Thread(() -> {
+            other.set(pool.getEngine());
+            holding.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        otherThread.start();
+        holding.await();
+        assertNotSame("expect own engine for concurrent thread", mine, other.get());
+        assertEquals("expect two engines", 2, pool.getEngineCount());
+
+        final AtomicReference<ScriptEngineCache.CachedEngine> third = new AtomicReference<>();
+        final Thread thirdThread = new Thread(() -> third.set(pool.getEngine()));
+        thirdThread.start();
+        thirdThread.join();
+        assertEquals("expect no engines beyond max", 2, pool.getEngineCount());
+        assertTrue("expect shared engine when full", third.get() == mine || third.get() == other.get());
+
+        release.countDown();
+        otherThread.join();
+        final AtomicReference<ScriptEngineCache.CachedEngine> reused = new AtomicReference<>();
+        final Thread reuseThread = new Thread(() -> reused.set(pool.getEngine()));
+        reuseThread.start();
+        reuseThread.join();
+        assertSame("expect engine of exited thread reused", other.get(), reused.get());
+        assertEquals("expect no new engine", 2, pool.getEngineCount());
+
+        final ScriptEngineCache.EnginePool singlePool = ScriptEngineCache.EnginePool.of(mine);
+        final AtomicReference<ScriptEngineCache.CachedEngine> fromOther = new AtomicReference<>();
+        final Thread singleThread = new Thread(() -> fromOther.set(singlePool.getEngine()));
+        singleThread.start();
+        singleThread.join();
+        assertSame("expect single engine for this thread", mine, singlePool.getEngine());
+        assertSame("expect single engine for other thread", mine, fromOther.get());
+    }
+
+    @Test
+    public void testEval() throws Exception {
+        final ScriptEngineCache.CachedEngine cachedEngine = new ScriptEngineCache.CachedEngine(
+                new ScriptEngineManager().getEngineByExtension("js"), false);
+        assertFalse("expect not shared", cachedEngine.isShared());
+        final String source = "var result = config + 1;";
+        final Bindings first = new SimpleBindings();
+        first.put("config", 1);
+        final Bindings second = new SimpleBindings();
+        second.put("config", 2);
+        final ScriptContext firstContext = newContext(first);
+        final ScriptContext secondContext = newContext(second);
+        cachedEngine.eval("test.js", source, firstContext);
+        cachedEngine.eval("test.js", source, secondContext);
+        assertEquals("expect one compiled script", 1, cachedEngine.getCompiledScriptCount());
+        assertEquals("expect first result", 2,
+                ((Number) cachedEngine.getEngine().eval("result", firstContext)).intValue());
+        assertEquals("expect second result", 3,
+                ((Number) cachedEngine.getEngine().eval("result", secondContext)).intValue());
+
+        cachedEngine.eval("test.js", source + " result++;", newContext(first));
+        assertEquals("expect compiled script for changed content", 2, cachedEngine.getCompiledScriptCount());
+        cachedEngine.eval("other.js", source, newContext(second));
+        assertEquals("expect compiled script for other url", 3, cachedEngine.getCompiledScriptCount());
+    }
+}
@@ -25,6 +25,7 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.script.Invocable;
+import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import java.io.File;
@@ -33,6 +34,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.jar.Manifest;
@@ -42,6 +44,7 @@ import static net.adamcin.oakpal.core.JavaxJson.key;
 import static net.adamcin.oakpal.core.JavaxJson.obj;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -75,6 +78,20 @@ public class ScriptProgressCheckTest {
                 "foobar", checkConfigFactory.newInstance(key("checkNameForTest", "foobar").get()).getCheckName());
     }
 
+    @Test
+    public void testGetSubscribedEvents() throws Exception {
+        final ProgressCheck check = ScriptProgressCheck.createInlineScriptCheckFactory(
+                "function importedPath(packageId, path, node) {}\n"
+                        + "function afterExtract(packageId, session) {}\n"
+                        + "var deletedPath = 'not a function';", "")
+                .newInstance(obj().get());
+        assertEquals("expect defined functions", EnumSet.of(ProgressCheck.Event.IMPORTED_PATH,
+                ProgressCheck.Event.AFTER_EXTRACT), check.getSubscribedEvents());
+
+        final ScriptEngine engine = mock(ScriptEngine.class);
+        assertNull("expect null for unknown engine", ScriptProgressCheck.findDefinedEvents(engine));
+    }
+
     @Test(expected = ScriptProgressCheck.UnregisteredScriptEngineNameException.class)
     public void testCreateInlineScriptCheckFactory_unregisteredEngine() throws Exception {
         ScriptProgressCheck.createInlineScriptCheckFactory("", "foobar");
@@ -201,6 +218,96 @@ public class ScriptProgressCheckTest {
         assertEquals("check name should be", "checkNameFromConfig.js", checkNameFromNullConfig.getCheckName());
     }
 
+    @Test
+    public void testImportedPaths_batched() throws Exception {
+        final String script = "var events = [];\n"
+                + "function getImportedPathsBatchSize() { return config.batchSize; }\n"
+                + "function importedPaths(batch) {\n"
+                + "  var paths = [];\n"
+                + "  for (var i = 0; i < batch.length; i++) { paths.push(batch[i].path); }\n"
+                + "  events.push(paths.join('+'));\n"
+                + "}\n"
+                + "function deletedPath(packageId, path) { events.push('-' + path); }\n"
+                + "function finishedScan() { oakpal.minorViolation(events.join(',')); }\n";
+        final ScriptProgressCheck check = (ScriptProgressCheck) ScriptProgressCheck
+                .createInlineScriptCheckFactory(script, "js").newInstance(key("batchSize", 2).get());
+        assertEquals("expect batch size", 2, check.getImportedPathsBatchSize());
+        assertEquals("expect subscribed events", EnumSet.of(ProgressCheck.Event.IMPORTED_PATH,
+                ProgressCheck.Event.DELETED_PATH, ProgressCheck.Event.AFTER_EXTRACT), check.getSubscribedEvents());
+
+        final PackageId id = PackageId.fromString("my_packages:test:1.0");
+        final Session session = mock(Session.class);
+        check.startedScan();
+        for (String path : Arrays.asList("/a", "/b", "/c")) {
+            check.importedPath(id, path, mock(Node.class));
+        }
+        check.deletedPath(id, "/d", session);
+        check.importedPath(id, "/e", mock(Node.class));
+        check.afterExtract(id, session);
+        check.importedPath(id, "/f", mock(Node.class));
+        check.finishedScan();
+        assertEquals("expect batches in event order", "/a+/b,/c,-/d,/e,/f",
+                check.getReportedViolations().iterator().next().getDescription());
+    }
+
+    @Test
+    public void testImportedPaths_defaultBatchSize() throws Exception {
+        final ScriptProgressCheck batched = (ScriptProgressCheck) ScriptProgressCheck
+                .createInlineScriptCheckFactory("function importedPaths(batch) { }", "js").newInstance(null);
+        assertEquals("expect default batch size", ScriptProgressCheck.DEFAULT_IMPORTED_PATHS_BATCH_SIZE,
+                batched.getImportedPathsBatchSize());
+        final ScriptProgressCheck perEvent = (ScriptProgressCheck) ScriptProgressCheck
+                .createInlineScriptCheckFactory("function importedPath(packageId, path, node) { }", "js")
+                .newInstance(null);
+        assertEquals("expect no batching", 0, perEvent.getImportedPathsBatchSize());
+        assertEquals("expect per-event subscription", EnumSet.of(ProgressCheck.Event.IMPORTED_PATH),
+                perEvent.getSubscribedEvents());
+    }
+
+    @Test
+    public void testScriptProgressCheckFactory_sharedEngine() throws Exception {
+        final ScriptProgressCheck.ScriptProgressCheckFactory fooFactory =
+                (ScriptProgressCheck.ScriptProgressCheckFactory) ScriptProgressCheck
+                        .createScriptCheckFactory(testScriptUrl("checkNameFromConfig.js"));
+        final ScriptProgressCheck.ScriptProgressCheckFactory barFactory =
+                (ScriptProgressCheck.ScriptProgressCheckFactory) ScriptProgressCheck
+                        .createScriptCheckFactory(testScriptUrl("checkNameFromConfig.js"));
+        assertSame("expect shared ecmascript engine", fooFactory.getEngine(), barFactory.getEngine());
+        final ProgressCheck fooCheck = fooFactory.newInstance(key("checkNameForTest", "foo").get());
+        final ProgressCheck barCheck = barFactory.newInstance(key("checkNameForTest", "bar").get());
+        final ProgressCheck otherCheck = ScriptProgressCheck
+                .createInlineScriptCheckFactory("function getCheckName() { return \"other\"; }", "js")
+                .newInstance(null);
+        assertEquals("foo check name after other evals", "foo", fooCheck.getCheckName());
+        assertEquals("bar check name after other evals", "bar", barCheck.getCheckName());
+        assertEquals("other check name", "other", otherCheck.getCheckName());
+    }
+
+    @Test
+    public void testGetRequiredRepositoryFeatures() throws Exception {
+        assertEquals("expect no features by default", EnumSet.noneOf(RepositoryFeature.class),
+                ScriptProgressCheck.createInlineScriptCheckFactory("", "js").newInstance(null)
+                        .getRequiredRepositoryFeatures());
+        assertEquals("expect features from script array", EnumSet.of(RepositoryFeature.BINARY_CONTENT,
+                RepositoryFeature.QUERY_INDEXES),
+                ScriptProgressCheck.createInlineScriptCheckFactory(
+                        "function getRequiredRepositoryFeatures() { return [\"BINARY_CONTENT\", \"query_indexes\"]; }",
+                        "js").newInstance(null).getRequiredRepositoryFeatures());
+        assertEquals("expect feature from string", EnumSet.of(RepositoryFeature.OBSERVATION),
+                ScriptProgressCheck.toRepositoryFeatures("OBSERVATION"));
+        assertEquals("expect features from java collection", EnumSet.of(RepositoryFeature.ATOMIC_COUNTER),
+                ScriptProgressCheck.toRepositoryFeatures(Collections.singletonList(RepositoryFeature.ATOMIC_COUNTER)));
+        assertEquals("expect no features for null", EnumSet.noneOf(RepositoryFeature.class),
+                ScriptProgressCheck.toRepositoryFeatures(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetRequiredRepositoryFeatures_unknown() throws Exception {
+        ScriptProgressCheck.createInlineScriptCheckFactory(
+                "function getRequiredRepositoryFeatures() { return [\"FLUX_CAPACITOR\"]; }", "js")
+                .newInstance(null).getRequiredRepositoryFeatures();
+    }
+
     @Test
     public void testStartedScan_invokeWithArgs() throws Exception {
         final Invocable delegate = mock(Invocable.class);
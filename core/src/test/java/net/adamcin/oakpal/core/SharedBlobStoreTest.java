@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SharedBlobStoreTest {
+
+    private static InputStream bytes(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static InputStream bytes(final int length, final int fill) {
+        final byte[] data = new byte[length];
+        Arrays.fill(data, (byte) fill);
+        return new ByteArrayInputStream(data);
+    }
+
+    @Test
+    public void testWriteBlob() throws Exception {
+        final File testDir = new File("target/test-output/SharedBlobStoreTest/testWriteBlob");
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir);
+        }
+        testDir.mkdirs();
+        final File storeDir = new File(testDir, "blobs");
+        final SharedBlobStore store = new SharedBlobStore(storeDir);
+        assertEquals("expect default max bytes", SharedBlobStore.DEFAULT_MAX_BYTES, store.getMaxBytes());
+        assertEquals("expect store dir", storeDir, store.getStoreDir());
+
+        final String blobId = store.writeBlob(bytes("hello blob"));
+        assertEquals("expect sha-256 id", 64, blobId.length());
+        assertTrue("expect blob file", store.getBlobFile(blobId).isFile());
+        assertEquals("expect length", 10L, store.getBlobLength(blobId));
+        assertEquals("expect one reference", 1, store.getReferenceCount(blobId));
+        try (InputStream input = store.getInputStream(blobId)) {
+            assertEquals("expect content", "hello blob", IOUtils.toString(input, StandardCharsets.UTF_8));
+        }
+
+        final byte[] buff = new byte[4];
+        assertEquals("expect partial read", 4, store.readBlob(blobId, 6L, buff, 0, 4));
+        assertArrayEquals("expect partial content", "blob".getBytes(StandardCharsets.UTF_8), buff);
+        assertEquals("expect end of blob", -1, store.readBlob(blobId, 10L, buff, 0, 4));
+        assertNull("expect no reference", store.getReference(blobId));
+
+        assertEquals("expect same id for same content", blobId, store.writeBlob(bytes("hello blob")));
+        assertEquals("expect two references", 2, store.getReferenceCount(blobId));
+        final SharedBlobStore other = new SharedBlobStore(storeDir);
+        assertEquals("expect same id across instances", blobId, other.writeBlob(bytes("hello blob")));
+        assertEquals("expect references per instance", 1, other.getReferenceCount(blobId));
+        assertEquals("expect one blob dir", 1, storeDir.listFiles(File::isDirectory).length);
+        assertEquals("expect no temp files", 0, storeDir.listFiles(file ->
+                file.getName().endsWith(SharedBlobStore.TEMP_SUFFIX)).length);
+    }
+
+    @Test
+    public void testCollectGarbage() throws Exception {
+        final File testDir = new File("target/test-output/SharedBlobStoreTest/testCollectGarbage");
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir);
+        }
+        testDir.mkdirs();
+        final File storeDir = new File(testDir, "blobs");
+        final long longAgo = System.currentTimeMillis() - SharedBlobStore.GC_GRACE_MILLIS - 60000L;
+        final SharedBlobStore previous = new SharedBlobStore(storeDir, 1500L);
+        final String oldest = previous.writeBlob(bytes(1000, 1));
+        final String older = previous.writeBlob(bytes(1000, 2));
+        final String recent = previous.writeBlob(bytes(1000, 3));
+        final SharedBlobStore store = new SharedBlobStore(storeDir, 1500L);
+        assertEquals("expect reuse of older blob", older, store.writeBlob(bytes(1000, 2)));
+        assertEquals("expect nothing deleted within grace period", 3, storeDir.listFiles(File::isDirectory).length);
+
+        previous.close();
+        previous.getBlobFile(oldest).setLastModified(longAgo - 1000L);
+        previous.getBlobFile(older).setLastModified(longAgo);
+        final File staleTemp = new File(storeDir, "stale" + SharedBlobStore.TEMP_SUFFIX);
+        staleTemp.createNewFile();
+        staleTemp.setLastModified(longAgo);
+        assertEquals("expect oldest unreferenced blob deleted", 1000L, store.collectGarbage());
+        assertFalse("expect stale temp deleted", staleTemp.exists());
+        assertFalse("expect oldest deleted", store.getBlobFile(oldest).exists());
+        assertTrue("expect referenced blob retained", store.getBlobFile(older).exists());
+        assertTrue("expect recent blob retained over budget", store.getBlobFile(recent).exists());
+        assertEquals("expect nothing else to delete", 0L, store.collectGarbage());
+    }
+
+    @Test
+    public void testCollectGarbage_openInstance() throws Exception {
+        final File testDir = new File("target/test-output/SharedBlobStoreTest/testCollectGarbage_openInstance");
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir);
+        }
+        testDir.mkdirs();
+        final File storeDir = new File(testDir, "blobs");
+        final long longAgo = System.currentTimeMillis() - SharedBlobStore.GC_GRACE_MILLIS - 60000L;
+        final SharedBlobStore retained = new SharedBlobStore(storeDir, 500L);
+        final String retainedId = retained.writeBlob(bytes(1000, 1));
+        retained.getBlobFile(retainedId).setLastModified(longAgo);
+        final SharedBlobStore store = new SharedBlobStore(storeDir, 500L);
+        assertEquals("expect blob of open instance retained", 0L, store.collectGarbage());
+        assertTrue("expect retained blob", store.getBlobFile(retainedId).exists());
+        final File leaseFile = SharedBlobStore.DirectoryReferences.forDirectory(storeDir).getLeaseFile();
+        assertTrue("expect reference recorded in lease",
+                FileUtils.readLines(leaseFile, StandardCharsets.US_ASCII).contains(retainedId));
+
+        retained.close();
+        assertEquals("expect blob of closed instance deleted", 1000L, store.collectGarbage());
+        assertFalse("expect lease compacted",
+                FileUtils.readLines(leaseFile, StandardCharsets.US_ASCII).contains(retainedId));
+    }
+
+    @Test
+    public void testCollectGarbage_leases() throws Exception {
+        final File testDir = new File("target/test-output/SharedBlobStoreTest/testCollectGarbage_leases");
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir);
+        }
+        testDir.mkdirs();
+        final File storeDir = new File(testDir, "blobs");
+        final long longAgo = System.currentTimeMillis() - SharedBlobStore.GC_GRACE_MILLIS - 60000L;
+        final SharedBlobStore writer = new SharedBlobStore(storeDir, 500L);
+        final String runningId = writer.writeBlob(bytes(1000, 1));
+        final String exitedId = writer.writeBlob(bytes(1000, 2));
+        writer.close();
+        writer.getBlobFile(runningId).setLastModified(longAgo);
+        writer.getBlobFile(exitedId).setLastModified(longAgo - 1000L);
+
+        final File runningLease = new File(storeDir, "running" + SharedBlobStore.LEASE_SUFFIX);
+        FileUtils.writeStringToFile(runningLease, runningId + "\n", StandardCharsets.US_ASCII);
+        final File exitedLease = new File(storeDir, "exited" + SharedBlobStore.LEASE_SUFFIX);
+        FileUtils.writeStringToFile(exitedLease, exitedId + "\n", StandardCharsets.US_ASCII);
+        exitedLease.setLastModified(longAgo);
+
+        try (FileChannel channel = FileChannel.open(runningLease.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+             FileLock lock = channel.lock(Long.MAX_VALUE - 1L, 1L, false)) {
+            final SharedBlobStore store = new SharedBlobStore(storeDir, 500L);
+            assertEquals("expect blob of exited process deleted", 1000L, store.collectGarbage());
+            assertFalse("expect lease of exited process deleted", exitedLease.exists());
+            assertTrue("expect lease of running process retained", runningLease.exists());
+            assertTrue("expect blob of running process retained", store.getBlobFile(runningId).exists());
+            assertFalse("expect blob of exited process deleted", store.getBlobFile(exitedId).exists());
+        }
+    }
+
+    @Test
+    public void testForkCheckpoint() throws Exception {
+        final File testDir = new File("target/test-output/SharedBlobStoreTest/testForkCheckpoint");
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir);
+        }
+        testDir.mkdirs();
+        final File storeDir = new File(testDir, "blobs");
+        final SharedBlobStore source = new SharedBlobStore(storeDir);
+        final RepositoryCheckpoint fork = new OakMachine.Builder().build()
+                .forkCheckpoint(EmptyNodeState.EMPTY_NODE, source);
+        final SharedBlobStore forkStore = fork.getSharedBlobStore();
+        try {
+            assertNotNull("expect fork backed by shared blob store", forkStore);
+            assertNotSame("expect fork to have its own instance", source, forkStore);
+            assertEquals("expect same directory", source.getStoreDir(), forkStore.getStoreDir());
+            final Blob blob = fork.getNodeStore().createBlob(bytes(FileBlobMemoryNodeStore.INLINE_MAX_BYTES, 3));
+            assertTrue("expect blob stored in shared directory",
+                    source.getBlobFile(blob.getContentIdentity()).exists());
+            assertEquals("expect fork reference", 1, forkStore.getReferenceCount(blob.getContentIdentity()));
+        } finally {
+            fork.shutdown();
+        }
+        assertTrue("expect fork references released on shutdown", forkStore.getReferencedBlobIds().isEmpty());
+    }
+
+    @Test
+    public void testFileBlobMemoryNodeStore() throws Exception {
+        final File testDir = new File("target/test-output/SharedBlobStoreTest/testFileBlobMemoryNodeStore");
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir);
+        }
+        testDir.mkdirs();
+        final File storeDir = new File(testDir, "blobs");
+        final FileBlobMemoryNodeStore nodeStore = new FileBlobMemoryNodeStore(storeDir.getAbsolutePath());
+        final Blob inline = nodeStore.createBlob(bytes(FileBlobMemoryNodeStore.INLINE_MAX_BYTES - 1, 7));
+        assertEquals("expect inline length", FileBlobMemoryNodeStore.INLINE_MAX_BYTES - 1, inline.length());
+        assertEquals("expect nothing stored for inline blob", 0, storeDir.listFiles().length);
+
+        final Blob blob = nodeStore.createBlob(bytes(FileBlobMemoryNodeStore.INLINE_MAX_BYTES, 7));
+        assertEquals("expect length", FileBlobMemoryNodeStore.INLINE_MAX_BYTES, blob.length());
+        try (InputStream input = blob.getNewStream()) {
+            final byte[] expected = new byte[FileBlobMemoryNodeStore.INLINE_MAX_BYTES];
+            Arrays.fill(expected, (byte) 7);
+            assertArrayEquals("expect content", expected, IOUtils.toByteArray(input));
+        }
+        assertEquals("expect one reference", 1, nodeStore.getBlobStore().getReferenceCount(blob.getContentIdentity()));
+    }
+
+    @Test
+    public void testWriteBlob_concurrent() throws Exception {
+        final File testDir = new File("target/test-output/SharedBlobStoreTest/testWriteBlob_concurrent");
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir);
+        }
+        testDir.mkdirs();
+        final File storeDir = new File(testDir, "blobs");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final int fill = i % 2;
+                futures.add(executor.submit(() -> new SharedBlobStore(storeDir).writeBlob(bytes(4096, fill))));
+            }
+            final Set<String> blobIds = new HashSet<>();
+            for (Future<String> future : futures) {
+                blobIds.add(future.get());
+            }
+            assertEquals("expect two distinct blobs", 2, blobIds.size());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("expect no temp files", 0, storeDir.listFiles(file ->
+                file.getName().endsWith(SharedBlobStore.TEMP_SUFFIX)).length);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.ArrayBasedBlob;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StubBlobNodeStoreTest {
+
+    @Test
+    public void testStubBlob() throws Exception {
+        final byte[] content = "some binary content".getBytes(StandardCharsets.UTF_8);
+        final StubBlob stub = StubBlob.fromStream(new ByteArrayInputStream(content));
+        assertEquals("expect length", content.length, stub.length());
+        assertEquals("expect digest",
+                Digests.toHex(MessageDigest.getInstance("SHA-256").digest(content)),
+                stub.getContentIdentity());
+        try {
+            stub.getNewStream();
+            fail("expect IllegalStateException");
+        } catch (final IllegalStateException e) {
+            assertTrue("expect feature in message", e.getMessage().contains("BINARY_CONTENT"));
+        }
+        assertEquals("expect equal stubs",
+                stub, StubBlob.fromStream(new ByteArrayInputStream(content)));
+        assertNotEquals("expect different stubs",
+                stub, StubBlob.fromStream(new ByteArrayInputStream(new byte[content.length])));
+        assertNotEquals("expect not equal to blob without content identity",
+                stub, new ArrayBasedBlob(content));
+    }
+
+    @Test
+    public void testCreateBlob() throws Exception {
+        final MemoryNodeStore memoryNodeStore = new MemoryNodeStore();
+        assertTrue("expect can wrap memory", StubBlobNodeStore.canWrap(memoryNodeStore));
+        final StubBlobNodeStore nodeStore = new StubBlobNodeStore(memoryNodeStore);
+        final byte[] content = new byte[16 * 1024];
+
+        final Blob stored = nodeStore.createBlob(new ByteArrayInputStream(content));
+        assertFalse("expect stored blob outside of stubbing", stored instanceof StubBlob);
+
+        StubBlobNodeStore.beginStubbing();
+        final Blob stub;
+        try {
+            assertTrue("expect stubbing", StubBlobNodeStore.isStubbing());
+            stub = nodeStore.createBlob(new ByteArrayInputStream(content));
+        } finally {
+            StubBlobNodeStore.endStubbing();
+        }
+        assertFalse("expect not stubbing", StubBlobNodeStore.isStubbing());
+        assertTrue("expect stub blob", stub instanceof StubBlob);
+        assertEquals("expect length", content.length, stub.length());
+
+        final NodeBuilder builder = nodeStore.getRoot().builder();
+        builder.child("foo").setProperty("data", stub);
+        nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        assertEquals("expect stub in wrapped store", content.length,
+                memoryNodeStore.getRoot().getChildNode("foo").getProperty("data")
+                        .getValue(Type.BINARY).length());
+    }
+}
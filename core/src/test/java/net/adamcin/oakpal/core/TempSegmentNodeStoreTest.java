@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TempSegmentNodeStoreTest {
+
+    @Test
+    public void testCreateAndClose() throws Exception {
+        final File parentDir = new File("target/test-output/TempSegmentNodeStoreTest/testCreateAndClose");
+        if (parentDir.exists()) {
+            FileUtils.deleteDirectory(parentDir);
+        }
+        parentDir.mkdirs();
+        final File blobDir = new File(parentDir, "blobs");
+        final SharedBlobStore blobStore = new SharedBlobStore(blobDir);
+        final TempSegmentNodeStore nodeStore = new TempSegmentNodeStore(parentDir, blobStore);
+        assertEquals("expect temp dir in parent", parentDir, nodeStore.getStoreDir().getParentFile());
+        assertTrue("expect temp dir prefix",
+                nodeStore.getStoreDir().getName().startsWith(TempSegmentNodeStore.TEMP_PREFIX));
+
+        final NodeBuilder builder = nodeStore.getRoot().builder();
+        builder.child("foo").setProperty("bar", "baz");
+        final Blob blob = nodeStore.createBlob(new ByteArrayInputStream(new byte[64 * 1024]));
+        builder.child("foo").setProperty("data", blob);
+        nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        assertEquals("expect property", "baz", nodeStore.getRoot().getChildNode("foo").getString("bar"));
+        assertEquals("expect blob in shared blob store", 1, blobStore.getReferenceCount(blob.getContentIdentity()));
+
+        nodeStore.close();
+        assertFalse("expect temp dir deleted", nodeStore.getStoreDir().exists());
+        assertTrue("expect shared blob store retained", blobDir.isDirectory());
+    }
+
+    @Test
+    public void testNewSupplier() throws Exception {
+        assertTrue("expect memory", NodeStoreType.MEMORY.newSupplier().get() instanceof MemoryNodeStore);
+        final File testDir = new File("target/test-output/TempSegmentNodeStoreTest/testNewSupplier");
+        if (testDir.exists()) {
+            FileUtils.deleteDirectory(testDir);
+        }
+        testDir.mkdirs();
+        final File blobDir = new File(testDir, "blobs");
+        assertTrue("expect memory with blobs", NodeStoreType.MEMORY.newSupplier(blobDir, 1024L).get()
+                instanceof FileBlobMemoryNodeStore);
+        final NodeStore segment = NodeStoreType.SEGMENT.newSupplier().get();
+        try {
+            assertTrue("expect segment", segment instanceof TempSegmentNodeStore);
+        } finally {
+            OakMachine.closeNodeStore(segment);
+        }
+        assertSame("expect segment for name", NodeStoreType.SEGMENT, NodeStoreType.forName("Segment"));
+        assertNull("expect null for unknown name", NodeStoreType.forName("tar"));
+    }
+
+    @Test
+    public void testOakMachine() throws Exception {
+        final List<TempSegmentNodeStore> created = new ArrayList<>();
+        final Supplier<NodeStore> segmentSupplier = NodeStoreType.SEGMENT.newSupplier();
+        final OakMachine machine = new OakMachine.Builder().withNodeStoreSupplier(() -> {
+            final TempSegmentNodeStore nodeStore = (TempSegmentNodeStore) segmentSupplier.get();
+            created.add(nodeStore);
+            return nodeStore;
+        }).build();
+        machine.adminInitAndInspect(session -> {
+            final Node foo = session.getRootNode().addNode("foo", "nt:unstructured");
+            foo.setProperty("bar", "baz");
+            session.save();
+            assertEquals("expect property", "baz", session.getNode("/foo").getProperty("bar").getString());
+        });
+        assertEquals("expect one store", 1, created.size());
+        assertFalse("expect store deleted after inspect", created.get(0).getStoreDir().exists());
+
+        machine.scanPackages(Collections.emptyList());
+        assertEquals("expect second store", 2, created.size());
+        assertFalse("expect store deleted after scan", created.get(1).getStoreDir().exists());
+
+        machine.scanPackageGroups(Collections.singletonList(Collections.emptyList()), 1);
+        assertEquals("expect post-init and group stores", 4, created.size());
+        assertFalse("expect post-init store deleted after groups", created.get(2).getStoreDir().exists());
+        assertFalse("expect group store deleted after groups", created.get(3).getStoreDir().exists());
+    }
+}
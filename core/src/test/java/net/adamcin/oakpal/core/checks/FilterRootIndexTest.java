@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core.checks;
+
+import org.apache.jackrabbit.vault.fs.api.PathFilterSet;
+import org.apache.jackrabbit.vault.fs.api.WorkspaceFilter;
+import org.apache.jackrabbit.vault.fs.config.ConfigurationException;
+import org.apache.jackrabbit.vault.fs.config.DefaultWorkspaceFilter;
+import org.apache.jackrabbit.vault.fs.filter.DefaultPathFilter;
+import org.apache.jackrabbit.vault.packaging.PackageId;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FilterRootIndexTest {
+    private static final PackageId ID_APPS = PackageId.fromString("test:apps:1.0");
+    private static final PackageId ID_ACME = PackageId.fromString("test:acme:1.0");
+    private static final PackageId ID_ROOT = PackageId.fromString("test:root:1.0");
+    private static final PackageId ID_IGNORED = PackageId.fromString("test:ignored:1.0");
+    private static final PackageId ID_CUSTOM = PackageId.fromString("test:custom:1.0");
+
+    private static final List<String> PATHS = Arrays.asList(
+            "/", "/apps", "/apps/acme", "/apps/acme/components", "/apps/acme/config", "/apps/acmex",
+            "/apps/other", "/content", "/content/acme", "/content/acme/en", "/conf/acme", "/etc", "relative");
+
+    static DefaultWorkspaceFilter filter(final PathFilterSet... filterSets) {
+        final DefaultWorkspaceFilter filter = new DefaultWorkspaceFilter();
+        for (PathFilterSet filterSet : filterSets) {
+            filter.add(filterSet);
+        }
+        return filter;
+    }
+
+    static PathFilterSet filterSet(final String root, final String... excludes) throws ConfigurationException {
+        final PathFilterSet filterSet = new PathFilterSet(root);
+        for (String exclude : excludes) {
+            filterSet.addExclude(new DefaultPathFilter(exclude));
+        }
+        return filterSet;
+    }
+
+    private Map<PackageId, WorkspaceFilter> buildFilters() throws Exception {
+        final Map<PackageId, WorkspaceFilter> filters = new LinkedHashMap<>();
+        filters.put(ID_APPS, filter(filterSet("/apps", "/apps/acme/config(/.*)?")));
+        filters.put(ID_ACME, filter(filterSet("/apps/acme"), filterSet("/content/acme", "/content/acme/en")));
+        filters.put(ID_ROOT, filter(filterSet("/", "/apps(/.*)?", "/content(/.*)?")));
+        final DefaultWorkspaceFilter ignoring = filter(filterSet("/conf"));
+        ignoring.setGlobalIgnored(new DefaultPathFilter("/conf/acme"));
+        filters.put(ID_IGNORED, ignoring);
+        final WorkspaceFilter custom = mock(WorkspaceFilter.class);
+        when(custom.contains("/etc")).thenReturn(true);
+        filters.put(ID_CUSTOM, custom);
+        return filters;
+    }
+
+    @Test
+    public void testFindContaining() throws Exception {
+        final Map<PackageId, WorkspaceFilter> filters = buildFilters();
+        final FilterRootIndex index = new FilterRootIndex();
+        filters.forEach(index::put);
+        for (PackageId excludeId : Arrays.asList(null, ID_APPS, ID_ACME, ID_ROOT)) {
+            for (String path : PATHS) {
+                final List<PackageId> expected = filters.entrySet().stream()
+                        .filter(entry -> !entry.getKey().equals(excludeId))
+                        .filter(entry -> entry.getValue().contains(path))
+                        .map(Map.Entry::getKey)
+                        .collect(Collectors.toList());
+                assertEquals("expect same packages for path " + path + " excluding " + excludeId,
+                        expected, index.findContaining(path, excludeId));
+            }
+        }
+        assertEquals("expect custom filter", Arrays.asList(ID_ROOT, ID_CUSTOM),
+                index.findContaining("/etc", null));
+        assertEquals("expect ignored path",
+                Collections.singletonList(ID_ROOT), index.findContaining("/conf/acme", null));
+    }
+
+    @Test
+    public void testPutRemoveClear() throws Exception {
+        final FilterRootIndex index = new FilterRootIndex();
+        final WorkspaceFilter apps = filter(filterSet("/apps"));
+        index.put(ID_APPS, apps);
+        assertSame("expect filter", apps, index.get(ID_APPS));
+        assertEquals(Collections.singletonList(ID_APPS), index.findContaining("/apps/acme", null));
+
+        final WorkspaceFilter content = filter(filterSet("/content"));
+        index.put(ID_APPS, content);
+        assertTrue("expect replaced filter", index.findContaining("/apps/acme", null).isEmpty());
+        assertEquals(Collections.singletonList(ID_APPS), index.findContaining("/content", null));
+
+        index.remove(ID_APPS);
+        assertNull("expect no filter", index.get(ID_APPS));
+        assertTrue("expect no match", index.findContaining("/content", null).isEmpty());
+
+        index.put(ID_ACME, filter(filterSet("/apps/acme")));
+        index.clear();
+        assertNull("expect no filter", index.get(ID_ACME));
+        assertTrue("expect no match", index.findContaining("/apps/acme", null).isEmpty());
+    }
+}
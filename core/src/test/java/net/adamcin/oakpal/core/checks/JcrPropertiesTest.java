@@ -23,10 +23,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.EnumSet;
 import java.util.regex.Pattern;
 
 import net.adamcin.oakpal.core.CheckReport;
 import net.adamcin.oakpal.core.ProgressCheck;
+import net.adamcin.oakpal.core.RepositoryFeature;
 import net.adamcin.oakpal.core.TestUtil;
 import net.adamcin.oakpal.testing.TestPackageUtil;
 import org.junit.Test;
@@ -141,6 +143,32 @@ public class JcrPropertiesTest extends ProgressCheckTestBase {
         });
     }
 
+    @Test
+    public void testGetRequiredRepositoryFeatures() {
+        assertEquals("expect no features without value rules", EnumSet.noneOf(RepositoryFeature.class),
+                new JcrProperties().newInstance(obj()
+                        .key("properties", arr().and(key("name", "jcr:data").key("denyIfAbsent", true)))
+                        .get()).getRequiredRepositoryFeatures());
+        assertEquals("expect no features for value rules of another required type",
+                EnumSet.noneOf(RepositoryFeature.class),
+                new JcrProperties().newInstance(obj()
+                        .key("properties", arr().and(key("name", "jcr:data").key("requireType", "String")
+                                .key("valueRules", arr().and(key("pattern", ".*").key("type", "deny")))))
+                        .get()).getRequiredRepositoryFeatures());
+        assertEquals("expect binary content for value rules of any type",
+                EnumSet.of(RepositoryFeature.BINARY_CONTENT),
+                new JcrProperties().newInstance(obj()
+                        .key("properties", arr().and(key("name", "jcr:data")
+                                .key("valueRules", arr().and(key("pattern", ".*").key("type", "deny")))))
+                        .get()).getRequiredRepositoryFeatures());
+        assertEquals("expect binary content for value rules of binaries",
+                EnumSet.of(RepositoryFeature.BINARY_CONTENT),
+                new JcrProperties().newInstance(obj()
+                        .key("properties", arr().and(key("name", "jcr:data").key("requireType", "Binary")
+                                .key("valueRules", arr().and(key("pattern", ".*").key("type", "deny")))))
+                        .get()).getRequiredRepositoryFeatures());
+    }
+
     @Test
     public void testDenyNodeTypes() throws Exception {
         TestUtil.testBlock(() -> {
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.core.checks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RuleSetTest {
+
+    private static Rule rule(final Rule.RuleType type, final String pattern) {
+        return new Rule(type, Pattern.compile(pattern));
+    }
+
+    private static Rule rule(final Rule.RuleType type, final String pattern, final int flags) {
+        return new Rule(type, Pattern.compile(pattern, flags));
+    }
+
+    private static final List<String> PATTERNS = Arrays.asList(
+            ".*",
+            "/apps",
+            "/apps(/.*)?",
+            "/apps/acme(?:/.*)?",
+            "/apps/acme/.*",
+            "/apps/acme/components/.*",
+            "/content/dam/acme\\.com(/.*)?",
+            "/etc/(tags|clientlibs)(/.*)?",
+            "/var/.*/jcr:content",
+            "/libs/[a-z]+/config",
+            "/conf/([^/]+)/\\1",
+            "(?i)/APPS/FOO(/.*)?",
+            "(?<foo>/home)/.*",
+            "(?<foo>/home/users)/.*",
+            "/tmp\\.*",
+            "my_packages:.*",
+            "my_packages:tmp_foo_bar",
+            "adamcin:.*:1\\.0"
+    );
+
+    private static final List<String> VALUES = Arrays.asList(
+            "", "/", "/apps", "/apps/", "/appsx", "/apps/acme", "/apps/acme/", "/apps/acme/components",
+            "/apps/acme/components/page", "/apps/foo", "/APPS/FOO/bar", "/content/dam/acme.com",
+            "/content/dam/acmexcom", "/content/dam/acme.com/images", "/etc/tags/foo", "/etc/clientlibs",
+            "/etc/designs", "/var/audit/jcr:content", "/var/jcr:content", "/libs/cq/config", "/libs/CQ/config",
+            "/conf/acme/acme", "/conf/acme/other", "/home/users/a", "/home/groups/b", "/tmp", "/tmp...",
+            "my_packages:tmp_foo_bar", "my_packages:tmp_foo_bar:1.0", "adamcin:test:1.0", "adamcin:test:1x0",
+            "/apps/acme\n/evil", "line\nbreak", "/apps ", "/apps/acme/\r"
+    );
+
+    private static void assertEquivalent(final List<Rule> rules) {
+        final RuleSet ruleSet = RuleSet.compile(rules);
+        for (String value : VALUES) {
+            assertSame("expect same rule for value " + value + " from " + rules,
+                    Rule.lastMatch(rules, value), ruleSet.lastMatch(value));
+        }
+    }
+
+    @Test
+    public void testCompile() {
+        final RuleSet empty = RuleSet.compile(null);
+        assertTrue("expect empty rules", empty.getRules().isEmpty());
+        assertSame("expect default include", Rule.DEFAULT_INCLUDE, empty.lastMatch("/apps"));
+
+        final List<Rule> includes = Collections.singletonList(rule(Rule.RuleType.INCLUDE, "/apps(/.*)?"));
+        final RuleSet includeSet = RuleSet.compile(includes);
+        assertEquals("expect rules", includes, includeSet.getRules());
+        assertSame("expect default exclude", Rule.DEFAULT_EXCLUDE, includeSet.getDefaultRule());
+        assertSame("expect default exclude for miss", Rule.DEFAULT_EXCLUDE, includeSet.lastMatch("/libs"));
+        assertSame("expect include for hit", includes.get(0), includeSet.lastMatch("/apps/acme"));
+
+        final RuleSet noDefaultSelector = RuleSet.compile(includes, null);
+        assertSame("expect default include", Rule.DEFAULT_INCLUDE, noDefaultSelector.getDefaultRule());
+        assertSame("expect custom default", Rule.DEFAULT_DENY,
+                RuleSet.compile(includes, list -> Rule.DEFAULT_DENY).lastMatch("/libs"));
+    }
+
+    @Test
+    public void testLastMatch_ordered() {
+        final List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < PATTERNS.size(); i++) {
+            rules.add(rule(i % 2 == 0 ? Rule.RuleType.ALLOW : Rule.RuleType.DENY, PATTERNS.get(i)));
+            assertEquivalent(rules);
+        }
+        final List<Rule> reversed = new ArrayList<>(rules);
+        Collections.reverse(reversed);
+        assertEquivalent(reversed);
+    }
+
+    @Test
+    public void testLastMatch_shuffled() {
+        final Random random = new Random(42L);
+        for (int i = 0; i < 50; i++) {
+            final List<Rule> rules = new ArrayList<>();
+            for (String pattern : PATTERNS) {
+                if (random.nextBoolean()) {
+                    rules.add(rule(random.nextBoolean() ? Rule.RuleType.INCLUDE : Rule.RuleType.EXCLUDE, pattern));
+                }
+            }
+            Collections.shuffle(rules, random);
+            assertEquivalent(rules);
+        }
+    }
+
+    @Test
+    public void testLastMatch_flags() {
+        assertEquivalent(Arrays.asList(
+                rule(Rule.RuleType.DENY, "/apps(/.*)?"),
+                rule(Rule.RuleType.ALLOW, "/APPS/ACME(/.*)?", Pattern.CASE_INSENSITIVE),
+                rule(Rule.RuleType.DENY, "/apps/acme/.*", Pattern.DOTALL),
+                rule(Rule.RuleType.ALLOW, "/libs/.*")));
+    }
+
+    @Test
+    public void testLastMatch_duplicateGroupNames() {
+        assertEquivalent(Arrays.asList(
+                rule(Rule.RuleType.DENY, "(?<name>/home)/.*"),
+                rule(Rule.RuleType.ALLOW, "(?<name>/home/users)/.*"),
+                rule(Rule.RuleType.DENY, "/home/users/[ab]")));
+    }
+
+    @Test
+    public void testUnquoteLiteral() {
+        assertEquals("/apps/acme", RuleSet.unquoteLiteral("/apps/acme"));
+        assertEquals("/content/dam/acme.com", RuleSet.unquoteLiteral("/content/dam/acme\\.com"));
+        assertEquals("", RuleSet.unquoteLiteral(""));
+        assertNull(RuleSet.unquoteLiteral("/apps/.*"));
+        assertNull(RuleSet.unquoteLiteral("/apps\\d"));
+        assertNull(RuleSet.unquoteLiteral("/apps\\"));
+        assertNull(RuleSet.unquoteLiteral("/apps|/libs"));
+    }
+
+    @Test
+    public void testHasLineTerminator() {
+        assertTrue(RuleSet.hasLineTerminator("a\nb"));
+        assertTrue(RuleSet.hasLineTerminator("a\u0085b"));
+        assertFalse(RuleSet.hasLineTerminator("/apps/acme"));
+    }
+}
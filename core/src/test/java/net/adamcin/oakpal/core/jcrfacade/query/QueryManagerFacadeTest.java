@@ -25,6 +25,8 @@ import javax.jcr.Session;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.qom.QueryObjectModelFactory;
+import java.util.ArrayList;
+import java.util.List;
 
 import net.adamcin.oakpal.core.jcrfacade.FacadeGetterMapping;
 import net.adamcin.oakpal.core.jcrfacade.JcrSessionFacade;
@@ -48,6 +50,22 @@ public class QueryManagerFacadeTest {
                         QueryManager::getQOMFactory);
     }
 
+    @Test
+    public void testBeforeQuery() throws Exception {
+        final QueryManager delegate = mock(QueryManager.class);
+        final QueryObjectModelFactory qomFactory = mock(QueryObjectModelFactory.class);
+        when(delegate.getQOMFactory()).thenReturn(qomFactory);
+        final List<String> hookCalls = new ArrayList<>();
+        final QueryManagerFacade<Session> facade = new QueryManagerFacade<>(delegate,
+                new JcrSessionFacade(mock(Session.class), false, () -> hookCalls.add("beforeQuery")));
+        facade.createQuery("", "");
+        facade.getQuery(mock(Node.class));
+        facade.getQOMFactory().createQuery(null, null, null, null);
+        assertEquals("expect hook call for each query", 3, hookCalls.size());
+        facade.getSupportedQueryLanguages();
+        assertEquals("expect no hook call for supported languages", 3, hookCalls.size());
+    }
+
     @Test
     public void testGetSupportedQueryLanguages() throws Exception {
         QueryManager delegate = mock(QueryManager.class);
@@ -18,6 +18,7 @@ package net.adamcin.oakpal.maven.mojo;
 
 import java.io.File;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -84,36 +85,66 @@ abstract class AbstractITestMojo extends AbstractCommonMojo {
     }
 
     protected void reactToReports(final @NotNull List<CheckReport> reports) throws MojoFailureException {
-        String errorMessage = String.format("** Violations were reported at or above severity: %s **", failOnSeverity);
-
-        List<CheckReport> nonEmptyReports = reports.stream()
-                .filter(r -> !r.getViolations().isEmpty())
-                .collect(Collectors.toList());
-        boolean shouldFail = nonEmptyReports.stream().anyMatch(r -> !r.getViolations(failOnSeverity).isEmpty());
+        final ReportReactor reactor = new ReportReactor();
+        reports.forEach(reactor::react);
+        reactor.finish();
+    }
 
-        if (!nonEmptyReports.isEmpty()) {
-            getLog().info("OakPAL Check Reports");
-        }
-        for (CheckReport r : nonEmptyReports) {
-            getLog().info(String.format("  %s", String.valueOf(r.getCheckName())));
+    /**
+     * Logs the violations of each report as it is passed, such as while reading a summary file, and fails when
+     * finished if any violation was reported at or above the {@link #failOnSeverity}.
+     */
+    final class ReportReactor {
+        private boolean logged;
+        private boolean shouldFail;
+        private boolean headerLogged;
+        private String headerCheckName;
+
+        void react(final @NotNull CheckReport r) {
+            headerLogged = false;
             for (Violation v : r.getViolations()) {
-                Set<String> packageIds = v.getPackages().stream()
-                        .map(PackageId::getDownloadName)
-                        .collect(Collectors.toSet());
-                String violLog = !packageIds.isEmpty()
-                        ? String.format("   +- <%s> %s %s", v.getSeverity(), v.getDescription(), packageIds)
-                        : String.format("   +- <%s> %s", v.getSeverity(), v.getDescription());
-                if (v.getSeverity().isLessSevereThan(failOnSeverity)) {
-                    getLog().info(" " + violLog);
-                } else {
-                    getLog().error("" + violLog);
-                }
+                react(r.getCheckName(), v);
             }
         }
 
-        if (shouldFail) {
-            getLog().error(errorMessage);
-            throw new MojoFailureException(errorMessage);
+        /**
+         * Log a violation under a header for its check name, which is only logged again when the check name changes,
+         * such as for each violation read from a summary file.
+         *
+         * @param checkName the check name of the report
+         * @param v         the violation
+         */
+        void react(final String checkName, final @NotNull Violation v) {
+            shouldFail |= !v.getSeverity().isLessSevereThan(failOnSeverity);
+            if (!logged) {
+                logged = true;
+                getLog().info("OakPAL Check Reports");
+            }
+            if (!headerLogged || !Objects.equals(checkName, headerCheckName)) {
+                headerLogged = true;
+                headerCheckName = checkName;
+                getLog().info(String.format("  %s", String.valueOf(checkName)));
+            }
+            Set<String> packageIds = v.getPackages().stream()
+                    .map(PackageId::getDownloadName)
+                    .collect(Collectors.toSet());
+            String violLog = !packageIds.isEmpty()
+                    ? String.format("   +- <%s> %s %s", v.getSeverity(), v.getDescription(), packageIds)
+                    : String.format("   +- <%s> %s", v.getSeverity(), v.getDescription());
+            if (v.getSeverity().isLessSevereThan(failOnSeverity)) {
+                getLog().info(" " + violLog);
+            } else {
+                getLog().error("" + violLog);
+            }
+        }
+
+        void finish() throws MojoFailureException {
+            if (shouldFail) {
+                String errorMessage = String.format("** Violations were reported at or above severity: %s **",
+                        failOnSeverity);
+                getLog().error(errorMessage);
+                throw new MojoFailureException(errorMessage);
+            }
         }
     }
 
@@ -16,25 +16,35 @@
 
 package net.adamcin.oakpal.maven.mojo;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 import net.adamcin.oakpal.core.AbortedScanException;
+import net.adamcin.oakpal.core.BaselineCache;
 import net.adamcin.oakpal.core.CheckReport;
 import net.adamcin.oakpal.core.CheckSpec;
 import net.adamcin.oakpal.core.DefaultErrorListener;
-import net.adamcin.oakpal.core.FileBlobMemoryNodeStore;
 import net.adamcin.oakpal.core.ForcedRoot;
 import net.adamcin.oakpal.core.InstallHookPolicy;
 import net.adamcin.oakpal.core.JcrNs;
+import net.adamcin.oakpal.core.ManifestIndex;
+import net.adamcin.oakpal.core.NodeStoreType;
+import net.adamcin.oakpal.core.NodeTypeDefinitionCache;
 import net.adamcin.oakpal.core.OakMachine;
 import net.adamcin.oakpal.core.ReportMapper;
+import net.adamcin.oakpal.core.ScanResultCache;
+import net.adamcin.oakpal.core.SharedBlobStore;
 import net.adamcin.oakpal.maven.component.JsonConverter;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Base scan class defining scanner parameters.
@@ -313,6 +323,16 @@ abstract class AbstractITestWithPlanMojo extends AbstractITestMojo implements Pl
     @Parameter
     protected boolean deferBuildFailure;
 
+    /**
+     * Specify the node store backend for the scan repository. Can be {@code MEMORY}, to keep the repository on the
+     * heap, or {@code SEGMENT}, to keep it in a memory-mapped segment store in a temp directory that is deleted after
+     * the scan, so that packages larger than the heap can be scanned.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.nodeStore")
+    protected NodeStoreType nodeStore;
+
     /**
      * Set to true to disable the blob store configured by {@code blobStorePath}. This forces the blobs to exist in the
      * memory node store, which should run faster, but can more easily exhaust heap with larger packages.
@@ -323,13 +343,114 @@ abstract class AbstractITestWithPlanMojo extends AbstractITestMojo implements Pl
     protected boolean storeBlobs;
 
     /**
-     * Specify a different blob store path.
+     * Specify a different blob store path. Blobs are stored by content digest, so set this to a directory outside of
+     * the build directory to share identical binaries across clean builds and concurrent executions.
      *
      * @since 1.4.0
      */
     @Parameter(defaultValue = "${project.build.directory}/oakpal-plugin/blobs")
     protected String blobStorePath;
 
+    /**
+     * The maximum total size of blobs in the {@code blobStorePath} directory, in bytes. Blobs not referenced by the
+     * current scan are deleted in order of least-recent write when the total exceeds this size.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.blobStoreMaxBytes", defaultValue = "4294967296")
+    protected long blobStoreMaxBytes = SharedBlobStore.DEFAULT_MAX_BYTES;
+
+    /**
+     * Set to true to save the repository state after the init stages and pre-install packages have been applied to the
+     * directory configured by {@code baselineCachePath}, so that later builds can load it instead of installing the
+     * pre-install packages again. A saved baseline is only used when the nodetypes, namespaces, privileges, forced
+     * roots, and pre-install package contents are unchanged.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.baselineCache")
+    protected boolean baselineCache;
+
+    /**
+     * Specify a different baseline cache path. Set this to a directory outside of the build directory to share
+     * baselines across clean builds.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.baselineCachePath",
+            defaultValue = "${project.build.directory}/oakpal-plugin/baselines")
+    protected String baselineCachePath;
+
+    /**
+     * Specify the maximum total size in bytes of the saved baselines, beyond which the least-recently-used baselines
+     * are deleted.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.baselineCacheMaxBytes", defaultValue = "1073741824")
+    protected long baselineCacheMaxBytes = BaselineCache.DEFAULT_MAX_BYTES;
+
+    /**
+     * Set to true to save the check reports of each scan to the directory configured by {@code scanResultCachePath},
+     * so that later builds can replay them instead of installing the packages again. Saved reports are only replayed
+     * when the same package contents are scanned in the same order with the same plan and check configuration. The
+     * cache is only used when {@code installHookPolicy} is {@code SKIP}, because install hooks loaded from the plan
+     * class loader can change the installed content, and not when {@code silenceAllSubpackages} is true.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.scanResultCache")
+    protected boolean scanResultCache;
+
+    /**
+     * Specify a different scan result cache path. Set this to a directory outside of the build directory to share
+     * scan results across clean builds.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.scanResultCachePath",
+            defaultValue = "${project.build.directory}/oakpal-plugin/scan-results")
+    protected String scanResultCachePath;
+
+    /**
+     * Specify the maximum number of saved scan results, beyond which the least-recently-used results are deleted.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.scanResultCacheMaxEntries", defaultValue = "10000")
+    protected int scanResultCacheMaxEntries = ScanResultCache.DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Specify the directory where parsed CND files are saved, so that later builds can read the node type
+     * definitions back without parsing the CND files again. Set this to an empty value to only cache parsed CND files
+     * in memory, or to a directory outside of the build directory to share them across clean builds.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.nodeTypeCachePath",
+            defaultValue = "${project.build.directory}/oakpal-plugin/nodetypes")
+    protected String nodeTypeCachePath;
+
+    /**
+     * Specify the maximum total size in bytes of the saved CND files, beyond which the least-recently-used files are
+     * deleted.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.nodeTypeCacheMaxBytes", defaultValue = "67108864")
+    protected long nodeTypeCacheMaxBytes = NodeTypeDefinitionCache.DEFAULT_MAX_BYTES;
+
+    /**
+     * Specify the file where the manifests read while discovering checklists and Sling-Nodetypes are indexed, so that
+     * later builds skip reading the manifests of unchanged jars. Set this to an empty value to only index manifests
+     * in memory, or to a file outside of the build directory to share the index across clean builds.
+     *
+     * @since 1.5.2
+     */
+    @Parameter(property = "oakpal.manifestIndexPath",
+            defaultValue = "${project.build.directory}/oakpal-plugin/manifest-index.json")
+    protected String manifestIndexPath;
+
     @Override
     public final PlanBuilderParams getPlanBuilderParams() {
         return this;
@@ -391,38 +512,125 @@ abstract class AbstractITestWithPlanMojo extends AbstractITestMojo implements Pl
     }
 
     protected void performScan(final @NotNull List<File> scanFiles) throws MojoFailureException {
-        List<CheckReport> reports;
+        final ReportReactor reactor = new ReportReactor();
+        final SummaryWriter summaryWriter = new SummaryWriter(summaryFile, deferBuildFailure ? null : reactor);
         try {
 
+            final File manifestIndexFile = manifestIndexPath != null && !manifestIndexPath.isEmpty()
+                    ? new File(manifestIndexPath)
+                    : null;
+            if (manifestIndexFile != null) {
+                ManifestIndex.getDefault().load(manifestIndexFile);
+            }
             final OakMachine.Builder machineBuilder = buildPlan().toOakMachineBuilder(new DefaultErrorListener(),
                     Thread.currentThread().getContextClassLoader());
-            if (storeBlobs && blobStorePath != null && !blobStorePath.isEmpty()) {
-                machineBuilder.withNodeStoreSupplier(() -> new FileBlobMemoryNodeStore(blobStorePath));
+            if (manifestIndexFile != null) {
+                try {
+                    ManifestIndex.getDefault().save(manifestIndexFile);
+                } catch (final IOException e) {
+                    getLog().warn("Failed to save manifest index: " + e.getMessage());
+                }
+            }
+            machineBuilder.withNodeStoreSupplier(Optional.ofNullable(nodeStore).orElse(NodeStoreType.DEFAULT)
+                    .newSupplier(storeBlobs && blobStorePath != null && !blobStorePath.isEmpty()
+                            ? new File(blobStorePath)
+                            : null, blobStoreMaxBytes));
+            if (baselineCache && baselineCachePath != null && !baselineCachePath.isEmpty()) {
+                machineBuilder.withBaselineCache(new BaselineCache(new File(baselineCachePath), baselineCacheMaxBytes));
+            }
+            if (scanResultCache && scanResultCachePath != null && !scanResultCachePath.isEmpty()) {
+                machineBuilder.withScanResultCache(
+                        new ScanResultCache(new File(scanResultCachePath), scanResultCacheMaxEntries));
+            }
+            if (nodeTypeCachePath != null && !nodeTypeCachePath.isEmpty()) {
+                machineBuilder.withNodeTypeDefinitionCache(
+                        new NodeTypeDefinitionCache(new File(nodeTypeCachePath), nodeTypeCacheMaxBytes));
             }
             if (silenceAllSubpackages) {
                 machineBuilder.withSubpackageSilencer((subpackageId, parentId) -> true);
             }
             final OakMachine machine = machineBuilder.build();
-            reports = machine.scanPackages(scanFiles);
+            machine.scanPackages(scanFiles, summaryWriter);
+            summaryWriter.finish();
         } catch (AbortedScanException e) {
             String currentFilePath = e.getCurrentPackageFile()
                     .map(f -> "Failed package: " + f.getAbsolutePath()).orElse("");
             throw new MojoFailureException("Failed to execute package scan. " + currentFilePath, e);
+        } catch (UncheckedIOException e) {
+            throw new MojoFailureException("Failed to write summary reports.", e.getCause());
         } catch (Exception e) {
             throw new MojoFailureException("Failed to execute package scan. " + e.getMessage(), e);
+        } finally {
+            summaryWriter.close();
         }
-
-        try {
-            ReportMapper.writeReportsToFile(reports, summaryFile);
-            getLog().info("Check report summary written to " + summaryFile.getPath());
-        } catch (final IOException e) {
-            throw new MojoFailureException("Failed to write summary reports.", e);
-        }
+        getLog().info("Check report summary written to " + summaryFile.getPath());
 
         if (deferBuildFailure) {
             getLog().info("Evaluation of check reports has been deferred by 'deferBuildFailure=true'.");
         } else {
-            reactToReports(reports);
+            reactor.finish();
+        }
+    }
+
+    /**
+     * Writes each report to the summary file as the scan passes it, and then passes it to the reactor, if any. The
+     * summary file is opened with the first report, so that an aborted scan does not replace an existing summary.
+     * Failures to write are thrown as {@link UncheckedIOException}.
+     */
+    static final class SummaryWriter implements Consumer<CheckReport>, Closeable {
+        private final File summaryFile;
+        private final ReportReactor reactor;
+        private ReportMapper.ReportWriter reportWriter;
+        private boolean finished;
+
+        SummaryWriter(final File summaryFile, final @Nullable ReportReactor reactor) {
+            this.summaryFile = summaryFile;
+            this.reactor = reactor;
+        }
+
+        private ReportMapper.ReportWriter getReportWriter() throws IOException {
+            if (reportWriter == null) {
+                reportWriter = ReportMapper.openReportWriterToFile(summaryFile);
+            }
+            return reportWriter;
+        }
+
+        @Override
+        public void accept(final CheckReport report) {
+            try {
+                getReportWriter().write(report);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (reactor != null) {
+                reactor.react(report);
+            }
+        }
+
+        /**
+         * Complete the summary file, which is written even when the scan passed no reports.
+         */
+        void finish() {
+            try {
+                getReportWriter().close();
+                finished = true;
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Close the summary file if a failed scan left it open.
+         */
+        @Override
+        public void close() {
+            if (reportWriter != null && !finished) {
+                try {
+                    reportWriter.close();
+                } catch (final IOException e) {
+                    // the scan has already failed
+                }
+            }
         }
     }
 }
@@ -18,8 +18,8 @@ package net.adamcin.oakpal.maven.mojo;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import net.adamcin.oakpal.core.CheckReport;
 import net.adamcin.oakpal.core.ReportMapper;
@@ -29,6 +29,7 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * Deferred reporting and reacting to oakpal check reports during the verify phase.
@@ -62,29 +63,78 @@ public class VerifyMojo extends AbstractITestMojo {
 
     @Override
     void executeGuardedIntegrationTest() throws MojoFailureException {
-        reactToReports(collectReports());
+        final ReportReactor reactor = new ReportReactor();
+        forEachViolation(reactor::react);
+        reactor.finish();
     }
 
     List<CheckReport> collectReports() throws MojoFailureException {
-        List<CheckReport> reports;
+        final List<CheckReport> reports = new ArrayList<>();
+        forEachReport(reports::add);
+        return reports;
+    }
+
+    /**
+     * Read the reports of the summary file and the additional summary files, passing each report to the consumer as
+     * it is read, without holding all of them in memory.
+     *
+     * @param consumer the report consumer
+     * @throws MojoFailureException if a summary file can't be read
+     */
+    void forEachReport(final @NotNull Consumer<CheckReport> consumer) throws MojoFailureException {
         try {
-            reports = new ArrayList<>(readReportsFromFile(summaryFile));
+            forEachReportInFile(summaryFile, consumer);
             if (summaryFiles != null) {
                 for (File file : summaryFiles) {
-                    reports.addAll(readReportsFromFile(file));
+                    forEachReportInFile(file, consumer);
+                }
+            }
+        } catch (final Exception e) {
+            throw new MojoFailureException("Failed to read check report summary file.", e);
+        }
+    }
+
+    /**
+     * Read the violations of the summary file and the additional summary files, passing each violation to the handler
+     * as it is read, without holding all of the violations of a report in memory.
+     *
+     * @param handler the violation handler
+     * @throws MojoFailureException if a summary file can't be read
+     */
+    void forEachViolation(final @NotNull ReportMapper.ViolationHandler handler) throws MojoFailureException {
+        try {
+            forEachViolationInFile(summaryFile, handler);
+            if (summaryFiles != null) {
+                for (File file : summaryFiles) {
+                    forEachViolationInFile(file, handler);
                 }
             }
         } catch (final Exception e) {
             throw new MojoFailureException("Failed to read check report summary file.", e);
         }
-        return reports;
     }
 
     static List<CheckReport> readReportsFromFile(final File summaryFile) throws Exception {
+        final List<CheckReport> reports = new ArrayList<>();
+        forEachReportInFile(summaryFile, reports::add);
+        return reports;
+    }
+
+    static void forEachReportInFile(final File summaryFile, final @NotNull Consumer<CheckReport> consumer)
+            throws Exception {
         if (summaryFile != null && summaryFile.exists()) {
-            return ReportMapper.readReportsFromFile(summaryFile);
-        } else {
-            return Collections.emptyList();
+            try (ReportMapper.ReportReader reader = ReportMapper.openReportReaderFromFile(summaryFile)) {
+                reader.forEachRemaining(consumer);
+            }
+        }
+    }
+
+    static void forEachViolationInFile(final File summaryFile, final @NotNull ReportMapper.ViolationHandler handler)
+            throws Exception {
+        if (summaryFile != null && summaryFile.exists()) {
+            try (ReportMapper.ReportReader reader = ReportMapper.openReportReaderFromFile(summaryFile)) {
+                reader.forEachViolation(handler);
+            }
         }
     }
 }
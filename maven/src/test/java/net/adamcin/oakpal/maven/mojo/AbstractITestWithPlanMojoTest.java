@@ -22,6 +22,7 @@ import net.adamcin.oakpal.core.CheckSpec;
 import net.adamcin.oakpal.core.ForcedRoot;
 import net.adamcin.oakpal.core.InstallHookPolicy;
 import net.adamcin.oakpal.core.JcrNs;
+import net.adamcin.oakpal.core.NodeTypeDefinitionCache;
 import net.adamcin.oakpal.core.Nothing;
 import net.adamcin.oakpal.core.ReportMapper;
 import net.adamcin.oakpal.testing.TestPackageUtil;
@@ -274,6 +275,48 @@ public class AbstractITestWithPlanMojoTest {
         assertTrue("blobStore has children", children.length > 0);
     }
 
+    @Test
+    public void testPerformScan_withBaselineCachePath() throws Exception {
+        final File testOutDir = new File(testOutBaseDir, "testPerformScan_withBaselineCachePath");
+        FileUtils.deleteDirectory(testOutDir);
+        testOutDir.mkdirs();
+        final File summaryFile = new File(testOutDir, "summary.json");
+        AbstractITestWithPlanMojo mojo = newMojo();
+        final File baselines = new File(testOutDir, "baselines");
+        mojo.deferBuildFailure = true;
+        mojo.baselineCachePath = baselines.getAbsolutePath();
+        scanWithViolations(mojo, summaryFile);
+        assertFalse("baselines is not yet created", baselines.exists());
+        mojo.baselineCache = true;
+        scanWithViolations(mojo, summaryFile);
+        final File[] children = baselines.listFiles();
+        assertNotNull("baselines is directory", children);
+        assertEquals("baselines has one child", 1, children.length);
+        scanWithViolations(mojo, summaryFile);
+        assertEquals("baselines still has one child", 1, baselines.listFiles().length);
+    }
+
+    @Test
+    public void testPerformScan_withNodeTypeCachePath() throws Exception {
+        final File testOutDir = new File(testOutBaseDir, "testPerformScan_withNodeTypeCachePath");
+        FileUtils.deleteDirectory(testOutDir);
+        testOutDir.mkdirs();
+        final File summaryFile = new File(testOutDir, "summary.json");
+        AbstractITestWithPlanMojo mojo = newMojo();
+        final File nodetypes = new File(testOutDir, "nodetypes");
+        mojo.deferBuildFailure = true;
+        mojo.nodeTypeCachePath = "";
+        NodeTypeDefinitionCache.clearMemory();
+        scanWithViolations(mojo, summaryFile);
+        assertFalse("nodetypes is not yet created", nodetypes.exists());
+        mojo.nodeTypeCachePath = nodetypes.getAbsolutePath();
+        NodeTypeDefinitionCache.clearMemory();
+        scanWithViolations(mojo, summaryFile);
+        final File[] children = nodetypes.listFiles();
+        assertNotNull("nodetypes is directory", children);
+        assertTrue("nodetypes has children", children.length > 0);
+    }
+
     @Test(expected = MojoFailureException.class)
     public void testPerformScan_writeSummaryFailure() throws Exception {
         final File testOutDir = new File(testOutBaseDir, "testPerformScan_writeSummaryFailure");
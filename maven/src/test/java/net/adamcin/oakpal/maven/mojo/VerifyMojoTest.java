@@ -17,17 +17,25 @@
 package net.adamcin.oakpal.maven.mojo;
 
 import net.adamcin.oakpal.core.CheckReport;
+import net.adamcin.oakpal.core.ReportMapper;
+import net.adamcin.oakpal.core.SimpleReport;
+import net.adamcin.oakpal.core.SimpleViolation;
+import net.adamcin.oakpal.core.Violation;
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoFailureException;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class VerifyMojoTest {
 
@@ -89,6 +97,30 @@ public class VerifyMojoTest {
         mojo.collectReports();
     }
 
+    @Test(expected = MojoFailureException.class)
+    public void testForEachViolation_throws() throws Exception {
+        final File testOutDir = new File(testOutBaseDir, "testForEachViolation_throws");
+        FileUtils.deleteDirectory(testOutDir);
+        testOutDir.mkdirs();
+        VerifyMojo mojo = new VerifyMojo();
+        final File summaryFile = new File(testOutDir, "summaryDir");
+        summaryFile.mkdirs();
+        mojo.summaryFile = summaryFile;
+        mojo.forEachViolation((checkName, violation) -> fail("expect no violation"));
+    }
+
+    @Test
+    public void testForEachViolationInFile() throws Exception {
+        final File summaryFile = new File("src/test/resources/unit/justverify/fake-summary.json");
+        final List<Violation> violations = new ArrayList<>();
+        VerifyMojo.forEachViolationInFile(summaryFile, (checkName, violation) -> violations.add(violation));
+        assertEquals("expect same violations as the reports",
+                VerifyMojo.readReportsFromFile(summaryFile).stream()
+                        .flatMap(report -> report.getViolations().stream())
+                        .collect(Collectors.toList()),
+                violations);
+    }
+
     @Test
     public void testExecuteGuardedIntegrationTest() throws Exception {
         final File testOutDir = new File(testOutBaseDir, "testExecuteGuardedIntegrationTest");
@@ -99,4 +131,33 @@ public class VerifyMojoTest {
         mojo.summaryFiles.add(addSummaryFile);
         mojo.executeGuardedIntegrationTest();
     }
+
+    @Test
+    public void testExecuteGuardedIntegrationTest_reactsToEachFile() throws Exception {
+        final File testOutDir = new File(testOutBaseDir, "testExecuteGuardedIntegrationTest_reactsToEachFile");
+        FileUtils.deleteDirectory(testOutDir);
+        testOutDir.mkdirs();
+        final File summaryFile = new File(testOutDir, "summary.json");
+        ReportMapper.writeReportsToFile(Collections.singletonList(new SimpleReport("one",
+                Collections.singletonList(new SimpleViolation(Violation.Severity.MINOR, "one")))), summaryFile);
+        final File addSummaryFile = new File(testOutDir, "summary2.json");
+        ReportMapper.writeReportsToFile(Collections.singletonList(new SimpleReport("two",
+                Collections.singletonList(new SimpleViolation(Violation.Severity.MAJOR, "two")))), addSummaryFile);
+        final VerifyMojo mojo = new VerifyMojo();
+        final MockMojoLog log = new MockMojoLog();
+        mojo.setLog(log);
+        mojo.summaryFile = summaryFile;
+        mojo.summaryFiles.add(addSummaryFile);
+        boolean failed = false;
+        try {
+            mojo.executeGuardedIntegrationTest();
+        } catch (final MojoFailureException e) {
+            failed = true;
+        }
+        assertTrue("expect failure for major violation", failed);
+        assertTrue("expect report one", log.any(entry -> "  one".equals(entry.message)));
+        assertTrue("expect report two", log.any(entry -> "  two".equals(entry.message)));
+        assertEquals("expect one log header", 1L,
+                log.entries.stream().filter(entry -> "OakPAL Check Reports".equals(entry.message)).count());
+    }
 }
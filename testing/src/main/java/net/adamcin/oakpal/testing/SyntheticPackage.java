@@ -0,0 +1,638 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.testing;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates FileVault content packages of arbitrary size and shape for load and scale tests, streaming the zip
+ * entries directly to the output so that no package content is held in memory beyond a single binary. The output
+ * is deterministic for a given set of parameters, including the {@link Builder#withSeed(long)} seed.
+ * <p>
+ * Content nodes are {@code nt:unstructured} and are arranged in branches under the content root, named
+ * {@code b0, b1, ...}. Each branch is a tree of the configured depth and fan-out, written as a single docview
+ * {@code .content.xml} file, and as many branches are generated as are needed to reach the node count. When
+ * subpackages are configured, content is only generated in the innermost packages, with the node count divided
+ * evenly among them, and each subpackage has its own content root.
+ */
+public final class SyntheticPackage {
+    /**
+     * The shape of the workspace filter generated for the content root.
+     */
+    public enum FilterLayout {
+        /**
+         * One filter set rooted at the content root.
+         */
+        SINGLE_ROOT,
+
+        /**
+         * One filter set rooted at each branch.
+         */
+        PER_BRANCH,
+
+        /**
+         * One filter set rooted at the content root, with an include pattern for each branch.
+         */
+        PATTERNS
+    }
+
+    static final String DEFAULT_GROUP = "oakpal-synthetic";
+    static final String DEFAULT_VERSION = "1.0";
+    static final String BRANCH_PREFIX = "b";
+    static final String NODE_PREFIX = "n";
+    static final String BINARY_PREFIX = "file";
+    static final String PROPERTY_PREFIX = "p";
+    static final String ACE_PRINCIPAL = "everyone";
+    static final long ENTRY_TIME = 1546300800000L;
+    private static final char[] VALUE_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    private final String group;
+    private final String name;
+    private final String version;
+    private final String contentRoot;
+    private final long seed;
+    private final int nodeCount;
+    private final int depth;
+    private final int fanOut;
+    private final int propertyCount;
+    private final int propertySize;
+    private final int binaryInterval;
+    private final int binaryMinSize;
+    private final int binaryMaxSize;
+    private final int aclInterval;
+    private final int subpackageCount;
+    private final int subpackageDepth;
+    private final FilterLayout filterLayout;
+
+    private SyntheticPackage(final @NotNull String group,
+                             final @NotNull String name,
+                             final @NotNull String version,
+                             final @NotNull String contentRoot,
+                             final long seed,
+                             final int nodeCount,
+                             final int depth,
+                             final int fanOut,
+                             final int propertyCount,
+                             final int propertySize,
+                             final int binaryInterval,
+                             final int binaryMinSize,
+                             final int binaryMaxSize,
+                             final int aclInterval,
+                             final int subpackageCount,
+                             final int subpackageDepth,
+                             final @NotNull FilterLayout filterLayout) {
+        this.group = group;
+        this.name = name;
+        this.version = version;
+        this.contentRoot = contentRoot;
+        this.seed = seed;
+        this.nodeCount = nodeCount;
+        this.depth = depth;
+        this.fanOut = fanOut;
+        this.propertyCount = propertyCount;
+        this.propertySize = propertySize;
+        this.binaryInterval = binaryInterval;
+        this.binaryMinSize = binaryMinSize;
+        this.binaryMaxSize = binaryMaxSize;
+        this.aclInterval = aclInterval;
+        this.subpackageCount = subpackageCount;
+        this.subpackageDepth = subpackageDepth;
+        this.filterLayout = filterLayout;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getContentRoot() {
+        return contentRoot;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Get the number of subpackages nested at all levels below this package.
+     *
+     * @return the total number of subpackages
+     */
+    public int getTotalSubpackageCount() {
+        int total = 0;
+        int levelCount = 1;
+        for (int level = 0; level < subpackageDepth && subpackageCount > 0; level++) {
+            levelCount *= subpackageCount;
+            total += levelCount;
+        }
+        return total;
+    }
+
+    /**
+     * Get the maximum number of nodes in a single branch, which is a complete tree of the configured depth and
+     * fan-out.
+     *
+     * @return the branch capacity
+     */
+    int getBranchCapacity() {
+        long capacity = 0;
+        long levelCount = 1;
+        for (int level = 0; level < depth && capacity < Integer.MAX_VALUE; level++) {
+            capacity += levelCount;
+            levelCount *= fanOut;
+        }
+        return (int) Math.min(capacity, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the number of branches generated under the content root of a package containing content.
+     *
+     * @return the branch count
+     */
+    int getBranchCount() {
+        final int capacity = getBranchCapacity();
+        return (int) (((long) nodeCount + capacity - 1) / capacity);
+    }
+
+    /**
+     * Write the package to a file.
+     *
+     * @param file the target file
+     * @return the target file
+     * @throws IOException for errors writing the file
+     */
+    public File writeTo(final @NotNull File file) throws IOException {
+        final File parentDir = file.getAbsoluteFile().getParentFile();
+        if (!parentDir.isDirectory() && !parentDir.mkdirs()) {
+            throw new IOException("failed to create parent target directory: " + parentDir.getAbsolutePath());
+        }
+        try (OutputStream output = new FileOutputStream(file)) {
+            writeTo(output);
+        }
+        return file;
+    }
+
+    /**
+     * Write the package to an output stream, which is not closed.
+     *
+     * @param output the output stream
+     * @throws IOException for errors writing the stream
+     */
+    public void writeTo(final @NotNull OutputStream output) throws IOException {
+        final ZipOutputStream zip = new ZipOutputStream(new FilterOutputStream(output) {
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+        writeEntries(zip);
+        zip.close();
+    }
+
+    private void writeEntries(final @NotNull ZipOutputStream zip) throws IOException {
+        if (subpackageCount > 0 && subpackageDepth > 0) {
+            final List<SyntheticPackage> children = getSubpackages();
+            final List<String> roots = new ArrayList<>();
+            for (SyntheticPackage child : children) {
+                roots.add(child.getInstallationPath());
+            }
+            writeMetaInf(zip, roots, Collections.emptyList());
+            for (SyntheticPackage child : children) {
+                putEntry(zip, "jcr_root" + child.getInstallationPath());
+                child.writeTo(zip);
+                zip.closeEntry();
+            }
+        } else {
+            final int branchCount = getBranchCount();
+            final List<String> branches = new ArrayList<>();
+            for (int i = 0; i < branchCount; i++) {
+                branches.add(contentRoot + "/" + BRANCH_PREFIX + i);
+            }
+            switch (filterLayout) {
+                case PER_BRANCH:
+                    writeMetaInf(zip, branches, Collections.emptyList());
+                    break;
+                case PATTERNS:
+                    final List<String> patterns = new ArrayList<>();
+                    patterns.add(contentRoot);
+                    for (String branch : branches) {
+                        patterns.add(branch + "(/.*)?");
+                    }
+                    writeMetaInf(zip, Collections.singletonList(contentRoot), patterns);
+                    break;
+                default:
+                    writeMetaInf(zip, Collections.singletonList(contentRoot), Collections.emptyList());
+                    break;
+            }
+            String ancestor = "";
+            for (String segment : contentRoot.substring(1).split("/")) {
+                ancestor += "/" + segment;
+                writeFolder(zip, ancestor);
+            }
+            final Random random = new Random(seed);
+            final int capacity = getBranchCapacity();
+            for (int i = 0; i < branchCount; i++) {
+                writeBranch(zip, random, i, Math.min(capacity, nodeCount - i * capacity));
+            }
+        }
+    }
+
+    /**
+     * Get the subpackages embedded directly in this package.
+     *
+     * @return the direct subpackages, or an empty list
+     */
+    List<SyntheticPackage> getSubpackages() {
+        if (subpackageCount <= 0 || subpackageDepth <= 0) {
+            return Collections.emptyList();
+        }
+        final List<SyntheticPackage> children = new ArrayList<>(subpackageCount);
+        for (int i = 0; i < subpackageCount; i++) {
+            final int childCount = (int) ((long) nodeCount * (i + 1) / subpackageCount
+                    - (long) nodeCount * i / subpackageCount);
+            final String childName = name + "-" + i;
+            children.add(new SyntheticPackage(group, childName, version,
+                    contentRoot.substring(0, contentRoot.lastIndexOf('/') + 1) + childName,
+                    seed * 31 + i + 1, childCount, depth, fanOut, propertyCount, propertySize,
+                    binaryInterval, binaryMinSize, binaryMaxSize, aclInterval,
+                    subpackageCount, subpackageDepth - 1, filterLayout));
+        }
+        return children;
+    }
+
+    String getInstallationPath() {
+        return "/etc/packages/" + group + "/" + name + "-" + version + ".zip";
+    }
+
+    private static void putEntry(final @NotNull ZipOutputStream zip, final @NotNull String entryName)
+            throws IOException {
+        final ZipEntry entry = new ZipEntry(entryName);
+        entry.setTime(ENTRY_TIME);
+        zip.putNextEntry(entry);
+    }
+
+    private static Writer entryWriter(final @NotNull ZipOutputStream zip) {
+        return new OutputStreamWriter(new FilterOutputStream(zip) {
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }, StandardCharsets.UTF_8);
+    }
+
+    private void writeMetaInf(final @NotNull ZipOutputStream zip,
+                              final @NotNull List<String> filterRoots,
+                              final @NotNull List<String> includePatterns) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("group", group);
+        properties.setProperty("name", name);
+        properties.setProperty("version", version);
+        if (aclInterval > 0) {
+            properties.setProperty("acHandling", "overwrite");
+        }
+        putEntry(zip, "META-INF/vault/properties.xml");
+        properties.storeToXML(zip, null, StandardCharsets.UTF_8.name());
+        zip.closeEntry();
+
+        putEntry(zip, "META-INF/vault/filter.xml");
+        try (Writer writer = entryWriter(zip)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<workspaceFilter version=\"1.0\">\n");
+            for (String filterRoot : filterRoots) {
+                if (includePatterns.isEmpty()) {
+                    writer.write("    <filter root=\"" + filterRoot + "\"/>\n");
+                } else {
+                    writer.write("    <filter root=\"" + filterRoot + "\">\n");
+                    for (String pattern : includePatterns) {
+                        writer.write("        <include pattern=\"" + pattern + "\"/>\n");
+                    }
+                    writer.write("    </filter>\n");
+                }
+            }
+            writer.write("</workspaceFilter>\n");
+        }
+        zip.closeEntry();
+    }
+
+    private static void writeFolder(final @NotNull ZipOutputStream zip, final @NotNull String path)
+            throws IOException {
+        putEntry(zip, "jcr_root" + path + "/.content.xml");
+        try (Writer writer = entryWriter(zip)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<jcr:root xmlns:jcr=\"http://www.jcp.org/jcr/1.0\" xmlns:nt=\"http://www.jcp.org/jcr/nt/1.0\"\n"
+                    + "    jcr:primaryType=\"nt:unstructured\"/>\n");
+        }
+        zip.closeEntry();
+    }
+
+    private void writeBranch(final @NotNull ZipOutputStream zip, final @NotNull Random random,
+                             final int branch, final int count) throws IOException {
+        final String branchPath = "jcr_root" + contentRoot + "/" + BRANCH_PREFIX + branch;
+        putEntry(zip, branchPath + "/.content.xml");
+        try (Writer writer = entryWriter(zip)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<jcr:root xmlns:jcr=\"http://www.jcp.org/jcr/1.0\" xmlns:nt=\"http://www.jcp.org/jcr/nt/1.0\""
+                    + " xmlns:rep=\"internal\"");
+            writeNode(writer, random, 0, count);
+        }
+        zip.closeEntry();
+
+        if (binaryInterval > 0) {
+            for (int i = 0; i < count; i += binaryInterval) {
+                final int size = binaryMinSize + (binaryMaxSize > binaryMinSize
+                        ? random.nextInt(binaryMaxSize - binaryMinSize + 1) : 0);
+                final byte[] binary = new byte[size];
+                random.nextBytes(binary);
+                putEntry(zip, branchPath + "/" + BINARY_PREFIX + i + ".bin");
+                zip.write(binary);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Write the attributes and children of the node at {@code index} and close its element. The children of each
+     * node are the next {@code fanOut} indexes in breadth-first order, so the tree is complete up to the count.
+     */
+    private void writeNode(final @NotNull Writer writer, final @NotNull Random random, final int index,
+                           final int count) throws IOException {
+        final boolean withAcl = aclInterval > 0 && index % aclInterval == 0;
+        writer.write(" jcr:primaryType=\"nt:unstructured\"");
+        if (withAcl) {
+            writer.write(" jcr:mixinTypes=\"[rep:AccessControllable]\"");
+        }
+        for (int p = 0; p < propertyCount; p++) {
+            writer.write(" " + PROPERTY_PREFIX + p + "=\"");
+            for (int c = 0; c < propertySize; c++) {
+                writer.write(VALUE_CHARS[random.nextInt(VALUE_CHARS.length)]);
+            }
+            writer.write("\"");
+        }
+        final long firstChild = (long) index * fanOut + 1;
+        if (firstChild >= count && !withAcl) {
+            writer.write("/>\n");
+            return;
+        }
+        writer.write(">\n");
+        if (withAcl) {
+            writer.write("<rep:policy jcr:primaryType=\"rep:ACL\">\n"
+                    + "<allow jcr:primaryType=\"rep:GrantACE\" rep:principalName=\"" + ACE_PRINCIPAL + "\""
+                    + " rep:privileges=\"{Name}[jcr:read]\"/>\n"
+                    + "</rep:policy>\n");
+        }
+        for (long child = firstChild; child < Math.min(firstChild + fanOut, count); child++) {
+            writer.write("<" + NODE_PREFIX + child);
+            writeNode(writer, random, (int) child, count);
+        }
+        writer.write(index == 0 ? "</jcr:root>\n" : "</" + NODE_PREFIX + index + ">\n");
+    }
+
+    /**
+     * Builder for {@link SyntheticPackage}.
+     */
+    public static final class Builder {
+        private String group = DEFAULT_GROUP;
+        private String name = "synthetic";
+        private String version = DEFAULT_VERSION;
+        private String contentRoot;
+        private long seed;
+        private int nodeCount = 1000;
+        private int depth = 3;
+        private int fanOut = 10;
+        private int propertyCount = 2;
+        private int propertySize = 16;
+        private int binaryInterval;
+        private int binaryMinSize = 4096;
+        private int binaryMaxSize = 4096;
+        private int aclInterval;
+        private int subpackageCount;
+        private int subpackageDepth = 1;
+        private FilterLayout filterLayout = FilterLayout.SINGLE_ROOT;
+
+        /**
+         * Set the package group. Defaults to {@code oakpal-synthetic}.
+         *
+         * @param group the package group
+         * @return my builder self
+         */
+        public Builder withGroup(final @NotNull String group) {
+            this.group = group;
+            return this;
+        }
+
+        /**
+         * Set the package name. Subpackages are named by appending a {@code -} and their index. Defaults to
+         * {@code synthetic}.
+         *
+         * @param name the package name
+         * @return my builder self
+         */
+        public Builder withName(final @NotNull String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Set the package version. Defaults to {@code 1.0}.
+         *
+         * @param version the package version
+         * @return my builder self
+         */
+        public Builder withVersion(final @NotNull String version) {
+            this.version = version;
+            return this;
+        }
+
+        /**
+         * Set the absolute path of the content root. The last segment is replaced by the package name for
+         * subpackages. Defaults to {@code /content/{group}/{name}}.
+         *
+         * @param contentRoot the content root path, or null for the default
+         * @return my builder self
+         */
+        public Builder withContentRoot(final @Nullable String contentRoot) {
+            this.contentRoot = contentRoot;
+            return this;
+        }
+
+        /**
+         * Set the seed for generated property values and binaries.
+         *
+         * @param seed the random seed
+         * @return my builder self
+         */
+        public Builder withSeed(final long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Set the total number of content nodes. Defaults to 1000.
+         *
+         * @param nodeCount the number of content nodes
+         * @return my builder self
+         */
+        public Builder withNodeCount(final int nodeCount) {
+            this.nodeCount = nodeCount;
+            return this;
+        }
+
+        /**
+         * Set the depth and fan-out of each branch tree. Defaults to a depth of 3 and a fan-out of 10, for up to 111
+         * nodes per branch.
+         *
+         * @param depth  the number of levels in each branch, including the branch node
+         * @param fanOut the number of children of each node above the last level
+         * @return my builder self
+         */
+        public Builder withTreeShape(final int depth, final int fanOut) {
+            this.depth = depth;
+            this.fanOut = fanOut;
+            return this;
+        }
+
+        /**
+         * Set the number of random string properties on each node, and the length of each value. Defaults to 2
+         * properties of 16 characters.
+         *
+         * @param propertyCount the number of properties per node
+         * @param propertySize  the number of characters per property value
+         * @return my builder self
+         */
+        public Builder withProperties(final int propertyCount, final int propertySize) {
+            this.propertyCount = propertyCount;
+            this.propertySize = propertySize;
+            return this;
+        }
+
+        /**
+         * Add an {@code nt:file} with random binary content to each branch for every {@code interval} nodes in the
+         * branch, with a size chosen uniformly between the min and max sizes. Disabled by default.
+         *
+         * @param interval the number of nodes per binary, or 0 for none
+         * @param minSize  the minimum binary size in bytes
+         * @param maxSize  the maximum binary size in bytes
+         * @return my builder self
+         */
+        public Builder withBinaries(final int interval, final int minSize, final int maxSize) {
+            this.binaryInterval = interval;
+            this.binaryMinSize = minSize;
+            this.binaryMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Add an access control list granting {@code jcr:read} to {@code everyone} on every {@code interval}-th node
+         * of each branch, starting with the branch node. The package is installed with {@code acHandling=overwrite}.
+         * Disabled by default.
+         *
+         * @param interval the number of nodes per ACL, or 0 for none
+         * @return my builder self
+         */
+        public Builder withAcls(final int interval) {
+            this.aclInterval = interval;
+            return this;
+        }
+
+        /**
+         * Embed {@code count} subpackages in the package, each of which embeds {@code count} more, down to
+         * {@code depth} levels of nesting. Only the innermost packages have content. Disabled by default.
+         *
+         * @param count the number of subpackages per package, or 0 for none
+         * @param depth the levels of nesting
+         * @return my builder self
+         */
+        public Builder withSubpackages(final int count, final int depth) {
+            this.subpackageCount = count;
+            this.subpackageDepth = depth;
+            return this;
+        }
+
+        /**
+         * Set the workspace filter layout for packages with content. Defaults to
+         * {@link FilterLayout#SINGLE_ROOT}.
+         *
+         * @param filterLayout the filter layout
+         * @return my builder self
+         */
+        public Builder withFilterLayout(final @NotNull FilterLayout filterLayout) {
+            this.filterLayout = filterLayout;
+            return this;
+        }
+
+        /**
+         * Construct a {@link SyntheticPackage} from the builder state.
+         *
+         * @return the synthetic package
+         * @throws IllegalArgumentException if a count or size is negative, or the tree depth or fan-out is less
+         *                                  than 1
+         */
+        public SyntheticPackage build() {
+            if (depth < 1 || fanOut < 1) {
+                throw new IllegalArgumentException("tree depth and fan-out must be at least 1");
+            }
+            if (nodeCount < 0 || propertyCount < 0 || propertySize < 0 || binaryInterval < 0 || aclInterval < 0
+                    || subpackageCount < 0 || subpackageDepth < 0 || binaryMinSize < 0
+                    || binaryMaxSize < binaryMinSize) {
+                throw new IllegalArgumentException("counts and sizes must not be negative");
+            }
+            final String root = contentRoot != null
+                    ? contentRoot.replaceFirst("/+$", "")
+                    : "/content/" + group + "/" + name;
+            if (!root.startsWith("/") || root.length() < 2) {
+                throw new IllegalArgumentException("content root must be an absolute path below the root: " + root);
+            }
+            return new SyntheticPackage(group, name, version, root, seed, nodeCount, depth, fanOut,
+                    propertyCount, propertySize, binaryInterval, binaryMinSize, binaryMaxSize, aclInterval,
+                    subpackageCount, subpackageDepth, filterLayout);
+        }
+    }
+}
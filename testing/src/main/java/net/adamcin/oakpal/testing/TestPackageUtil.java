@@ -101,6 +101,19 @@ public final class TestPackageUtil {
         return file;
     }
 
+    /**
+     * Write a {@link SyntheticPackage} to the test packages directory, replacing any existing file.
+     *
+     * @param filename         the package filename
+     * @param syntheticPackage the generated package specification
+     * @return the package file
+     * @throws IOException for errors writing the file
+     */
+    public static File prepareSyntheticPackage(final @NotNull String filename,
+                                               final @NotNull SyntheticPackage syntheticPackage) throws IOException {
+        return syntheticPackage.writeTo(new File(testPackagesRoot.toFile(), filename));
+    }
+
     static final IOFileFilter includedEntry = new IOFileFilter() {
         @Override
         public boolean accept(File file) {
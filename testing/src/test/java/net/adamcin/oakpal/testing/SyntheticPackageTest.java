@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019 Mark Adamcin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.adamcin.oakpal.testing;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticPackageTest {
+
+    static byte[] toBytes(final @NotNull SyntheticPackage syntheticPackage) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        syntheticPackage.writeTo(output);
+        return output.toByteArray();
+    }
+
+    static Map<String, byte[]> readEntries(final byte[] zipBytes) throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), IOUtils.toByteArray(zip));
+            }
+        }
+        return entries;
+    }
+
+    static String text(final byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int countOccurrences(final @NotNull String text, final @NotNull String token) {
+        int count = 0;
+        for (int i = text.indexOf(token); i >= 0; i = text.indexOf(token, i + token.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testWriteTo_deterministic() throws Exception {
+        final SyntheticPackage.Builder builder = new SyntheticPackage.Builder()
+                .withSeed(42L).withNodeCount(250).withBinaries(50, 10, 100).withAcls(20);
+        assertArrayEquals("expect same bytes for same seed",
+                toBytes(builder.build()), toBytes(builder.build()));
+        assertFalse("expect different bytes for different seed",
+                new String(toBytes(builder.build()), StandardCharsets.ISO_8859_1)
+                        .equals(new String(toBytes(builder.withSeed(43L).build()), StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    public void testWriteTo_treeShape() throws Exception {
+        final SyntheticPackage syntheticPackage = new SyntheticPackage.Builder()
+                .withName("shape").withNodeCount(250).withTreeShape(3, 10).withProperties(3, 8).build();
+        assertEquals("expect branch capacity", 111, syntheticPackage.getBranchCapacity());
+        assertEquals("expect branch count", 3, syntheticPackage.getBranchCount());
+        final Map<String, byte[]> entries = readEntries(toBytes(syntheticPackage));
+        assertTrue("expect folders", entries.keySet().containsAll(Arrays.asList(
+                "jcr_root/content/.content.xml",
+                "jcr_root/content/oakpal-synthetic/.content.xml",
+                "jcr_root/content/oakpal-synthetic/shape/.content.xml")));
+        int nodes = 0;
+        for (int branch = 0; branch < 3; branch++) {
+            final String xml = text(entries.get("jcr_root/content/oakpal-synthetic/shape/b" + branch + "/.content.xml"));
+            nodes += countOccurrences(xml, "jcr:primaryType=\"nt:unstructured\"");
+            assertEquals("expect 3 properties per node", countOccurrences(xml, "jcr:primaryType") * 3,
+                    countOccurrences(xml, " p0=") + countOccurrences(xml, " p1=") + countOccurrences(xml, " p2="));
+        }
+        assertEquals("expect node count", 250, nodes);
+
+        final Properties properties = new Properties();
+        properties.loadFromXML(new ByteArrayInputStream(entries.get("META-INF/vault/properties.xml")));
+        assertEquals("expect group", "oakpal-synthetic", properties.getProperty("group"));
+        assertEquals("expect name", "shape", properties.getProperty("name"));
+        assertFalse("expect no acHandling", properties.containsKey("acHandling"));
+    }
+
+    @Test
+    public void testWriteTo_binariesAndAcls() throws Exception {
+        final SyntheticPackage syntheticPackage = new SyntheticPackage.Builder()
+                .withContentRoot("/content/acls/").withNodeCount(100).withTreeShape(2, 99)
+                .withBinaries(25, 64, 64).withAcls(10).build();
+        assertEquals("expect trimmed content root", "/content/acls", syntheticPackage.getContentRoot());
+        final Map<String, byte[]> entries = readEntries(toBytes(syntheticPackage));
+        for (int i = 0; i < 100; i += 25) {
+            assertEquals("expect binary size", 64, entries.get("jcr_root/content/acls/b0/file" + i + ".bin").length);
+        }
+        assertFalse("expect no more binaries", entries.containsKey("jcr_root/content/acls/b0/file100.bin"));
+        final String xml = text(entries.get("jcr_root/content/acls/b0/.content.xml"));
+        assertEquals("expect acls", 10, countOccurrences(xml, "<rep:policy"));
+        assertEquals("expect mixins", 10, countOccurrences(xml, "[rep:AccessControllable]"));
+        final Properties properties = new Properties();
+        properties.loadFromXML(new ByteArrayInputStream(entries.get("META-INF/vault/properties.xml")));
+        assertEquals("expect acHandling", "overwrite", properties.getProperty("acHandling"));
+    }
+
+    @Test
+    public void testWriteTo_filterLayouts() throws Exception {
+        final SyntheticPackage.Builder builder = new SyntheticPackage.Builder()
+                .withContentRoot("/content/filters").withNodeCount(20).withTreeShape(1, 1);
+        final String singleRoot = text(readEntries(toBytes(builder.build())).get("META-INF/vault/filter.xml"));
+        assertEquals("expect one filter", 1, countOccurrences(singleRoot, "<filter root=\"/content/filters\"/>"));
+
+        final String perBranch = text(readEntries(toBytes(builder
+                .withFilterLayout(SyntheticPackage.FilterLayout.PER_BRANCH).build())).get("META-INF/vault/filter.xml"));
+        assertEquals("expect filter per branch", 20, countOccurrences(perBranch, "<filter root="));
+        assertTrue("expect last branch", perBranch.contains("<filter root=\"/content/filters/b19\"/>"));
+
+        final String patterns = text(readEntries(toBytes(builder
+                .withFilterLayout(SyntheticPackage.FilterLayout.PATTERNS).build())).get("META-INF/vault/filter.xml"));
+        assertEquals("expect one filter", 1, countOccurrences(patterns, "<filter root="));
+        assertEquals("expect include per branch and root", 21, countOccurrences(patterns, "<include "));
+        assertTrue("expect branch pattern", patterns.contains("<include pattern=\"/content/filters/b7(/.*)?\"/>"));
+    }
+
+    @Test
+    public void testWriteTo_subpackages() throws Exception {
+        final SyntheticPackage syntheticPackage = new SyntheticPackage.Builder()
+                .withName("outer").withNodeCount(100).withSubpackages(3, 2).build();
+        assertEquals("expect total subpackages", 12, syntheticPackage.getTotalSubpackageCount());
+        final Map<String, byte[]> entries = readEntries(toBytes(syntheticPackage));
+        final String filter = text(entries.get("META-INF/vault/filter.xml"));
+        assertTrue("expect subpackage filter",
+                filter.contains("<filter root=\"/etc/packages/oakpal-synthetic/outer-2-1.0.zip\"/>"));
+        assertFalse("expect no outer content", entries.keySet().stream()
+                .anyMatch(name -> name.startsWith("jcr_root/content")));
+
+        int leafNodes = 0;
+        for (int i = 0; i < 3; i++) {
+            final Map<String, byte[]> childEntries = readEntries(
+                    entries.get("jcr_root/etc/packages/oakpal-synthetic/outer-" + i + "-1.0.zip"));
+            for (int j = 0; j < 3; j++) {
+                final String leafName = "outer-" + i + "-" + j;
+                final Map<String, byte[]> leafEntries = readEntries(
+                        childEntries.get("jcr_root/etc/packages/oakpal-synthetic/" + leafName + "-1.0.zip"));
+                for (Map.Entry<String, byte[]> leafEntry : leafEntries.entrySet()) {
+                    if (leafEntry.getKey().matches("jcr_root/content/oakpal-synthetic/" + leafName + "/b\\d+/.content.xml")) {
+                        leafNodes += countOccurrences(text(leafEntry.getValue()), "jcr:primaryType=\"nt:unstructured\"");
+                    }
+                }
+            }
+        }
+        assertEquals("expect nodes divided among leaves", 100, leafNodes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuild_zeroFanOut() {
+        new SyntheticPackage.Builder().withTreeShape(2, 0).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuild_negativeCount() {
+        new SyntheticPackage.Builder().withNodeCount(-1).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuild_relativeContentRoot() {
+        new SyntheticPackage.Builder().withContentRoot("content/foo").build();
+    }
+
+    @Test
+    public void testPrepareSyntheticPackage() throws Exception {
+        final File file = TestPackageUtil.prepareSyntheticPackage("synthetic-1.0.zip",
+                new SyntheticPackage.Builder().withNodeCount(10).build());
+        assertTrue("expect file", file.isFile());
+        assertTrue("expect filter entry",
+                TestPackageUtilTest.getJarEntrySet(file).contains("META-INF/vault/filter.xml"));
+    }
+}